@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import android.app.Instrumentation;
+import android.os.StrictMode;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import com.esri.android.mapbook.MapBookApplication;
+import com.esri.android.mapbook.mapbook.MapbookActivity;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Runnables;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies that starting the mapbook screen never reads or writes the disk, or
+ * loads the KeyStore, on the main thread. The real {@link MapbookActivity} is
+ * launched with the main thread running under a StrictMode policy that kills the
+ * process on any disk access, and the test waits until the credential and storage
+ * work the presenter requested has been delivered back to the main thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CredentialServiceStrictModeTest {
+
+  private static final long TIMEOUT_SECONDS = 30;
+  // Background results can ask for more background work, e.g. the cached update status
+  private static final int ROUNDS = 4;
+
+  private final StrictMode.ThreadPolicy[] mOriginalPolicy = new StrictMode.ThreadPolicy[1];
+
+  @Rule
+  public ActivityTestRule<MapbookActivity> mActivityRule = new ActivityTestRule<MapbookActivity>(
+      MapbookActivity.class, false, false) {
+    @Override protected void beforeActivityLaunched() {
+      InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+        @Override public void run() {
+          mOriginalPolicy[0] = StrictMode.getThreadPolicy();
+          StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+              .detectDiskReads()
+              .detectDiskWrites()
+              .penaltyLog()
+              .penaltyDeath()
+              .build());
+        }
+      });
+    }
+
+    @Override protected void afterActivityFinished() {
+      InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+        @Override public void run() {
+          StrictMode.setThreadPolicy(mOriginalPolicy[0]);
+        }
+      });
+    }
+  };
+
+  @Test
+  public void mapbookScreenStartsWithoutMainThreadDiskAccess() throws Exception {
+    final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+    final MapBookApplication application = (MapBookApplication) instrumentation.getTargetContext()
+        .getApplicationContext();
+    Assert.assertNotNull(mActivityRule.launchActivity(null));
+
+    // Either outcome of the credential and package checks is fine, there may be
+    // nothing on the test device; only disk access on the main thread fails the test
+    for (int i = 0; i < ROUNDS; i++){
+      drain(application.getStorageExecutor());
+      drain(application.getCredentialExecutor());
+      instrumentation.waitForIdleSync();
+    }
+  }
+
+  /**
+   * Wait for the work already queued on a background thread
+   */
+  private static void drain(final ListeningExecutorService executor) throws Exception {
+    executor.submit(Runnables.doNothing()).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+}
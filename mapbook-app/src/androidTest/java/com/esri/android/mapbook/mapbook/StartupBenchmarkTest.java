@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.mapbook;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.esri.android.mapbook.MapBookApplication;
+import com.esri.android.mapbook.util.Clock;
+import com.esri.android.mapbook.util.StartupTracer;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Startup benchmark enforcing the {@link StartupTracer} budgets. The mapbook screen
+ * is launched with a fresh tracer and every phase from the permission check to the
+ * first map thumbnail must complete within its budget. The Application phase is
+ * checked with the tracer created when the test process started the application,
+ * from the run it writes once the screen has been launched. Both tests need the
+ * mobile map package on the device and the storage permission granted, and are
+ * skipped otherwise.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmarkTest {
+
+  private static final String TAG = StartupBenchmarkTest.class.getSimpleName();
+  private static final long TIMEOUT_MILLIS = 30000;
+
+  @Rule
+  public ActivityTestRule<MapbookActivity> mActivityRule = new ActivityTestRule<>(MapbookActivity.class, false, false);
+
+  private File mTraceFile;
+
+  @Before
+  public void setUp() {
+    mTraceFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), StartupTracer.TRACE_FILE);
+    mTraceFile.delete();
+  }
+
+  @After
+  public void tearDown() {
+    mTraceFile.delete();
+  }
+
+  @Test
+  public void mapbookScreenStartsWithinBudget() throws Exception {
+    final MapBookApplication application = (MapBookApplication) InstrumentationRegistry.getTargetContext()
+        .getApplicationContext();
+    final StartupTracer original = application.getStartupTracer();
+    final StartupTracer tracer = new StartupTracer(Ticker.systemTicker(), Clock.SYSTEM);
+    application.setStartupTracer(tracer);
+    try {
+      final List<String> runs = launchAndReadRuns(tracer);
+      Log.i(TAG, runs.get(0));
+      Assert.assertTrue("Phases over budget " + tracer.getOverBudget(), tracer.getOverBudget().isEmpty());
+    } finally {
+      application.setStartupTracer(original);
+    }
+  }
+
+  @Test
+  public void applicationCreatedWithinBudget() throws Exception {
+    final MapBookApplication application = (MapBookApplication) InstrumentationRegistry.getTargetContext()
+        .getApplicationContext();
+    // Created with the application when this process started
+    final StartupTracer tracer = application.getStartupTracer();
+    Assume.assumeFalse("The process tracer was used by an earlier test", tracer.isFinished());
+
+    final List<String> runs = launchAndReadRuns(tracer);
+    Log.i(TAG, runs.get(0));
+    // The later phases include the time the runner took to launch the screen, only
+    // the Application phase measures the app
+    final Long applicationMillis = StartupTracer.parseRun(runs.get(0)).get(StartupTracer.Phase.APPLICATION_CREATED);
+    Assert.assertNotNull("The run has no Application phase", applicationMillis);
+    Assert.assertTrue("Application created in " + applicationMillis + " ms",
+        applicationMillis <= StartupTracer.Phase.APPLICATION_CREATED.getBudgetMillis());
+  }
+
+  /**
+   * Launch the mapbook screen and wait for the tracer to write its run
+   * @param tracer - StartupTracer the screen reports to
+   * @return List of the runs in the trace file, the one written by this launch
+   * @throws Exception if the trace file can't be read
+   */
+  private List<String> launchAndReadRuns(final StartupTracer tracer) throws Exception {
+    tracer.setTraceFile(mTraceFile, MoreExecutors.directExecutor());
+    mActivityRule.launchActivity(null);
+    final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (!tracer.isFinished() && System.currentTimeMillis() < deadline){
+      Thread.sleep(50);
+    }
+    Assume.assumeTrue("The mapbook wasn't shown, is the package on the device?",
+        tracer.getElapsedMillis(StartupTracer.Phase.FIRST_THUMBNAIL) != StartupTracer.UNKNOWN);
+
+    final List<String> runs = StartupTracer.readRuns(mTraceFile);
+    Assert.assertEquals(1, runs.size());
+    return runs;
+  }
+}
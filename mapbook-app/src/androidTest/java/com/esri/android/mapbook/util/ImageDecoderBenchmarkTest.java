@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Allocation benchmark for the {@link ImageDecoder}. A thumbnail is decoded
+ * repeatedly the way the mapbook list did before, with a new full size bitmap
+ * per decode, and through the decoder, which downsamples into pooled bitmaps.
+ * The runtime's allocation and GC counters are compared across both runs.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageDecoderBenchmarkTest {
+
+  private static final String TAG = ImageDecoderBenchmarkTest.class.getSimpleName();
+  private static final int ITERATIONS = 50;
+  private static final int SHOWN_WIDTH = 200;
+  private static final int SHOWN_HEIGHT = 133;
+
+  @Test
+  public void decoderAllocatesLessThanBitmapFactory() {
+    final byte[] jpeg = createJpeg(800, 532);
+
+    // Warm up both paths
+    BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length).recycle();
+    final ImageDecoder decoder = new ImageDecoder(4 * 1024 * 1024);
+    decoder.recycle(decoder.decode(jpeg, SHOWN_WIDTH, SHOWN_HEIGHT));
+
+    Runtime.getRuntime().gc();
+    long allocated = allocatedBytes();
+    long gcCount = gcCount();
+    for (int i = 0; i < ITERATIONS; i++){
+      final Bitmap bitmap = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+      Assert.assertNotNull(bitmap);
+    }
+    final long factoryAllocated = allocatedBytes() - allocated;
+    final long factoryGcCount = gcCount() - gcCount;
+
+    Runtime.getRuntime().gc();
+    allocated = allocatedBytes();
+    gcCount = gcCount();
+    for (int i = 0; i < ITERATIONS; i++){
+      final Bitmap bitmap = decoder.decode(jpeg, SHOWN_WIDTH, SHOWN_HEIGHT);
+      Assert.assertNotNull(bitmap);
+      Assert.assertTrue(bitmap.getWidth() >= SHOWN_WIDTH && bitmap.getHeight() >= SHOWN_HEIGHT);
+      // The previous thumbnail scrolled out of view
+      decoder.recycle(bitmap);
+    }
+    final long decoderAllocated = allocatedBytes() - allocated;
+    final long decoderGcCount = gcCount() - gcCount;
+
+    Log.i(TAG, "BitmapFactory " + factoryAllocated + " bytes allocated, " + factoryGcCount + " GCs; ImageDecoder "
+        + decoderAllocated + " bytes allocated, " + decoderGcCount + " GCs, " + decoder.getReuseCount() + " bitmaps reused");
+    Assert.assertEquals(ITERATIONS, decoder.getReuseCount());
+    Assert.assertTrue("ImageDecoder should allocate less than BitmapFactory", decoderAllocated < factoryAllocated);
+    Assert.assertTrue("ImageDecoder shouldn't cause more GCs than BitmapFactory", decoderGcCount <= factoryGcCount);
+  }
+
+  private static byte[] createJpeg(final int width, final int height){
+    final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    final Canvas canvas = new Canvas(bitmap);
+    final Paint paint = new Paint();
+    for (int x = 0; x < width; x = x + 20){
+      paint.setColor(Color.rgb(x % 256, (x * 3) % 256, 120));
+      canvas.drawRect(x, 0, x + 20, height, paint);
+    }
+    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+    bitmap.compress(Bitmap.CompressFormat.JPEG, 90, os);
+    bitmap.recycle();
+    return os.toByteArray();
+  }
+
+  private static long allocatedBytes(){
+    return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+  }
+
+  private static long gcCount(){
+    return Long.parseLong(Debug.getRuntimeStat("art.gc.gc-count"));
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Microbenchmark of {@link CredentialContainer} decryption against the two file
+ * format it replaces, using a software AES key in place of the AndroidKeyStore key.
+ */
+public class CredentialContainerBenchmark {
+
+  private static final int CREDENTIAL_SIZE = 3 * 1024;
+  private static final int BENCHMARK_CALLS = 2000;
+
+  private File mDirectory;
+  private SecretKey mKey;
+  private byte[] mPlaintext;
+
+  @Before
+  public void setUp() throws Exception {
+    mDirectory = File.createTempFile("credentials", "");
+    Assert.assertTrue(mDirectory.delete() && mDirectory.mkdirs());
+    final KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+    keyGenerator.init(256);
+    mKey = keyGenerator.generateKey();
+    mPlaintext = new byte[CREDENTIAL_SIZE];
+    new Random(11).nextBytes(mPlaintext);
+  }
+
+  @After
+  public void tearDown() {
+    final File[] files = mDirectory.listFiles();
+    if (files != null){
+      for (final File f : files){
+        f.delete();
+      }
+    }
+    mDirectory.delete();
+  }
+
+  /**
+   * Microbenchmark: per-call decryption latency of the two file, byte at a time
+   * implementation against the container.
+   */
+  @Test
+  public void benchmarkAgainstLegacyDecrypt() throws Exception {
+    final File legacyFile = new File(mDirectory, "legacy_cred_file");
+    final File ivFile = new File(mDirectory, "iv_file");
+    final File containerFile = new File(mDirectory, "cred_file");
+    legacyEncrypt(mPlaintext, legacyFile, ivFile);
+    CredentialContainer.encrypt(mKey, mPlaintext, containerFile);
+
+    // Warm up both paths so the JIT doesn't skew the first measurement
+    for (int i = 0; i < BENCHMARK_CALLS / 4; i++){
+      legacyDecrypt(legacyFile, ivFile);
+      CredentialContainer.decrypt(mKey, containerFile);
+    }
+
+    long start = System.nanoTime();
+    byte[] legacy = null;
+    for (int i = 0; i < BENCHMARK_CALLS; i++){
+      legacy = legacyDecrypt(legacyFile, ivFile);
+    }
+    final long legacyNanos = (System.nanoTime() - start) / BENCHMARK_CALLS;
+
+    start = System.nanoTime();
+    byte[] container = null;
+    for (int i = 0; i < BENCHMARK_CALLS; i++){
+      container = CredentialContainer.decrypt(mKey, containerFile);
+    }
+    final long containerNanos = (System.nanoTime() - start) / BENCHMARK_CALLS;
+
+    System.out.println(String.format("Legacy decrypt %.1f us per call; container %.1f us per call",
+        legacyNanos / 1000.0, containerNanos / 1000.0));
+    Assert.assertArrayEquals(mPlaintext, legacy);
+    Assert.assertArrayEquals(mPlaintext, container);
+  }
+
+  /**
+   * The original encryptData(): the IV and the ciphertext in separate files
+   */
+  private void legacyEncrypt(final byte[] input, final File file, final File ivFile) throws Exception {
+    final Cipher c = Cipher.getInstance(CredentialContainer.CIPHER_TYPE);
+    c.init(Cipher.ENCRYPT_MODE, mKey);
+    final GCMParameterSpec spec = c.getParameters().getParameterSpec(GCMParameterSpec.class);
+    final FileOutputStream fos = new FileOutputStream(ivFile);
+    fos.write(spec.getIV());
+    fos.close();
+    final CipherOutputStream cipherOutputStream = new CipherOutputStream(new FileOutputStream(file), c);
+    cipherOutputStream.write(input);
+    cipherOutputStream.close();
+  }
+
+  /**
+   * The original decryptData(): two opens and byte at a time reads
+   */
+  private byte[] legacyDecrypt(final File file, final File ivFile) throws Exception {
+    final Cipher c = Cipher.getInstance(CredentialContainer.CIPHER_TYPE);
+    final int fileSize = (int) file.length();
+    final FileInputStream fis = new FileInputStream(ivFile);
+    final byte[] iv = new byte[(int) ivFile.length()];
+    int index = 0;
+    int nextByte;
+    while ((nextByte = fis.read()) != -1){
+      iv[index] = (byte) nextByte;
+      index++;
+    }
+    fis.close();
+    c.init(Cipher.DECRYPT_MODE, mKey, new GCMParameterSpec(128, iv));
+    final CipherInputStream cipherInputStream = new CipherInputStream(new FileInputStream(file), c);
+    final byte[] fileContentBytes = new byte[fileSize];
+    index = 0;
+    while ((nextByte = cipherInputStream.read()) != -1){
+      fileContentBytes[index] = (byte) nextByte;
+      index++;
+    }
+    cipherInputStream.close();
+    return Arrays.copyOf(fileContentBytes, index);
+  }
+}
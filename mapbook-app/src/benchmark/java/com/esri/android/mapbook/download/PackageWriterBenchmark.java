@@ -0,0 +1,220 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.download;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Microbenchmarks of the {@link PackageWriter} write stage against the
+ * byte[1024] / FileOutputStream loop it replaces, and of hashing on the write path.
+ */
+public class PackageWriterBenchmark {
+
+  private static final int BENCHMARK_SIZE = 32 * 1024 * 1024;
+
+  private File mDirectory;
+  private volatile int mLastProgress;
+
+  @Before
+  public void setUp() throws Exception {
+    mDirectory = File.createTempFile("mapbook", "");
+    Assert.assertTrue(mDirectory.delete() && mDirectory.mkdirs());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    final File[] files = mDirectory.listFiles();
+    if (files != null){
+      for (final File f : files){
+        f.delete();
+      }
+    }
+    mDirectory.delete();
+  }
+
+  /**
+   * Microbenchmark: stream a package through the original download loop and through
+   * the PackageWriter, reporting MB/s and bytes allocated on the calling thread.
+   */
+  @Test
+  public void benchmarkAgainstLegacyLoop() throws Exception {
+    // Warm up both paths so the JIT doesn't skew the first measurement
+    legacyLoop(new SocketLikeStream(BENCHMARK_SIZE / 8), new File(mDirectory, "warmup-legacy.mmpk"));
+    packageWriter(new SocketLikeStream(BENCHMARK_SIZE / 8), new File(mDirectory, "warmup-writer.mmpk"));
+
+    long allocated = allocatedBytes();
+    long start = System.nanoTime();
+    legacyLoop(new SocketLikeStream(BENCHMARK_SIZE), new File(mDirectory, "legacy.mmpk"));
+    final long legacyNanos = System.nanoTime() - start;
+    final long legacyAllocated = allocatedBytes() - allocated;
+
+    allocated = allocatedBytes();
+    start = System.nanoTime();
+    packageWriter(new SocketLikeStream(BENCHMARK_SIZE), new File(mDirectory, "writer.mmpk"));
+    final long writerNanos = System.nanoTime() - start;
+    final long writerAllocated = allocatedBytes() - allocated;
+
+    System.out.println(String.format("Legacy loop %.1f MB/s, %d bytes allocated; PackageWriter %.1f MB/s, %d bytes allocated",
+        megabytesPerSecond(legacyNanos), legacyAllocated, megabytesPerSecond(writerNanos), writerAllocated));
+    Assert.assertEquals(BENCHMARK_SIZE, new File(mDirectory, "writer.mmpk").length());
+    if (legacyAllocated >= 0 && writerAllocated >= 0){
+      Assert.assertTrue("PackageWriter should allocate less than the legacy loop", writerAllocated < legacyAllocated);
+    }
+  }
+
+  /**
+   * Microbenchmark: cost of hashing blocks inline on the write path.
+   */
+  @Test
+  public void benchmarkInlineHashing() throws Exception {
+    packageWriter(new SocketLikeStream(BENCHMARK_SIZE / 8), new File(mDirectory, "warmup.mmpk"));
+    hashedWriter(new SocketLikeStream(BENCHMARK_SIZE / 8), new File(mDirectory, "warmup-hashed.mmpk"), BENCHMARK_SIZE / 8);
+
+    long start = System.nanoTime();
+    packageWriter(new SocketLikeStream(BENCHMARK_SIZE), new File(mDirectory, "plain.mmpk"));
+    final long plainNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    final File hashed = new File(mDirectory, "hashed.mmpk");
+    final PackageManifest manifest = hashedWriter(new SocketLikeStream(BENCHMARK_SIZE), hashed, BENCHMARK_SIZE);
+    final long hashedNanos = System.nanoTime() - start;
+
+    System.out.println(String.format("PackageWriter %.1f MB/s, with inline SHA-256 %.1f MB/s (%.0f%% overhead)",
+        megabytesPerSecond(plainNanos), megabytesPerSecond(hashedNanos), 100.0 * (hashedNanos - plainNanos) / plainNanos));
+    Assert.assertEquals(PackageManifest.build(hashed, PackageManifest.DEFAULT_CHUNK_SIZE), manifest);
+  }
+
+  private PackageManifest hashedWriter(final InputStream inputStream, final File data, final long size) throws IOException {
+    final BlockHasher hasher = new BlockHasher(size, PackageManifest.DEFAULT_CHUNK_SIZE);
+    final RandomAccessFile file = new RandomAccessFile(data, "rw");
+    try {
+      new PackageWriter().write(PackageWriter.channelFor(inputStream), file.getChannel(), 0, -1, null, hasher.open(0));
+    } finally {
+      file.close();
+      inputStream.close();
+    }
+    return hasher.toManifest();
+  }
+
+  /**
+   * The loop DownloadFragment used before the PackageWriter, progress reporting included
+   */
+  private void legacyLoop(final InputStream inputStream, final File data) throws IOException {
+    final OutputStream os = new FileOutputStream(data);
+    try {
+      final byte[] buffer = new byte[1024];
+      int bytesRead;
+      long total = 0;
+      while ((bytesRead = inputStream.read(buffer)) != -1) {
+        total = total + bytesRead;
+        final long progress = (total*100)/BENCHMARK_SIZE;
+        publishProgress((int)progress);
+        os.write(buffer, 0, bytesRead);
+      }
+      os.flush();
+    } finally {
+      os.close();
+      inputStream.close();
+    }
+  }
+
+  private void packageWriter(final InputStream inputStream, final File data) throws IOException {
+    final RandomAccessFile file = new RandomAccessFile(data, "rw");
+    try {
+      new PackageWriter().write(PackageWriter.channelFor(inputStream), file.getChannel(), 0, -1,
+          new PackageWriter.BlockListener() {
+            @Override public boolean onBlockWritten(final long position, final int count) {
+              publishProgress((int) ((position * 100) / BENCHMARK_SIZE));
+              return true;
+            }
+          });
+    } finally {
+      file.close();
+      inputStream.close();
+    }
+  }
+
+  // Same varargs shape as AsyncTask.publishProgress
+  private void publishProgress(final Integer... values){
+    mLastProgress = values[0];
+  }
+
+  private static double megabytesPerSecond(final long nanos){
+    return (BENCHMARK_SIZE / (1024.0 * 1024.0)) / (nanos / 1e9);
+  }
+
+  /**
+   * @return long, bytes allocated by the current thread or -1 if the JVM can't tell
+   */
+  private static long allocatedBytes(){
+    final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean){
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  /**
+   * Generates bytes without holding them in memory and, like a socket,
+   * returns at most 16 KB per read.
+   */
+  private static final class SocketLikeStream extends InputStream {
+    private final long mSize;
+    private long mPosition;
+
+    SocketLikeStream(final long size){
+      mSize = size;
+    }
+
+    @Override public int read() {
+      return mPosition < mSize ? (int) (mPosition++ & 0xff) : -1;
+    }
+
+    @Override public int read(final byte[] b, final int off, final int len) {
+      if (mPosition >= mSize){
+        return -1;
+      }
+      final int count = (int) Math.min(Math.min(len, 16 * 1024), mSize - mPosition);
+      for (int i = 0; i < count; i++){
+        b[off + i] = (byte) (mPosition + i);
+      }
+      mPosition = mPosition + count;
+      return count;
+    }
+  }
+}
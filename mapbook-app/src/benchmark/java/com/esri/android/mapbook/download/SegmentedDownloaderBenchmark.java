@@ -0,0 +1,97 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.download;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/**
+ * Benchmark of the {@link SegmentedDownloader} against the single stream
+ * {@link MapbookDownloader} on a link where each connection is capped.
+ */
+public class SegmentedDownloaderBenchmark {
+
+  private static final int SIZE = 2 * 1024 * 1024;
+  private static final int CHUNK_SIZE = 256 * 1024;
+
+  private LocalPackageServer mServer;
+  private byte[] mPayload;
+  private File mDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+    mPayload = new byte[SIZE];
+    new Random(3).nextBytes(mPayload);
+    mServer = new LocalPackageServer(mPayload);
+    mServer.setBytesPerSecondPerConnection(1024 * 1024);
+    mDirectory = File.createTempFile("mapbook", "");
+    Assert.assertTrue(mDirectory.delete() && mDirectory.mkdirs());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mServer.shutdown();
+    final File[] files = mDirectory.listFiles();
+    if (files != null){
+      for (final File f : files){
+        f.delete();
+      }
+    }
+    mDirectory.delete();
+  }
+
+  @Test
+  public void segmentedAgainstSingleStreamOnThrottledLink() throws Exception {
+    long start = System.nanoTime();
+    new MapbookDownloader(mServer.url("/data"), new File(mDirectory, "single.mmpk"), SIZE).download(null);
+    final long singleMillis = (System.nanoTime() - start) / 1000000L;
+
+    start = System.nanoTime();
+    final SegmentedDownloader segmented = new SegmentedDownloader(mServer.url("/data"),
+        new File(mDirectory, "segmented.mmpk"), SIZE);
+    segmented.setChunkSize(CHUNK_SIZE);
+    segmented.setMaxSegments(4);
+    final File result = segmented.download(null);
+    final long segmentedMillis = (System.nanoTime() - start) / 1000000L;
+
+    System.out.println("Single stream " + singleMillis + " ms, segmented " + segmentedMillis
+        + " ms with up to " + segmented.getPeakSegments() + " segments");
+    final RandomAccessFile raf = new RandomAccessFile(result, "r");
+    try {
+      final byte[] bytes = new byte[(int) raf.length()];
+      raf.readFully(bytes);
+      Assert.assertArrayEquals(mPayload, bytes);
+    } finally {
+      raf.close();
+    }
+  }
+}
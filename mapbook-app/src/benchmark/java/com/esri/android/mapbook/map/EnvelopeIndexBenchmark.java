@@ -0,0 +1,103 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Microbenchmark of the {@link EnvelopeIndex} with synthetic layers up to a
+ * million features.
+ */
+public class EnvelopeIndexBenchmark {
+
+  private static final double EXTENT = 100000;
+  private static final int[] BENCHMARK_SIZES = {1000, 10000, 100000, 1000000};
+  private static final int BENCHMARK_QUERIES = 100000;
+
+  /**
+   * Benchmark: build time, memory and query latency for synthetic point and
+   * polygon layers, with a tap tolerance of about 5dp at a city scale.
+   */
+  @Test
+  public void benchmarkSyntheticLayers() throws Exception {
+    final Random random = new Random(42);
+    for (final int size : BENCHMARK_SIZES){
+      for (final boolean polygons : new boolean[]{false, true}){
+        final double[] bounds = randomLayer(random, size, polygons ? 0.05 : 0);
+        build(bounds);
+        long start = System.nanoTime();
+        final EnvelopeIndex index = build(bounds);
+        final long buildNanos = System.nanoTime() - start;
+
+        final double tolerance = 20;
+        long found = 0;
+        start = System.nanoTime();
+        for (int q = 0; q < BENCHMARK_QUERIES; q++){
+          found = found + index.query(random.nextDouble() * EXTENT, random.nextDouble() * EXTENT, tolerance, 50).length;
+        }
+        final long queryNanos = System.nanoTime() - start;
+
+        System.out.println(String.format("%,d %s: built in %d ms, %,d KB, %.2f us per query, %.2f features per query",
+            size, polygons ? "polygons" : "points", buildNanos / 1000000, index.getMemoryBytes() / 1024,
+            queryNanos / 1000.0 / BENCHMARK_QUERIES, (double) found / BENCHMARK_QUERIES));
+        Assert.assertEquals(size, index.size());
+      }
+    }
+  }
+
+  /**
+   * @param random - Random
+   * @param size - int, the number of features
+   * @param largestSide - double, the largest side of a polygon envelope as a fraction of
+   *                    the extent, or 0 for points
+   * @return double[] of the feature envelopes, as minX, minY, maxX, maxY
+   */
+  private static double[] randomLayer(final Random random, final int size, final double largestSide){
+    final double[] bounds = new double[4 * size];
+    for (int i = 0; i < size; i++){
+      final double x = random.nextDouble() * EXTENT;
+      final double y = random.nextDouble() * EXTENT;
+      // Mostly small polygons, like parcels, with a few large ones
+      final double side = largestSide * EXTENT * Math.pow(random.nextDouble(), 8);
+      bounds[4 * i] = x;
+      bounds[4 * i + 1] = y;
+      bounds[4 * i + 2] = x + side;
+      bounds[4 * i + 3] = y + side * random.nextDouble();
+    }
+    return bounds;
+  }
+
+  private static EnvelopeIndex build(final double[] bounds){
+    final EnvelopeIndex.Builder builder = new EnvelopeIndex.Builder(bounds.length / 4);
+    for (int i = 0; i < bounds.length; i = i + 4){
+      builder.add(bounds[i], bounds[i + 1], bounds[i + 2], bounds[i + 3]);
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.map;
+
+import com.esri.android.mapbook.data.Entry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Microbenchmark of the {@link FormatPlan} entries against the per call
+ * formatting ContentExtractor used before.
+ */
+public class FormatPlanBenchmark {
+
+  private static final int BENCHMARK_FEATURES = 200000;
+
+  /**
+   * Microbenchmark: entries per second formatting parcels the way ContentExtractor
+   * did before, and through a plan compiled once for the layer.
+   */
+  @Test
+  public void benchmarkAgainstLegacyExtraction() throws Exception {
+    final List<Map<String, Object>> parcels = new ArrayList<>();
+    for (int i = 0; i < 1000; i++){
+      parcels.add(parcel(1 + i % 28));
+    }
+    // Warm up both paths so the JIT doesn't skew the first measurement
+    runLegacy(parcels, BENCHMARK_FEATURES / 10);
+    runPlan(parcels, BENCHMARK_FEATURES / 10);
+
+    long start = System.nanoTime();
+    final long legacyEntries = runLegacy(parcels, BENCHMARK_FEATURES);
+    final long legacyNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    final long planEntries = runPlan(parcels, BENCHMARK_FEATURES);
+    final long planNanos = System.nanoTime() - start;
+
+    System.out.println(String.format("Legacy extraction %.0f entries/s; FormatPlan %.0f entries/s",
+        legacyEntries / (legacyNanos / 1e9), planEntries / (planNanos / 1e9)));
+    Assert.assertEquals(legacyEntries, planEntries);
+  }
+
+  private static long runLegacy(final List<Map<String, Object>> parcels, final int features){
+    long entries = 0;
+    for (int i = 0; i < features; i++){
+      entries = entries + legacyEntries(parcels.get(i % parcels.size())).size();
+    }
+    return entries;
+  }
+
+  private static long runPlan(final List<Map<String, Object>> parcels, final int features){
+    final FormatPlan plan = FormatPlan.forAttributes(parcels.get(0).keySet());
+    long entries = 0;
+    for (int i = 0; i < features; i++){
+      entries = entries + plan.format(parcels.get(i % parcels.size())).size();
+    }
+    return entries;
+  }
+
+  /**
+   * The attribute extraction ContentExtractor used before the plans, without its logging
+   */
+  private static List<Entry> legacyEntries(final Map<String, Object> attrMap){
+    final SimpleDateFormat formatter = new SimpleDateFormat(FormatPlan.DATE_FORMAT);
+    final List<Entry> entries = new ArrayList<>(attrMap.size());
+    final Set<String> keys = attrMap.keySet();
+    for (final String key : keys){
+      final Object o = attrMap.get(key);
+      if (o != null){
+        final String camelCase = key.substring(0,1) + key.substring(1).toLowerCase();
+        if (o instanceof GregorianCalendar){
+          final GregorianCalendar date = (GregorianCalendar) o;
+          entries.add(new Entry(camelCase, formatter.format(date.getTime())));
+        }else{
+          entries.add(new Entry(camelCase, o.toString()));
+        }
+      }
+    }
+    return entries;
+  }
+
+  private static Map<String, Object> parcel(final int day){
+    final Map<String, Object> attributes = new LinkedHashMap<>();
+    attributes.put("PARCEL_ID", 1000 + day);
+    attributes.put("OWNER", "Owner " + day);
+    attributes.put("SALE_DATE", new GregorianCalendar(2016, 2, day));
+    attributes.put("ACRES", 0.25 * day);
+    attributes.put("ZONING", Arrays.asList("R1", "R2").get(day % 2));
+    return attributes;
+  }
+}
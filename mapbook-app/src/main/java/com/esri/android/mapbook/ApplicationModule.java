@@ -24,11 +24,28 @@
 package com.esri.android.mapbook;
 
 import android.content.Context;
+import android.content.res.Resources;
+import com.esri.android.mapbook.data.PackageCache;
+import com.esri.android.mapbook.data.ThumbnailCache;
 import com.esri.android.mapbook.download.CredentialCryptographer;
+import com.esri.android.mapbook.download.CredentialKeyProvider;
+import com.esri.android.mapbook.download.CredentialService;
+import com.esri.android.mapbook.download.PortalMetadataCache;
+import com.esri.android.mapbook.download.UpdateCheckPreferences;
+import com.esri.android.mapbook.download.UpdateCheckScheduler;
+import com.esri.android.mapbook.download.UpdateChecker;
+import com.esri.android.mapbook.util.Clock;
+import com.esri.android.mapbook.util.MainThreadExecutor;
 import com.esri.android.mapbook.util.MapbookApplicationScope;
+import com.esri.android.mapbook.util.StartupTracer;
+import com.esri.arcgisruntime.mapping.MobileMapPackage;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import dagger.Module;
 import dagger.Provides;
 
+import javax.inject.Named;
+import java.util.concurrent.TimeUnit;
+
 /**
  * This is a Dagger module. This module passes in the Context dependency to the
  * {@link com.esri.android.mapbook.mapbook.MapbookComponent},
@@ -53,8 +70,69 @@ public class ApplicationModule {
 
   @Provides
   @MapbookApplicationScope
-  public CredentialCryptographer providesCredentialManager(final Context context){
-    return new CredentialCryptographer( context);
+  public CredentialCryptographer providesCredentialManager(final Context context, final CredentialKeyProvider keyProvider){
+    return new CredentialCryptographer( context,
+        ((MapBookApplication) context.getApplicationContext()).getCredentialCache(), keyProvider);
+  }
+
+  @Provides
+  @MapbookApplicationScope
+  public CredentialService providesCredentialService(final Context context, final CredentialCryptographer cryptographer){
+    return new CredentialService(cryptographer,
+        ((MapBookApplication) context.getApplicationContext()).getCredentialExecutor(), new MainThreadExecutor());
+  }
+
+  @Provides
+  @MapbookApplicationScope
+  public CredentialKeyProvider providesCredentialKeyProvider(final Context context){
+    return ((MapBookApplication) context.getApplicationContext()).getCredentialKeyProvider();
+  }
+
+  @Provides
+  @MapbookApplicationScope
+  public UpdateChecker providesUpdateChecker(final Context context){
+    final Resources resources = context.getResources();
+    return new UpdateChecker(new UpdateCheckPreferences(context), Clock.SYSTEM,
+        TimeUnit.MINUTES.toMillis(resources.getInteger(R.integer.update_check_ttl_minutes)),
+        UpdateCheckScheduler.INITIAL_BACKOFF_MILLIS,
+        TimeUnit.MINUTES.toMillis(resources.getInteger(R.integer.update_check_max_backoff_minutes)));
+  }
+
+  @Provides
+  @MapbookApplicationScope
+  public PortalMetadataCache providesPortalMetadataCache(final Context context){
+    return ((MapBookApplication) context.getApplicationContext()).getPortalMetadataCache();
+  }
+
+  @Provides
+  @MapbookApplicationScope
+  public UpdateCheckScheduler providesUpdateCheckScheduler(final Context context){
+    return new UpdateCheckScheduler(context);
+  }
+
+  @Provides
+  @MapbookApplicationScope
+  public StartupTracer providesStartupTracer(final Context context){
+    return ((MapBookApplication) context.getApplicationContext()).getStartupTracer();
+  }
+
+  @Provides
+  @MapbookApplicationScope
+  @Named("storageExecutor")
+  public ListeningExecutorService providesStorageExecutor(final Context context){
+    return ((MapBookApplication) context.getApplicationContext()).getStorageExecutor();
+  }
+
+  @Provides
+  @MapbookApplicationScope
+  public PackageCache<MobileMapPackage> providesPackageCache(final Context context){
+    return ((MapBookApplication) context.getApplicationContext()).getPackageCache();
+  }
+
+  @Provides
+  @MapbookApplicationScope
+  public ThumbnailCache providesThumbnailCache(final Context context){
+    return ((MapBookApplication) context.getApplicationContext()).getThumbnailCache();
   }
 
 }
@@ -40,6 +40,12 @@ public class Constants {
   // Name of the file for storing bytes for GCM algorithm
   public static final String IV_FILE = "iv_file";
 
+  // Extension of the block hash manifest kept next to the installed mobile map package
+  public static final String MANIFEST_EXTENSION = ".manifest";
+
+  // Name of the portal item resource holding the block hash manifest of the latest package
+  public static final String MANIFEST_RESOURCE = "mmpk.manifest";
+
   // Message indicating a new mmpk is available
   public static final String UPDATE_AVAILABLE = "Download latest version";
 
@@ -25,6 +25,33 @@
 package com.esri.android.mapbook;
 
 import android.app.Application;
+import android.os.AsyncTask;
+import android.support.annotation.VisibleForTesting;
+import com.esri.android.mapbook.data.MobileMapPackageLoader;
+import com.esri.android.mapbook.data.PackageCache;
+import com.esri.android.mapbook.data.ThumbnailCache;
+import com.esri.android.mapbook.download.AndroidKeyStoreKeySource;
+import com.esri.android.mapbook.download.CredentialKeyProvider;
+import com.esri.android.mapbook.download.CredentialMemoryCache;
+import com.esri.android.mapbook.download.LoggingCryptoMetrics;
+import com.esri.android.mapbook.download.PortalMetadataCache;
+import com.esri.android.mapbook.download.PortalMetadataPreferences;
+import com.esri.android.mapbook.util.Clock;
+import com.esri.android.mapbook.util.ImageDecoder;
+import com.esri.android.mapbook.util.MainThreadExecutor;
+import com.esri.android.mapbook.util.StartupTracer;
+import com.esri.arcgisruntime.mapping.MobileMapPackage;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -43,12 +70,45 @@ public class MapBookApplication extends Application {
 
   private ApplicationComponent component; // application works as a container for component.  Component is used for entire app.
 
+  // Created first so the trace covers as much of the cold start as possible
+  private StartupTracer mStartupTracer = new StartupTracer(Ticker.systemTicker(), Clock.SYSTEM);
+
+  // Components are built per screen, so state shared by the whole process lives here
+  private final CredentialMemoryCache mCredentialCache = new CredentialMemoryCache(Clock.SYSTEM,
+      CredentialMemoryCache.DEFAULT_TTL_MILLIS);
+  // Holds the resolved key handle, so the KeyStore is only read once per process
+  private final CredentialKeyProvider mCredentialKeyProvider = new CredentialKeyProvider(
+      new AndroidKeyStoreKeySource(), new LoggingCryptoMetrics());
+  private final ListeningExecutorService mCredentialExecutor = MoreExecutors.listeningDecorator(
+      Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("credentials").setDaemon(true).build()));
+  // File checks and preference reads the screens need while starting, kept off the main thread
+  private final ListeningExecutorService mStorageExecutor = MoreExecutors.listeningDecorator(
+      Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("storage").setDaemon(true).build()));
+  private final PackageCache<MobileMapPackage> mPackageCache = new PackageCache<>(new MobileMapPackageLoader(), 1,
+      mStorageExecutor, new MainThreadExecutor());
+  // Attributes of identified features are extracted here rather than on the main thread
+  private final ExecutorService mIdentifyExecutor = Executors.newFixedThreadPool(2,
+      new ThreadFactoryBuilder().setNameFormat("identify-%d").setDaemon(true).build());
+  // Layers are indexed for identify one at a time, behind whatever the user is waiting for
+  private final ExecutorService mIndexExecutor = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setNameFormat("spatial-index").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build());
+  private ThumbnailCache mThumbnailCache;
+  private PortalMetadataCache mPortalMetadataCache = null;
+
   @Override
   public void onCreate(){
     super.onCreate();
     buildComponentAndInject();
-    component = DaggerApplicationComponent.builder().applicationModule(new ApplicationModule(getApplicationContext())).build();
-
+    final int maxMemory = (int) Runtime.getRuntime().maxMemory();
+    // Rows scrolled out of view cancel their decodes, a full queue fails the oldest request
+    final ThreadPoolExecutor decodeExecutor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(32),
+        new ThreadFactoryBuilder().setNameFormat("thumbnails-%d").setDaemon(true).build(),
+        ThumbnailCache.FAIL_OLDEST_LOAD);
+    mThumbnailCache = new ThumbnailCache(new File(getCacheDir(), "thumbnails"), maxMemory / 16,
+        new ImageDecoder(maxMemory / 32), decodeExecutor, new MainThreadExecutor());
+    mStartupTracer.setTraceFile(new File(getFilesDir(), StartupTracer.TRACE_FILE), AsyncTask.THREAD_POOL_EXECUTOR);
+    mStartupTracer.mark(StartupTracer.Phase.APPLICATION_CREATED);
   }
   private void buildComponentAndInject(){
     component = DaggerComponentInitializer.init(this);
@@ -59,6 +119,105 @@ public class MapBookApplication extends Application {
     return component;
   }
 
+  /**
+   * @return StartupTracer, recording the phases of this cold start
+   */
+  public StartupTracer getStartupTracer(){
+    return mStartupTracer;
+  }
+
+  /**
+   * Replace the tracer, so a test can trace a screen started after the process
+   * @param startupTracer - StartupTracer
+   */
+  @VisibleForTesting
+  public void setStartupTracer(final StartupTracer startupTracer){
+    mStartupTracer = startupTracer;
+  }
+
+  /**
+   * @return PackageCache, the mobile map packages loaded in this process
+   */
+  public PackageCache<MobileMapPackage> getPackageCache(){
+    return mPackageCache;
+  }
+
+  /**
+   * @return ThumbnailCache, the decoded mapbook and map thumbnails
+   */
+  public ThumbnailCache getThumbnailCache(){
+    return mThumbnailCache;
+  }
+
+  /**
+   * @return ListeningExecutorService, the background thread the mobile map package
+   * and the cached update status are checked on
+   */
+  public ListeningExecutorService getStorageExecutor(){
+    return mStorageExecutor;
+  }
+
+  /**
+   * @return ExecutorService, the worker threads of the identify pipeline
+   */
+  public ExecutorService getIdentifyExecutor(){
+    return mIdentifyExecutor;
+  }
+
+  /**
+   * @return ExecutorService, the background thread feature layers are indexed on
+   */
+  public ExecutorService getIndexExecutor(){
+    return mIndexExecutor;
+  }
+
+  /**
+   * @return PortalMetadataCache, the validators and counters of portal requests,
+   * shared by the screens and jobs of the process
+   */
+  public synchronized PortalMetadataCache getPortalMetadataCache(){
+    if (mPortalMetadataCache == null){
+      mPortalMetadataCache = new PortalMetadataCache(new PortalMetadataPreferences(this));
+    }
+    return mPortalMetadataCache;
+  }
+
+  public CredentialMemoryCache getCredentialCache(){
+    return mCredentialCache;
+  }
+
+  /**
+   * @return CredentialKeyProvider, the credential encryption key of the process
+   */
+  public CredentialKeyProvider getCredentialKeyProvider(){
+    return mCredentialKeyProvider;
+  }
+
+  /**
+   * @return ListeningExecutorService, the background thread credentials are decrypted on
+   */
+  public ListeningExecutorService getCredentialExecutor(){
+    return mCredentialExecutor;
+  }
+
+  /**
+   * Drop decrypted credentials that have expired once the UI is no longer visible,
+   * and decoded thumbnails and mobile map packages no screen is using once the
+   * process is in the background
+   * @param level - int
+   */
+  @Override
+  public void onTrimMemory(final int level){
+    super.onTrimMemory(level);
+    if (level >= TRIM_MEMORY_UI_HIDDEN){
+      mCredentialCache.purgeExpired();
+    }
+    if (level >= TRIM_MEMORY_BACKGROUND){
+      mThumbnailCache.trimMemory();
+      mPackageCache.trim();
+    }
+  }
+
   private final static class DaggerComponentInitializer {
     public static ApplicationComponent init (final MapBookApplication app){
       return DaggerApplicationComponent.builder()
@@ -43,33 +43,58 @@ import java.util.concurrent.ExecutionException;
 
 public class DataManager implements DataManagerContract {
 
+  private final PackageCache<MobileMapPackage> mPackageCache;
   private MobileMapPackage mMobileMapPackage = null;
+  private String mMobileMapPackagePath = null;
   private GeocodeParameters mGeocodeParameters = null;
 
   private LocatorTask mLocatorTask = null;
 
   final private static String TAG = DataManager.class.getSimpleName();
 
-  public DataManager(){
+  /**
+   * @param packageCache - PackageCache shared by the screens showing the mapbook
+   */
+  public DataManager(final PackageCache<MobileMapPackage> packageCache){
+    mPackageCache = packageCache;
     mGeocodeParameters = new GeocodeParameters();
     mGeocodeParameters.getResultAttributeNames().add("*");
     mGeocodeParameters.setMaxResults(1);
   }
 
 
+  /**
+   * Get the mobile map package from the cache, which only opens
+   * the file if no other screen has it loaded.
+   * @param mobileMapPackagePath - String for  absolute path to file
+   * @param callback - MapbookCallback that executes on mobile map package load (or error)
+   */
   @Override public void loadMobileMapPackage(@NonNull final String mobileMapPackagePath,
       final DataManagerCallbacks.MapbookCallback callback) {
-    mMobileMapPackage = new MobileMapPackage(mobileMapPackagePath);
-    mMobileMapPackage.addDoneLoadingListener(new Runnable() {
-      @Override public void run() {
-        if (mMobileMapPackage.getLoadStatus() == LoadStatus.LOADED){
-          callback.onMapbookLoaded(mMobileMapPackage);
-        }else{
-          callback.onMapbookNotLoaded(mMobileMapPackage.getLoadError());
-        }
+    mPackageCache.acquire(mobileMapPackagePath, new PackageCache.Callback<MobileMapPackage>() {
+      @Override public void onLoaded(final MobileMapPackage mobileMapPackage) {
+        release();
+        mMobileMapPackage = mobileMapPackage;
+        mMobileMapPackagePath = mobileMapPackagePath;
+        mLocatorTask = null;
+        callback.onMapbookLoaded(mobileMapPackage);
+      }
+
+      @Override public void onFailed(final Throwable error) {
+        callback.onMapbookNotLoaded(error);
       }
     });
-    mMobileMapPackage.loadAsync();
+  }
+
+  /**
+   * Hand the mobile map package back to the cache
+   */
+  @Override public void release() {
+    if (mMobileMapPackage != null){
+      mPackageCache.release(mMobileMapPackagePath, mMobileMapPackage);
+      mMobileMapPackage = null;
+      mMobileMapPackagePath = null;
+    }
   }
 
   /**
@@ -41,6 +41,11 @@ public interface DataManagerContract {
    */
   void loadMobileMapPackage(String mobileMapPackagePath, DataManagerCallbacks.MapbookCallback callback);
 
+  /**
+   * Release the loaded mobile map package once the screen using it is gone
+   */
+  void release();
+
   /**
    * Geocode given address and execute callback upon completion
    * @param address - String representing address
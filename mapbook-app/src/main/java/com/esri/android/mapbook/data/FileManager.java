@@ -27,6 +27,7 @@
 package com.esri.android.mapbook.data;
 
 import android.util.Log;
+import com.esri.android.mapbook.Constants;
 
 import java.io.File;
 
@@ -35,8 +36,17 @@ public class FileManager implements FileManagerContract {
   private static String fileName;
   private static String extension;
   private static File file;
+  private final PackageCache<?> mPackageCache;
 
-  public FileManager(final File directory,  final String fName, final String fileExtension){
+  /**
+   * @param directory - File, the directory holding the mobile map package
+   * @param fName - String, the package name
+   * @param fileExtension - String, the package extension
+   * @param packageCache - PackageCache holding loaded packages, invalidated when the package is deleted
+   */
+  public FileManager(final File directory,  final String fName, final String fileExtension,
+      final PackageCache<?> packageCache){
+    mPackageCache = packageCache;
     fileDir = directory;
     fileName = fName;
     extension = fileExtension;
@@ -52,6 +62,16 @@ public class FileManager implements FileManagerContract {
     return fileDir.getAbsolutePath() +  File.separator + fileName + extension;
   }
 
+  /**
+   * Generate the path for the block hash manifest of the mobile map package
+   * used for delta updates.
+   *
+   * @return String
+   */
+  @Override final public String createManifestFilePath(){
+    return createMobileMapPackageFilePath() + Constants.MANIFEST_EXTENSION;
+  }
+
   /**
    * Return the modified date of the file
    * @return long representing milliseconds
@@ -92,14 +112,20 @@ public class FileManager implements FileManagerContract {
   }
 
   /**
-   * Delete the mobile map package
+   * Delete the mobile map package along with its manifest. The loaded
+   * package is dropped from the cache so it can't be served again.
    * @return boolean - true if deleted, false if not deleted.
    */
   @Override public boolean deleteMmpk() {
+    mPackageCache.invalidate(createMobileMapPackageFilePath());
     boolean fileDeleted = false;
     if (file.exists()){
       fileDeleted = file.delete();
     }
+    final File manifest = new File(createManifestFilePath());
+    if (manifest.exists() && !manifest.delete()){
+      Log.w("FileManager", "Unable to delete " + manifest.getName());
+    }
     return fileDeleted;
   }
 }
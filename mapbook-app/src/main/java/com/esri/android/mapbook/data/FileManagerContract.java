@@ -38,6 +38,14 @@ public interface FileManagerContract {
    */
   String createMobileMapPackageFilePath();
 
+  /**
+   * Generate the path for the block hash manifest of the mobile map package
+   * used for delta updates.
+   *
+   * @return String
+   */
+  String createManifestFilePath();
+
   /**
    * Return the modified date of the file
    * @return long representing milliseconds
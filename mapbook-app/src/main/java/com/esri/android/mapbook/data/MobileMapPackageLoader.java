@@ -0,0 +1,55 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.data;
+
+import android.util.Log;
+import com.esri.arcgisruntime.loadable.LoadStatus;
+import com.esri.arcgisruntime.mapping.MobileMapPackage;
+
+/**
+ * Opens mobile map packages for the {@link PackageCache}
+ */
+public class MobileMapPackageLoader implements PackageCache.Loader<MobileMapPackage> {
+
+  private static final String TAG = MobileMapPackageLoader.class.getSimpleName();
+
+  @Override public void load(final String path, final PackageCache.Callback<MobileMapPackage> callback) {
+    Log.i(TAG, "Opening " + path);
+    final MobileMapPackage mmp = new MobileMapPackage(path);
+    mmp.addDoneLoadingListener(new Runnable() {
+      @Override public void run() {
+        Log.i(TAG, "MMPK load status " + mmp.getLoadStatus().name());
+        if (mmp.getLoadStatus() == LoadStatus.LOADED){
+          callback.onLoaded(mmp);
+        }else{
+          callback.onFailed(mmp.getLoadError());
+        }
+      }
+    });
+    mmp.loadAsync();
+  }
+}
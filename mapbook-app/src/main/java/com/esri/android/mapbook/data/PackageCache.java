@@ -0,0 +1,255 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.data;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * A process-wide, reference-counted cache of loaded packages, so screens showing
+ * the same mobile map package share one loaded instance instead of opening the
+ * file again. Entries are keyed by path and the file's modified time; a package
+ * replaced on disk is reloaded on the next request. Packages no longer referenced
+ * by any screen stay cached until more than the configured number are idle or
+ * the cache is trimmed. Invalidating a path only affects later requests, screens
+ * still holding the old package keep using it until they release it.
+ * <P>
+ * Concurrent requests for a package that is still loading wait for the same load.
+ * The file's modified time is read on the file executor, and requests are then
+ * served and called back on the callback executor, usually the main thread.
+ * Callbacks are never invoked while the cache is locked.
+ * @param <T> - the package type
+ */
+public class PackageCache<T> {
+
+  /**
+   * Loads a package, calling back once it's loaded or failed to load
+   * @param <T> - the package type
+   */
+  public interface Loader<T> {
+    void load(String path, Callback<T> callback);
+  }
+
+  /**
+   * Receives a package requested from the cache
+   * @param <T> - the package type
+   */
+  public interface Callback<T> {
+    void onLoaded(T pkg);
+    void onFailed(Throwable error);
+  }
+
+  private final Loader<T> mLoader;
+  private final int mMaxIdle;
+  private final Executor mFileExecutor;
+  private final Executor mCallbackExecutor;
+  // Access ordered, so the least recently used idle packages are dropped first
+  private final Map<String, Entry<T>> mEntries = new LinkedHashMap<>(4, 0.75f, true);
+  private int mLoadCount = 0;
+  private int mHitCount = 0;
+
+  /**
+   * @param loader - Loader opening packages that aren't cached
+   * @param maxIdle - int, the number of unreferenced packages kept loaded
+   * @param fileExecutor - Executor the package files are checked on, away from the main thread
+   * @param callbackExecutor - Executor requests are served and called back on
+   */
+  public PackageCache(final Loader<T> loader, final int maxIdle, final Executor fileExecutor,
+      final Executor callbackExecutor){
+    mLoader = loader;
+    mMaxIdle = maxIdle;
+    mFileExecutor = fileExecutor;
+    mCallbackExecutor = callbackExecutor;
+  }
+
+  /**
+   * Get the package at the given path, loading it if it isn't cached. Each
+   * package received must be handed back with {@link #release(String, Object)}.
+   * A cached package is delivered as soon as the file has been checked.
+   * @param path - String, absolute path to the package
+   * @param callback - Callback receiving the package
+   */
+  public void acquire(final String path, final Callback<T> callback){
+    mFileExecutor.execute(new Runnable() {
+      @Override public void run() {
+        final long modified = new File(path).lastModified();
+        mCallbackExecutor.execute(new Runnable() {
+          @Override public void run() {
+            acquire(path, modified, callback);
+          }
+        });
+      }
+    });
+  }
+
+  private void acquire(final String path, final long modified, final Callback<T> callback){
+    final Entry<T> entry;
+    final T cached;
+    final boolean load;
+    synchronized (this){
+      Entry<T> existing = mEntries.get(path);
+      if (existing != null && existing.mModified != modified){
+        // Replaced on disk since it was loaded
+        mEntries.remove(path);
+        existing = null;
+      }
+      load = existing == null;
+      if (load){
+        existing = new Entry<>(path, modified);
+        mEntries.put(path, existing);
+        mLoadCount++;
+      }else if (existing.mPackage != null){
+        mHitCount++;
+      }
+      entry = existing;
+      entry.mReferences++;
+      cached = entry.mPackage;
+      if (cached == null){
+        entry.mWaiting.add(callback);
+      }
+    }
+    if (cached != null){
+      callback.onLoaded(cached);
+    }else if (load){
+      mLoader.load(path, new Callback<T>() {
+        @Override public void onLoaded(final T pkg) {
+          complete(entry, pkg, null);
+        }
+
+        @Override public void onFailed(final Throwable error) {
+          complete(entry, null, error);
+        }
+      });
+    }
+  }
+
+  /**
+   * Hand back a package received from {@link #acquire(String, Callback)}
+   * @param path - String, the path it was requested with
+   * @param pkg - the package
+   */
+  public synchronized void release(final String path, final T pkg){
+    final Entry<T> entry = mEntries.get(path);
+    if (entry == null || entry.mPackage != pkg || entry.mReferences == 0){
+      // Invalidated or replaced while in use, nothing is cached for it any more
+      return;
+    }
+    entry.mReferences--;
+    trimIdle(mMaxIdle);
+  }
+
+  /**
+   * Drop the package at the given path, e.g. because the file was deleted
+   * @param path - String
+   */
+  public synchronized void invalidate(final String path){
+    mEntries.remove(path);
+  }
+
+  /**
+   * Drop every loaded package that isn't referenced
+   */
+  public synchronized void trim(){
+    trimIdle(0);
+  }
+
+  /**
+   * @return int, the number of packages opened by the loader
+   */
+  public synchronized int getLoadCount(){
+    return mLoadCount;
+  }
+
+  /**
+   * @return int, the number of requests served from memory
+   */
+  public synchronized int getHitCount(){
+    return mHitCount;
+  }
+
+  private void complete(final Entry<T> entry, final T pkg, final Throwable error){
+    final List<Callback<T>> waiting;
+    synchronized (this){
+      waiting = new ArrayList<>(entry.mWaiting);
+      entry.mWaiting.clear();
+      if (pkg != null){
+        entry.mPackage = pkg;
+      }else{
+        // Nobody holds a package that failed to load; the next request tries again
+        entry.mReferences = 0;
+        if (mEntries.get(entry.mPath) == entry){
+          mEntries.remove(entry.mPath);
+        }
+      }
+    }
+    for (final Callback<T> callback : waiting){
+      if (pkg != null){
+        callback.onLoaded(pkg);
+      }else{
+        callback.onFailed(error);
+      }
+    }
+  }
+
+  private void trimIdle(final int maxIdle){
+    int idle = 0;
+    for (final Entry<T> entry : mEntries.values()){
+      if (entry.isIdle()){
+        idle++;
+      }
+    }
+    final Iterator<Entry<T>> iterator = mEntries.values().iterator();
+    while (idle > maxIdle && iterator.hasNext()){
+      if (iterator.next().isIdle()){
+        iterator.remove();
+        idle--;
+      }
+    }
+  }
+
+  private static final class Entry<T> {
+    private final String mPath;
+    private final long mModified;
+    private final List<Callback<T>> mWaiting = new ArrayList<>();
+    private T mPackage = null;
+    private int mReferences = 0;
+
+    Entry(final String path, final long modified){
+      mPath = path;
+      mModified = modified;
+    }
+
+    boolean isIdle(){
+      return mReferences == 0 && mPackage != null;
+    }
+  }
+}
@@ -0,0 +1,363 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.data;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+import com.esri.android.mapbook.util.ImageDecoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * A two level cache of the mapbook and map thumbnails. Decoded bitmaps, downsampled
+ * to the size they're shown at, are kept in a size-bounded LRU in memory. The
+ * thumbnails fetched from the mobile map package are kept on disk, keyed by package
+ * version and map index, so they survive the process without being fetched again.
+ * Disk reads, fetches and decoding run on a background executor; results are
+ * delivered on the callback executor. A load dropped from a full executor queue
+ * is failed with a {@link RejectedExecutionException} so it can be asked for again.
+ * <P>
+ * Every bitmap handed out has been retained for the caller, who must
+ * {@link #release(Bitmap)} it once it's no longer shown. Bitmaps evicted from
+ * memory and no longer shown anywhere are recycled by the {@link ImageDecoder}
+ * for later decodes.
+ */
+public class ThumbnailCache {
+
+  private static final String TAG = ThumbnailCache.class.getSimpleName();
+
+  /**
+   * The index used for the thumbnail of the mapbook itself
+   */
+  public static final int MAPBOOK_INDEX = -1;
+
+  /**
+   * Makes room in the full queue of the thumbnail executor. Loads cancelled by their
+   * callers are purged first; if the queue is still full the oldest queued load is
+   * dropped and failed, instead of leaving its caller waiting for a callback.
+   */
+  public static final RejectedExecutionHandler FAIL_OLDEST_LOAD = new RejectedExecutionHandler() {
+    @Override public void rejectedExecution(final Runnable task, final ThreadPoolExecutor executor) {
+      if (executor.isShutdown()){
+        drop(task);
+        return;
+      }
+      executor.purge();
+      if (!executor.getQueue().offer(task)){
+        drop(executor.getQueue().poll());
+        executor.execute(task);
+      }
+    }
+
+    private void drop(final Runnable task){
+      if (task instanceof LoadTask){
+        ((LoadTask) task).drop();
+      }
+    }
+  };
+
+  /**
+   * Fetches a thumbnail that isn't cached. Called on a background thread.
+   */
+  public interface Source {
+    byte[] fetch() throws Exception;
+  }
+
+  /**
+   * Receives a thumbnail
+   */
+  public interface Callback {
+    void onThumbnail(Bitmap bitmap);
+    void onError(Exception e);
+  }
+
+  /**
+   * Identifies a thumbnail by the version of the package it's in and the map index
+   */
+  public static final class Key {
+    private final long mVersion;
+    private final int mIndex;
+
+    /**
+     * @param version - long, the package version, e.g. its modified time
+     * @param index - int, the map index or MAPBOOK_INDEX
+     */
+    public Key(final long version, final int index){
+      mVersion = version;
+      mIndex = index;
+    }
+
+    String forSize(final int width, final int height){
+      return mVersion + "/" + mIndex + "@" + width + "x" + height;
+    }
+  }
+
+  private final ThumbnailDiskStore mDiskStore;
+  private final LruCache<String, Bitmap> mMemoryCache;
+  private final ImageDecoder mDecoder;
+  // Times each bitmap is retained, and whether it has been evicted from memory. Bitmaps
+  // compare by identity; a view dropped without releasing its bitmap doesn't leak it.
+  private final Map<Bitmap, Integer> mReferences = new WeakHashMap<>();
+  private final Map<Bitmap, Boolean> mEvicted = new WeakHashMap<>();
+  private final ThreadPoolExecutor mExecutor;
+  private final Executor mCallbackExecutor;
+  private int mMemoryHits = 0;
+  private int mDiskHits = 0;
+  private int mMisses = 0;
+
+  /**
+   * @param directory - File holding the disk tier
+   * @param maxMemoryBytes - int, the size of the bitmaps kept in memory
+   * @param decoder - ImageDecoder reusing the memory of evicted bitmaps
+   * @param executor - ThreadPoolExecutor the thumbnails are read, fetched and decoded on,
+   * usually with a bounded queue and {@link #FAIL_OLDEST_LOAD}
+   * @param callbackExecutor - Executor the callbacks are run on
+   */
+  public ThumbnailCache(final File directory, final int maxMemoryBytes, final ImageDecoder decoder,
+      final ThreadPoolExecutor executor, final Executor callbackExecutor){
+    mDiskStore = new ThumbnailDiskStore(directory);
+    mDecoder = decoder;
+    mMemoryCache = new LruCache<String, Bitmap>(maxMemoryBytes) {
+      @Override protected int sizeOf(final String key, final Bitmap bitmap) {
+        return bitmap.getAllocationByteCount();
+      }
+
+      @Override protected void entryRemoved(final boolean evicted, final String key, final Bitmap oldValue,
+          final Bitmap newValue) {
+        onRemoved(oldValue);
+      }
+    };
+    mExecutor = executor;
+    mCallbackExecutor = callbackExecutor;
+  }
+
+  /**
+   * Get a thumbnail decoded at the given size if it's in memory
+   * @param key - Key
+   * @param width - int, the width it's shown at
+   * @param height - int, the height it's shown at
+   * @return Bitmap retained for the caller, or null
+   */
+  public synchronized Bitmap getFromMemory(final Key key, final int width, final int height){
+    final Bitmap bitmap = mMemoryCache.get(key.forSize(width, height));
+    if (bitmap != null){
+      mMemoryHits++;
+      retain(bitmap);
+    }
+    return bitmap;
+  }
+
+  /**
+   * Retain a bitmap handed out by the cache, e.g. because another view shows it
+   * @param bitmap - Bitmap
+   */
+  public synchronized void retain(final Bitmap bitmap){
+    final Integer count = mReferences.get(bitmap);
+    mReferences.put(bitmap, count == null ? 1 : count + 1);
+  }
+
+  /**
+   * Release a bitmap that's no longer shown
+   * @param bitmap - Bitmap
+   */
+  public synchronized void release(final Bitmap bitmap){
+    final Integer count = mReferences.get(bitmap);
+    if (count == null){
+      return;
+    }
+    if (count > 1){
+      mReferences.put(bitmap, count - 1);
+      return;
+    }
+    mReferences.remove(bitmap);
+    if (mEvicted.remove(bitmap) != null){
+      mDecoder.recycle(bitmap);
+    }
+  }
+
+  /**
+   * Get a thumbnail decoded at the given size. A thumbnail in memory is delivered
+   * before this method returns; otherwise it's read from disk or, failing that,
+   * fetched from the source and stored on disk. The bitmap delivered is retained
+   * for the caller.
+   * @param key - Key
+   * @param width - int, the width it's shown at, 0 if unknown
+   * @param height - int, the height it's shown at, 0 if unknown
+   * @param source - Source of the thumbnail if it isn't on disk
+   * @param callback - Callback
+   * @return Future to {@link #cancel(Future)} the load with, or null if the thumbnail was in memory
+   */
+  public Future<?> load(final Key key, final int width, final int height, final Source source,
+      final Callback callback){
+    final Bitmap cached = getFromMemory(key, width, height);
+    if (cached != null){
+      callback.onThumbnail(cached);
+      return null;
+    }
+    final LoadTask task = new LoadTask(new Runnable() {
+      @Override public void run() {
+        try {
+          final Bitmap bitmap = loadInBackground(key, width, height, source);
+          if (Thread.currentThread().isInterrupted()){
+            release(bitmap);
+          }else{
+            deliver(callback, bitmap, null);
+          }
+        } catch (final Exception e){
+          if (!Thread.currentThread().isInterrupted()){
+            deliver(callback, null, e);
+          }
+        }
+      }
+    }, callback);
+    mExecutor.execute(task);
+    return task;
+  }
+
+  /**
+   * Cancel a load, freeing its place in the executor's queue
+   * @param task - Future returned by {@link #load(Key, int, int, Source, Callback)}
+   */
+  public void cancel(final Future<?> task){
+    task.cancel(true);
+    mExecutor.purge();
+  }
+
+  /**
+   * Drop the bitmaps held in memory and those kept for reuse
+   */
+  public synchronized void trimMemory(){
+    mMemoryCache.evictAll();
+    mDecoder.clear();
+  }
+
+  public synchronized int getMemoryHitCount(){
+    return mMemoryHits;
+  }
+
+  public synchronized int getDiskHitCount(){
+    return mDiskHits;
+  }
+
+  public synchronized int getMissCount(){
+    return mMisses;
+  }
+
+  private Bitmap loadInBackground(final Key key, final int width, final int height, final Source source)
+      throws Exception {
+    byte[] bytes = null;
+    try {
+      bytes = mDiskStore.get(key.mVersion, key.mIndex);
+    } catch (final IOException e){
+      Log.w(TAG, "Unable to read thumbnail " + e.getMessage());
+    }
+    if (bytes != null){
+      countDiskHit();
+    }else{
+      countMiss();
+      bytes = source.fetch();
+      if (bytes == null || bytes.length == 0){
+        throw new IOException("No thumbnail for map " + key.mIndex);
+      }
+      try {
+        mDiskStore.put(key.mVersion, key.mIndex, bytes);
+      } catch (final IOException e){
+        Log.w(TAG, "Unable to store thumbnail " + e.getMessage());
+      }
+    }
+    final Bitmap bitmap = mDecoder.decode(bytes, width, height);
+    if (bitmap == null){
+      throw new IOException("Unable to decode thumbnail for map " + key.mIndex);
+    }
+    synchronized (this){
+      retain(bitmap);
+      mMemoryCache.put(key.forSize(width, height), bitmap);
+    }
+    return bitmap;
+  }
+
+  /**
+   * A bitmap left the memory cache, reuse it unless it's still shown
+   * @param bitmap - Bitmap
+   */
+  private synchronized void onRemoved(final Bitmap bitmap){
+    if (mReferences.containsKey(bitmap)){
+      mEvicted.put(bitmap, Boolean.TRUE);
+    }else{
+      mDecoder.recycle(bitmap);
+    }
+  }
+
+  private void deliver(final Callback callback, final Bitmap bitmap, final Exception error){
+    mCallbackExecutor.execute(new Runnable() {
+      @Override public void run() {
+        if (bitmap != null){
+          callback.onThumbnail(bitmap);
+        }else{
+          callback.onError(error);
+        }
+      }
+    });
+  }
+
+  private synchronized void countDiskHit(){
+    mDiskHits++;
+  }
+
+  private synchronized void countMiss(){
+    mMisses++;
+    Log.i(TAG, "Thumbnail hits memory " + mMemoryHits + " disk " + mDiskHits + ", misses " + mMisses);
+  }
+
+  /**
+   * A queued load, which knows whom to tell if it's dropped from the queue
+   */
+  private final class LoadTask extends FutureTask<Void> {
+    private final Callback mCallback;
+
+    LoadTask(final Runnable load, final Callback callback){
+      super(load, null);
+      mCallback = callback;
+    }
+
+    void drop(){
+      if (cancel(false)){
+        deliver(mCallback, null, new RejectedExecutionException("Thumbnail load dropped from a full queue"));
+      }
+    }
+  }
+}
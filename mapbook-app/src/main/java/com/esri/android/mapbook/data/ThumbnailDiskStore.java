@@ -0,0 +1,126 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.data;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The disk tier of the {@link ThumbnailCache}. Thumbnails are stored as fetched from
+ * the mobile map package, one file per package version and map index. Once a newer
+ * version of the package is stored, the files of every other version are deleted.
+ */
+class ThumbnailDiskStore {
+
+  private static final String EXTENSION = ".thumb";
+
+  private final File mDirectory;
+  private long mRetainedVersion = Long.MIN_VALUE;
+
+  /**
+   * @param directory - File, the directory holding nothing but thumbnails
+   */
+  ThumbnailDiskStore(final File directory){
+    mDirectory = directory;
+  }
+
+  /**
+   * @param version - long, the package version
+   * @param index - int, the map index
+   * @return byte[] of the stored thumbnail or null if it isn't stored
+   * @throws IOException if the thumbnail can't be read
+   */
+  byte[] get(final long version, final int index) throws IOException {
+    final InputStream inputStream;
+    try {
+      inputStream = new FileInputStream(fileFor(version, index));
+    } catch (final FileNotFoundException e){
+      return null;
+    }
+    try {
+      return ByteStreams.toByteArray(inputStream);
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  /**
+   * Store a thumbnail, replacing the thumbnails of any other package version
+   * @param version - long, the package version
+   * @param index - int, the map index
+   * @param bytes - byte[] of the thumbnail
+   * @throws IOException if the thumbnail can't be written
+   */
+  synchronized void put(final long version, final int index, final byte[] bytes) throws IOException {
+    if (!mDirectory.isDirectory() && !mDirectory.mkdirs()){
+      throw new IOException("Unable to create " + mDirectory.getPath());
+    }
+    if (version != mRetainedVersion){
+      retainVersion(version);
+    }
+    final File file = fileFor(version, index);
+    final File temp = new File(file.getPath() + ".tmp");
+    final FileOutputStream outputStream = new FileOutputStream(temp);
+    try {
+      outputStream.write(bytes);
+    } finally {
+      outputStream.close();
+    }
+    if (!temp.renameTo(file)){
+      temp.delete();
+      throw new IOException("Unable to store " + file.getName());
+    }
+  }
+
+  /**
+   * Delete the thumbnails of every version but the given one
+   * @param version - long
+   */
+  synchronized void retainVersion(final long version){
+    mRetainedVersion = version;
+    final File[] files = mDirectory.listFiles();
+    if (files == null){
+      return;
+    }
+    final String prefix = version + "_";
+    for (final File file : files){
+      if (!file.getName().startsWith(prefix)){
+        file.delete();
+      }
+    }
+  }
+
+  private File fileFor(final long version, final int index){
+    return new File(mDirectory, version + "_" + index + EXTENSION);
+  }
+}
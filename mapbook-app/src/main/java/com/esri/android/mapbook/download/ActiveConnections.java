@@ -0,0 +1,80 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The HTTP connections a download engine has open. Cancelling the engine
+ * disconnects them, so a read blocked on a slow or stalled link fails at once
+ * instead of when the block is filled or the read times out. Connections
+ * opened after the cancel are disconnected as they're added.
+ */
+final class ActiveConnections {
+
+  private final Set<HttpURLConnection> mConnections = Collections.newSetFromMap(
+      new ConcurrentHashMap<HttpURLConnection, Boolean>());
+  private volatile boolean mCancelled = false;
+
+  /**
+   * Track an opened connection until it's removed
+   * @param connection - HttpURLConnection
+   * @return HttpURLConnection, the same connection
+   * @throws InterruptedIOException if the engine was already cancelled
+   */
+  HttpURLConnection add(final HttpURLConnection connection) throws InterruptedIOException {
+    mConnections.add(connection);
+    if (mCancelled){
+      mConnections.remove(connection);
+      connection.disconnect();
+      throw new InterruptedIOException("Download cancelled");
+    }
+    return connection;
+  }
+
+  /**
+   * Stop tracking a connection once the engine is done with it
+   * @param connection - HttpURLConnection
+   */
+  void remove(final HttpURLConnection connection){
+    mConnections.remove(connection);
+  }
+
+  /**
+   * Disconnect every open connection and any opened from now on
+   */
+  void cancel(){
+    mCancelled = true;
+    for (final HttpURLConnection connection : mConnections){
+      connection.disconnect();
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Log;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * Keeps the credential encryption key in the AndroidKeyStore. The key store
+ * is loaded once per instance.
+ */
+public class AndroidKeyStoreKeySource implements CredentialKeyProvider.KeySource {
+
+  private static final String TAG = AndroidKeyStoreKeySource.class.getSimpleName();
+  private static final String AndroidKeyStore = "AndroidKeyStore";
+  private static final String ALIAS = "CRED_KEY";
+
+  private KeyStore mKeyStore = null;
+
+  @Override public SecretKey load() throws GeneralSecurityException, IOException {
+    return (SecretKey) getKeyStore().getKey(ALIAS, null);
+  }
+
+  /**
+   * Create a new key in the Keystore
+   */
+  @Override public SecretKey create() throws GeneralSecurityException, IOException {
+    final KeyGenerator keyGenerator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, AndroidKeyStore);
+
+    // Build one key to be used for encrypting and decrypting the file
+    keyGenerator.init(
+        new KeyGenParameterSpec.Builder(ALIAS,
+            KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+            .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+            .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+            .build());
+    final SecretKey key = keyGenerator.generateKey();
+    Log.i(TAG, "Key created in Keystore");
+    return key;
+  }
+
+  @Override public void delete() throws GeneralSecurityException, IOException {
+    final KeyStore keyStore = getKeyStore();
+    if (keyStore.containsAlias(ALIAS)){
+      keyStore.deleteEntry(ALIAS);
+    }
+  }
+
+  private synchronized KeyStore getKeyStore() throws GeneralSecurityException, IOException {
+    if (mKeyStore == null){
+      final KeyStore keyStore = KeyStore.getInstance(AndroidKeyStore);
+      keyStore.load(null);
+      mKeyStore = keyStore;
+    }
+    return mKeyStore;
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hashes a package block by block while it's being written, producing the same
+ * {@link PackageManifest} a second pass over the finished file would. Bytes reach the
+ * hasher through a {@link Cursor}, one per sequential stream of writes, so parallel
+ * segments can hash their own blocks independently. Cursors must start on a block
+ * boundary.
+ * <P>
+ * Blocks written by an earlier, interrupted session are hashed from disk when the
+ * download resumes; an uninterrupted download never reads the file back.
+ */
+final class BlockHasher {
+
+  private final long mLength;
+  private final int mBlockSize;
+  private final String[] mHashes;
+
+  /**
+   * @param length - long, expected size of the package
+   * @param blockSize - int, size of the hashed blocks
+   */
+  BlockHasher(final long length, final int blockSize){
+    mLength = length;
+    mBlockSize = blockSize;
+    mHashes = new String[(int) ((length + blockSize - 1) / blockSize)];
+  }
+
+  int getBlockSize(){
+    return mBlockSize;
+  }
+
+  /**
+   * Start hashing a sequential stream of writes
+   * @param position - long, block aligned position of the first byte
+   * @return Cursor
+   */
+  Cursor open(final long position){
+    if (position % mBlockSize != 0){
+      throw new IllegalArgumentException("Cursor must start on a block boundary, not " + position);
+    }
+    return new Cursor(position);
+  }
+
+  /**
+   * Hash bytes already on disk from an earlier session and return a cursor positioned
+   * just after them, ready to hash the rest of the stream.
+   * @param channel - FileChannel to read from, its position is left untouched
+   * @param start - long, block aligned position of the first byte
+   * @param end - long, position just after the last byte on disk
+   * @return Cursor positioned at end
+   * @throws IOException if the file can't be read
+   */
+  Cursor resume(final FileChannel channel, final long start, final long end) throws IOException {
+    final Cursor cursor = open(start);
+    final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    long position = start;
+    while (position < end){
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), end - position));
+      final int bytesRead = channel.read(buffer, position);
+      if (bytesRead < 0){
+        throw new IOException("Partial file ends at " + position + ", expected " + end);
+      }
+      buffer.flip();
+      cursor.update(buffer);
+      position = position + bytesRead;
+    }
+    return cursor;
+  }
+
+  /**
+   * @return boolean, true once every block has been hashed
+   */
+  synchronized boolean isComplete(){
+    for (final String hash : mHashes){
+      if (hash == null){
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return PackageManifest describing the hashed package
+   * @throws IllegalStateException if some blocks haven't been hashed
+   */
+  synchronized PackageManifest toManifest(){
+    if (!isComplete()){
+      throw new IllegalStateException("Not every block has been hashed");
+    }
+    final List<String> hashes = new ArrayList<>(Arrays.asList(mHashes));
+    return new PackageManifest(mLength, mBlockSize, hashes);
+  }
+
+  private synchronized void setHash(final int block, final String hash){
+    mHashes[block] = hash;
+  }
+
+  /**
+   * Hashing state of one sequential stream of writes
+   */
+  final class Cursor {
+    private final MessageDigest mDigest = PackageManifest.newDigest();
+    private long mPosition;
+
+    private Cursor(final long position){
+      mPosition = position;
+    }
+
+    /**
+     * Hash the remaining bytes of the buffer, which must directly follow the
+     * bytes passed previously. The buffer's position is advanced to its limit.
+     * @param bytes - ByteBuffer
+     */
+    void update(final ByteBuffer bytes){
+      while (bytes.hasRemaining()){
+        final long blockEnd = Math.min(mLength, (mPosition / mBlockSize + 1) * mBlockSize);
+        final int count = (int) Math.min(bytes.remaining(), blockEnd - mPosition);
+        if (count <= 0){
+          throw new IllegalStateException("Write past the expected end of the package at " + mPosition);
+        }
+        final ByteBuffer slice = bytes.duplicate();
+        slice.limit(slice.position() + count);
+        mDigest.update(slice);
+        bytes.position(bytes.position() + count);
+        mPosition = mPosition + count;
+        if (mPosition == blockEnd){
+          setHash((int) ((mPosition - 1) / mBlockSize), PackageManifest.toHex(mDigest.digest()));
+        }
+      }
+    }
+
+    long getPosition(){
+      return mPosition;
+    }
+  }
+}
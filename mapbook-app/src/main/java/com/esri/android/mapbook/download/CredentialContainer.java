@@ -0,0 +1,172 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * A versioned file holding the IV and the AES/GCM ciphertext of encrypted data,
+ * so decrypting takes a single open and a single bulk read. The layout is
+ * <pre>
+ *   magic "MBCR" | version (1 byte) | IV length (1 byte) | IV | ciphertext and tag
+ * </pre>
+ * Credential files are a few kilobytes, so the file is read into one buffer and
+ * decrypted with one doFinal rather than memory mapped.
+ */
+final class CredentialContainer {
+
+  static final int VERSION = 1;
+  static final String CIPHER_TYPE = "AES/GCM/NoPadding";
+
+  private static final byte[] MAGIC = {'M', 'B', 'C', 'R'};
+  private static final int HEADER_LENGTH = MAGIC.length + 2;
+  private static final int TAG_LENGTH_BITS = 128;
+
+  private CredentialContainer(){}
+
+  /**
+   * Encrypt the plaintext and write it to the file, replacing it atomically
+   * @param key - Key used for encryption
+   * @param plaintext - byte[]
+   * @param file - File to write
+   * @throws GeneralSecurityException if the data can't be encrypted
+   * @throws IOException if the file can't be written
+   */
+  static void encrypt(final Key key, final byte[] plaintext, final File file) throws GeneralSecurityException, IOException {
+    final Cipher cipher = Cipher.getInstance(CIPHER_TYPE);
+    cipher.init(Cipher.ENCRYPT_MODE, key);
+    final byte[] iv = cipher.getIV();
+    final byte[] container = new byte[HEADER_LENGTH + iv.length + cipher.getOutputSize(plaintext.length)];
+    System.arraycopy(MAGIC, 0, container, 0, MAGIC.length);
+    container[MAGIC.length] = VERSION;
+    container[MAGIC.length + 1] = (byte) iv.length;
+    System.arraycopy(iv, 0, container, HEADER_LENGTH, iv.length);
+    final int length = HEADER_LENGTH + iv.length
+        + cipher.doFinal(plaintext, 0, plaintext.length, container, HEADER_LENGTH + iv.length);
+
+    final File temp = new File(file.getPath() + ".tmp");
+    final FileOutputStream fos = new FileOutputStream(temp);
+    try {
+      fos.write(container, 0, length);
+      fos.getFD().sync();
+    } finally {
+      fos.close();
+    }
+    if (!temp.renameTo(file)){
+      temp.delete();
+      throw new IOException("Unable to replace " + file.getName());
+    }
+  }
+
+  /**
+   * Read and decrypt the file
+   * @param key - Key used for encryption
+   * @param file - File written by {@link #encrypt(Key, byte[], File)}
+   * @return byte[], the plaintext, to be zeroed by the caller
+   * @throws GeneralSecurityException if the data can't be decrypted or was tampered with
+   * @throws IOException if the file can't be read or isn't a container
+   */
+  static byte[] decrypt(final Key key, final File file) throws GeneralSecurityException, IOException {
+    final byte[] container = readFully(file);
+    if (!isContainer(container)){
+      throw new IOException(file.getName() + " is not a credential container");
+    }
+    if (container[MAGIC.length] != VERSION){
+      throw new IOException("Unsupported credential container version " + container[MAGIC.length]);
+    }
+    final int ivLength = container[MAGIC.length + 1] & 0xFF;
+    if (HEADER_LENGTH + ivLength > container.length){
+      throw new IOException(file.getName() + " is truncated");
+    }
+    final Cipher cipher = Cipher.getInstance(CIPHER_TYPE);
+    cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, container, HEADER_LENGTH, ivLength));
+    final int offset = HEADER_LENGTH + ivLength;
+    return cipher.doFinal(container, offset, container.length - offset);
+  }
+
+  /**
+   * Tell a container from a file written before containers were introduced
+   * @param file - File
+   * @return boolean, true if the file starts with the container magic
+   * @throws IOException if the file can't be read
+   */
+  static boolean isContainer(final File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      if (raf.length() < HEADER_LENGTH){
+        return false;
+      }
+      final byte[] magic = new byte[MAGIC.length];
+      raf.readFully(magic);
+      return Arrays.equals(magic, MAGIC);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Read the whole file with one bulk read
+   * @param file - File
+   * @return byte[] with the contents of the file
+   * @throws IOException if the file can't be read
+   */
+  static byte[] readFully(final File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final long length = raf.length();
+      if (length > Integer.MAX_VALUE){
+        throw new IOException(file.getName() + " is too large");
+      }
+      final byte[] bytes = new byte[(int) length];
+      raf.readFully(bytes);
+      return bytes;
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static boolean isContainer(final byte[] container){
+    if (container.length < HEADER_LENGTH){
+      return false;
+    }
+    for (int i = 0; i < MAGIC.length; i++){
+      if (container[i] != MAGIC[i]){
+        return false;
+      }
+    }
+    return true;
+  }
+}
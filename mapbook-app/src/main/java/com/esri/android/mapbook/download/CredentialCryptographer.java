@@ -27,8 +27,6 @@
 package com.esri.android.mapbook.download;
 
 import android.content.Context;
-import android.security.keystore.KeyGenParameterSpec;
-import android.security.keystore.KeyProperties;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.util.Log;
@@ -38,40 +36,42 @@ import com.google.common.base.Charsets;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import javax.crypto.SecretKey;
-import javax.crypto.KeyGenerator;
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
+import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.inject.Inject;
-import java.io.IOException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.NoSuchProviderException;
-import java.security.NoSuchAlgorithmException;
-import java.security.cert.CertificateException;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
 
 /**
  * Class that handles AES encryption and decryption of a string and persisting
- * the encrypted string in a file within the application directory.
+ * the encrypted string in a file within the application directory. Decrypted
+ * credentials are kept in a {@link CredentialMemoryCache} shared by the process,
+ * so repeated reads don't touch the KeyStore until the cached copy expires.
+ * The key itself is resolved once by the {@link CredentialKeyProvider}.
  */
 
 public class CredentialCryptographer {
   private static final String TAG = CredentialCryptographer.class.getSimpleName();
-  private static final String CIPHER_TYPE = "AES/GCM/NoPadding";
-  private static final String AndroidKeyStore = "AndroidKeyStore";
-  private static final String ALIAS = "CRED_KEY";
-  private String mUserName = null;
+  private volatile String mUserName = null;
 
   @Inject Context mContext;
+  private final CredentialMemoryCache mCredentialCache;
+  private final CredentialKeyProvider mKeyProvider;
 
-  public CredentialCryptographer(final Context context){
+  /**
+   * @param context - Context
+   * @param credentialCache - CredentialMemoryCache shared by every instance in the process
+   * @param keyProvider - CredentialKeyProvider resolving the encryption key
+   */
+  public CredentialCryptographer(final Context context, final CredentialMemoryCache credentialCache,
+      final CredentialKeyProvider keyProvider){
     mContext   = context;
+    mCredentialCache = credentialCache;
+    mKeyProvider = keyProvider;
   }
 
   /**
@@ -82,52 +82,45 @@ public class CredentialCryptographer {
    * @throws Exception - related to encryption/decryption
    */
   public String encrypt(final byte[] bytes, final String filePath) throws Exception{
-    return encryptData(bytes, filePath);
+    final String encryptedDataFilePath = encryptData(bytes, filePath);
+    if (Constants.CRED_FILE.equals(filePath)){
+      mCredentialCache.put(bytes);
+    }
+    return encryptedDataFilePath;
   }
 
   /**
-   * Entry point for decrypting a file given
+   * Entry point for decrypting a file given. The credentials are
+   * served from memory while the cached copy is current.
    * @return String representing decrypted data
    */
   public String decrypt() throws Exception{
-    return decryptData(Constants.CRED_FILE);
+    final String cached = mCredentialCache.get();
+    if (cached != null){
+      return cached;
+    }
+    Log.i(TAG, "Decrypting credentials, cache hits " + mCredentialCache.getHitCount()
+        + " misses " + mCredentialCache.getMissCount());
+    final byte[] decrypted = decryptData(Constants.CRED_FILE);
+    try {
+      mCredentialCache.put(decrypted);
+      return new String(decrypted, Charsets.UTF_8);
+    } finally {
+      Arrays.fill(decrypted, (byte) 0);
+    }
   }
 
   /**
-   * Delete credential file
+   * Delete credential file, discarding the credentials cached in memory
    * @return boolean, true for successful delete, false for unsuccessful deletion
    */
   public boolean deleteCredentialFile(){
+    mCredentialCache.invalidate();
     final String filePath = getFilePath(Constants.CRED_FILE);
     final File f = new File(filePath);
     return f.delete();
   }
 
-  /**
-   * Create a new key in the Keystore
-   */
-  private void createNewKey(){
-    try {
-      final KeyStore keyStore = KeyStore.getInstance(AndroidKeyStore);
-      keyStore.load(null);
-
-      final KeyGenerator keyGenerator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, AndroidKeyStore);
-
-      // Build one key to be used for encrypting and decrypting the file
-      keyGenerator.init(
-          new KeyGenParameterSpec.Builder(ALIAS,
-              KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
-              .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
-              .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
-              .build());
-      keyGenerator.generateKey();
-      Log.i(TAG, "Key created in Keystore");
-
-    }catch (KeyStoreException | InvalidAlgorithmParameterException | NoSuchProviderException | NoSuchAlgorithmException | CertificateException | IOException  kS){
-      Log.e(TAG, kS.getMessage());
-    }
-  }
-
   /**
    * Return the absolute file path for a file in the app directory
    * @param fileName - String representing file name
@@ -149,6 +142,7 @@ public class CredentialCryptographer {
   }
   /**
    * Encrypt given bytes and persist contents to File with given filename.
+   * The IV is stored with the ciphertext in a {@link CredentialContainer}.
    * @param input - byte[] to encrypt
    * @param fileName - String name of the encrypted file
    * @return String representing encrypted file or null if encryption fails.
@@ -156,92 +150,59 @@ public class CredentialCryptographer {
    */
   private String encryptData(final byte [] input,  final String fileName) throws Exception{
 
-    String encryptedDataFilePath;
-
-    final KeyStore keyStore = KeyStore.getInstance(AndroidKeyStore);
-    keyStore.load(null);
+    final String encryptedDataFilePath = getFilePath(fileName);
+    mKeyProvider.run("encrypt", true, new CredentialKeyProvider.KeyOperation<Void>() {
+      @Override public Void run(final SecretKey key) throws GeneralSecurityException, IOException {
+        CredentialContainer.encrypt(key, input, new File(encryptedDataFilePath));
+        return null;
+      }
+    });
 
-    // Does the key need to be created?
-    if (!keyStore.containsAlias(ALIAS)){
-      createNewKey();
+    // An IV file left by an earlier version no longer belongs to any data
+    final File ivFile = new File(getFilePath(Constants.IV_FILE));
+    if (ivFile.exists() && !ivFile.delete()){
+      Log.w(TAG, "Unable to delete " + ivFile.getName());
     }
-    final SecretKey key = (SecretKey) keyStore.getKey(ALIAS, null);
-
-    final Cipher c = Cipher.getInstance(CIPHER_TYPE);
-    c.init(Cipher.ENCRYPT_MODE, key);
-
-    // Persist the GCMParamterSpec bytes to file for later use
-    GCMParameterSpec spec = c.getParameters().getParameterSpec(GCMParameterSpec.class);
-     final FileOutputStream fos = new FileOutputStream(getFilePath(Constants.IV_FILE));
-    fos.write(spec.getIV());
-    Log.i(TAG, "IV Length is " + spec.getIV().length+ " tag length is " + spec.getTLen());
-    fos.close();
-
-    encryptedDataFilePath = getFilePath(fileName);
-
-    final CipherOutputStream cipherOutputStream =
-        new CipherOutputStream(
-            new FileOutputStream(encryptedDataFilePath), c);
-    cipherOutputStream.write(input);
-    cipherOutputStream.close();
-
     return encryptedDataFilePath;
   }
 
   /**
    * Decrypt contents of File given path and
-   * return a string representation of the decrypted data
+   * return the decrypted data. Data written by an earlier version,
+   * with the IV in a separate file, is rewritten as a container.
+   * If the key was invalidated the file can never be decrypted again,
+   * so it's deleted and the user has to sign in again.
    * @param encryptedDataFileName String representing file name
-   * @return Decrypted string or null if decryption fails
+   * @return Decrypted bytes, to be zeroed by the caller
    * @throws Exception related to decryption
    */
-  private String decryptData (final String encryptedDataFileName) throws Exception{
-    String decryptedString;
-
-    final KeyStore keyStore = KeyStore.getInstance(AndroidKeyStore);
-    keyStore.load(null);
-    final SecretKey key = (SecretKey) keyStore.getKey(ALIAS, null);
-
-    final Cipher c = Cipher.getInstance(CIPHER_TYPE);
+  private byte[] decryptData (final String encryptedDataFileName) throws Exception{
 
     final File file = new File(getFilePath(encryptedDataFileName));
-    final int fileSize = (int)file.length();
-
-    // Need to provide the GCMSpec used by the
-    // encryption method when decrypting
-    final File ivFile = new File(getFilePath(Constants.IV_FILE));
-    final int ivFileSize =  (int) ivFile.length();
-    final FileInputStream fis = new FileInputStream(getFilePath(Constants.IV_FILE));
-    final byte [] iv = new byte[ivFileSize];
-
-    int index = 0;
-    int nextByte;
-    while ((nextByte = fis.read()) != -1){
-      iv[index] = (byte) nextByte;
-      index++;
+    final boolean container = CredentialContainer.isContainer(file);
+    final byte[] decrypted;
+    try {
+      decrypted = mKeyProvider.run("decrypt", false, new CredentialKeyProvider.KeyOperation<byte[]>() {
+        @Override public byte[] run(final SecretKey key) throws GeneralSecurityException, IOException {
+          if (container){
+            return CredentialContainer.decrypt(key, file);
+          }
+          final byte[] iv = CredentialContainer.readFully(new File(getFilePath(Constants.IV_FILE)));
+          final Cipher c = Cipher.getInstance(CredentialContainer.CIPHER_TYPE);
+          c.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, iv));
+          return c.doFinal(CredentialContainer.readFully(file));
+        }
+      });
+    } catch (final InvalidKeyException e){
+      Log.e(TAG, "Credential key is no longer valid, discarding stored credentials");
+      deleteCredentialFile();
+      throw e;
     }
-    fis.close();
-
-    GCMParameterSpec spec = new GCMParameterSpec(128, iv);
-    Log.i(TAG, "Decrypted spec iv length " +  spec.getIV().length + " tag length = "+ spec.getTLen());
-    c.init(Cipher.DECRYPT_MODE, key, spec);
-
-     final CipherInputStream cipherInputStream =
-        new CipherInputStream(new FileInputStream(getFilePath(encryptedDataFileName)),
-            c);
-    final byte[] fileContentBytes = new byte[fileSize];
-
-    index = 0;
-    while ((nextByte = cipherInputStream.read()) != -1) {
-      fileContentBytes[index] = (byte) nextByte;
-      index++;
+    if (!container){
+      Log.i(TAG, "Migrating " + encryptedDataFileName + " to a credential container");
+      encryptData(decrypted, encryptedDataFileName);
     }
-    cipherInputStream.close();
-
-    decryptedString = new String(fileContentBytes, 0, index, Charsets.UTF_8);
-    Log.v(TAG, "Decrypted string = " + decryptedString);
-
-    return decryptedString;
+    return decrypted;
   }
 
   /**
@@ -0,0 +1,164 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.UnrecoverableKeyException;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Resolves the credential encryption key once and hands the same handle to
+ * every crypto operation, instead of loading the KeyStore and looking up the
+ * key on each call. When the key has been invalidated, e.g. because the lock
+ * screen was removed, the handle is dropped and a new key generated.
+ * <P>
+ * The time taken by each operation, and whether it ran with an already
+ * resolved key, is reported to the {@link Metrics}.
+ */
+public class CredentialKeyProvider {
+
+  /**
+   * Where the key lives, e.g. the AndroidKeyStore
+   */
+  public interface KeySource {
+    /**
+     * @return SecretKey, or null if there's no key yet
+     * @throws GeneralSecurityException if the key can't be loaded
+     * @throws IOException if the key store can't be read
+     */
+    SecretKey load() throws GeneralSecurityException, IOException;
+    SecretKey create() throws GeneralSecurityException, IOException;
+    void delete() throws GeneralSecurityException, IOException;
+  }
+
+  /**
+   * An operation using the key
+   * @param <T> - the result of the operation
+   */
+  public interface KeyOperation<T> {
+    T run(SecretKey key) throws GeneralSecurityException, IOException;
+  }
+
+  /**
+   * Receives the timings of the crypto operations
+   */
+  public interface Metrics {
+    /**
+     * @param operation - String naming the operation
+     * @param warm - boolean, true if the key had already been resolved
+     * @param nanos - long, duration including resolving the key
+     */
+    void onOperation(String operation, boolean warm, long nanos);
+
+    /**
+     * The key was invalidated and has been replaced
+     */
+    void onKeyRegenerated();
+  }
+
+  public static final Metrics NO_METRICS = new Metrics() {
+    @Override public void onOperation(final String operation, final boolean warm, final long nanos) {
+    }
+
+    @Override public void onKeyRegenerated() {
+    }
+  };
+
+  private final KeySource mKeySource;
+  private final Metrics mMetrics;
+  private SecretKey mKey = null;
+
+  /**
+   * @param keySource - KeySource holding the key
+   * @param metrics - Metrics receiving the timings
+   */
+  public CredentialKeyProvider(final KeySource keySource, final Metrics metrics){
+    mKeySource = keySource;
+    mMetrics = metrics;
+  }
+
+  /**
+   * Run an operation with the key. If the key turns out to be invalid it's replaced;
+   * an encryption is then retried with the new key, while a decryption fails since
+   * its data was encrypted with the lost key.
+   * @param name - String naming the operation for the metrics
+   * @param encrypting - boolean, true to create the key if there's none and retry after replacing it
+   * @param operation - KeyOperation
+   * @param <T> - the result of the operation
+   * @return T, the result of the operation
+   * @throws GeneralSecurityException if the operation fails
+   * @throws IOException if the operation fails
+   */
+  public synchronized <T> T run(final String name, final boolean encrypting, final KeyOperation<T> operation)
+      throws GeneralSecurityException, IOException {
+    final long start = System.nanoTime();
+    final boolean warm = mKey != null;
+    try {
+      final SecretKey key = resolve(encrypting);
+      if (key == null){
+        throw new InvalidKeyException("No credential key");
+      }
+      try {
+        return operation.run(key);
+      } catch (final InvalidKeyException e){
+        regenerate();
+        if (!encrypting){
+          throw e;
+        }
+        return operation.run(mKey);
+      }
+    } finally {
+      mMetrics.onOperation(name, warm, System.nanoTime() - start);
+    }
+  }
+
+  private SecretKey resolve(final boolean create) throws GeneralSecurityException, IOException {
+    if (mKey == null){
+      try {
+        mKey = mKeySource.load();
+      } catch (final UnrecoverableKeyException e){
+        // The stored key can't be used anymore, treat it as missing
+        mKeySource.delete();
+        mKey = null;
+      }
+      if (mKey == null && create){
+        mKey = mKeySource.create();
+      }
+    }
+    return mKey;
+  }
+
+  private void regenerate() throws GeneralSecurityException, IOException {
+    mKey = null;
+    mKeySource.delete();
+    mKey = mKeySource.create();
+    mMetrics.onKeyRegenerated();
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import com.esri.android.mapbook.util.Clock;
+import com.google.common.base.Charsets;
+
+import java.util.Arrays;
+
+/**
+ * Holds the decrypted credentials in memory for a bounded time so repeated
+ * reads don't have to go through the KeyStore and the encrypted file. The
+ * plaintext is kept as bytes and overwritten with zeros when it expires or
+ * is invalidated; every hit hands out a new String decoded from them.
+ * <P>
+ * Expiry is checked on access and by {@link #purgeExpired()}, which the
+ * application calls when its UI is hidden.
+ */
+public final class CredentialMemoryCache {
+
+  public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000;
+
+  private final Clock mClock;
+  private final long mTtlMillis;
+
+  private byte[] mPlaintext = null;
+  private long mExpiresMillis = 0;
+  private long mHits = 0;
+  private long mMisses = 0;
+
+  /**
+   * @param clock - Clock
+   * @param ttlMillis - long, how long the credentials are kept after they're put
+   */
+  public CredentialMemoryCache(final Clock clock, final long ttlMillis){
+    mClock = clock;
+    mTtlMillis = ttlMillis;
+  }
+
+  /**
+   * Return the cached credentials
+   * @return String, or null if nothing is cached or the credentials expired
+   */
+  public synchronized String get(){
+    purgeExpired();
+    if (mPlaintext == null){
+      mMisses++;
+      return null;
+    }
+    mHits++;
+    return new String(mPlaintext, Charsets.UTF_8);
+  }
+
+  /**
+   * Cache a copy of the credentials, replacing and zeroing any cached ones
+   * @param plaintext - byte[], the decrypted credentials; the caller keeps ownership
+   */
+  public synchronized void put(final byte[] plaintext){
+    invalidate();
+    mPlaintext = Arrays.copyOf(plaintext, plaintext.length);
+    mExpiresMillis = mClock.currentTimeMillis() + mTtlMillis;
+  }
+
+  /**
+   * Zero and drop the cached credentials, e.g. when the credential file is deleted
+   */
+  public synchronized void invalidate(){
+    if (mPlaintext != null){
+      Arrays.fill(mPlaintext, (byte) 0);
+      mPlaintext = null;
+    }
+  }
+
+  /**
+   * Zero and drop the cached credentials if they've expired
+   */
+  public synchronized void purgeExpired(){
+    if (mPlaintext != null && mClock.currentTimeMillis() >= mExpiresMillis){
+      invalidate();
+    }
+  }
+
+  /**
+   * @return long, number of reads served from memory
+   */
+  public synchronized long getHitCount(){
+    return mHits;
+  }
+
+  /**
+   * @return long, number of reads that had to decrypt the credential file
+   */
+  public synchronized long getMissCount(){
+    return mMisses;
+  }
+}
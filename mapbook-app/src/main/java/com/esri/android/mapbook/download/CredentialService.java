@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the {@link CredentialCryptographer} on a background thread so the main
+ * thread never reads the credential file or touches the KeyStore. Every call
+ * returns a future; use {@link #addCallback(ListenableFuture, FutureCallback)}
+ * to receive the result on the main thread. All operations share one thread,
+ * so they run in the order they were requested.
+ */
+public class CredentialService {
+
+  private final CredentialCryptographer mCryptographer;
+  private final ListeningExecutorService mExecutor;
+  private final Executor mCallbackExecutor;
+
+  /**
+   * @param cryptographer - CredentialCryptographer
+   * @param executor - ListeningExecutorService with a single background thread
+   * @param callbackExecutor - Executor callbacks are delivered on, usually the main thread
+   */
+  public CredentialService(final CredentialCryptographer cryptographer, final ListeningExecutorService executor,
+      final Executor callbackExecutor){
+    mCryptographer = cryptographer;
+    mExecutor = executor;
+    mCallbackExecutor = callbackExecutor;
+  }
+
+  /**
+   * Decrypt the stored credentials
+   * @return ListenableFuture with the credential cache JSON, empty if none are stored
+   */
+  public ListenableFuture<String> decrypt(){
+    return mExecutor.submit(new Callable<String>() {
+      @Override public String call() throws Exception {
+        return mCryptographer.decrypt();
+      }
+    });
+  }
+
+  /**
+   * Encrypt and store data
+   * @param bytes - byte[] to encrypt
+   * @param fileName - String name of the encrypted file
+   * @return ListenableFuture with the path of the encrypted file
+   */
+  public ListenableFuture<String> encrypt(final byte[] bytes, final String fileName){
+    return mExecutor.submit(new Callable<String>() {
+      @Override public String call() throws Exception {
+        return mCryptographer.encrypt(bytes, fileName);
+      }
+    });
+  }
+
+  /**
+   * Get the name of the signed in user. A name that's already known is
+   * returned at once, otherwise it's read from the stored credentials.
+   * @return ListenableFuture with the user name, or null if nobody is signed in
+   */
+  public ListenableFuture<String> getUserName(){
+    final String userName = mCryptographer.getUserName();
+    if (userName != null){
+      return Futures.immediateFuture(userName);
+    }
+    return mExecutor.submit(new Callable<String>() {
+      @Override public String call() throws Exception {
+        mCryptographer.setUserNameFromCredentials(null);
+        return mCryptographer.getUserName();
+      }
+    });
+  }
+
+  /**
+   * Delete the stored credentials
+   * @return ListenableFuture, true if the credential file was deleted
+   */
+  public ListenableFuture<Boolean> deleteCredentialFile(){
+    return mExecutor.submit(new Callable<Boolean>() {
+      @Override public Boolean call() {
+        return mCryptographer.deleteCredentialFile();
+      }
+    });
+  }
+
+  /**
+   * Deliver the result of a future to the callback on the callback executor
+   * @param future - ListenableFuture returned by this service
+   * @param callback - FutureCallback
+   * @param <T> - the result of the future
+   */
+  public <T> void addCallback(final ListenableFuture<T> future, final FutureCallback<T> callback){
+    Futures.addCallback(future, callback, mCallbackExecutor);
+  }
+}
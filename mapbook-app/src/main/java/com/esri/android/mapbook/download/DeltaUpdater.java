@@ -0,0 +1,319 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Updates an installed mobile map package by fetching only the blocks that changed.
+ * The manifest published for the new version is compared with the manifest of the
+ * installed package. Blocks whose hash is already present anywhere in the installed
+ * package are copied locally, and runs of missing blocks are fetched with one
+ * HTTP Range request each. The new package is assembled in a temporary ".delta" file,
+ * verified against the new manifest and only then renamed over the installed package.
+ * <P>
+ * Blocks are fixed size, so data inserted near the start of a package shifts every
+ * later block and the update degrades to a full transfer. A failed update leaves the
+ * installed package untouched; callers fall back to a full, resumable download.
+ * This class has no Android
+ * dependencies and performs blocking I/O, so it must be run off the main thread.
+ */
+public class DeltaUpdater {
+
+  static final String DELTA_EXTENSION = ".delta";
+
+  private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+  private static final int READ_TIMEOUT_MILLIS = 30000;
+
+  private final File mInstalled;
+  private final File mManifestFile;
+  private final URL mDataUrl;
+  private final URL mManifestUrl;
+  private final File mDeltaFile;
+
+  private int mBufferSize = PackageWriter.DEFAULT_BUFFER_SIZE;
+  private long mBytesFetched = 0;
+  private long mBytesReused = 0;
+  private int mRangeRequests = 0;
+  private PackageManifest mPublishedManifest = null;
+  private volatile boolean mCancelled = false;
+  private final ActiveConnections mConnections = new ActiveConnections();
+
+  /**
+   * @param installed - File, the installed package
+   * @param manifestFile - File where the manifest of the installed package is kept
+   * @param dataUrl - URL of the new package data, the server must support byte range requests
+   * @param manifestUrl - URL of the manifest published for the new package
+   */
+  public DeltaUpdater(final File installed, final File manifestFile, final URL dataUrl, final URL manifestUrl){
+    mInstalled = installed;
+    mManifestFile = manifestFile;
+    mDataUrl = dataUrl;
+    mManifestUrl = manifestUrl;
+    mDeltaFile = new File(installed.getPath() + DELTA_EXTENSION);
+  }
+
+  /**
+   * Set the size of the direct buffer the {@link PackageWriter} writes through.
+   * @param bufferSize - int
+   */
+  public final void setBufferSize(final int bufferSize){
+    mBufferSize = bufferSize;
+  }
+
+  /**
+   * Stop the update, disconnecting the request in progress so a blocked read
+   * fails at once. The installed package is left untouched.
+   */
+  public final void cancel(){
+    mCancelled = true;
+    mConnections.cancel();
+  }
+
+  /**
+   * @return long, bytes of package data fetched from the server by the last update
+   */
+  public final long getBytesFetched(){
+    return mBytesFetched;
+  }
+
+  /**
+   * @return long, bytes copied from the installed package by the last update
+   */
+  public final long getBytesReused(){
+    return mBytesReused;
+  }
+
+  /**
+   * @return int, number of range requests issued by the last update
+   */
+  public final int getRangeRequests(){
+    return mRangeRequests;
+  }
+
+  /**
+   * @return PackageManifest fetched by the last update, or null if none was published
+   */
+  public final PackageManifest getPublishedManifest(){
+    return mPublishedManifest;
+  }
+
+  /**
+   * Bring the installed package up to date with the published manifest.
+   * @param listener - ProgressListener reporting bytes of the new package assembled so far, may be null
+   * @return File representing the updated package
+   * @throws ManifestUnavailableException if there's no manifest for the new version,
+   * callers should fall back to a full download
+   * @throws IOException if the update can't be completed or was cancelled
+   */
+  public final File update(final MapbookDownloader.ProgressListener listener) throws IOException {
+    mBytesFetched = 0;
+    mBytesReused = 0;
+    mRangeRequests = 0;
+    if (!mInstalled.exists()){
+      throw new FileNotFoundException("No installed package to update");
+    }
+    final PackageManifest remote = fetchManifest(mManifestUrl, mConnections);
+    mPublishedManifest = remote;
+    final PackageManifest local = loadInstalledManifest(remote.getChunkSize());
+
+    // Index the installed blocks by hash so moved blocks can be reused too
+    final Map<String, Integer> installedChunks = new HashMap<>();
+    for (int i = 0; i < local.getChunkCount(); i++){
+      installedChunks.put(local.getHash(i), i);
+    }
+
+    final PackageWriter writer = new PackageWriter(mBufferSize);
+    final RandomAccessFile target = new RandomAccessFile(mDeltaFile, "rw");
+    final FileInputStream installedStream = new FileInputStream(mInstalled);
+    boolean complete = false;
+    try {
+      target.setLength(remote.getLength());
+      final FileChannel targetChannel = target.getChannel();
+      final FileChannel installedChannel = installedStream.getChannel();
+      long assembled = 0;
+      int chunk = 0;
+      while (chunk < remote.getChunkCount()){
+        if (mCancelled){
+          throw new InterruptedIOException("Update cancelled");
+        }
+        final Integer source = installedChunks.get(remote.getHash(chunk));
+        if (source != null){
+          final long length = remote.getChunkLength(chunk);
+          installedChannel.position(local.getChunkStart(source));
+          writer.write(installedChannel, targetChannel, remote.getChunkStart(chunk), length, null);
+          mBytesReused = mBytesReused + length;
+          assembled = assembled + length;
+          chunk++;
+        }else{
+          // Coalesce the run of missing blocks into a single range request
+          int end = chunk + 1;
+          while (end < remote.getChunkCount() && !installedChunks.containsKey(remote.getHash(end))){
+            end++;
+          }
+          final long start = remote.getChunkStart(chunk);
+          final long last = remote.getChunkStart(end - 1) + remote.getChunkLength(end - 1) - 1;
+          fetchRange(start, last, targetChannel, writer);
+          assembled = assembled + (last - start + 1);
+          chunk = end;
+        }
+        if (listener != null){
+          listener.onProgress(assembled, remote.getLength());
+        }
+      }
+      targetChannel.force(false);
+      complete = true;
+    } finally {
+      installedStream.close();
+      target.close();
+      if (!complete){
+        mDeltaFile.delete();
+      }
+    }
+
+    if (!remote.equals(PackageManifest.build(mDeltaFile, remote.getChunkSize()))){
+      mDeltaFile.delete();
+      throw new IOException("Updated package doesn't match the published manifest");
+    }
+    if (!mDeltaFile.renameTo(mInstalled)){
+      mDeltaFile.delete();
+      throw new IOException("Unable to move " + mDeltaFile.getName() + " to " + mInstalled.getName());
+    }
+    remote.write(mManifestFile);
+    return mInstalled;
+  }
+
+  /**
+   * Use the saved manifest of the installed package when it still describes the file,
+   * otherwise hash the installed package and save the result for next time.
+   * @param chunkSize - int, block size used by the published manifest
+   * @return PackageManifest
+   * @throws IOException if the installed package can't be read
+   */
+  private PackageManifest loadInstalledManifest(final int chunkSize) throws IOException {
+    final PackageManifest saved = PackageManifest.readQuietly(mManifestFile);
+    if (saved != null && saved.getChunkSize() == chunkSize && saved.getLength() == mInstalled.length()
+        && mManifestFile.lastModified() >= mInstalled.lastModified()){
+      return saved;
+    }
+    final PackageManifest built = PackageManifest.build(mInstalled, chunkSize);
+    built.write(mManifestFile);
+    return built;
+  }
+
+  /**
+   * Fetch and parse a published manifest
+   * @param manifestUrl - URL
+   * @param connections - ActiveConnections disconnected when the caller is cancelled
+   * @return PackageManifest
+   * @throws ManifestUnavailableException if there is no valid manifest at the URL
+   * @throws IOException if the manifest can't be fetched
+   */
+  static PackageManifest fetchManifest(final URL manifestUrl, final ActiveConnections connections) throws IOException {
+    final HttpURLConnection connection = connections.add((HttpURLConnection) manifestUrl.openConnection());
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+    connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+    try {
+      final int responseCode = connection.getResponseCode();
+      if (responseCode != HttpURLConnection.HTTP_OK){
+        throw new ManifestUnavailableException("No manifest published for this package, response " + responseCode);
+      }
+      final InputStream inputStream = connection.getInputStream();
+      try {
+        return PackageManifest.read(inputStream);
+      } catch (final IOException e){
+        throw new ManifestUnavailableException("Published manifest is invalid. " + e.getMessage());
+      } finally {
+        inputStream.close();
+      }
+    } finally {
+      connections.remove(connection);
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Fetch the inclusive byte range and write it at the same position in the target
+   */
+  private void fetchRange(final long start, final long end, final FileChannel target, final PackageWriter writer)
+      throws IOException {
+    final HttpURLConnection connection = mConnections.add((HttpURLConnection) mDataUrl.openConnection());
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+    connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+    connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+    mRangeRequests++;
+    try {
+      final int responseCode = connection.getResponseCode();
+      if (responseCode != HttpURLConnection.HTTP_PARTIAL
+          || MapbookDownloader.parseContentRangeStart(connection.getHeaderField("Content-Range")) != start){
+        throw new SegmentedDownloader.UnsupportedRangeException("Server did not honor range request, response " + responseCode);
+      }
+      final InputStream inputStream = connection.getInputStream();
+      try {
+        final long written = writer.write(PackageWriter.channelFor(inputStream), target, start, end - start + 1,
+            new PackageWriter.BlockListener() {
+              @Override public boolean onBlockWritten(final long position, final int count) {
+                mBytesFetched = mBytesFetched + count;
+                return !mCancelled;
+              }
+            });
+        if (mCancelled){
+          throw new InterruptedIOException("Update cancelled");
+        }
+        if (written != end + 1){
+          throw new IOException("Connection closed at " + written + ", expected range to end at " + end);
+        }
+      } finally {
+        inputStream.close();
+      }
+    } finally {
+      mConnections.remove(connection);
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Thrown when no usable manifest is published for the new version.
+   * Callers can fall back to downloading the whole package.
+   */
+  public static class ManifestUnavailableException extends IOException {
+    ManifestUnavailableException(final String message){
+      super(message);
+    }
+  }
+}
@@ -71,6 +71,8 @@ public class DownloadActivity extends AppCompatActivity {
       final String fileName =  getIntent().getStringExtra(MapbookFragment.FILE_PATH);
       final Bundle args = fragment.getArguments();
       args.putString(MapbookFragment.FILE_PATH, fileName);
+      final String manifestPath = getIntent().getStringExtra(MapbookFragment.MANIFEST_PATH);
+      args.putString(MapbookFragment.MANIFEST_PATH, manifestPath);
       ActivityUtils.addFragmentToActivity(getSupportFragmentManager(), fragment, "downloadFragment");
     }
     Log.i(TAG, "Initializing Dagger component...");
@@ -0,0 +1,222 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Properties;
+
+/**
+ * Persists how far a download has progressed so that an interrupted transfer
+ * can be resumed from the same byte offset, even after the process is killed.
+ * The checkpoint is stored as a small properties file next to the partial download.
+ */
+class DownloadCheckpoint {
+
+  private static final String KEY_SOURCE = "source";
+  private static final String KEY_LENGTH = "length";
+  private static final String KEY_OFFSET = "offset";
+  private static final String KEY_CHUNK_SIZE = "chunkSize";
+  private static final String KEY_COMPLETED = "completed";
+
+  private final File mFile;
+  private final String mSource;
+  private final long mLength;
+
+  /**
+   * @param file - File where the checkpoint is persisted
+   * @param source - String identifying the remote resource (must not contain credentials)
+   * @param length - long representing the expected size of the resource, or -1 if unknown
+   */
+  DownloadCheckpoint(final File file, final String source, final long length){
+    mFile = file;
+    mSource = source;
+    mLength = length;
+  }
+
+  /**
+   * Return the persisted offset, or 0 if no checkpoint exists or the
+   * checkpoint was written for a different resource.
+   * @return long representing the byte offset to resume from
+   */
+  final long restore(){
+    final Properties properties = load();
+    if (properties == null){
+      return 0;
+    }
+    return Math.max(0, parseLong(properties.getProperty(KEY_OFFSET)));
+  }
+
+  /**
+   * Return the set of completed chunks for a segmented download using the
+   * given chunk size. A checkpoint left by a sequential download is converted
+   * by treating every chunk below the persisted offset as complete.
+   * @param chunkSize - long representing the size of each chunk
+   * @return BitSet of completed chunk indexes, empty if nothing can be resumed
+   */
+  final BitSet restoreChunks(final long chunkSize){
+    final Properties properties = load();
+    if (properties == null){
+      return new BitSet();
+    }
+    final String completed = properties.getProperty(KEY_COMPLETED);
+    if (completed != null){
+      if (parseLong(properties.getProperty(KEY_CHUNK_SIZE)) != chunkSize){
+        return new BitSet();
+      }
+      return BitSet.valueOf(decodeHex(completed));
+    }
+    final long offset = parseLong(properties.getProperty(KEY_OFFSET));
+    final BitSet chunks = new BitSet();
+    if (offset > 0){
+      chunks.set(0, (int) (offset / chunkSize));
+    }
+    return chunks;
+  }
+
+  /**
+   * Persist the given offset
+   * @param offset - long representing bytes safely written to disk
+   * @throws IOException if the checkpoint can't be written
+   */
+  final void save(final long offset) throws IOException {
+    final Properties properties = newProperties();
+    properties.setProperty(KEY_OFFSET, String.valueOf(offset));
+    store(properties);
+  }
+
+  /**
+   * Persist the set of chunks that have been safely written to disk
+   * @param chunkSize - long representing the size of each chunk
+   * @param completed - BitSet of completed chunk indexes
+   * @throws IOException if the checkpoint can't be written
+   */
+  final void saveChunks(final long chunkSize, final BitSet completed) throws IOException {
+    final Properties properties = newProperties();
+    properties.setProperty(KEY_CHUNK_SIZE, String.valueOf(chunkSize));
+    properties.setProperty(KEY_COMPLETED, encodeHex(completed.toByteArray()));
+    store(properties);
+  }
+
+  /**
+   * Load the checkpoint if it matches this resource
+   * @return Properties, or null if there is no matching checkpoint
+   */
+  private Properties load(){
+    if (!mFile.exists()){
+      return null;
+    }
+    final Properties properties = new Properties();
+    FileInputStream fis = null;
+    try {
+      fis = new FileInputStream(mFile);
+      properties.load(fis);
+    } catch (final IOException e) {
+      return null;
+    } finally {
+      closeQuietly(fis);
+    }
+    if (!mSource.equals(properties.getProperty(KEY_SOURCE))
+        || mLength != parseLong(properties.getProperty(KEY_LENGTH))){
+      return null;
+    }
+    return properties;
+  }
+
+  private Properties newProperties(){
+    final Properties properties = new Properties();
+    properties.setProperty(KEY_SOURCE, mSource);
+    properties.setProperty(KEY_LENGTH, String.valueOf(mLength));
+    return properties;
+  }
+
+  private void store(final Properties properties) throws IOException {
+    final FileOutputStream fos = new FileOutputStream(mFile);
+    try {
+      properties.store(fos, null);
+      fos.getFD().sync();
+    } finally {
+      fos.close();
+    }
+  }
+
+  /**
+   * Delete the checkpoint
+   */
+  final void clear(){
+    if (mFile.exists() && !mFile.delete()){
+      mFile.deleteOnExit();
+    }
+  }
+
+  private static long parseLong(final String value){
+    if (value == null){
+      return -1;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (final NumberFormatException e){
+      return -1;
+    }
+  }
+
+  private static String encodeHex(final byte[] bytes){
+    final StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (final byte b : bytes){
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+      builder.append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+
+  private static byte[] decodeHex(final String hex){
+    final int length = hex.length() / 2;
+    final byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++){
+      final int high = Character.digit(hex.charAt(2 * i), 16);
+      final int low = Character.digit(hex.charAt(2 * i + 1), 16);
+      if (high < 0 || low < 0){
+        return new byte[0];
+      }
+      bytes[i] = (byte) ((high << 4) | low);
+    }
+    return bytes;
+  }
+
+  private static void closeQuietly(final FileInputStream fis){
+    if (fis != null){
+      try {
+        fis.close();
+      } catch (final IOException ignored) {
+        // Nothing to do
+      }
+    }
+  }
+}
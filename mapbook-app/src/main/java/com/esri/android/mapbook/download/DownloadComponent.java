@@ -46,5 +46,6 @@ public interface DownloadComponent {
   void inject (DownloadActivity activity);
   void inject (DownloadPresenter presenter);
   void inject (CredentialCryptographer manager);
-  void inject (PortalItemUpdateService service);
+  void inject (UpdateCheckJobService service);
+  void inject (DownloadJobService service);
 }
@@ -29,7 +29,7 @@ package com.esri.android.mapbook.download;
 import com.esri.android.mapbook.BasePresenter;
 import com.esri.android.mapbook.BaseView;
 
-import java.io.InputStream;
+import java.net.URL;
 
 /**
  * This is the contract between the Presenter and View components of the MVP pattern.
@@ -93,10 +93,20 @@ public interface DownloadContract {
     void promptForInternetConnectivity();
 
     /**
-     * Starts an async task to download the file
+     * Schedules a background job to download the file. When a package is already
+     * installed, only the blocks that changed are fetched if the portal item
+     * publishes a block hash manifest.
      * @param itemSize - long representing size of item to download
-     * @param inputStream - InputStream representing file
+     * @param dataUrl - URL of the portal item data
+     * @param manifestUrl - URL of the manifest for the portal item data
      */
-    void executeDownload(long itemSize, InputStream inputStream);
+    void executeDownload(long itemSize, URL dataUrl, URL manifestUrl);
+
+    /**
+     * Show the progress of a running download. Called on the main thread
+     * no more often than the {@link ProgressReporter} allows.
+     * @param progress - DownloadProgress
+     */
+    void showDownloadProgress(DownloadProgress progress);
   }
 }
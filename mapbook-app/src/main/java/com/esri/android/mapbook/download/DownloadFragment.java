@@ -27,38 +27,47 @@
 package com.esri.android.mapbook.download;
 
 import android.app.ProgressDialog;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.os.AsyncTask;
+import android.content.IntentFilter;
 import android.os.Bundle;
 import android.provider.Settings;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
+import android.support.v4.content.LocalBroadcastManager;
+import android.text.format.DateUtils;
+import android.text.format.Formatter;
 import android.util.Log;
 import android.widget.Toast;
 import com.esri.android.mapbook.R;
 
-import java.io.InputStream;
-import java.io.File;
-import java.io.OutputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.net.URL;
 
 import static android.app.Activity.RESULT_CANCELED;
 import static android.app.Activity.RESULT_OK;
 import static com.esri.android.mapbook.download.DownloadActivity.ERROR_STRING;
 import static com.esri.android.mapbook.mapbook.MapbookFragment.FILE_PATH;
+import static com.esri.android.mapbook.mapbook.MapbookFragment.MANIFEST_PATH;
 
 /**
- * This fragment is responsible for showing progress dialogs and executing the
- * AsyncTask for downloading the mapbook from the Portal. It's the View in the MVP pattern.
+ * This fragment is responsible for showing progress dialogs and scheduling the
+ * background job that downloads the mapbook from the Portal. The job outlives the
+ * fragment, which observes it through the {@link DownloadStatusStore}, so rotating
+ * the device or leaving the app doesn't interrupt the transfer. It's the View in the MVP pattern.
  */
 public class DownloadFragment extends Fragment implements DownloadContract.View {
 
   DownloadContract.Presenter mPresenter;
   private static final String TAG = DownloadFragment.class.getSimpleName();
   private ProgressDialog mProgressDialog = null;
+  private ProgressDialog mDownloadProgressDialog = null;
   private String mFileName = null;
+  private String mManifestPath = null;
+  private DownloadStatusStore mStatusStore = null;
+  private DownloadScheduler mScheduler = null;
+  private final BroadcastReceiver mStatusReceiver = new DownloadStatusReceiver();
 
   /**
    * Default constructor
@@ -89,10 +98,13 @@ public class DownloadFragment extends Fragment implements DownloadContract.View
 
     super.onCreate(savedInstanceState);
     mProgressDialog = new ProgressDialog(getActivity());
+    mStatusStore = new DownloadStatusStore(getActivity());
+    mScheduler = new DownloadScheduler(getActivity(), mStatusStore);
     // Calling activity should pass the file path
     final Bundle args = getArguments();
-    if (args.containsKey(FILE_PATH)){
+    if (args.containsKey(FILE_PATH) && args.containsKey(MANIFEST_PATH)){
       mFileName = args.getString(FILE_PATH);
+      mManifestPath = args.getString(MANIFEST_PATH);
     }else{
       sendResult(RESULT_CANCELED, ERROR_STRING, getString(R.string.path_not_found));
     }
@@ -172,125 +184,144 @@ public class DownloadFragment extends Fragment implements DownloadContract.View
     networkDialog.show();
   }
 
-  @Override final public void executeDownload(final long itemSize, final InputStream inputStream) {
-    new DownloadMobileMapPackage().execute(inputStream, mFileName, itemSize);
+  /**
+   * Schedule the background download job. The job reports back through the status store.
+   * @param itemSize - long representing size of item to download
+   * @param dataUrl - URL of the portal item data
+   * @param manifestUrl - URL of the manifest for the portal item data
+   */
+  @Override final public void executeDownload(final long itemSize, final URL dataUrl, final URL manifestUrl) {
+    mScheduler.schedule(dataUrl, manifestUrl, mFileName, mManifestPath, itemSize,
+        DownloadScheduler.Constraints.IMMEDIATE);
   }
 
   /**
-   * Start the presenter every time the fragment resumes.
+   * Show the download percentage along with the transfer rate and
+   * time remaining once they're known.
+   * @param progress - DownloadProgress
+   */
+  @Override final public void showDownloadProgress(final DownloadProgress progress) {
+    if (mDownloadProgressDialog == null){
+      return;
+    }
+    mDownloadProgressDialog.setProgress(progress.getPercent());
+    if (progress.getBytesPerSecond() > 0 && progress.getEtaMillis() != DownloadProgress.UNKNOWN){
+      final String rate = Formatter.formatShortFileSize(getActivity(), progress.getBytesPerSecond());
+      final String remaining = DateUtils.formatElapsedTime(progress.getEtaMillis() / 1000);
+      mDownloadProgressDialog.setMessage(getString(R.string.download_rate, rate, remaining));
+    }
+  }
+
+  /**
+   * Observe the download job every time the fragment resumes. If a job for this
+   * mapbook was started before the fragment was (re)created, pick it up; otherwise
+   * start the presenter. Download jobs aren't persisted, so a job the status
+   * store still reports as active after a reboot or the process was stopped
+   * no longer exists and is forgotten.
    */
   @Override
   public final void onResume() {
     super.onResume();
     Log.i(TAG, "onResume");
-    mPresenter.start();
+    DownloadStatus status = mStatusStore.getStatus();
+    if (status.getState().isActive() && !mScheduler.isScheduled()){
+      Log.i(TAG, "Download job no longer scheduled");
+      mStatusStore.clear();
+      status = mStatusStore.getStatus();
+    }
+    LocalBroadcastManager.getInstance(getActivity()).registerReceiver(mStatusReceiver,
+        new IntentFilter(DownloadStatusStore.getBroadcastAction(getActivity())));
+    final DownloadStatus.State state = status.getState();
+    if (mFileName != null && mFileName.equals(status.getPath())
+        && (state.isActive() || state == DownloadStatus.State.SUCCEEDED || state == DownloadStatus.State.FAILED)){
+      showDownloadStatus(status);
+    }else{
+      mPresenter.start();
+    }
   }
 
   /**
-   * AsyncTask used for downloading mobile map package and writing it to disk.
+   * Stop observing the job while the fragment isn't visible. The job keeps running.
    */
-  private final class DownloadMobileMapPackage extends AsyncTask<Object, Integer, String> {
-
-    private ProgressDialog mTaskProgressDialog = null;
-
-    @Override protected String doInBackground(final Object... params) {
-      Log.i(TAG, "Starting DownloadTask");
-      String path = null;
-      final InputStream inputStream = (InputStream) params[0];
-      final String fileName = (String) params[1];
-      final File data = new File(fileName);
-      final Long portalItemSize = (Long) params[2];
-      OutputStream os = null;
-
-      try {
-        os = new FileOutputStream(data);
-
-        final byte[] buffer = new byte[1024];
-        int bytesRead;
-        long total = 0;
-
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-
-          // allow canceling with back button
-          if (isCancelled()) {
-            inputStream.close();
-            break;
-          }
-
-          total = total + bytesRead;
-
-          final long progress = (total*100)/portalItemSize;
-          publishProgress((int)progress);
-          os.write(buffer, 0, bytesRead);
-        }
-
-        inputStream.close();
-
-        //flush OutputStream to write any buffered data to file
-        os.flush();
-        os.close();
-
-        path =  data.getPath();
-
+  @Override
+  public final void onPause() {
+    super.onPause();
+    LocalBroadcastManager.getInstance(getActivity()).unregisterReceiver(mStatusReceiver);
+    dismissDownloadDialog();
+  }
 
-      } catch (final Exception e){
-        Log.e(TAG, e.getClass().getSimpleName()+ " " + e.getMessage());
-      }
-      finally {
-        try {
-          if (os != null)
-            os.close();
-          if (inputStream != null)
-            inputStream.close();
-        } catch (final IOException ioException) {
-          Log.e(TAG, ioException.getMessage());
+  /**
+   * Reflect the state of the download job, returning to the calling activity once it's done.
+   * @param status - DownloadStatus
+   */
+  private void showDownloadStatus(final DownloadStatus status){
+    switch (status.getState()){
+      case QUEUED:
+      case RUNNING:
+        showDownloadDialog();
+        if (status.getProgress() != null){
+          showDownloadProgress(status.getProgress());
         }
-
-      }
-      return path;
+        break;
+      case SUCCEEDED:
+        dismissDownloadDialog();
+        mStatusStore.clear();
+        sendResult(RESULT_OK, FILE_PATH, status.getPath());
+        break;
+      case FAILED:
+        dismissDownloadDialog();
+        mStatusStore.clear();
+        sendResult(RESULT_CANCELED, ERROR_STRING, status.getMessage());
+        break;
+      case CANCELLED:
+        dismissDownloadDialog();
+        mStatusStore.clear();
+        sendResult(RESULT_CANCELED, ERROR_STRING, null);
+        break;
+      default:
+        break;
     }
+  }
 
-    /**
-     * Show user a progress dialog as file is downloaded
-     */
-    @Override
-    final protected void onPreExecute() {
-      super.onPreExecute();
-      mTaskProgressDialog = new ProgressDialog(getActivity());
-      mTaskProgressDialog.setIndeterminate(false);
-      mTaskProgressDialog.setMax(100);
-      mTaskProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
-      mTaskProgressDialog.setCancelable(false);
-      mTaskProgressDialog.setCanceledOnTouchOutside(false);
-      mTaskProgressDialog.setMessage(getString(R.string.wait));
-      mTaskProgressDialog.setTitle(getString(R.string.downloading_mapbook));
-      mTaskProgressDialog.show();
+  /**
+   * Show a progress dialog while the file is downloaded. Cancelling it cancels the job.
+   */
+  private void showDownloadDialog(){
+    if (mDownloadProgressDialog != null){
+      return;
     }
+    mDownloadProgressDialog = new ProgressDialog(getActivity());
+    mDownloadProgressDialog.setIndeterminate(false);
+    mDownloadProgressDialog.setMax(100);
+    mDownloadProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+    mDownloadProgressDialog.setCancelable(false);
+    mDownloadProgressDialog.setCanceledOnTouchOutside(false);
+    mDownloadProgressDialog.setMessage(getString(R.string.wait));
+    mDownloadProgressDialog.setTitle(getString(R.string.downloading_mapbook));
+    mDownloadProgressDialog.setButton(DialogInterface.BUTTON_NEGATIVE, getString(R.string.cancel), new DialogInterface.OnClickListener() {
+      @Override final public void onClick(final DialogInterface dialog, final int which) {
+        mScheduler.cancel();
+      }
+    });
+    mDownloadProgressDialog.show();
+  }
 
-    /**
-     * Update the progress of the download
-     * @param progress Integer
-     */
-    @Override
-    final protected void onProgressUpdate(final Integer... progress) {
-      super.onProgressUpdate(progress);
-      final Integer p = progress[0];
-      mTaskProgressDialog.setProgress(p);
+  private void dismissDownloadDialog(){
+    if (mDownloadProgressDialog != null){
+      mDownloadProgressDialog.dismiss();
+      mDownloadProgressDialog = null;
     }
+  }
 
-    /**
-     * Once the download is complete, return to the calling activity.
-     * @param result - String
-     */
-    @Override
-    final protected void onPostExecute(final String result) {
-      mTaskProgressDialog.dismiss();
-      if (result == null){
-        sendResult(RESULT_CANCELED, ERROR_STRING,  null);
-      }else{
-        sendResult(RESULT_OK, FILE_PATH, result);
+  /**
+   * Receives the status broadcasts sent by the {@link DownloadStatusStore}
+   */
+  private final class DownloadStatusReceiver extends BroadcastReceiver {
+    @Override public void onReceive(final Context context, final Intent intent) {
+      final DownloadStatus status = mStatusStore.getStatus();
+      if (mFileName != null && mFileName.equals(status.getPath())){
+        showDownloadStatus(status);
       }
-
     }
   }
 }
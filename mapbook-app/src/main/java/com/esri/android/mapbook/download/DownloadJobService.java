@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.PersistableBundle;
+import android.util.Log;
+import com.esri.android.mapbook.ApplicationModule;
+import com.esri.android.mapbook.MapBookApplication;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs the {@link MapbookDownloadJob} scheduled by the {@link DownloadScheduler}
+ * on a background thread, independent of any activity. Progress and the outcome
+ * are recorded in the {@link DownloadStatusStore}. When the system stops the job,
+ * e.g. because the network constraint is no longer met, the transfer is cancelled
+ * and the job rescheduled; it resumes from the download checkpoints. Each start
+ * of a job is run with its own stopped flag, so a run the system stopped can't
+ * touch the job started after it while its thread winds down. The access token
+ * is added to the item URLs by each run, so a rescheduled job doesn't reuse an
+ * expired one.
+ */
+public class DownloadJobService extends JobService {
+
+  private static final String TAG = DownloadJobService.class.getSimpleName();
+
+  @Inject @Named("portalUrl") String mPortalUrl;
+  @Inject CredentialService mCredentialService;
+
+  private DownloadStatusStore mStatusStore;
+  private PortalMetadataCache mMetadataCache;
+  // The runs in progress, by job ID
+  private final Map<Integer, DownloadRun> mRuns = new ConcurrentHashMap<>();
+
+  @Override public void onCreate() {
+    super.onCreate();
+    DaggerDownloadComponent.builder().applicationComponent(((MapBookApplication) getApplication())
+        .getComponent())
+        .applicationModule(new ApplicationModule(getApplicationContext()))
+        .downloadModule(new DownloadModule())
+        .build()
+        .inject(this);
+    mStatusStore = new DownloadStatusStore(this);
+    mMetadataCache = ((MapBookApplication) getApplication()).getPortalMetadataCache();
+  }
+
+  @Override public boolean onStartJob(final JobParameters params) {
+    final PersistableBundle extras = params.getExtras();
+    final String path = extras.getString(DownloadScheduler.EXTRA_PATH);
+    final String manifestPath = extras.getString(DownloadScheduler.EXTRA_MANIFEST_PATH);
+    final URL dataUrl;
+    final URL manifestUrl;
+    try {
+      dataUrl = new URL(extras.getString(DownloadScheduler.EXTRA_DATA_URL));
+      final String manifest = extras.getString(DownloadScheduler.EXTRA_MANIFEST_URL);
+      manifestUrl = manifest != null ? new URL(manifest) : null;
+    } catch (final MalformedURLException e){
+      Log.e(TAG, "Invalid download job " + e.getMessage());
+      mStatusStore.markFailed(e.getMessage());
+      return false;
+    }
+    if (path == null || manifestPath == null){
+      // Jobs scheduled before the manifest path was passed in can't be resumed
+      Log.e(TAG, "Invalid download job, missing destination");
+      mStatusStore.markFailed("Missing download destination");
+      return false;
+    }
+    final DownloadRun run = new DownloadRun(params, dataUrl, manifestUrl, new File(path),
+        new File(manifestPath), extras.getLong(DownloadScheduler.EXTRA_SIZE, -1));
+    mRuns.put(params.getJobId(), run);
+    mStatusStore.markRunning();
+
+    new Thread(run, "mmpk-download").start();
+    return true;
+  }
+
+  /**
+   * The system is stopping the job before it finished
+   * @param params - JobParameters
+   * @return boolean, true to have the job rescheduled
+   */
+  @Override public boolean onStopJob(final JobParameters params) {
+    Log.i(TAG, "Download job stopped by the system");
+    final DownloadRun run = mRuns.remove(params.getJobId());
+    if (run != null){
+      run.stop();
+    }
+    return true;
+  }
+
+  /**
+   * One start of a download job, running on its own thread until it
+   * finishes or the system stops it
+   */
+  private final class DownloadRun implements Runnable {
+
+    private final JobParameters mParams;
+    private final URL mDataUrl;
+    private final URL mManifestUrl;
+    private final File mDestination;
+    private final File mManifestFile;
+    private final long mSize;
+    private volatile MapbookDownloadJob mJob = null;
+    private volatile boolean mStopped = false;
+
+    DownloadRun(final JobParameters params, final URL dataUrl, final URL manifestUrl, final File destination,
+        final File manifestFile, final long size){
+      mParams = params;
+      mDataUrl = dataUrl;
+      mManifestUrl = manifestUrl;
+      mDestination = destination;
+      mManifestFile = manifestFile;
+      mSize = size;
+    }
+
+    void stop(){
+      mStopped = true;
+      final MapbookDownloadJob job = mJob;
+      if (job != null){
+        job.cancel();
+      }
+    }
+
+    /**
+     * Create the job with the current access token
+     * @return MapbookDownloadJob
+     * @throws IOException if the token can't be had or the run was stopped meanwhile
+     */
+    private MapbookDownloadJob createJob() throws IOException {
+      final String token = new PortalTokenSource(mPortalUrl, mCredentialService).getAccessToken();
+      final MapbookDownloadJob job = new MapbookDownloadJob(PortalTokenSource.withToken(mDataUrl, token),
+          mManifestUrl != null ? PortalTokenSource.withToken(mManifestUrl, token) : null, mDestination, mManifestFile, mSize);
+      job.setMetadataCache(mMetadataCache);
+      mJob = job;
+      // Stopped before the job could be cancelled
+      if (mStopped){
+        throw new InterruptedIOException("Download job stopped");
+      }
+      return job;
+    }
+
+    @Override public void run(){
+      // Only coalesced updates are written to the status store
+      final ProgressReporter reporter = new ProgressReporter(new ProgressReporter.Listener() {
+        @Override public void onProgressChanged(final DownloadProgress progress) {
+          if (!mStopped){
+            mStatusStore.updateProgress(progress);
+          }
+        }
+      });
+      try {
+        final File data = createJob().run(reporter);
+        if (!mStopped){
+          mRuns.remove(mParams.getJobId(), this);
+          mStatusStore.markSucceeded(data.getPath());
+          jobFinished(mParams, false);
+        } else if (!mRuns.containsKey(mParams.getJobId())){
+          // Finished as it was stopped, the rescheduled job finds the package complete
+          mStatusStore.markSucceeded(data.getPath());
+        }
+      } catch (final Exception e){
+        if (mStopped){
+          // onStopJob already asked for the job to be rescheduled, unless the user cancelled it.
+          // A run started since then owns the status.
+          if (!mRuns.containsKey(mParams.getJobId())
+              && mStatusStore.getStatus().getState() == DownloadStatus.State.RUNNING){
+            mStatusStore.markWaiting();
+          }
+          return;
+        }
+        mRuns.remove(mParams.getJobId(), this);
+        Log.e(TAG, e.getClass().getSimpleName() + " " + e.getMessage());
+        mStatusStore.markFailed(e.getMessage());
+        jobFinished(mParams, false);
+      }
+    }
+  }
+}
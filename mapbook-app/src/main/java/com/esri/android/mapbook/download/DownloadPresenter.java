@@ -31,17 +31,17 @@ import android.net.NetworkInfo;
 import android.os.Handler;
 import android.util.Log;
 import com.esri.android.mapbook.Constants;
-import com.esri.arcgisruntime.concurrent.ListenableFuture;
 import com.esri.arcgisruntime.loadable.LoadStatus;
 import com.esri.arcgisruntime.portal.Portal;
 import com.esri.arcgisruntime.portal.PortalItem;
 import com.esri.arcgisruntime.security.AuthenticationManager;
+import com.google.common.util.concurrent.FutureCallback;
 
 import javax.inject.Inject;
 import javax.inject.Named;
-import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.concurrent.ExecutionException;
 
 import static android.app.Activity.RESULT_CANCELED;
 import static com.esri.android.mapbook.download.DownloadActivity.ERROR_STRING;
@@ -52,7 +52,9 @@ public class DownloadPresenter implements DownloadContract.Presenter {
   @Inject ConnectivityManager mConnectivityManager;
   @Inject Portal mPortal;
   @Inject @Named("mPortalItemId") String mPortalItemId;
+  @Inject @Named("portalUrl") String mPortalUrl;
   @Inject CredentialCryptographer mCredentialCryptographer;
+  @Inject CredentialService mCredentialService;
 
   private final DownloadContract.View mView;
   private boolean mSignInStarted = false;
@@ -102,23 +104,17 @@ public class DownloadPresenter implements DownloadContract.Presenter {
       @Override public void run() {
 
         if (portalItem.getLoadStatus() == LoadStatus.LOADED){
-          final ListenableFuture<InputStream> future = portalItem.fetchDataAsync();
           final long portalItemSize = portalItem.getSize();
-          future.addDoneListener(new Runnable() {
-            @Override public void run() {
-
-              try {
-                final InputStream inputStream = future.get();
-                mView.executeDownload(portalItemSize, inputStream);
-
-
-              } catch (final InterruptedException | ExecutionException e) {
-                mView.showMessage("There was a problem downloading the file");
-                Log.e(TAG, "Problem downloading file " + e.getMessage());
-                mView.sendResult(RESULT_CANCELED, ERROR_STRING,  e.getMessage());
-              }
-            }
-          });
+          try {
+            // Download the item data directly so interrupted transfers can be resumed with range requests.
+            // The job adds the access token when it runs.
+            mView.executeDownload(portalItemSize, buildItemUrl(portalItem, "/data"),
+                buildItemUrl(portalItem, "/resources/" + Constants.MANIFEST_RESOURCE));
+          } catch (final MalformedURLException e) {
+            mView.showMessage("There was a problem downloading the file");
+            Log.e(TAG, "Problem downloading file " + e.getMessage());
+            mView.sendResult(RESULT_CANCELED, ERROR_STRING,  e.getMessage());
+          }
         }else{
           String loadError = portalItem.getLoadError().getMessage();
           if (portalItem.getLoadError().getCause() != null){
@@ -132,6 +128,31 @@ public class DownloadPresenter implements DownloadContract.Presenter {
     });
   }
 
+  /**
+   * Build the URL for the data or a resource of the given portal item
+   * @param portalItem - PortalItem
+   * @param path - String, path relative to the item e.g. "/data"
+   * @return URL
+   * @throws MalformedURLException if the portal URL is invalid
+   */
+  private URL buildItemUrl(final PortalItem portalItem, final String path) throws MalformedURLException {
+    return buildItemUrl(mPortalUrl, portalItem.getItemId(), path);
+  }
+
+  /**
+   * Build the URL for the JSON, data or a resource of a portal item. The URL
+   * carries no token, see {@link PortalTokenSource}.
+   * @param portalUrl - String, URL of the portal
+   * @param itemId - String, id of the portal item
+   * @param path - String, path relative to the item e.g. "/data", may include a query
+   * @return URL
+   * @throws MalformedURLException if the portal URL is invalid
+   */
+  static URL buildItemUrl(final String portalUrl, final String itemId, final String path)
+      throws MalformedURLException {
+    return new URL(portalUrl + "/sharing/rest/content/items/" + itemId + path);
+  }
+
   /**
    * Initiates the authentication process against the Portal
    */
@@ -161,17 +182,21 @@ public class DownloadPresenter implements DownloadContract.Presenter {
             }
           }
 
-          // Encrypt json credentials on device
-          final String filePath;
-          try {
-            filePath = mCredentialCryptographer.encrypt(jsonCredentials.getBytes(Charset.forName("UTF-8")), Constants.CRED_FILE);
-            Log.i(TAG, "Data encrypted to file path = " + filePath);
-          } catch (Exception e) {
-            Log.e(TAG, e.getClass().getSimpleName() + " " + e.getMessage());
-            if (e.getCause() != null){
-              Log.e(TAG, e.getCause().getMessage());
-            }
-          }
+          // Encrypt json credentials on device in the background
+          mCredentialService.addCallback(
+              mCredentialService.encrypt(jsonCredentials.getBytes(Charset.forName("UTF-8")), Constants.CRED_FILE),
+              new FutureCallback<String>() {
+                @Override public void onSuccess(final String filePath) {
+                  Log.i(TAG, "Data encrypted to file path = " + filePath);
+                }
+
+                @Override public void onFailure(final Throwable t) {
+                  Log.e(TAG, t.getClass().getSimpleName() + " " + t.getMessage());
+                  if (t.getCause() != null){
+                    Log.e(TAG, t.getCause().getMessage());
+                  }
+                }
+              });
 
           // Start up a new thread dedicated to downloading mobile map package
           final Handler handler = new Handler() ;
@@ -207,37 +232,32 @@ public class DownloadPresenter implements DownloadContract.Presenter {
    * Update mobile map package with latest version
    */
   @Override public void update() {
-    //Check for valid credentials
-
-    final String credentialString;
-    try {
-      credentialString = mCredentialCryptographer.decrypt();
-      if (credentialString != null && credentialString.length() > 0 ){
-        Log.i(TAG,"Downloading with cached credentials");
-
-        // Rehydrate the credential cache from the decrypted file
-        AuthenticationManager.CredentialCache.restoreFromJson(credentialString);
-
-        //Kick off a thread to handle mobile map package download
-        final Handler handler = new Handler() ;
-        handler.post(new Runnable() {
-          @Override public void run() {
-            // Download map book
-            downloadMapbook();
-          }
-        });
-      }else{
-        // If credentials are null, we'll prompt user for credentials
-        Log.i(TAG,"Credential cache cannot be reconstituted from null credentials, so asking using to provide credentials...");
-        signIn();
-      }
-    } catch (Exception e) {
-      Log.e(TAG, e.getClass().getSimpleName() + " " + e.getMessage());
-      if (e.getCause() != null){
-        Log.e(TAG, e.getCause().getMessage());
-      }
-    }
+    //Check for valid credentials, decrypting them in the background
+    mCredentialService.addCallback(mCredentialService.decrypt(), new FutureCallback<String>() {
+      @Override public void onSuccess(final String credentialString) {
+        if (credentialString != null && credentialString.length() > 0 ){
+          Log.i(TAG,"Downloading with cached credentials");
+
+          // Rehydrate the credential cache from the decrypted file
+          AuthenticationManager.CredentialCache.restoreFromJson(credentialString);
 
+          // Download map book
+          downloadMapbook();
+        }else{
+          // If credentials are null, we'll prompt user for credentials
+          Log.i(TAG,"Credential cache cannot be reconstituted from null credentials, so asking using to provide credentials...");
+          signIn();
+        }
+      }
 
+      @Override public void onFailure(final Throwable t) {
+        Log.e(TAG, t.getClass().getSimpleName() + " " + t.getMessage());
+        if (t.getCause() != null){
+          Log.e(TAG, t.getCause().getMessage());
+        }
+        // Stored credentials can't be used, ask the user to sign in again
+        signIn();
+      }
+    });
   }
 }
@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+/**
+ * An immutable snapshot of a download's progress as emitted by the {@link ProgressReporter}
+ */
+public final class DownloadProgress {
+
+  public static final long UNKNOWN = -1;
+
+  private final int mPercent;
+  private final long mBytesDownloaded;
+  private final long mTotalBytes;
+  private final long mBytesPerSecond;
+  private final long mEtaMillis;
+
+  DownloadProgress(final int percent, final long bytesDownloaded, final long totalBytes,
+      final long bytesPerSecond, final long etaMillis){
+    mPercent = percent;
+    mBytesDownloaded = bytesDownloaded;
+    mTotalBytes = totalBytes;
+    mBytesPerSecond = bytesPerSecond;
+    mEtaMillis = etaMillis;
+  }
+
+  /**
+   * @return int, percent complete between 0 and 100
+   */
+  public int getPercent(){
+    return mPercent;
+  }
+
+  public long getBytesDownloaded(){
+    return mBytesDownloaded;
+  }
+
+  /**
+   * @return long, total size or UNKNOWN
+   */
+  public long getTotalBytes(){
+    return mTotalBytes;
+  }
+
+  /**
+   * @return long, smoothed transfer rate or UNKNOWN before the first measurement
+   */
+  public long getBytesPerSecond(){
+    return mBytesPerSecond;
+  }
+
+  /**
+   * @return long, estimated milliseconds remaining or UNKNOWN
+   */
+  public long getEtaMillis(){
+    return mEtaMillis;
+  }
+
+  @Override public String toString() {
+    return "DownloadProgress{" + mPercent + "%, " + mBytesDownloaded + "/" + mTotalBytes
+        + " bytes, " + mBytesPerSecond + " B/s, eta " + mEtaMillis + " ms}";
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.PersistableBundle;
+import android.util.Log;
+
+import java.net.URL;
+
+/**
+ * Schedules the background download job with the platform {@link JobScheduler}.
+ * Only one download job exists at a time; scheduling a new one replaces it.
+ * <P>
+ * The job's extras only hold the item URLs; the access token is added when
+ * the job runs, so a retried job uses a current token. Jobs aren't persisted
+ * across reboots. An interrupted job picks up from the download checkpoints
+ * the next time a download is scheduled.
+ */
+public class DownloadScheduler {
+
+  static final int DOWNLOAD_JOB_ID = 1001;
+
+  static final String EXTRA_DATA_URL = "dataUrl";
+  static final String EXTRA_MANIFEST_URL = "manifestUrl";
+  static final String EXTRA_PATH = "path";
+  static final String EXTRA_MANIFEST_PATH = "manifestPath";
+  static final String EXTRA_SIZE = "size";
+
+  private static final long INITIAL_BACKOFF_MILLIS = 30 * 1000;
+  private static final String TAG = DownloadScheduler.class.getSimpleName();
+
+  /**
+   * Conditions the device has to meet before the job runs
+   */
+  public static final class Constraints {
+    /** A user initiated download runs on any network, whether or not the device is charging */
+    public static final Constraints IMMEDIATE = new Constraints(false, false);
+    /** A download nobody is waiting for runs on Wi-Fi while charging */
+    public static final Constraints DEFERRABLE = new Constraints(true, true);
+
+    private final boolean mUnmeteredNetwork;
+    private final boolean mCharging;
+
+    /**
+     * @param unmeteredNetwork - boolean, true to wait for an unmetered network
+     * @param charging - boolean, true to wait until the device is charging
+     */
+    public Constraints(final boolean unmeteredNetwork, final boolean charging){
+      mUnmeteredNetwork = unmeteredNetwork;
+      mCharging = charging;
+    }
+
+    public boolean requiresUnmeteredNetwork(){
+      return mUnmeteredNetwork;
+    }
+
+    public boolean requiresCharging(){
+      return mCharging;
+    }
+  }
+
+  private final Context mContext;
+  private final DownloadStatusStore mStatusStore;
+
+  public DownloadScheduler(final Context context, final DownloadStatusStore statusStore){
+    mContext = context.getApplicationContext();
+    mStatusStore = statusStore;
+  }
+
+  /**
+   * Schedule a download, replacing any job that's already scheduled or running.
+   * @param dataUrl - URL of the package data, without a token
+   * @param manifestUrl - URL of the published manifest without a token, may be null
+   * @param path - String, destination of the package
+   * @param manifestPath - String, where the block hash manifest of the package is kept
+   * @param size - long, size reported by the portal item
+   * @param constraints - Constraints the job has to wait for
+   * @return boolean, true if the job was scheduled
+   */
+  public boolean schedule(final URL dataUrl, final URL manifestUrl, final String path,
+      final String manifestPath, final long size, final Constraints constraints){
+    final PersistableBundle extras = new PersistableBundle();
+    extras.putString(EXTRA_DATA_URL, dataUrl.toString());
+    if (manifestUrl != null){
+      extras.putString(EXTRA_MANIFEST_URL, manifestUrl.toString());
+    }
+    extras.putString(EXTRA_PATH, path);
+    extras.putString(EXTRA_MANIFEST_PATH, manifestPath);
+    extras.putLong(EXTRA_SIZE, size);
+
+    final JobInfo jobInfo = new JobInfo.Builder(DOWNLOAD_JOB_ID, new ComponentName(mContext, DownloadJobService.class))
+        .setRequiredNetworkType(constraints.requiresUnmeteredNetwork()
+            ? JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY)
+        .setRequiresCharging(constraints.requiresCharging())
+        .setBackoffCriteria(INITIAL_BACKOFF_MILLIS, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+        .setExtras(extras)
+        .build();
+
+    mStatusStore.markQueued(path);
+    final boolean scheduled = getJobScheduler().schedule(jobInfo) == JobScheduler.RESULT_SUCCESS;
+    if (!scheduled){
+      Log.e(TAG, "Unable to schedule download job");
+      mStatusStore.markFailed("Unable to schedule download");
+    }
+    return scheduled;
+  }
+
+  /**
+   * Cancel the download job. Partial downloads keep their checkpoints.
+   */
+  public void cancel(){
+    getJobScheduler().cancel(DOWNLOAD_JOB_ID);
+    mStatusStore.markCancelled();
+  }
+
+  /**
+   * @return boolean, true if the download job is scheduled or running
+   */
+  public boolean isScheduled(){
+    for (final JobInfo jobInfo : getJobScheduler().getAllPendingJobs()){
+      if (jobInfo.getId() == DOWNLOAD_JOB_ID){
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private JobScheduler getJobScheduler(){
+    return (JobScheduler) mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+/**
+ * An immutable snapshot of the background download job as recorded
+ * in the {@link DownloadStatusStore}.
+ */
+public final class DownloadStatus {
+
+  /**
+   * Lifecycle of a download job
+   */
+  public enum State {
+    IDLE, QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+
+    /**
+     * @return boolean, true while the job is scheduled or running
+     */
+    public boolean isActive(){
+      return this == QUEUED || this == RUNNING;
+    }
+  }
+
+  private final State mState;
+  private final String mPath;
+  private final DownloadProgress mProgress;
+  private final String mMessage;
+
+  DownloadStatus(final State state, final String path, final DownloadProgress progress, final String message){
+    mState = state;
+    mPath = path;
+    mProgress = progress;
+    mMessage = message;
+  }
+
+  public State getState(){
+    return mState;
+  }
+
+  /**
+   * @return String, destination path of the package being downloaded, may be null when idle
+   */
+  public String getPath(){
+    return mPath;
+  }
+
+  /**
+   * @return DownloadProgress, the latest progress or null before the first update
+   */
+  public DownloadProgress getProgress(){
+    return mProgress;
+  }
+
+  /**
+   * @return String, reason for a failure, may be null
+   */
+  public String getMessage(){
+    return mMessage;
+  }
+
+  @Override public String toString() {
+    return "DownloadStatus{" + mState + ", " + mPath + ", " + mProgress + ", " + mMessage + "}";
+  }
+}
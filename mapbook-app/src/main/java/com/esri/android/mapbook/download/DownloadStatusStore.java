@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.support.v4.content.LocalBroadcastManager;
+import com.esri.android.mapbook.R;
+
+/**
+ * Records the state and progress of the background download job in
+ * SharedPreferences, so an activity created after the job started can pick up
+ * where it is. Every change is also announced with a local broadcast; receivers
+ * read the current status back from the store.
+ */
+public class DownloadStatusStore {
+
+  private static final String PREFERENCES = "download_status";
+  private static final String KEY_STATE = "state";
+  private static final String KEY_PATH = "path";
+  private static final String KEY_PERCENT = "percent";
+  private static final String KEY_BYTES = "bytes";
+  private static final String KEY_TOTAL = "total";
+  private static final String KEY_RATE = "rate";
+  private static final String KEY_ETA = "eta";
+  private static final String KEY_MESSAGE = "message";
+
+  private final Context mContext;
+  private final SharedPreferences mPreferences;
+
+  public DownloadStatusStore(final Context context){
+    mContext = context.getApplicationContext();
+    mPreferences = mContext.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+  }
+
+  /**
+   * The action of the local broadcast sent on every change
+   * @param context - Context
+   * @return String
+   */
+  public static String getBroadcastAction(final Context context){
+    return context.getString(R.string.DOWNLOAD_STATUS_ACTION);
+  }
+
+  /**
+   * Return the current status
+   * @return DownloadStatus
+   */
+  public DownloadStatus getStatus(){
+    DownloadStatus.State state;
+    try {
+      state = DownloadStatus.State.valueOf(mPreferences.getString(KEY_STATE, DownloadStatus.State.IDLE.name()));
+    } catch (final IllegalArgumentException e){
+      state = DownloadStatus.State.IDLE;
+    }
+    DownloadProgress progress = null;
+    if (mPreferences.contains(KEY_PERCENT)){
+      progress = new DownloadProgress(mPreferences.getInt(KEY_PERCENT, 0),
+          mPreferences.getLong(KEY_BYTES, 0),
+          mPreferences.getLong(KEY_TOTAL, DownloadProgress.UNKNOWN),
+          mPreferences.getLong(KEY_RATE, DownloadProgress.UNKNOWN),
+          mPreferences.getLong(KEY_ETA, DownloadProgress.UNKNOWN));
+    }
+    return new DownloadStatus(state, mPreferences.getString(KEY_PATH, null), progress,
+        mPreferences.getString(KEY_MESSAGE, null));
+  }
+
+  /**
+   * Record a newly scheduled job, discarding the status of any previous one
+   * @param path - String, destination of the package
+   */
+  public void markQueued(final String path){
+    mPreferences.edit().clear()
+        .putString(KEY_STATE, DownloadStatus.State.QUEUED.name())
+        .putString(KEY_PATH, path)
+        .apply();
+    notifyChanged();
+  }
+
+  /**
+   * Record that a stopped job is waiting to be run again, keeping its progress
+   */
+  public void markWaiting(){
+    setState(DownloadStatus.State.QUEUED, null);
+  }
+
+  public void markRunning(){
+    setState(DownloadStatus.State.RUNNING, null);
+  }
+
+  /**
+   * Record the latest coalesced progress of the running job
+   * @param progress - DownloadProgress
+   */
+  public void updateProgress(final DownloadProgress progress){
+    mPreferences.edit()
+        .putInt(KEY_PERCENT, progress.getPercent())
+        .putLong(KEY_BYTES, progress.getBytesDownloaded())
+        .putLong(KEY_TOTAL, progress.getTotalBytes())
+        .putLong(KEY_RATE, progress.getBytesPerSecond())
+        .putLong(KEY_ETA, progress.getEtaMillis())
+        .apply();
+    notifyChanged();
+  }
+
+  /**
+   * @param path - String, location of the downloaded package
+   */
+  public void markSucceeded(final String path){
+    mPreferences.edit()
+        .putString(KEY_STATE, DownloadStatus.State.SUCCEEDED.name())
+        .putString(KEY_PATH, path)
+        .remove(KEY_MESSAGE)
+        .apply();
+    notifyChanged();
+  }
+
+  /**
+   * @param message - String, reason for the failure
+   */
+  public void markFailed(final String message){
+    setState(DownloadStatus.State.FAILED, message);
+  }
+
+  public void markCancelled(){
+    setState(DownloadStatus.State.CANCELLED, null);
+  }
+
+  /**
+   * Forget the last job once its outcome has been handled
+   */
+  public void clear(){
+    mPreferences.edit().clear().apply();
+    notifyChanged();
+  }
+
+  private void setState(final DownloadStatus.State state, final String message){
+    final SharedPreferences.Editor editor = mPreferences.edit().putString(KEY_STATE, state.name());
+    if (message != null){
+      editor.putString(KEY_MESSAGE, message);
+    }else{
+      editor.remove(KEY_MESSAGE);
+    }
+    editor.apply();
+    notifyChanged();
+  }
+
+  private void notifyChanged(){
+    LocalBroadcastManager.getInstance(mContext).sendBroadcast(new Intent(getBroadcastAction(mContext)));
+  }
+}
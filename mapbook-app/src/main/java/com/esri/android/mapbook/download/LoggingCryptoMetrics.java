@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Reports the timings of credential crypto operations to logcat, keeping
+ * running averages for operations with a cold and a warm key handle.
+ */
+public class LoggingCryptoMetrics implements CredentialKeyProvider.Metrics {
+
+  private static final String TAG = LoggingCryptoMetrics.class.getSimpleName();
+
+  private long mColdCount = 0;
+  private long mColdNanos = 0;
+  private long mWarmCount = 0;
+  private long mWarmNanos = 0;
+
+  @Override public synchronized void onOperation(final String operation, final boolean warm, final long nanos) {
+    if (warm){
+      mWarmCount++;
+      mWarmNanos += nanos;
+    }else{
+      mColdCount++;
+      mColdNanos += nanos;
+    }
+    Log.i(TAG, String.format(Locale.US, "%s with %s key took %.2f ms, average cold %.2f ms (%d), warm %.2f ms (%d)",
+        operation, warm ? "warm" : "cold", nanos / 1e6, average(mColdNanos, mColdCount), mColdCount,
+        average(mWarmNanos, mWarmCount), mWarmCount));
+  }
+
+  @Override public void onKeyRegenerated() {
+    Log.w(TAG, "Credential key was invalidated and has been regenerated");
+  }
+
+  private static double average(final long nanos, final long count){
+    return count == 0 ? 0 : nanos / 1e6 / count;
+  }
+}
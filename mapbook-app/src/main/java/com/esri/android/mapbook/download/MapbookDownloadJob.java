@@ -0,0 +1,211 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+
+/**
+ * Runs the download pipeline for one mobile map package. An installed package is
+ * first brought up to date with the {@link DeltaUpdater}. Otherwise, large packages
+ * are fetched in parallel segments by the {@link SegmentedDownloader}, falling back to
+ * the single stream {@link MapbookDownloader} when the server doesn't support range requests.
+ * Every engine resumes from its own checkpoint, so a job stopped by the system
+ * continues where it left off when it runs again. With a {@link PortalMetadataCache},
+ * nothing is downloaded when the server confirms the installed package is current.
+ */
+public class MapbookDownloadJob {
+
+  // Packages at least this large are downloaded in parallel segments
+  private static final long SEGMENTED_DOWNLOAD_THRESHOLD = 32 * 1024 * 1024;
+  private static final String TAG = MapbookDownloadJob.class.getSimpleName();
+
+  private final URL mDataUrl;
+  private final URL mManifestUrl;
+  private final File mDestination;
+  private final File mManifestFile;
+  private final long mSize;
+
+  private volatile MapbookDownloader mDownloader = null;
+  private volatile SegmentedDownloader mSegmentedDownloader = null;
+  private volatile DeltaUpdater mDeltaUpdater = null;
+  private volatile boolean mCancelled = false;
+  // The manifest fetched ahead of a full download
+  private final ActiveConnections mConnections = new ActiveConnections();
+  private PortalMetadataCache mMetadataCache = null;
+
+  /**
+   * @param dataUrl - URL of the package data
+   * @param manifestUrl - URL of the published manifest, may be null
+   * @param destination - File representing the final location of the package
+   * @param manifestFile - File where the block hash manifest of the package is kept
+   * @param size - long representing the size reported by the portal, or -1 if unknown
+   */
+  public MapbookDownloadJob(final URL dataUrl, final URL manifestUrl, final File destination,
+      final File manifestFile, final long size){
+    mDataUrl = dataUrl;
+    mManifestUrl = manifestUrl;
+    mDestination = destination;
+    mManifestFile = manifestFile;
+    mSize = size;
+  }
+
+  /**
+   * @param metadataCache - PortalMetadataCache used to skip downloading a current package, may be null
+   */
+  public final void setMetadataCache(final PortalMetadataCache metadataCache){
+    mMetadataCache = metadataCache;
+  }
+
+  /**
+   * Download or update the package, blocking until done. The reporter is reset
+   * each time the job falls back to another way of fetching the package.
+   * @param listener - ProgressReporter, may be null
+   * @return File representing the completed package
+   * @throws IOException if the package can't be downloaded or the job was cancelled
+   */
+  public final File run(final ProgressReporter listener) throws IOException {
+    if (isInstalledPackageCurrent()){
+      if (listener != null){
+        listener.onProgress(mDestination.length(), mDestination.length());
+      }
+      return mDestination;
+    }
+    File data = null;
+    PackageManifest manifest = null;
+    if (mDestination.exists() && mManifestUrl != null){
+      try {
+        mDeltaUpdater = new DeltaUpdater(mDestination, mManifestFile, mDataUrl, mManifestUrl);
+        checkCancelled();
+        data = mDeltaUpdater.update(listener);
+        Log.i(TAG, "Delta update fetched " + mDeltaUpdater.getBytesFetched() + " bytes and reused "
+            + mDeltaUpdater.getBytesReused() + " bytes");
+      } catch (final IOException e){
+        checkCancelled();
+        Log.i(TAG, "Delta update not possible, downloading the whole package. " + e.getMessage());
+        manifest = mDeltaUpdater.getPublishedManifest();
+        resetProgress(listener);
+      }
+    }else if (mManifestUrl != null){
+      manifest = fetchManifest(mManifestUrl);
+      checkCancelled();
+    }
+    if (data == null && mSize >= SEGMENTED_DOWNLOAD_THRESHOLD){
+      try {
+        mSegmentedDownloader = new SegmentedDownloader(mDataUrl, mDestination, mSize);
+        mSegmentedDownloader.setManifest(manifest);
+        mSegmentedDownloader.setManifestFile(mManifestFile);
+        checkCancelled();
+        data = mSegmentedDownloader.download(listener);
+        Log.i(TAG, "Downloaded with up to " + mSegmentedDownloader.getPeakSegments() + " parallel segments");
+      } catch (final SegmentedDownloader.UnsupportedRangeException e){
+        Log.i(TAG, "Range requests not supported, falling back to a single stream. " + e.getMessage());
+        resetProgress(listener);
+      }
+    }
+    if (data == null){
+      mDownloader = new MapbookDownloader(mDataUrl, mDestination, mSize);
+      mDownloader.setManifest(manifest);
+      mDownloader.setManifestFile(mManifestFile);
+      checkCancelled();
+      data = mDownloader.download(listener);
+    }
+    if (mMetadataCache != null){
+      mMetadataCache.recordDownload(mDataUrl, data);
+    }
+    return data;
+  }
+
+  /**
+   * Stop whichever engine is running. Partial downloads keep their checkpoints.
+   */
+  public final void cancel(){
+    mCancelled = true;
+    mConnections.cancel();
+    if (mDeltaUpdater != null){
+      mDeltaUpdater.cancel();
+    }
+    if (mSegmentedDownloader != null){
+      mSegmentedDownloader.cancel();
+    }
+    if (mDownloader != null){
+      mDownloader.cancel();
+    }
+  }
+
+  /**
+   * Ask the server with a conditional request whether the installed package has changed
+   * @return boolean, true if the download can be skipped
+   */
+  private boolean isInstalledPackageCurrent(){
+    if (mMetadataCache == null){
+      return false;
+    }
+    try {
+      if (mMetadataCache.isPackageCurrent(mDataUrl, mDestination)){
+        // The portal item may have been modified without changing its data. The cache
+        // remembers the check, so no update is offered for the item's newer date.
+        Log.i(TAG, "Installed package is current, skipped " + mMetadataCache.getSkippedDownloadCount()
+            + " downloads and " + mMetadataCache.getBytesAvoided() + " bytes so far");
+        return true;
+      }
+    } catch (final IOException e){
+      Log.i(TAG, "Unable to check whether the installed package is current. " + e.getMessage());
+    }
+    return false;
+  }
+
+  private static void resetProgress(final ProgressReporter listener){
+    if (listener != null){
+      listener.reset();
+    }
+  }
+
+  private void checkCancelled() throws InterruptedIOException {
+    if (mCancelled){
+      throw new InterruptedIOException("Download cancelled");
+    }
+  }
+
+  /**
+   * Fetch the published manifest so the download can be verified as it's written
+   * @param manifestUrl - URL
+   * @return PackageManifest, or null if there isn't one
+   */
+  private PackageManifest fetchManifest(final URL manifestUrl){
+    try {
+      return DeltaUpdater.fetchManifest(manifestUrl, mConnections);
+    } catch (final IOException e){
+      Log.i(TAG, "Downloading without a published manifest. " + e.getMessage());
+      return null;
+    }
+  }
+}
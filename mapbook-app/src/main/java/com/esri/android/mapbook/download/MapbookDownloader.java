@@ -0,0 +1,459 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+
+/**
+ * A resumable download engine for mobile map packages. Bytes are written into a
+ * temporary ".part" file next to the destination and the byte offset is
+ * checkpointed as the transfer progresses. If the connection drops, the transfer
+ * resumes from the last checkpoint using an HTTP Range request. Bytes go to disk
+ * through a {@link PackageWriter} in large blocks.  When the
+ * transfer completes, the temporary file is atomically renamed to the destination,
+ * so a partially downloaded package never replaces a good one.
+ * <P>
+ * The finished file must match the expected size, and when a manifest is set the
+ * blocks are hashed as they are written and compared with the published hashes.
+ * A package that fails either check is discarded with an {@link IntegrityException}.
+ * <P>
+ * This class has no Android dependencies and performs blocking I/O, so it
+ * must be run off the main thread.
+ */
+public class MapbookDownloader {
+
+  /**
+   * Callback for reporting progress of the transfer.
+   */
+  public interface ProgressListener {
+    /**
+     * @param bytesDownloaded - long representing bytes on disk so far
+     * @param totalBytes - long representing total size, or -1 if unknown
+     */
+    void onProgress(long bytesDownloaded, long totalBytes);
+  }
+
+  static final String PART_EXTENSION = ".part";
+  static final String CHECKPOINT_EXTENSION = ".resume";
+
+  private static final long CHECKPOINT_INTERVAL = 4 * 1024 * 1024;
+  private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+  private static final int READ_TIMEOUT_MILLIS = 30000;
+
+  private final URL mSource;
+  private final File mDestination;
+  private final File mPartFile;
+  private final long mExpectedSize;
+  private final DownloadCheckpoint mCheckpoint;
+
+  private int mMaxAttempts = 5;
+  private long mRetryDelayMillis = 2000;
+  private int mBufferSize = PackageWriter.DEFAULT_BUFFER_SIZE;
+  private PackageManifest mExpectedManifest = null;
+  private File mManifestFile = null;
+  private BlockHasher mHasher = null;
+  private BlockHasher.Cursor mCursor = null;
+  private volatile boolean mCancelled = false;
+  private final ActiveConnections mConnections = new ActiveConnections();
+
+  /**
+   * @param source - URL of the package data
+   * @param destination - File representing the final location of the package
+   * @param expectedSize - long representing the size reported by the portal, or -1 if unknown
+   */
+  public MapbookDownloader(final URL source, final File destination, final long expectedSize){
+    mSource = source;
+    mDestination = destination;
+    mExpectedSize = expectedSize > 0 ? expectedSize : -1;
+    mPartFile = new File(destination.getPath() + PART_EXTENSION);
+    mCheckpoint = new DownloadCheckpoint(new File(destination.getPath() + CHECKPOINT_EXTENSION),
+        stripQuery(source), mExpectedSize);
+  }
+
+  /**
+   * Set the number of consecutive failed attempts tolerated before giving up.
+   * Any attempt that makes progress resets the count.
+   * @param maxAttempts - int
+   */
+  public final void setMaxAttempts(final int maxAttempts){
+    mMaxAttempts = maxAttempts;
+  }
+
+  /**
+   * Set the base delay between attempts. The delay grows linearly with
+   * each consecutive failure.
+   * @param retryDelayMillis - long
+   */
+  public final void setRetryDelayMillis(final long retryDelayMillis){
+    mRetryDelayMillis = retryDelayMillis;
+  }
+
+  /**
+   * Set the size of the direct buffer the {@link PackageWriter} writes through.
+   * @param bufferSize - int
+   */
+  public final void setBufferSize(final int bufferSize){
+    mBufferSize = bufferSize;
+  }
+
+  /**
+   * Verify the package against the manifest published for it. A manifest for
+   * a package of a different size is ignored.
+   * @param manifest - PackageManifest, may be null
+   */
+  public final void setManifest(final PackageManifest manifest){
+    mExpectedManifest = manifest;
+  }
+
+  /**
+   * Save the manifest hashed while downloading to the given file, so a later
+   * delta update doesn't need to hash the installed package.
+   * @param manifestFile - File, may be null
+   */
+  public final void setManifestFile(final File manifestFile){
+    mManifestFile = manifestFile;
+  }
+
+  /**
+   * Stop the transfer, disconnecting the request in progress so a blocked read
+   * fails at once. The partial file and checkpoint are kept so the download
+   * can be resumed later.
+   */
+  public final void cancel(){
+    mCancelled = true;
+    mConnections.cancel();
+  }
+
+  /**
+   * Download the package, resuming from any previous checkpoint.
+   * @param listener - ProgressListener, may be null
+   * @return File representing the completed package
+   * @throws IOException if the transfer can't be completed or was cancelled
+   */
+  public final File download(final ProgressListener listener) throws IOException {
+    final PackageWriter writer = new PackageWriter(mBufferSize);
+    mHasher = newBlockHasher(mExpectedSize, mExpectedManifest, mManifestFile);
+    mCursor = null;
+    long offset = restoreOffset();
+    int failures = 0;
+    while (true){
+      final long startOffset = offset;
+      try {
+        offset = transfer(offset, writer, listener);
+        break;
+      } catch (final IOException e){
+        if (mCancelled){
+          throw new InterruptedIOException("Download cancelled");
+        }
+        offset = mPartFile.length();
+        failures = offset > startOffset ? 1 : failures + 1;
+        if (failures >= mMaxAttempts){
+          throw e;
+        }
+        sleep(mRetryDelayMillis * failures);
+      }
+    }
+    if (mHasher != null && (mCursor == null || mCursor.getPosition() != mPartFile.length())){
+      // Nothing was transferred in this session, e.g. the server reported the range already complete
+      final RandomAccessFile file = new RandomAccessFile(mPartFile, "r");
+      try {
+        mCursor = mHasher.resume(file.getChannel(), 0, file.length());
+      } finally {
+        file.close();
+      }
+    }
+    final PackageManifest manifest;
+    try {
+      manifest = checkIntegrity(mPartFile, mExpectedSize, mHasher, mExpectedManifest);
+    } catch (final IntegrityException e){
+      mPartFile.delete();
+      mCheckpoint.clear();
+      throw e;
+    }
+    if (!mPartFile.renameTo(mDestination)){
+      throw new IOException("Unable to move " + mPartFile.getName() + " to " + mDestination.getName());
+    }
+    mCheckpoint.clear();
+    saveManifest(manifest, mManifestFile);
+    return mDestination;
+  }
+
+  /**
+   * Create the hasher for a download, or null when nothing would use the hashes
+   * @param size - long, expected package size or -1 if unknown
+   * @param expected - PackageManifest, published manifest or null
+   * @param manifestFile - File where the hashed manifest will be saved, or null
+   * @return BlockHasher or null
+   */
+  static BlockHasher newBlockHasher(final long size, final PackageManifest expected, final File manifestFile){
+    if (size <= 0 || (expected == null && manifestFile == null)){
+      return null;
+    }
+    final boolean usable = expected != null && expected.getLength() == size;
+    return new BlockHasher(size, usable ? expected.getChunkSize() : PackageManifest.DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Check a finished download against its expected size and, when hashed,
+   * against the published manifest.
+   * @param file - File, the finished download
+   * @param size - long, expected package size or -1 if unknown
+   * @param hasher - BlockHasher used while writing, may be null
+   * @param expected - PackageManifest, published manifest or null
+   * @return PackageManifest hashed while writing, or null if not hashed
+   * @throws IntegrityException if the download is truncated or corrupt
+   */
+  static PackageManifest checkIntegrity(final File file, final long size, final BlockHasher hasher,
+      final PackageManifest expected) throws IntegrityException {
+    if (size > 0 && file.length() != size){
+      throw new IntegrityException("Downloaded " + file.length() + " bytes, expected " + size);
+    }
+    if (hasher == null){
+      return null;
+    }
+    if (!hasher.isComplete()){
+      throw new IntegrityException("Not every block of the package was hashed");
+    }
+    final PackageManifest actual = hasher.toManifest();
+    if (expected != null && expected.getLength() == size && !expected.equals(actual)){
+      throw new IntegrityException("Downloaded package doesn't match the published manifest");
+    }
+    return actual;
+  }
+
+  /**
+   * Save the manifest of a completed package. Failing to save it only means the
+   * next delta update hashes the package itself, so errors are not reported.
+   */
+  static void saveManifest(final PackageManifest manifest, final File manifestFile){
+    if (manifest == null || manifestFile == null){
+      return;
+    }
+    try {
+      manifest.write(manifestFile);
+    } catch (final IOException e){
+      manifestFile.delete();
+    }
+  }
+
+  /**
+   * Determine where to resume the download from, truncating anything written
+   * after the last checkpoint.
+   * @return long representing the byte offset
+   * @throws IOException if the partial file can't be truncated
+   */
+  private long restoreOffset() throws IOException {
+    if (!mPartFile.exists()){
+      mCheckpoint.clear();
+      return 0;
+    }
+    final long offset = Math.min(mCheckpoint.restore(), mPartFile.length());
+    truncate(offset);
+    return offset;
+  }
+
+  /**
+   * Transfer bytes from the given offset until the end of the resource.
+   * @param offset - long representing the first byte to request
+   * @param writer - PackageWriter used to write the response to disk
+   * @param listener - ProgressListener, may be null
+   * @return long representing the new offset
+   * @throws IOException on any network or disk failure
+   */
+  private long transfer(final long offset, final PackageWriter writer, final ProgressListener listener) throws IOException {
+    final HttpURLConnection connection = mConnections.add((HttpURLConnection) mSource.openConnection());
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+    connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+    if (offset > 0){
+      connection.setRequestProperty("Range", "bytes=" + offset + "-");
+    }
+    try {
+      final int responseCode = connection.getResponseCode();
+      long position = offset;
+      long total = mExpectedSize;
+      if (responseCode == HttpURLConnection.HTTP_PARTIAL){
+        final long start = parseContentRangeStart(connection.getHeaderField("Content-Range"));
+        if (start != offset){
+          throw new IOException("Server returned range starting at " + start + ", expected " + offset);
+        }
+      }else if (responseCode == HttpURLConnection.HTTP_OK){
+        // The server ignored the Range header, so start over
+        position = 0;
+        truncate(0);
+      }else if (responseCode == 416 && mExpectedSize > 0 && offset == mExpectedSize){
+        // Everything was already downloaded
+        return offset;
+      }else if (responseCode == 416){
+        truncate(0);
+        mCheckpoint.clear();
+        throw new IOException("Requested range not satisfiable, restarting download");
+      }else{
+        throw new IOException("Unexpected HTTP response " + responseCode);
+      }
+      if (total < 0 && connection.getContentLength() >= 0){
+        total = position + connection.getContentLength();
+      }
+
+      final InputStream inputStream = connection.getInputStream();
+      final RandomAccessFile file = new RandomAccessFile(mPartFile, "rw");
+      final Progress progress = new Progress(file.getChannel(), position, total, listener);
+      try {
+        if (mHasher != null && (mCursor == null || mCursor.getPosition() != position)){
+          // Bytes from an earlier session are hashed once from disk
+          mCursor = mHasher.resume(file.getChannel(), 0, position);
+        }
+        if (!mCancelled){
+          writer.write(PackageWriter.channelFor(inputStream), file.getChannel(), position, -1, progress, mCursor);
+        }
+      } finally {
+        // Whatever made it to disk can be resumed from, even if the connection dropped
+        position = progress.mPosition;
+        try {
+          file.getChannel().force(false);
+          mCheckpoint.save(position);
+        } finally {
+          file.close();
+          inputStream.close();
+        }
+      }
+      if (mCancelled){
+        throw new InterruptedIOException("Download cancelled");
+      }
+      if (total > 0 && position != total){
+        throw new IOException("Connection closed after " + position + " of " + total + " bytes");
+      }
+      return position;
+    } finally {
+      mConnections.remove(connection);
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Truncate the partial file to the given length
+   * @param length - long
+   * @throws IOException if the file can't be truncated
+   */
+  private void truncate(final long length) throws IOException {
+    final RandomAccessFile file = new RandomAccessFile(mPartFile, "rw");
+    try {
+      file.setLength(length);
+    } finally {
+      file.close();
+    }
+  }
+
+  private void sleep(final long millis) throws InterruptedIOException {
+    try {
+      Thread.sleep(millis);
+    } catch (final InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Download interrupted");
+    }
+  }
+
+  /**
+   * Thrown when a finished download is truncated or doesn't match its published hashes.
+   * The partial file is discarded, so retrying starts from scratch.
+   */
+  public static class IntegrityException extends IOException {
+    IntegrityException(final String message){
+      super(message);
+    }
+  }
+
+  /**
+   * Tracks the position of a single transfer, checkpointing every
+   * CHECKPOINT_INTERVAL bytes and reporting progress per written block.
+   */
+  private final class Progress implements PackageWriter.BlockListener {
+    private final FileChannel mChannel;
+    private final long mTotal;
+    private final ProgressListener mListener;
+    private long mPosition;
+    private long mLastCheckpoint;
+
+    Progress(final FileChannel channel, final long position, final long total, final ProgressListener listener){
+      mChannel = channel;
+      mPosition = position;
+      mLastCheckpoint = position;
+      mTotal = total;
+      mListener = listener;
+    }
+
+    @Override public boolean onBlockWritten(final long position, final int count) throws IOException {
+      mPosition = position;
+      if (mPosition - mLastCheckpoint >= CHECKPOINT_INTERVAL){
+        mChannel.force(false);
+        mCheckpoint.save(mPosition);
+        mLastCheckpoint = mPosition;
+      }
+      if (mListener != null){
+        mListener.onProgress(mPosition, mTotal);
+      }
+      return !mCancelled;
+    }
+  }
+
+  /**
+   * Parse the first byte position from a header like "bytes 100-199/200"
+   * @param contentRange - String
+   * @return long, or -1 if the header can't be parsed
+   */
+  static long parseContentRangeStart(final String contentRange){
+    if (contentRange == null || !contentRange.startsWith("bytes ")){
+      return -1;
+    }
+    final int dash = contentRange.indexOf('-');
+    if (dash < 0){
+      return -1;
+    }
+    try {
+      return Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+    } catch (final NumberFormatException e){
+      return -1;
+    }
+  }
+
+  /**
+   * Remove the query string (which may carry a token) from the URL
+   * @param url - URL
+   * @return String
+   */
+  static String stripQuery(final URL url){
+    final String s = url.toString();
+    final int query = s.indexOf('?');
+    return query < 0 ? s : s.substring(0, query);
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A list of SHA-256 hashes for the fixed size blocks of a mobile map package.
+ * Comparing the manifest of the installed package with the manifest published
+ * for a new version tells the {@link DeltaUpdater} which blocks changed.
+ * <P>
+ * Manifests are plain UTF-8 text:
+ * <pre>
+ * mmpk-manifest 1
+ * length &lt;package size in bytes&gt;
+ * chunkSize &lt;block size in bytes&gt;
+ * &lt;hex SHA-256 of block 0&gt;
+ * &lt;hex SHA-256 of block 1&gt;
+ * ...
+ * </pre>
+ */
+public final class PackageManifest {
+
+  public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+  private static final String HEADER = "mmpk-manifest 1";
+  private static final String KEY_LENGTH = "length ";
+  private static final String KEY_CHUNK_SIZE = "chunkSize ";
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final long mLength;
+  private final int mChunkSize;
+  private final List<String> mHashes;
+
+  PackageManifest(final long length, final int chunkSize, final List<String> hashes){
+    mLength = length;
+    mChunkSize = chunkSize;
+    mHashes = Collections.unmodifiableList(new ArrayList<>(hashes));
+  }
+
+  /**
+   * Hash every block of the given file
+   * @param file - File to hash
+   * @param chunkSize - int, block size in bytes
+   * @return PackageManifest
+   * @throws IOException if the file can't be read
+   */
+  public static PackageManifest build(final File file, final int chunkSize) throws IOException {
+    final MessageDigest digest = newDigest();
+    final List<String> hashes = new ArrayList<>();
+    final byte[] buffer = new byte[64 * 1024];
+    final InputStream inputStream = new FileInputStream(file);
+    try {
+      long length = 0;
+      int inChunk = 0;
+      int bytesRead;
+      while ((bytesRead = inputStream.read(buffer, 0, Math.min(buffer.length, chunkSize - inChunk))) != -1){
+        digest.update(buffer, 0, bytesRead);
+        length = length + bytesRead;
+        inChunk = inChunk + bytesRead;
+        if (inChunk == chunkSize){
+          hashes.add(toHex(digest.digest()));
+          inChunk = 0;
+        }
+      }
+      if (inChunk > 0){
+        hashes.add(toHex(digest.digest()));
+      }
+      return new PackageManifest(length, chunkSize, hashes);
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  /**
+   * Parse a manifest
+   * @param inputStream - InputStream, not closed by this method
+   * @return PackageManifest
+   * @throws IOException if the stream can't be read or isn't a valid manifest
+   */
+  public static PackageManifest read(final InputStream inputStream) throws IOException {
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF8));
+    if (!HEADER.equals(reader.readLine())){
+      throw new IOException("Not a mobile map package manifest");
+    }
+    final long length;
+    final int chunkSize;
+    try {
+      length = Long.parseLong(readValue(reader, KEY_LENGTH));
+      chunkSize = Integer.parseInt(readValue(reader, KEY_CHUNK_SIZE));
+    } catch (final NumberFormatException e){
+      throw new IOException("Invalid manifest header", e);
+    }
+    if (length < 0 || chunkSize <= 0){
+      throw new IOException("Invalid manifest header");
+    }
+    final List<String> hashes = new ArrayList<>();
+    String line;
+    while ((line = reader.readLine()) != null){
+      if (line.length() > 0){
+        hashes.add(line.trim());
+      }
+    }
+    final PackageManifest manifest = new PackageManifest(length, chunkSize, hashes);
+    if (hashes.size() != manifest.expectedChunkCount()){
+      throw new IOException("Manifest lists " + hashes.size() + " blocks, expected " + manifest.expectedChunkCount());
+    }
+    return manifest;
+  }
+
+  /**
+   * Read a manifest from a file
+   * @param file - File
+   * @return PackageManifest, or null if the file is missing or unreadable
+   */
+  public static PackageManifest readQuietly(final File file){
+    if (!file.exists()){
+      return null;
+    }
+    try {
+      final InputStream inputStream = new FileInputStream(file);
+      try {
+        return read(inputStream);
+      } finally {
+        inputStream.close();
+      }
+    } catch (final IOException e){
+      return null;
+    }
+  }
+
+  /**
+   * Write the manifest to a file, replacing it atomically
+   * @param file - File
+   * @throws IOException if the file can't be written
+   */
+  public void write(final File file) throws IOException {
+    final File temp = new File(file.getPath() + ".tmp");
+    final FileOutputStream outputStream = new FileOutputStream(temp);
+    try {
+      final Writer writer = new OutputStreamWriter(outputStream, UTF8);
+      writer.write(HEADER + "\n");
+      writer.write(KEY_LENGTH + mLength + "\n");
+      writer.write(KEY_CHUNK_SIZE + mChunkSize + "\n");
+      for (final String hash : mHashes){
+        writer.write(hash + "\n");
+      }
+      writer.flush();
+      outputStream.getFD().sync();
+    } finally {
+      outputStream.close();
+    }
+    if (!temp.renameTo(file)){
+      throw new IOException("Unable to write manifest " + file.getName());
+    }
+  }
+
+  public long getLength(){
+    return mLength;
+  }
+
+  public int getChunkSize(){
+    return mChunkSize;
+  }
+
+  public int getChunkCount(){
+    return mHashes.size();
+  }
+
+  public String getHash(final int chunk){
+    return mHashes.get(chunk);
+  }
+
+  /**
+   * @param chunk - int, block index
+   * @return long, byte offset of the block
+   */
+  public long getChunkStart(final int chunk){
+    return (long) chunk * mChunkSize;
+  }
+
+  /**
+   * @param chunk - int, block index
+   * @return long, size of the block which is smaller than the chunk size for the last block
+   */
+  public long getChunkLength(final int chunk){
+    return Math.min(mChunkSize, mLength - getChunkStart(chunk));
+  }
+
+  @Override public boolean equals(final Object o) {
+    if (this == o){
+      return true;
+    }
+    if (!(o instanceof PackageManifest)){
+      return false;
+    }
+    final PackageManifest other = (PackageManifest) o;
+    return mLength == other.mLength && mChunkSize == other.mChunkSize && mHashes.equals(other.mHashes);
+  }
+
+  @Override public int hashCode() {
+    return 31 * (31 * (int) (mLength ^ (mLength >>> 32)) + mChunkSize) + mHashes.hashCode();
+  }
+
+  static MessageDigest newDigest(){
+    try {
+      return MessageDigest.getInstance(DIGEST_ALGORITHM);
+    } catch (final NoSuchAlgorithmException e){
+      // Every Java and Android runtime is required to provide SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static String toHex(final byte[] bytes){
+    final char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++){
+      chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+
+  private int expectedChunkCount(){
+    return (int) ((mLength + mChunkSize - 1) / mChunkSize);
+  }
+
+  private static String readValue(final BufferedReader reader, final String key) throws IOException {
+    final String line = reader.readLine();
+    if (line == null || !line.startsWith(key)){
+      throw new IOException("Manifest is missing " + key.trim());
+    }
+    return line.substring(key.length()).trim();
+  }
+}
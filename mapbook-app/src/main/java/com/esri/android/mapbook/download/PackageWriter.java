@@ -0,0 +1,214 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Write stage shared by the package download engines. Bytes are moved from a
+ * {@link ReadableByteChannel} into a {@link FileChannel} at an explicit position
+ * in large blocks rather than one small array per read.
+ * <P>
+ * When the source is itself a {@link FileChannel} the bytes are moved with
+ * {@link FileChannel#transferFrom(ReadableByteChannel, long, long)} so the copy
+ * stays in the kernel. For any other source (e.g. an HTTP response) the platform's
+ * transferFrom would fall back to small temporary buffers, so the writer fills a
+ * single reusable direct buffer instead and issues one positional write per block.
+ * <P>
+ * Written bytes can be hashed on the way through with a {@link BlockHasher.Cursor},
+ * which always takes the buffered path so the bytes pass through user space once.
+ * <P>
+ * A writer owns its buffer and is not thread safe; use one writer per thread.
+ */
+public class PackageWriter {
+
+  public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+  private final int mBufferSize;
+  private ByteBuffer mBuffer = null;
+
+  /**
+   * Callback invoked after each block lands in the file
+   */
+  public interface BlockListener {
+    /**
+     * @param position - long, file position just after the block
+     * @param count - int, number of bytes in the block
+     * @return boolean, false to stop writing
+     * @throws IOException if the listener's own bookkeeping fails
+     */
+    boolean onBlockWritten(long position, int count) throws IOException;
+  }
+
+  public PackageWriter(){
+    this(DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param bufferSize - int, size in bytes of each block
+   */
+  public PackageWriter(final int bufferSize){
+    if (bufferSize <= 0){
+      throw new IllegalArgumentException("Buffer size must be positive");
+    }
+    mBufferSize = bufferSize;
+  }
+
+  /**
+   * Wrap an input stream as a channel, using the underlying file channel when there is one
+   * so that file to file copies can take the transferFrom path.
+   * @param inputStream - InputStream
+   * @return ReadableByteChannel
+   */
+  public static ReadableByteChannel channelFor(final InputStream inputStream){
+    if (inputStream instanceof FileInputStream){
+      return ((FileInputStream) inputStream).getChannel();
+    }
+    return Channels.newChannel(inputStream);
+  }
+
+  /**
+   * Copy bytes from the source into the target starting at the given position.
+   * @param source - ReadableByteChannel to read from
+   * @param target - FileChannel to write to, its own position is left untouched
+   * @param position - long, file position of the first byte
+   * @param maxBytes - long, maximum number of bytes to copy or -1 to copy until the end of the source
+   * @param listener - BlockListener, may be null
+   * @return long representing the file position after the last byte written
+   * @throws IOException on any read or write failure
+   */
+  public long write(final ReadableByteChannel source, final FileChannel target, final long position,
+      final long maxBytes, final BlockListener listener) throws IOException {
+    return write(source, target, position, maxBytes, listener, null);
+  }
+
+  /**
+   * Copy bytes from the source into the target, hashing them after they are written.
+   * @param source - ReadableByteChannel to read from
+   * @param target - FileChannel to write to, its own position is left untouched
+   * @param position - long, file position of the first byte
+   * @param maxBytes - long, maximum number of bytes to copy or -1 to copy until the end of the source
+   * @param listener - BlockListener, may be null
+   * @param hasher - BlockHasher.Cursor positioned at the given position, may be null
+   * @return long representing the file position after the last byte written
+   * @throws IOException on any read or write failure
+   */
+  long write(final ReadableByteChannel source, final FileChannel target, final long position,
+      final long maxBytes, final BlockListener listener, final BlockHasher.Cursor hasher) throws IOException {
+    if (source instanceof FileChannel && hasher == null){
+      return transfer((FileChannel) source, target, position, maxBytes, listener);
+    }
+    final ByteBuffer buffer = getBuffer();
+    long current = position;
+    boolean endOfStream = false;
+    while (!endOfStream && (maxBytes < 0 || current - position < maxBytes)){
+      buffer.clear();
+      if (maxBytes >= 0){
+        buffer.limit((int) Math.min(buffer.capacity(), maxBytes - (current - position)));
+      }
+      // Fill the whole block before writing so each write covers as much as possible
+      try {
+        while (buffer.hasRemaining()){
+          if (source.read(buffer) == -1){
+            endOfStream = true;
+            break;
+          }
+        }
+      } catch (final IOException e){
+        // Keep what was read before the source failed so a resumed transfer doesn't refetch it
+        final int count = flush(buffer, target, current, hasher);
+        if (count > 0 && listener != null){
+          listener.onBlockWritten(current + count, count);
+        }
+        throw e;
+      }
+      final int count = flush(buffer, target, current, hasher);
+      current = current + count;
+      if (count > 0 && listener != null && !listener.onBlockWritten(current, count)){
+        break;
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Write the filled part of the buffer at the given position, then hash it
+   * so the hash only ever covers bytes that reached the file
+   * @return int representing the number of bytes written
+   */
+  private static int flush(final ByteBuffer buffer, final FileChannel target, final long position,
+      final BlockHasher.Cursor hasher) throws IOException {
+    buffer.flip();
+    final ByteBuffer written = hasher != null ? buffer.duplicate() : null;
+    final int count = buffer.remaining();
+    long writePosition = position;
+    while (buffer.hasRemaining()){
+      writePosition = writePosition + target.write(buffer, writePosition);
+    }
+    if (written != null){
+      hasher.update(written);
+    }
+    return count;
+  }
+
+  /**
+   * File to file copy using transferFrom in blocks of the buffer size
+   */
+  private long transfer(final FileChannel source, final FileChannel target, final long position,
+      final long maxBytes, final BlockListener listener) throws IOException {
+    long current = position;
+    while (maxBytes < 0 || current - position < maxBytes){
+      final long count = maxBytes < 0 ? mBufferSize : Math.min(mBufferSize, maxBytes - (current - position));
+      final long transferred = target.transferFrom(source, current, count);
+      if (transferred <= 0){
+        // transferFrom returns 0 once the source channel is exhausted
+        break;
+      }
+      current = current + transferred;
+      if (listener != null && !listener.onBlockWritten(current, (int) transferred)){
+        break;
+      }
+    }
+    return current;
+  }
+
+  /**
+   * The direct buffer is allocated on first use and reused for every later write
+   */
+  private ByteBuffer getBuffer(){
+    if (mBuffer == null){
+      mBuffer = ByteBuffer.allocateDirect(mBufferSize);
+    }
+    return mBuffer;
+  }
+}
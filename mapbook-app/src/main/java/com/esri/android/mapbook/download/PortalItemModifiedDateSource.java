@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Reports the modified date of the mapbook's portal item using the credentials
+ * stored on the device. The item's JSON is requested through the
+ * {@link PortalMetadataCache}, so an unchanged item is answered with a 304 and
+ * the date saved with its validators. Blocks the calling thread, so it must not
+ * be used on the main thread.
+ */
+public class PortalItemModifiedDateSource implements UpdateChecker.Source {
+
+  private final PortalTokenSource mTokenSource;
+  private final String mPortalUrl;
+  private final String mPortalItemId;
+  private final PortalMetadataCache mMetadataCache;
+
+  /**
+   * @param tokenSource - PortalTokenSource providing the signed in user's access token
+   * @param portalUrl - String, URL of the portal
+   * @param portalItemId - String, id of the mapbook's portal item
+   * @param metadataCache - PortalMetadataCache holding the validators of the item
+   */
+  public PortalItemModifiedDateSource(final PortalTokenSource tokenSource, final String portalUrl,
+      final String portalItemId, final PortalMetadataCache metadataCache){
+    mTokenSource = tokenSource;
+    mPortalUrl = portalUrl;
+    mPortalItemId = portalItemId;
+    mMetadataCache = metadataCache;
+  }
+
+  @Override public long fetchModifiedMillis() throws IOException {
+    final URL itemUrl = PortalTokenSource.withToken(DownloadPresenter.buildItemUrl(mPortalUrl, mPortalItemId, "?f=json"),
+        mTokenSource.getAccessToken());
+    final HttpURLConnection connection = mMetadataCache.open(itemUrl, "GET");
+    try {
+      if (mMetadataCache.isNotModified(connection)){
+        final PortalMetadataCache.Validators validators = mMetadataCache.getValidators(itemUrl);
+        if (validators != null && validators.getModifiedMillis() >= 0){
+          return validators.getModifiedMillis();
+        }
+        // Nothing to fall back on, ask again without validators next time
+        mMetadataCache.forget(itemUrl);
+        throw new IOException("Portal item " + mPortalItemId + " not modified but no date was saved");
+      }
+      if (connection.getResponseCode() != HttpURLConnection.HTTP_OK){
+        throw new IOException("Unexpected response " + connection.getResponseCode() + " for portal item " + mPortalItemId);
+      }
+      final long modifiedMillis = readModifiedMillis(connection);
+      mMetadataCache.save(itemUrl, connection, modifiedMillis);
+      return modifiedMillis;
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * @param connection - HttpURLConnection with the item's JSON
+   * @return long, the item's modified date in milliseconds
+   * @throws IOException if the JSON can't be read or is an error response
+   */
+  private long readModifiedMillis(final HttpURLConnection connection) throws IOException {
+    final String json;
+    final InputStream inputStream = connection.getInputStream();
+    try {
+      json = new String(ByteStreams.toByteArray(inputStream), Charsets.UTF_8);
+    } finally {
+      inputStream.close();
+    }
+    try {
+      final JSONObject item = new JSONObject(json);
+      if (item.has("error")){
+        throw new IOException("Portal item " + mPortalItemId + " didn't load: " + item.getJSONObject("error").optString("message"));
+      }
+      return item.getLong("modified");
+    } catch (final JSONException e){
+      throw new IOException("Unexpected JSON for portal item " + mPortalItemId, e);
+    }
+  }
+}
@@ -0,0 +1,337 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import com.esri.android.mapbook.util.Clock;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the ETag and Last-Modified validators the portal returned for item
+ * metadata and package data, so later requests can be made conditional. An
+ * unchanged resource comes back as an empty 304 instead of its full body, and a
+ * download is skipped entirely when the installed package is still current.
+ * <P>
+ * Resources are keyed by their URL without the query, since the access token
+ * in the query changes between sessions. The counters are kept in the
+ * {@link Store} and accumulate across runs.
+ * <P>
+ * When the server confirms the installed package is current, the time of the
+ * check is saved rather than touching the package. The package's modified
+ * date versions the cached maps and thumbnails, which would otherwise be
+ * thrown away after every check.
+ */
+public class PortalMetadataCache {
+
+  /**
+   * Persists validators and counters
+   */
+  public interface Store {
+    /**
+     * @param key - String identifying the resource
+     * @return Validators, or null if none were saved
+     */
+    Validators get(String key);
+    void put(String key, Validators validators);
+    void remove(String key);
+    long getCounter(String name);
+    void addToCounter(String name, long delta);
+    /**
+     * @param key - String identifying the installed package
+     * @return long, when the package was last confirmed current, or -1
+     */
+    long getCheckedMillis(String key);
+    void putCheckedMillis(String key, long checkedMillis);
+  }
+
+  /**
+   * The validators of one resource and what they were last seen with
+   */
+  public static final class Validators {
+
+    private final String mETag;
+    private final String mLastModified;
+    private final long mModifiedMillis;
+    private final long mLength;
+
+    /**
+     * @param eTag - String, value of the ETag header or null
+     * @param lastModified - String, value of the Last-Modified header or null
+     * @param modifiedMillis - long, modified date read from the resource, or -1
+     * @param length - long, length of the local copy of the resource, or -1
+     */
+    public Validators(final String eTag, final String lastModified, final long modifiedMillis, final long length){
+      mETag = eTag;
+      mLastModified = lastModified;
+      mModifiedMillis = modifiedMillis;
+      mLength = length;
+    }
+
+    public String getETag(){
+      return mETag;
+    }
+
+    public String getLastModified(){
+      return mLastModified;
+    }
+
+    public long getModifiedMillis(){
+      return mModifiedMillis;
+    }
+
+    public long getLength(){
+      return mLength;
+    }
+
+    /**
+     * @return boolean, true if a conditional request can be made with these validators
+     */
+    public boolean isConditional(){
+      return mETag != null || mLastModified != null;
+    }
+  }
+
+  static final String COUNTER_CONDITIONAL_REQUESTS = "conditionalRequests";
+  static final String COUNTER_NOT_MODIFIED = "notModified";
+  static final String COUNTER_DOWNLOADS_SKIPPED = "downloadsSkipped";
+  static final String COUNTER_BYTES_AVOIDED = "bytesAvoided";
+
+  private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+  private static final int READ_TIMEOUT_MILLIS = 30000;
+
+  private final Store mStore;
+  private final Clock mClock;
+  // Validators of packages that are being downloaded, saved once the download completes
+  private final Map<String, Validators> mPending = new HashMap<>();
+
+  public PortalMetadataCache(final Store store){
+    this(store, Clock.SYSTEM);
+  }
+
+  /**
+   * @param store - Store persisting the validators and counters
+   * @param clock - Clock stamping the checks of the installed package
+   */
+  public PortalMetadataCache(final Store store, final Clock clock){
+    mStore = store;
+    mClock = clock;
+  }
+
+  /**
+   * @param url - URL of the resource
+   * @return String, the URL without its query
+   */
+  static String keyFor(final URL url){
+    try {
+      return new URL(url.getProtocol(), url.getHost(), url.getPort(), url.getPath()).toString();
+    } catch (final MalformedURLException e){
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  /**
+   * @param url - URL of the resource
+   * @return Validators, or null if the resource hasn't been seen
+   */
+  public Validators getValidators(final URL url){
+    return mStore.get(keyFor(url));
+  }
+
+  /**
+   * Open a request for the resource, conditional on the saved validators if there are any.
+   * Use {@link #isNotModified(HttpURLConnection)} on the response.
+   * @param url - URL of the resource
+   * @param method - String, "GET" or "HEAD"
+   * @return HttpURLConnection, not yet connected
+   * @throws IOException if the connection can't be opened
+   */
+  public HttpURLConnection open(final URL url, final String method) throws IOException {
+    return open(url, method, getValidators(url));
+  }
+
+  private HttpURLConnection open(final URL url, final String method, final Validators validators) throws IOException {
+    final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+    connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+    connection.setRequestMethod(method);
+    connection.setUseCaches(false);
+    if (validators != null && validators.isConditional()){
+      if (validators.getETag() != null){
+        connection.setRequestProperty("If-None-Match", validators.getETag());
+      }
+      if (validators.getLastModified() != null){
+        connection.setRequestProperty("If-Modified-Since", validators.getLastModified());
+      }
+      mStore.addToCounter(COUNTER_CONDITIONAL_REQUESTS, 1);
+    }
+    return connection;
+  }
+
+  /**
+   * Read the response code, counting a 304.
+   * @param connection - HttpURLConnection returned by {@link #open(URL, String)}
+   * @return boolean, true if the resource is unchanged
+   * @throws IOException if there's no response
+   */
+  public boolean isNotModified(final HttpURLConnection connection) throws IOException {
+    if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED){
+      mStore.addToCounter(COUNTER_NOT_MODIFIED, 1);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Save the validators of a successful response
+   * @param url - URL of the resource
+   * @param connection - HttpURLConnection with a 200 response
+   * @param modifiedMillis - long, modified date read from the body, or -1
+   */
+  public void save(final URL url, final HttpURLConnection connection, final long modifiedMillis){
+    final Validators validators = readValidators(connection, modifiedMillis, -1);
+    if (validators.isConditional()){
+      mStore.put(keyFor(url), validators);
+    }else{
+      mStore.remove(keyFor(url));
+    }
+  }
+
+  /**
+   * Ask the server whether the package has changed since it was installed.
+   * Returns false without a request if there's nothing to compare against, e.g.
+   * the package was never downloaded or its size no longer matches. When the
+   * package has changed, the new validators are held until {@link #recordDownload(URL, File)}.
+   * @param dataUrl - URL of the package data
+   * @param installed - File, the installed package
+   * @return boolean, true if the installed package is current and needn't be downloaded
+   * @throws IOException if the server can't be reached
+   */
+  public boolean isPackageCurrent(final URL dataUrl, final File installed) throws IOException {
+    final String key = keyFor(dataUrl);
+    final Validators saved = mStore.get(key);
+    final boolean comparable = saved != null && saved.isConditional() && installed.isFile()
+        && installed.length() == saved.getLength();
+    final HttpURLConnection connection = open(dataUrl, "HEAD", comparable ? saved : null);
+    try {
+      if (comparable && isNotModified(connection)){
+        mStore.addToCounter(COUNTER_DOWNLOADS_SKIPPED, 1);
+        mStore.addToCounter(COUNTER_BYTES_AVOIDED, installed.length());
+        mStore.putCheckedMillis(installed.getPath(), mClock.currentTimeMillis());
+        return true;
+      }
+      final int code = connection.getResponseCode();
+      synchronized (mPending){
+        if (code == HttpURLConnection.HTTP_OK){
+          mPending.put(key, readValidators(connection, -1, -1));
+        }else{
+          mPending.remove(key);
+        }
+      }
+      return false;
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Save the validators seen by {@link #isPackageCurrent(URL, File)} for the package
+   * that has now been downloaded and verified.
+   * @param dataUrl - URL of the package data
+   * @param installed - File, the downloaded package
+   */
+  public void recordDownload(final URL dataUrl, final File installed){
+    final String key = keyFor(dataUrl);
+    final Validators pending;
+    synchronized (mPending){
+      pending = mPending.remove(key);
+    }
+    if (pending != null && pending.isConditional()){
+      mStore.put(key, new Validators(pending.getETag(), pending.getLastModified(), pending.getModifiedMillis(),
+          installed.length()));
+    }else{
+      mStore.remove(key);
+    }
+  }
+
+  /**
+   * The installed package is at least as recent as the later of its modified date
+   * and the last time the server confirmed it was current.
+   * @param installed - File, the installed package
+   * @return long, milliseconds since the epoch, or 0 if the package doesn't exist
+   */
+  public long getInstalledVersionMillis(final File installed){
+    return Math.max(installed.lastModified(), mStore.getCheckedMillis(installed.getPath()));
+  }
+
+  /**
+   * Forget the validators of the package, e.g. when it's deleted
+   * @param dataUrl - URL of the package data
+   */
+  public void forget(final URL dataUrl){
+    mStore.remove(keyFor(dataUrl));
+  }
+
+  /**
+   * @return long, number of requests sent with validators
+   */
+  public long getConditionalRequestCount(){
+    return mStore.getCounter(COUNTER_CONDITIONAL_REQUESTS);
+  }
+
+  /**
+   * @return long, number of requests answered with 304, whose body didn't have to be sent
+   */
+  public long getNotModifiedCount(){
+    return mStore.getCounter(COUNTER_NOT_MODIFIED);
+  }
+
+  /**
+   * @return long, number of package downloads skipped because the installed package was current
+   */
+  public long getSkippedDownloadCount(){
+    return mStore.getCounter(COUNTER_DOWNLOADS_SKIPPED);
+  }
+
+  /**
+   * @return long, bytes of package data that didn't have to be downloaded
+   */
+  public long getBytesAvoided(){
+    return mStore.getCounter(COUNTER_BYTES_AVOIDED);
+  }
+
+  private static Validators readValidators(final HttpURLConnection connection, final long modifiedMillis,
+      final long length){
+    return new Validators(connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"),
+        modifiedMillis, length);
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Keeps the validators and counters of the {@link PortalMetadataCache} in SharedPreferences.
+ */
+public class PortalMetadataPreferences implements PortalMetadataCache.Store {
+
+  private static final String PREFERENCES = "portal_metadata";
+  private static final String SUFFIX_ETAG = "|etag";
+  private static final String SUFFIX_LAST_MODIFIED = "|lastModified";
+  private static final String SUFFIX_MODIFIED = "|modified";
+  private static final String SUFFIX_LENGTH = "|length";
+  private static final String PREFIX_COUNTER = "counter|";
+  private static final String PREFIX_CHECKED = "checked|";
+
+  private final SharedPreferences mPreferences;
+
+  public PortalMetadataPreferences(final Context context){
+    mPreferences = context.getApplicationContext().getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+  }
+
+  @Override public PortalMetadataCache.Validators get(final String key) {
+    if (!mPreferences.contains(key + SUFFIX_MODIFIED)){
+      return null;
+    }
+    return new PortalMetadataCache.Validators(mPreferences.getString(key + SUFFIX_ETAG, null),
+        mPreferences.getString(key + SUFFIX_LAST_MODIFIED, null),
+        mPreferences.getLong(key + SUFFIX_MODIFIED, -1),
+        mPreferences.getLong(key + SUFFIX_LENGTH, -1));
+  }
+
+  @Override public void put(final String key, final PortalMetadataCache.Validators validators) {
+    mPreferences.edit()
+        .putString(key + SUFFIX_ETAG, validators.getETag())
+        .putString(key + SUFFIX_LAST_MODIFIED, validators.getLastModified())
+        .putLong(key + SUFFIX_MODIFIED, validators.getModifiedMillis())
+        .putLong(key + SUFFIX_LENGTH, validators.getLength())
+        .apply();
+  }
+
+  @Override public void remove(final String key) {
+    mPreferences.edit()
+        .remove(key + SUFFIX_ETAG)
+        .remove(key + SUFFIX_LAST_MODIFIED)
+        .remove(key + SUFFIX_MODIFIED)
+        .remove(key + SUFFIX_LENGTH)
+        .apply();
+  }
+
+  @Override public long getCounter(final String name) {
+    return mPreferences.getLong(PREFIX_COUNTER + name, 0);
+  }
+
+  @Override public synchronized void addToCounter(final String name, final long delta) {
+    mPreferences.edit().putLong(PREFIX_COUNTER + name, getCounter(name) + delta).apply();
+  }
+
+  @Override public long getCheckedMillis(final String key) {
+    return mPreferences.getLong(PREFIX_CHECKED + key, -1);
+  }
+
+  @Override public void putCheckedMillis(final String key, final long checkedMillis) {
+    mPreferences.edit().putLong(PREFIX_CHECKED + key, checkedMillis).apply();
+  }
+}
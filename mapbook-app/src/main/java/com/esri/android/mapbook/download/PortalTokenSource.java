@@ -0,0 +1,143 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import com.esri.arcgisruntime.loadable.LoadStatus;
+import com.esri.arcgisruntime.loadable.Loadable;
+import com.esri.arcgisruntime.portal.Portal;
+import com.esri.arcgisruntime.security.AuthenticationManager;
+import com.esri.arcgisruntime.security.Credential;
+import com.esri.arcgisruntime.security.OAuthTokenCredential;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds the access token of the signed in user to portal requests made by
+ * background jobs. The token is taken from the credentials stored on the
+ * device when the request is about to be made, rather than when the job was
+ * scheduled, so a job that's retried later doesn't send an expired token and
+ * no token is kept with the scheduled job. The credentials are read through
+ * the {@link CredentialService}, after any sign in still being stored. Blocks
+ * the calling thread, so it must not be used on the main thread.
+ */
+public class PortalTokenSource {
+
+  private static final long LOAD_TIMEOUT_SECONDS = 60;
+
+  private final String mPortalUrl;
+  private final CredentialService mCredentialService;
+
+  /**
+   * @param portalUrl - String, URL of the portal
+   * @param credentialService - CredentialService holding the signed in user's credentials
+   */
+  public PortalTokenSource(final String portalUrl, final CredentialService credentialService){
+    mPortalUrl = portalUrl;
+    mCredentialService = credentialService;
+  }
+
+  /**
+   * @return String, the current access token, or null if the portal has no token credential
+   * @throws IOException if the stored credentials can't be used to load the portal
+   */
+  public String getAccessToken() throws IOException {
+    final String credentialString;
+    try {
+      credentialString = mCredentialService.decrypt().get();
+    } catch (final InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted decrypting credentials", e);
+    } catch (final ExecutionException e){
+      throw new IOException("Unable to decrypt credentials on device", e.getCause());
+    }
+    if (credentialString == null || credentialString.length() == 0){
+      throw new IOException("No credentials stored on device");
+    }
+
+    // Reconstitute the AuthenticationManager from cached credentials
+    AuthenticationManager.CredentialCache.restoreFromJson(credentialString);
+
+    // A newly loaded portal provides a current access token
+    final Portal portal = new Portal(mPortalUrl, true);
+    awaitLoad(portal);
+
+    final Credential credential = portal.getCredential();
+    return credential instanceof OAuthTokenCredential ? ((OAuthTokenCredential) credential).getAccessToken() : null;
+  }
+
+  /**
+   * Append an access token to the query of a portal URL
+   * @param url - URL without a token
+   * @param token - String, may be null
+   * @return URL with the token, or the same URL without one
+   * @throws IOException if the URL can't be built
+   */
+  public static URL withToken(final URL url, final String token) throws IOException {
+    if (token == null){
+      return url;
+    }
+    try {
+      return new URL(url.toString() + (url.getQuery() != null ? '&' : '?') + "token=" + URLEncoder.encode(token, "UTF-8"));
+    } catch (final MalformedURLException e){
+      throw new IOException("Unable to add the token to " + MapbookDownloader.stripQuery(url), e);
+    }
+  }
+
+  /**
+   * Load the loadable, blocking until it's done
+   * @param loadable - Loadable
+   * @throws IOException if it fails to load in time
+   */
+  private static void awaitLoad(final Loadable loadable) throws IOException {
+    final CountDownLatch loaded = new CountDownLatch(1);
+    loadable.addDoneLoadingListener(new Runnable() {
+      @Override public void run() {
+        loaded.countDown();
+      }
+    });
+    loadable.loadAsync();
+    try {
+      if (!loaded.await(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS)){
+        loadable.cancelLoad();
+        throw new IOException("Timed out loading " + loadable.getClass().getSimpleName());
+      }
+    } catch (final InterruptedException e){
+      loadable.cancelLoad();
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted loading " + loadable.getClass().getSimpleName(), e);
+    }
+    if (loadable.getLoadStatus() != LoadStatus.LOADED){
+      throw new IOException(loadable.getClass().getSimpleName() + " didn't load", loadable.getLoadError());
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the per-block callbacks from the download engines into
+ * occasional {@link DownloadProgress} updates suitable for the UI thread.
+ * An update is emitted only when the whole percentage has changed <b>and</b> at
+ * least the minimum interval has passed since the previous update. The final
+ * 100% update is always emitted. When the total isn't known the percentage
+ * can't change, so an update is emitted whenever the interval has passed.
+ * A transfer that starts over, e.g. a full download after a failed update,
+ * {@link #reset()}s the reporter so its lower percentages are shown.
+ * <P>
+ * The transfer rate is an exponentially smoothed average of the rate between
+ * updates and drives the ETA. Bytes that were already on disk when the download
+ * resumed aren't counted towards the rate. Callbacks may arrive from several
+ * download threads at once.
+ */
+public class ProgressReporter implements MapbookDownloader.ProgressListener {
+
+  /**
+   * Receives the coalesced updates
+   */
+  public interface Listener {
+    /**
+     * @param progress - DownloadProgress
+     */
+    void onProgressChanged(DownloadProgress progress);
+  }
+
+  public static final long DEFAULT_MIN_INTERVAL_MILLIS = 250;
+
+  // Weight given to the newest rate sample
+  private static final double SMOOTHING = 0.3;
+
+  private final Listener mListener;
+  private final Ticker mTicker;
+  private final long mMinIntervalNanos;
+
+  private boolean mStarted = false;
+  private int mLastPercent = -1;
+  private long mLastEmitNanos;
+  private long mSampleNanos;
+  private long mSampleBytes;
+  private double mBytesPerSecond = DownloadProgress.UNKNOWN;
+  private long mUpdateCount = 0;
+
+  public ProgressReporter(final Listener listener){
+    this(listener, DEFAULT_MIN_INTERVAL_MILLIS, Ticker.systemTicker());
+  }
+
+  /**
+   * @param listener - Listener receiving updates
+   * @param minIntervalMillis - long, minimum time between updates
+   * @param ticker - Ticker used to measure time
+   */
+  public ProgressReporter(final Listener listener, final long minIntervalMillis, final Ticker ticker){
+    mListener = listener;
+    mMinIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+    mTicker = ticker;
+  }
+
+  @Override public synchronized void onProgress(final long bytesDownloaded, final long totalBytes) {
+    final long now = mTicker.read();
+    if (!mStarted){
+      // The first callback sets the baseline, resumed bytes say nothing about the rate
+      mStarted = true;
+      mSampleNanos = now;
+      mSampleBytes = bytesDownloaded;
+      mLastEmitNanos = now - mMinIntervalNanos;
+    }
+    final int percent = totalBytes > 0 ? (int) Math.min(100, (bytesDownloaded * 100) / totalBytes) : 0;
+    final boolean finished = totalBytes > 0 && bytesDownloaded >= totalBytes;
+    final boolean due = now - mLastEmitNanos >= mMinIntervalNanos;
+    if (totalBytes <= 0){
+      // Only the bytes and rate move
+      if (!due){
+        return;
+      }
+    }else if (finished ? percent <= mLastPercent : percent <= mLastPercent || !due){
+      // Callbacks from parallel segments can arrive slightly out of order, so never step backwards
+      return;
+    }
+    sampleRate(now, bytesDownloaded);
+    mLastPercent = percent;
+    mLastEmitNanos = now;
+    mUpdateCount++;
+    mListener.onProgressChanged(new DownloadProgress(percent, bytesDownloaded, totalBytes,
+        (long) mBytesPerSecond, estimateMillis(bytesDownloaded, totalBytes)));
+  }
+
+  /**
+   * Start over for a new transfer of the same package. Its first callback sets a
+   * new baseline, and its percentages are emitted even if they're lower than
+   * those of the previous transfer.
+   */
+  public synchronized void reset(){
+    mStarted = false;
+    mLastPercent = -1;
+  }
+
+  /**
+   * Return the number of updates emitted so far
+   * @return long
+   */
+  public synchronized long getUpdateCount(){
+    return mUpdateCount;
+  }
+
+  private void sampleRate(final long now, final long bytesDownloaded){
+    final long elapsed = now - mSampleNanos;
+    if (elapsed <= 0){
+      return;
+    }
+    final double rate = (bytesDownloaded - mSampleBytes) / (elapsed / 1e9);
+    mBytesPerSecond = mBytesPerSecond < 0 ? rate : SMOOTHING * rate + (1 - SMOOTHING) * mBytesPerSecond;
+    mSampleNanos = now;
+    mSampleBytes = bytesDownloaded;
+  }
+
+  private long estimateMillis(final long bytesDownloaded, final long totalBytes){
+    if (totalBytes <= 0 || mBytesPerSecond <= 0){
+      return DownloadProgress.UNKNOWN;
+    }
+    return (long) (Math.max(0, totalBytes - bytesDownloaded) * 1000 / mBytesPerSecond);
+  }
+}
@@ -0,0 +1,502 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a mobile map package as several byte ranges fetched in parallel.
+ * The package is split into fixed size chunks which are pulled from a shared queue
+ * by a bounded pool of workers. Each worker has its own {@link PackageWriter} which
+ * writes its bytes with positional {@link FileChannel} writes into a preallocated ".part" file.
+ * <P>
+ * The number of parallel segments adapts to the observed throughput: the download
+ * starts with two segments and adds one more each time a chunk completes and the
+ * aggregate throughput improved noticeably since the last change. When adding a
+ * segment doesn't help, a segment is retired and the count stays put.
+ * <P>
+ * Completed chunks are checkpointed, so an interrupted download resumes with
+ * only the missing chunks. Like {@link MapbookDownloader}, the temporary file is
+ * renamed over the destination only once every chunk has been written and, when a
+ * manifest is set, every block hashed on the way to disk matches the published hashes.
+ * Chunks are then widened to whole manifest blocks so each worker can hash its own.
+ * This class has no Android dependencies and blocks until the download finishes.
+ */
+public class SegmentedDownloader {
+
+  private static final int INITIAL_SEGMENTS = 2;
+  private static final double IMPROVEMENT_THRESHOLD = 1.1;
+  private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+  private static final int READ_TIMEOUT_MILLIS = 30000;
+
+  private final URL mSource;
+  private final File mDestination;
+  private final File mPartFile;
+  private final long mSize;
+  private final DownloadCheckpoint mCheckpoint;
+
+  private int mMaxSegments = 6;
+  private long mChunkSize = 4 * 1024 * 1024;
+  private int mMaxAttempts = 5;
+  private long mRetryDelayMillis = 2000;
+  private int mBufferSize = PackageWriter.DEFAULT_BUFFER_SIZE;
+
+  private final ConcurrentLinkedQueue<Integer> mPendingChunks = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger mActiveSegments = new AtomicInteger();
+  private final AtomicLong mBytesDownloaded = new AtomicLong();
+  private final Object mLock = new Object();
+  private BitSet mCompletedChunks;
+  private int mChunkCount;
+  private int mTargetSegments;
+  private int mPeakSegments;
+  private double mLastThroughput;
+  private boolean mSettled;
+  private int mWindowChunks;
+  private long mWindowStartNanos;
+  private long mWindowStartBytes;
+  private IOException mFailure;
+  private ExecutorService mExecutor;
+  private FileChannel mChannel;
+  private MapbookDownloader.ProgressListener mListener;
+  private PackageManifest mExpectedManifest = null;
+  private File mManifestFile = null;
+  private BlockHasher mHasher = null;
+  private volatile boolean mCancelled = false;
+  private final ActiveConnections mConnections = new ActiveConnections();
+
+  /**
+   * @param source - URL of the package data, the server must support byte range requests
+   * @param destination - File representing the final location of the package
+   * @param size - long representing the size of the package in bytes
+   */
+  public SegmentedDownloader(final URL source, final File destination, final long size){
+    mSource = source;
+    mDestination = destination;
+    mSize = size;
+    mPartFile = new File(destination.getPath() + MapbookDownloader.PART_EXTENSION);
+    mCheckpoint = new DownloadCheckpoint(new File(destination.getPath() + MapbookDownloader.CHECKPOINT_EXTENSION),
+        MapbookDownloader.stripQuery(source), size);
+  }
+
+  /**
+   * Set the upper bound on parallel segments, which is also the size of the worker pool.
+   * @param maxSegments - int
+   */
+  public final void setMaxSegments(final int maxSegments){
+    mMaxSegments = Math.max(1, maxSegments);
+  }
+
+  /**
+   * Set the size of the byte ranges handed to workers.
+   * @param chunkSize - long
+   */
+  public final void setChunkSize(final long chunkSize){
+    mChunkSize = chunkSize;
+  }
+
+  /**
+   * Set the number of consecutive failed attempts tolerated per chunk.
+   * @param maxAttempts - int
+   */
+  public final void setMaxAttempts(final int maxAttempts){
+    mMaxAttempts = maxAttempts;
+  }
+
+  /**
+   * Set the base delay between attempts for a chunk.
+   * @param retryDelayMillis - long
+   */
+  public final void setRetryDelayMillis(final long retryDelayMillis){
+    mRetryDelayMillis = retryDelayMillis;
+  }
+
+  /**
+   * Set the size of the direct buffer each worker's {@link PackageWriter} writes through.
+   * @param bufferSize - int
+   */
+  public final void setBufferSize(final int bufferSize){
+    mBufferSize = bufferSize;
+  }
+
+  /**
+   * Verify the package against the manifest published for it. A manifest for
+   * a package of a different size is ignored.
+   * @param manifest - PackageManifest, may be null
+   */
+  public final void setManifest(final PackageManifest manifest){
+    mExpectedManifest = manifest;
+  }
+
+  /**
+   * Save the manifest hashed while downloading to the given file, so a later
+   * delta update doesn't need to hash the installed package.
+   * @param manifestFile - File, may be null
+   */
+  public final void setManifestFile(final File manifestFile){
+    mManifestFile = manifestFile;
+  }
+
+  /**
+   * Stop the transfer, disconnecting the requests in progress so blocked reads
+   * fail at once. Completed chunks are kept so the download can be resumed later.
+   */
+  public final void cancel(){
+    mCancelled = true;
+    mConnections.cancel();
+    synchronized (mLock){
+      mLock.notifyAll();
+    }
+  }
+
+  /**
+   * Return the largest number of segments that were active at once
+   * @return int
+   */
+  public final int getPeakSegments(){
+    synchronized (mLock){
+      return mPeakSegments;
+    }
+  }
+
+  /**
+   * Download the package, fetching only chunks missing from a previous attempt.
+   * @param listener - ProgressListener, may be null
+   * @return File representing the completed package
+   * @throws IOException if the transfer can't be completed or was cancelled
+   */
+  public final File download(final MapbookDownloader.ProgressListener listener) throws IOException {
+    mListener = listener;
+    mHasher = MapbookDownloader.newBlockHasher(mSize, mExpectedManifest, mManifestFile);
+    if (mHasher != null){
+      // Each chunk has to start on a block boundary to be hashed by a single worker
+      final long blockSize = mHasher.getBlockSize();
+      mChunkSize = ((mChunkSize + blockSize - 1) / blockSize) * blockSize;
+    }
+    mChunkCount = (int) ((mSize + mChunkSize - 1) / mChunkSize);
+
+    if (!mPartFile.exists()){
+      mCheckpoint.clear();
+    }
+    final RandomAccessFile file = new RandomAccessFile(mPartFile, "rw");
+    // Preallocate so workers can write anywhere in the file
+    file.setLength(mSize);
+    mChannel = file.getChannel();
+
+    mCompletedChunks = mCheckpoint.restoreChunks(mChunkSize);
+    long resumedBytes = 0;
+    for (int i = 0; i < mChunkCount; i++){
+      if (mCompletedChunks.get(i)){
+        resumedBytes = resumedBytes + chunkLength(i);
+        if (mHasher != null){
+          // Chunks from an earlier session are hashed once from disk
+          mHasher.resume(mChannel, i * mChunkSize, i * mChunkSize + chunkLength(i));
+        }
+      }else{
+        mPendingChunks.add(i);
+      }
+    }
+    mBytesDownloaded.set(resumedBytes);
+
+    mExecutor = Executors.newFixedThreadPool(mMaxSegments, new ThreadFactory() {
+      private final AtomicInteger mCount = new AtomicInteger();
+      @Override public Thread newThread(final Runnable r) {
+        final Thread thread = new Thread(r, "mmpk-segment-" + mCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      synchronized (mLock){
+        mWindowStartNanos = System.nanoTime();
+        mWindowStartBytes = resumedBytes;
+        mTargetSegments = Math.min(INITIAL_SEGMENTS, mMaxSegments);
+        for (int i = 0; i < mTargetSegments; i++){
+          startSegment();
+        }
+        while (!mCancelled && mFailure == null && mCompletedChunks.cardinality() < mChunkCount){
+          try {
+            mLock.wait();
+          } catch (final InterruptedException e){
+            Thread.currentThread().interrupt();
+            mCancelled = true;
+          }
+        }
+        if (mCancelled){
+          throw new InterruptedIOException("Download cancelled");
+        }
+        if (mFailure != null){
+          throw mFailure;
+        }
+      }
+    } finally {
+      mCancelled = mCancelled || mFailure != null;
+      mExecutor.shutdownNow();
+      file.close();
+    }
+
+    final PackageManifest manifest;
+    try {
+      manifest = MapbookDownloader.checkIntegrity(mPartFile, mSize, mHasher, mExpectedManifest);
+    } catch (final MapbookDownloader.IntegrityException e){
+      mPartFile.delete();
+      mCheckpoint.clear();
+      throw e;
+    }
+    if (!mPartFile.renameTo(mDestination)){
+      throw new IOException("Unable to move " + mPartFile.getName() + " to " + mDestination.getName());
+    }
+    mCheckpoint.clear();
+    MapbookDownloader.saveManifest(manifest, mManifestFile);
+    return mDestination;
+  }
+
+  /**
+   * Submit one more worker to the pool. Must be called while holding mLock.
+   */
+  private void startSegment(){
+    if (mPendingChunks.isEmpty()){
+      return;
+    }
+    final int active = mActiveSegments.incrementAndGet();
+    mPeakSegments = Math.max(mPeakSegments, active);
+    mExecutor.execute(new Runnable() {
+      @Override public void run() {
+        runSegment();
+      }
+    });
+  }
+
+  /**
+   * Worker loop: pull chunks until the queue is empty or this worker is retired.
+   */
+  private void runSegment(){
+    final PackageWriter writer = new PackageWriter(mBufferSize);
+    boolean retired = false;
+    try {
+      while (!mCancelled){
+        synchronized (mLock){
+          // Retire when the controller lowered the target, but never retire the last worker
+          final int active = mActiveSegments.get();
+          if (active > mTargetSegments && active > 1){
+            mActiveSegments.decrementAndGet();
+            retired = true;
+            return;
+          }
+        }
+        final Integer index = mPendingChunks.poll();
+        if (index == null){
+          return;
+        }
+        try {
+          fetchChunk(new Chunk(index * mChunkSize, index * mChunkSize + chunkLength(index) - 1), writer);
+          onChunkCompleted(index);
+        } catch (final IOException | RuntimeException e){
+          synchronized (mLock){
+            if (mFailure == null && !mCancelled){
+              mFailure = e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+            mLock.notifyAll();
+          }
+          return;
+        }
+      }
+    } finally {
+      if (!retired){
+        mActiveSegments.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Fetch a single chunk, resuming within the chunk after a dropped connection.
+   * @param chunk - Chunk to fetch
+   * @param writer - PackageWriter owned by the calling worker
+   * @throws IOException once the attempts for this chunk are exhausted
+   */
+  private void fetchChunk(final Chunk chunk, final PackageWriter writer) throws IOException {
+    int failures = 0;
+    while (chunk.position <= chunk.end){
+      final long attemptStart = chunk.position;
+      try {
+        transferRange(chunk, writer);
+      } catch (final UnsupportedRangeException e){
+        throw e;
+      } catch (final IOException e){
+        if (mCancelled){
+          throw new InterruptedIOException("Download cancelled");
+        }
+        failures = chunk.position > attemptStart ? 1 : failures + 1;
+        if (failures >= mMaxAttempts){
+          throw e;
+        }
+        sleep(mRetryDelayMillis * failures);
+      }
+    }
+  }
+
+  /**
+   * Request the remaining bytes of the chunk and write them at the same position in the file.
+   * The chunk position is advanced as bytes are written, so a dropped connection
+   * only needs to re-request what is missing.
+   * @param chunk - Chunk
+   * @param writer - PackageWriter
+   * @throws IOException on any network or disk failure
+   */
+  private void transferRange(final Chunk chunk, final PackageWriter writer) throws IOException {
+    final HttpURLConnection connection = mConnections.add((HttpURLConnection) mSource.openConnection());
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+    connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+    connection.setRequestProperty("Range", "bytes=" + chunk.position + "-" + chunk.end);
+    try {
+      final int responseCode = connection.getResponseCode();
+      if (responseCode != HttpURLConnection.HTTP_PARTIAL
+          || MapbookDownloader.parseContentRangeStart(connection.getHeaderField("Content-Range")) != chunk.position){
+        throw new UnsupportedRangeException("Server did not honor range request, response " + responseCode);
+      }
+      final InputStream inputStream = connection.getInputStream();
+      try {
+        if (!mCancelled){
+          writer.write(PackageWriter.channelFor(inputStream), mChannel, chunk.position,
+              chunk.end - chunk.position + 1, chunk, chunk.cursor);
+        }
+      } finally {
+        inputStream.close();
+      }
+      if (mCancelled){
+        throw new InterruptedIOException("Download cancelled");
+      }
+      if (chunk.position <= chunk.end){
+        throw new IOException("Connection closed at " + chunk.position + ", expected range to end at " + chunk.end);
+      }
+    } finally {
+      mConnections.remove(connection);
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Record a completed chunk, checkpoint it and, once every active segment has had
+   * a chance to complete a chunk, adjust the number of segments based on the
+   * throughput measured since the last adjustment.
+   * @param chunk - int representing the chunk index
+   * @throws IOException if the checkpoint can't be written
+   */
+  private void onChunkCompleted(final int chunk) throws IOException {
+    mChannel.force(false);
+    synchronized (mLock){
+      mCompletedChunks.set(chunk);
+      mCheckpoint.saveChunks(mChunkSize, mCompletedChunks);
+
+      mWindowChunks++;
+      if (!mSettled && mWindowChunks >= mTargetSegments){
+        final long now = System.nanoTime();
+        final long bytes = mBytesDownloaded.get();
+        final double throughput = (bytes - mWindowStartBytes) / Math.max(1e-9, (now - mWindowStartNanos) / 1e9);
+        if (mLastThroughput == 0 || throughput > mLastThroughput * IMPROVEMENT_THRESHOLD){
+          // More segments are still paying off
+          if (mTargetSegments < mMaxSegments){
+            mTargetSegments++;
+            startSegment();
+          }
+        }else{
+          // The last segment added didn't help, so back off by one and stop adapting
+          if (throughput < mLastThroughput && mTargetSegments > 1){
+            mTargetSegments--;
+          }
+          mSettled = true;
+        }
+        mLastThroughput = throughput;
+        mWindowStartNanos = now;
+        mWindowStartBytes = bytes;
+        mWindowChunks = 0;
+      }
+      mLock.notifyAll();
+    }
+  }
+
+  private long chunkLength(final int chunk){
+    return Math.min(mChunkSize, mSize - chunk * mChunkSize);
+  }
+
+  private void sleep(final long millis) throws InterruptedIOException {
+    try {
+      Thread.sleep(millis);
+    } catch (final InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Download interrupted");
+    }
+  }
+
+  /**
+   * A byte range of the package and how much of it has been written so far.
+   * The position advances as each block from the {@link PackageWriter} lands on disk.
+   */
+  private final class Chunk implements PackageWriter.BlockListener {
+    final long end;
+    final BlockHasher.Cursor cursor;
+    long position;
+
+    Chunk(final long start, final long end){
+      this.position = start;
+      this.end = end;
+      this.cursor = mHasher != null ? mHasher.open(start) : null;
+    }
+
+    @Override public boolean onBlockWritten(final long position, final int count) {
+      this.position = position;
+      final long downloaded = mBytesDownloaded.addAndGet(count);
+      if (mListener != null){
+        mListener.onProgress(downloaded, mSize);
+      }
+      return !mCancelled;
+    }
+  }
+
+  /**
+   * Thrown when the server doesn't support byte ranges. Callers can fall back
+   * to a single stream {@link MapbookDownloader}.
+   */
+  public static class UnsupportedRangeException extends IOException {
+    UnsupportedRangeException(final String message){
+      super(message);
+    }
+  }
+}
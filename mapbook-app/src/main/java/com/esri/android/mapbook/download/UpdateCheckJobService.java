@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.content.Intent;
+import android.support.v4.content.LocalBroadcastManager;
+import android.util.Log;
+import com.esri.android.mapbook.ApplicationModule;
+import com.esri.android.mapbook.MapBookApplication;
+import com.esri.android.mapbook.R;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.IOException;
+
+/**
+ * Runs the update checks scheduled by the {@link UpdateCheckScheduler}. The
+ * {@link UpdateChecker} decides whether the portal has to be contacted; the
+ * resulting modified date is broadcast to the UI with the BROADCAST_ACTION.
+ * A broadcast with no extras means the check failed. Failed checks aren't
+ * rescheduled by the job, the checker's backoff decides when the next attempt
+ * may contact the portal.
+ */
+public class UpdateCheckJobService extends JobService {
+
+  @Inject @Named("mPortalItemId") String mPortalItemId;
+  @Inject @Named("portalUrl") String mPortalUrl;
+  @Inject CredentialService mCredentialService;
+  @Inject UpdateChecker mUpdateChecker;
+  @Inject PortalMetadataCache mMetadataCache;
+
+  private static final String TAG = UpdateCheckJobService.class.getSimpleName();
+
+  /**
+   * Inject dependencies
+   */
+  @Override public void onCreate() {
+    super.onCreate();
+    DaggerDownloadComponent.builder().applicationComponent(((MapBookApplication) getApplication())
+        .getComponent())
+        .applicationModule(new ApplicationModule(getApplicationContext()))
+        .downloadModule(new DownloadModule())
+        .build()
+        .inject(this);
+  }
+
+  /**
+   * Run the check on a worker thread, including the read of the cached
+   * result from the preferences.
+   * @param params - JobParameters
+   * @return boolean, true since the job finishes on the worker thread
+   */
+  @Override public boolean onStartJob(final JobParameters params) {
+    final Thread thread = new Thread(new Runnable() {
+      @Override public void run() {
+        runCheck(params);
+      }
+    }, "mmpk-update-check");
+    thread.start();
+    return true;
+  }
+
+  /**
+   * The portal item load can't be interrupted; its result is still cached
+   * when it completes.
+   * @param params - JobParameters
+   * @return boolean, false since the next periodic or one-off job will check again
+   */
+  @Override public boolean onStopJob(final JobParameters params) {
+    return false;
+  }
+
+  private void runCheck(final JobParameters params){
+    if (!mUpdateChecker.isCheckDue()){
+      Log.i(TAG, "Skipping update check, cached result is current or a backoff is pending");
+      broadcastModifiedDate(mUpdateChecker.getCachedModifiedMillis());
+      jobFinished(params, false);
+      return;
+    }
+    try {
+      final long modifiedMillis = mUpdateChecker.check(
+          new PortalItemModifiedDateSource(new PortalTokenSource(mPortalUrl, mCredentialService), mPortalUrl,
+              mPortalItemId, mMetadataCache), false);
+      Log.i(TAG, mMetadataCache.getNotModifiedCount() + " of " + mMetadataCache.getConditionalRequestCount()
+          + " conditional requests answered with not modified");
+      broadcastModifiedDate(modifiedMillis);
+    } catch (final IOException e){
+      Log.e(TAG, e.getClass().getSimpleName() + " " + e.getMessage());
+      if (e.getCause() != null){
+        Log.e(TAG, e.getCause().getMessage());
+      }
+      // Send a broadcast with no extras
+      broadcastIntent(new Intent(getString(R.string.BROADCAST_ACTION)));
+    }
+    jobFinished(params, false);
+  }
+
+  /**
+   * @param modifiedMillis - long, modified date of the portal item or UpdateChecker.UNKNOWN
+   */
+  private void broadcastModifiedDate(final long modifiedMillis){
+    if (modifiedMillis == UpdateChecker.UNKNOWN){
+      return;
+    }
+    broadcastIntent(new Intent(getString(R.string.BROADCAST_ACTION))
+        .putExtra(getString(R.string.LATEST_DATE), modifiedMillis));
+  }
+
+  /**
+   * Send the broadcast
+   * @param intent - Intent
+   */
+  private void broadcastIntent(final Intent intent) {
+    // Broadcasts the Intent to receivers in this app.
+    LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    Log.i(TAG, "Broadcast sent");
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Keeps the state of the {@link UpdateChecker} in SharedPreferences so the
+ * last known modified date survives the process.
+ */
+public class UpdateCheckPreferences implements UpdateChecker.Store {
+
+  private static final String PREFERENCES = "update_check";
+  private static final String KEY_MODIFIED = "modified";
+  private static final String KEY_CHECKED = "checked";
+  private static final String KEY_FAILURES = "failures";
+  private static final String KEY_RETRY = "retry";
+
+  private final SharedPreferences mPreferences;
+
+  public UpdateCheckPreferences(final Context context){
+    mPreferences = context.getApplicationContext().getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+  }
+
+  @Override public UpdateChecker.State load() {
+    return new UpdateChecker.State(mPreferences.getLong(KEY_MODIFIED, UpdateChecker.UNKNOWN),
+        mPreferences.getLong(KEY_CHECKED, UpdateChecker.UNKNOWN),
+        mPreferences.getInt(KEY_FAILURES, 0),
+        mPreferences.getLong(KEY_RETRY, 0));
+  }
+
+  @Override public void save(final UpdateChecker.State state) {
+    mPreferences.edit()
+        .putLong(KEY_MODIFIED, state.getModifiedMillis())
+        .putLong(KEY_CHECKED, state.getCheckedMillis())
+        .putInt(KEY_FAILURES, state.getFailures())
+        .putLong(KEY_RETRY, state.getRetryMillis())
+        .apply();
+  }
+}
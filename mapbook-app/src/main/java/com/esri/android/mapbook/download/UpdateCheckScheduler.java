@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+import com.esri.android.mapbook.R;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the {@link UpdateCheckJobService}. A periodic job checks the portal
+ * for a newer mapbook at the interval configured in app_settings.xml, and a
+ * one-off job can be requested when the cached result has expired. Both only
+ * run when the device has a network connection.
+ */
+public class UpdateCheckScheduler {
+
+  static final int PERIODIC_JOB_ID = 1002;
+  static final int ONE_OFF_JOB_ID = 1003;
+
+  public static final long INITIAL_BACKOFF_MILLIS = 30 * 1000;
+  private static final String TAG = UpdateCheckScheduler.class.getSimpleName();
+
+  private final Context mContext;
+
+  public UpdateCheckScheduler(final Context context){
+    mContext = context.getApplicationContext();
+  }
+
+  /**
+   * Schedule the periodic check unless it's already scheduled. The job
+   * is persisted, so it survives reboots.
+   * @return boolean, true if the job is scheduled
+   */
+  public boolean schedulePeriodic(){
+    if (isScheduled(PERIODIC_JOB_ID)){
+      return true;
+    }
+    final long intervalMillis = TimeUnit.MINUTES.toMillis(
+        mContext.getResources().getInteger(R.integer.update_check_interval_minutes));
+    final JobInfo jobInfo = new JobInfo.Builder(PERIODIC_JOB_ID, new ComponentName(mContext, UpdateCheckJobService.class))
+        .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+        .setPeriodic(intervalMillis)
+        .setPersisted(true)
+        .build();
+    return schedule(jobInfo);
+  }
+
+  /**
+   * Schedule a single check to run as soon as there's a network connection,
+   * unless one is already pending.
+   * @return boolean, true if the job is scheduled
+   */
+  public boolean scheduleOneOff(){
+    if (isScheduled(ONE_OFF_JOB_ID)){
+      return true;
+    }
+    final JobInfo jobInfo = new JobInfo.Builder(ONE_OFF_JOB_ID, new ComponentName(mContext, UpdateCheckJobService.class))
+        .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+        .setBackoffCriteria(INITIAL_BACKOFF_MILLIS, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+        .build();
+    return schedule(jobInfo);
+  }
+
+  /**
+   * Cancel the periodic and any pending one-off check, e.g. after signing out
+   */
+  public void cancel(){
+    getJobScheduler().cancel(PERIODIC_JOB_ID);
+    getJobScheduler().cancel(ONE_OFF_JOB_ID);
+  }
+
+  private boolean schedule(final JobInfo jobInfo){
+    final boolean scheduled = getJobScheduler().schedule(jobInfo) == JobScheduler.RESULT_SUCCESS;
+    if (!scheduled){
+      Log.e(TAG, "Unable to schedule update check job " + jobInfo.getId());
+    }
+    return scheduled;
+  }
+
+  private boolean isScheduled(final int jobId){
+    for (final JobInfo jobInfo : getJobScheduler().getAllPendingJobs()){
+      if (jobInfo.getId() == jobId){
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private JobScheduler getJobScheduler(){
+    return (JobScheduler) mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+  }
+}
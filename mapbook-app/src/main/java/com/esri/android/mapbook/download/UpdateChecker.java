@@ -0,0 +1,211 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import com.esri.android.mapbook.util.Clock;
+
+import java.io.IOException;
+
+/**
+ * Decides when the portal has to be asked for the modified date of the
+ * mapbook's portal item and remembers the last answer. A date fetched within
+ * the time to live is served from the {@link Store} without a round trip, so
+ * the UI can show whether an update is available as soon as it starts. Failed
+ * checks back off exponentially, doubling from the base delay up to the maximum,
+ * so a device without access to the portal doesn't retry on every launch.
+ * <P>
+ * The checker keeps no state of its own; instances created by different
+ * components see the same store.
+ */
+public class UpdateChecker {
+
+  public static final long UNKNOWN = -1;
+
+  /**
+   * Fetches the modified date of the portal item
+   */
+  public interface Source {
+    /**
+     * @return long, the modified date of the portal item in milliseconds
+     * @throws IOException if the portal can't be reached or the item can't be loaded
+     */
+    long fetchModifiedMillis() throws IOException;
+  }
+
+  /**
+   * Persists the {@link State} of the checker between checks
+   */
+  public interface Store {
+    State load();
+    void save(State state);
+  }
+
+  /**
+   * The outcome of the previous checks
+   */
+  public static final class State {
+
+    public static final State EMPTY = new State(UNKNOWN, UNKNOWN, 0, 0);
+
+    private final long mModifiedMillis;
+    private final long mCheckedMillis;
+    private final int mFailures;
+    private final long mRetryMillis;
+
+    /**
+     * @param modifiedMillis - long, last known modified date of the item or UNKNOWN
+     * @param checkedMillis - long, when the modified date was fetched or UNKNOWN
+     * @param failures - int, number of consecutive failed checks
+     * @param retryMillis - long, time before which no check is attempted after a failure
+     */
+    public State(final long modifiedMillis, final long checkedMillis, final int failures, final long retryMillis){
+      mModifiedMillis = modifiedMillis;
+      mCheckedMillis = checkedMillis;
+      mFailures = failures;
+      mRetryMillis = retryMillis;
+    }
+
+    public long getModifiedMillis(){
+      return mModifiedMillis;
+    }
+
+    public long getCheckedMillis(){
+      return mCheckedMillis;
+    }
+
+    public int getFailures(){
+      return mFailures;
+    }
+
+    public long getRetryMillis(){
+      return mRetryMillis;
+    }
+  }
+
+  private final Store mStore;
+  private final Clock mClock;
+  private final long mTtlMillis;
+  private final long mBaseBackoffMillis;
+  private final long mMaxBackoffMillis;
+
+  /**
+   * @param store - Store holding the result of previous checks
+   * @param clock - Clock
+   * @param ttlMillis - long, how long a fetched modified date is considered current
+   * @param baseBackoffMillis - long, delay after the first failed check
+   * @param maxBackoffMillis - long, upper bound of the delay between failed checks
+   */
+  public UpdateChecker(final Store store, final Clock clock, final long ttlMillis, final long baseBackoffMillis,
+      final long maxBackoffMillis){
+    if (baseBackoffMillis <= 0 || maxBackoffMillis < baseBackoffMillis){
+      throw new IllegalArgumentException("Invalid backoff " + baseBackoffMillis + ", " + maxBackoffMillis);
+    }
+    mStore = store;
+    mClock = clock;
+    mTtlMillis = ttlMillis;
+    mBaseBackoffMillis = baseBackoffMillis;
+    mMaxBackoffMillis = maxBackoffMillis;
+  }
+
+  /**
+   * Return the last known modified date without contacting the portal
+   * @return long, milliseconds or UNKNOWN if the portal has never been checked
+   */
+  public long getCachedModifiedMillis(){
+    return mStore.load().getModifiedMillis();
+  }
+
+  /**
+   * @return boolean, true if the cached modified date is within its time to live
+   */
+  public boolean isFresh(){
+    return isFresh(mStore.load(), mClock.currentTimeMillis());
+  }
+
+  /**
+   * A check is due when the cached date is missing or stale and no
+   * backoff from a previous failure is pending.
+   * @return boolean
+   */
+  public boolean isCheckDue(){
+    return isCheckDue(mStore.load(), mClock.currentTimeMillis());
+  }
+
+  /**
+   * Fetch the modified date from the source if a check is due, otherwise
+   * return the cached one.
+   * @param source - Source to fetch the date from
+   * @param force - boolean, true to fetch even if the cached date is fresh or a backoff is pending
+   * @return long, the modified date in milliseconds or UNKNOWN if it's not known yet
+   * @throws IOException if the source fails; the failure extends the backoff
+   */
+  public long check(final Source source, final boolean force) throws IOException {
+    final State state = mStore.load();
+    if (!force && !isCheckDue(state, mClock.currentTimeMillis())){
+      return state.getModifiedMillis();
+    }
+    final long modifiedMillis;
+    try {
+      modifiedMillis = source.fetchModifiedMillis();
+    } catch (final IOException e){
+      final int failures = state.getFailures() + 1;
+      final long now = mClock.currentTimeMillis();
+      mStore.save(new State(state.getModifiedMillis(), state.getCheckedMillis(), failures, now + getBackoffMillis(failures)));
+      throw e;
+    }
+    mStore.save(new State(modifiedMillis, mClock.currentTimeMillis(), 0, 0));
+    return modifiedMillis;
+  }
+
+  /**
+   * Forget the cached date and any pending backoff, e.g. after signing out
+   */
+  public void clear(){
+    mStore.save(State.EMPTY);
+  }
+
+  /**
+   * @param failures - int, number of consecutive failed checks, at least one
+   * @return long, delay before the next check is attempted
+   */
+  long getBackoffMillis(final int failures){
+    long backoff = mBaseBackoffMillis;
+    for (int i = 1; i < failures && backoff < mMaxBackoffMillis; i++){
+      backoff *= 2;
+    }
+    return Math.min(backoff, mMaxBackoffMillis);
+  }
+
+  private boolean isCheckDue(final State state, final long now){
+    return !isFresh(state, now) && now >= state.getRetryMillis();
+  }
+
+  private boolean isFresh(final State state, final long now){
+    return state.getCheckedMillis() != UNKNOWN && now - state.getCheckedMillis() < mTtlMillis
+        && now >= state.getCheckedMillis();
+  }
+}
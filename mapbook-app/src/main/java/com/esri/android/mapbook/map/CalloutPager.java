@@ -0,0 +1,227 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.map;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+import com.esri.android.mapbook.R;
+import com.esri.android.mapbook.data.Entry;
+import com.esri.android.mapbook.data.FeatureContent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The content of the callout shown for identified features, one feature at a
+ * time. Only the feature shown is bound: paging rebinds the same page, whose
+ * attribute rows are reused and only added when a feature has more attributes
+ * than any shown before. The callout view is kept for later taps, so building
+ * the callout takes the same time and memory however many features were hit.
+ * Features identified later, e.g. in a slower layer, are appended to the pages.
+ */
+public class CalloutPager {
+
+  /**
+   * Receives the events of the callout
+   */
+  public interface Listener {
+    /**
+     * @param content - FeatureContent now shown
+     */
+    void onFeatureShown(FeatureContent content);
+    void onClose();
+  }
+
+  private static final int PAGE_WIDTH = 600;
+
+  private final Context mContext;
+  private final Listener mListener;
+  private final View mCalloutView;
+  private final TextView mLayerTitle;
+  private final TextView mPopupCount;
+  private final Button mBtnPrev;
+  private final Button mBtnNext;
+  private final LinearLayout mPage;
+  private final LinearLayout.LayoutParams mRowParams = new LinearLayout.LayoutParams(PAGE_WIDTH,
+      ViewGroup.LayoutParams.WRAP_CONTENT);
+  // Attribute rows of the page, those beyond the entries shown are hidden
+  private final List<LinearLayout> mRows = new ArrayList<>();
+  private final List<FeatureContent> mContents = new ArrayList<>();
+  private int mIndex = 0;
+
+  /**
+   * @param context - Context the views are created with
+   * @param listener - Listener
+   */
+  public CalloutPager(final Context context, final Listener listener){
+    mContext = context;
+    mListener = listener;
+    mCalloutView = LayoutInflater.from(context).inflate(R.layout.callout_content, null);
+    final LinearLayout mainLayout = (LinearLayout) mCalloutView.findViewById(R.id.calloutLinearLayout);
+
+    mPopupCount = (TextView) mCalloutView.findViewById(R.id.popupCount);
+    mPopupCount.setTextColor(Color.BLACK);
+    mLayerTitle = (TextView) mCalloutView.findViewById(R.id.layerName);
+    mLayerTitle.setTextColor(Color.BLACK);
+    mLayerTitle.setTypeface(null, Typeface.BOLD);
+
+    mPage = new LinearLayout(context);
+    mPage.setOrientation(LinearLayout.VERTICAL);
+    mPage.setLayoutParams(new LinearLayout.LayoutParams(PAGE_WIDTH, ViewGroup.LayoutParams.WRAP_CONTENT));
+    mainLayout.addView(mPage);
+
+    // Set up buttons in the callout that navigate across
+    // all the feature content for the location
+    mBtnPrev = (Button) mCalloutView.findViewById(R.id.btnPrev);
+    mBtnNext = (Button) mCalloutView.findViewById(R.id.btnNext);
+    final Button btnClose = (Button) mCalloutView.findViewById(R.id.btnClose);
+    mBtnPrev.setOnClickListener(new View.OnClickListener() {
+      @Override public void onClick(final View v) {
+        showFeature(mIndex - 1);
+      }
+    });
+    mBtnNext.setOnClickListener(new View.OnClickListener() {
+      @Override public void onClick(final View v) {
+        showFeature(mIndex + 1);
+      }
+    });
+    btnClose.setOnClickListener(new View.OnClickListener() {
+      @Override public void onClick(final View v) {
+        mListener.onClose();
+      }
+    });
+  }
+
+  /**
+   * Show the first of the given features
+   * @param contents - List of FeatureContent, not empty
+   */
+  public void setContents(final List<FeatureContent> contents){
+    mContents.clear();
+    mContents.addAll(contents);
+    mIndex = -1;
+    showFeature(0);
+  }
+
+  /**
+   * Add features after those already paged through, showing
+   * the first of them if there were none before
+   * @param contents - List of FeatureContent
+   */
+  public void addContents(final List<FeatureContent> contents){
+    if (mContents.isEmpty()){
+      setContents(contents);
+      return;
+    }
+    mContents.addAll(contents);
+    updateNavigation();
+  }
+
+  /**
+   * @return int, the number of features paged through
+   */
+  public int getCount(){
+    return mContents.size();
+  }
+
+  /**
+   * @return View, the content of the callout
+   */
+  public View getView(){
+    return mCalloutView;
+  }
+
+  /**
+   * Bind the feature at the given index, if there's one
+   * @param index - int
+   */
+  private void showFeature(final int index){
+    if (index < 0 || index >= mContents.size() || index == mIndex){
+      return;
+    }
+    mIndex = index;
+    final FeatureContent content = mContents.get(index);
+    mLayerTitle.setText(content.getLayerName());
+    updateNavigation();
+
+    final List<Entry> entries = content.getEntries();
+    for (int i = 0; i < entries.size(); i++){
+      final LinearLayout row = i < mRows.size() ? mRows.get(i) : addRow();
+      final Entry entry = entries.get(i);
+      ((TextView) row.getChildAt(0)).setText(entry.getField());
+      ((TextView) row.getChildAt(1)).setText(entry.getValue());
+      row.setVisibility(View.VISIBLE);
+    }
+    for (int i = entries.size(); i < mRows.size(); i++){
+      mRows.get(i).setVisibility(View.GONE);
+    }
+    mListener.onFeatureShown(content);
+  }
+
+  /**
+   * Update the feature count and the visual cues for navigating features
+   */
+  private void updateNavigation(){
+    mPopupCount.setText(mIndex + 1 + " of " + mContents.size());
+    mBtnPrev.setAlpha(mIndex > 0 ? 1.0f : 0.3f);
+    mBtnNext.setAlpha(mIndex < mContents.size() - 1 ? 1.0f : 0.3f);
+  }
+
+  /**
+   * Add a row showing the column name and value of an attribute
+   * @return LinearLayout
+   */
+  private LinearLayout addRow(){
+    final LinearLayout entryLayout = new LinearLayout(mContext);
+    entryLayout.setOrientation(LinearLayout.HORIZONTAL);
+    entryLayout.setBackgroundColor(Color.WHITE);
+    entryLayout.setLayoutParams(mRowParams);
+
+    final TextView label = new TextView(mContext);
+    final LinearLayout.LayoutParams labelParams = new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1);
+    labelParams.setMargins(0,0,10,0);
+    label.setLayoutParams(labelParams);
+    label.setTextColor(Color.BLACK);
+    label.setTypeface(null, Typeface.BOLD);
+
+    final TextView value = new TextView(mContext);
+    value.setTextColor(Color.BLACK);
+    value.setLayoutParams(new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1));
+
+    entryLayout.addView(label);
+    entryLayout.addView(value);
+    mPage.addView(entryLayout);
+    mRows.add(entryLayout);
+    return entryLayout;
+  }
+}
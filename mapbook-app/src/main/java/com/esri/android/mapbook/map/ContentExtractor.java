@@ -26,67 +26,50 @@
 
 package com.esri.android.mapbook.map;
 
-import android.content.Context;
-import android.util.Log;
 import com.esri.android.mapbook.data.Entry;
+import com.esri.arcgisruntime.data.Feature;
+import com.esri.arcgisruntime.data.FeatureTable;
 import com.esri.arcgisruntime.data.Field;
 import com.esri.arcgisruntime.mapping.GeoElement;
 import com.esri.arcgisruntime.mapping.popup.Popup;
+import com.esri.arcgisruntime.mapping.popup.PopupDefinition;
 import com.esri.arcgisruntime.mapping.popup.PopupField;
-import com.esri.arcgisruntime.mapping.popup.PopupFieldFormat;
-import com.esri.arcgisruntime.mapping.popup.PopupManager;
 
 import javax.inject.Inject;
-import java.text.SimpleDateFormat;
-import java.util.List;
 import java.util.ArrayList;
-import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
- * This class extract a list of Entry items from a given popup
+ * This class extract a list of Entry items from a given popup.
+ * The fields of a layer are worked out once, from its popup definition or
+ * table schema, into a {@link FormatPlan} that's reused for every feature
+ * of the layer. Entries may be extracted on several threads at once.
  */
 public class ContentExtractor implements ContentExtractorContract {
 
-  private final Context mContext;
-  private static final String DATE_FORMAT = "MM-dd-yyyy";
-  private static final String TAG = ContentExtractor.class.getSimpleName();
+  // Plans by the popup definition or feature table they were compiled from
+  private final Map<Object, FormatPlan> mPlans = new WeakHashMap<>();
 
   @Inject
-  public ContentExtractor(final Context context){
-    mContext = context;
+  public ContentExtractor(){
   }
 
+  /**
+   * Extract the displayed fields of a popup that are text or dates
+   * @param popup - Popup
+   * @return - List<Entry></Entry>
+   */
   @Override public List<Entry> getPopupFields(final Popup popup) {
-
-    final SimpleDateFormat formatter = new SimpleDateFormat(DATE_FORMAT);
-    final PopupFieldFormat dateFormat = new PopupFieldFormat();
-    dateFormat.setDateFormat(PopupFieldFormat.DateFormat.SHORT_DATE_SHORT_TIME);
-
-    final PopupManager mPopupManager = new PopupManager(mContext, popup);
-    final List<Entry> entries = new ArrayList<>();
-    final List<PopupField> fields = mPopupManager.getDisplayedFields();
-    for (final PopupField field : fields) {
-      final Field.Type fieldType = mPopupManager.getFieldType(field);
-      final Object fieldValue = mPopupManager.getFieldValue(field);
-      final String fieldLabel = field.getLabel();
-      String value = "";
-      if (fieldType == Field.Type.DATE && fieldValue !=null ){
-        final GregorianCalendar date = (GregorianCalendar) fieldValue;
-        value = formatter.format(date.getTime());
-        final Entry entry = new Entry(fieldLabel, value);
-        entries.add(entry);
-
-      }else if (fieldType == Field.Type.TEXT && fieldValue != null) {
-        value = fieldValue.toString();
-        final Entry entry = new Entry(fieldLabel, value);
-        entries.add(entry);
-      }
-
+    final PopupDefinition definition = popup.getPopupDefinition();
+    final GeoElement geoElement = popup.getGeoElement();
+    FormatPlan plan = getPlan(definition);
+    if (plan == null){
+      plan = compilePopupPlan(definition, geoElement);
+      putPlan(definition, plan);
     }
-
-    return entries;
+    return plan.format(geoElement.getAttributes());
   }
 
   /**
@@ -95,31 +78,49 @@ public class ContentExtractor implements ContentExtractorContract {
    * @param geoElement - GeoElement
    * @return - List<Entry></Entry>
    */
-  @Override public List<Entry> getEntriesFromGeoElement(GeoElement geoElement) {
-    final SimpleDateFormat formatter = new SimpleDateFormat(DATE_FORMAT);
-    final PopupFieldFormat dateFormat = new PopupFieldFormat();
-    dateFormat.setDateFormat(PopupFieldFormat.DateFormat.SHORT_DATE_SHORT_TIME);
-
-    Map<String,Object> attrMap =geoElement.getAttributes();
-    List<Entry> entries = new ArrayList<>(attrMap.size());
-    Set<String> keys = attrMap.keySet();
-    for (String key: keys){
-      Object o = attrMap.get(key);
-      if (o != null){
-        String camelCase = key.substring(0,1) + key.substring(1).toLowerCase();
-        if (o instanceof GregorianCalendar){
-          final GregorianCalendar date = (GregorianCalendar) o;
-          final String value = formatter.format(date.getTime());
-
-          entries.add(new Entry(camelCase, value));
-        }else{
-          entries.add(new Entry(camelCase, o.toString()));
-        }
+  @Override public List<Entry> getEntriesFromGeoElement(final GeoElement geoElement) {
+    final Map<String,Object> attrMap = geoElement.getAttributes();
+    if (!(geoElement instanceof Feature) || ((Feature) geoElement).getFeatureTable() == null){
+      return FormatPlan.forAttributes(attrMap.keySet()).format(attrMap);
+    }
+    final FeatureTable table = ((Feature) geoElement).getFeatureTable();
+    FormatPlan plan = getPlan(table);
+    if (plan == null){
+      final List<String> fieldNames = new ArrayList<>();
+      for (final Field field : table.getFields()){
+        fieldNames.add(field.getName());
+      }
+      plan = FormatPlan.forAttributes(fieldNames);
+      putPlan(table, plan);
+    }
+    return plan.format(attrMap);
+  }
 
-        Log.i(TAG,o.toString());
+  /**
+   * Compile the visible fields of a popup definition that are text or dates,
+   * with their types read from the schema of the feature's table
+   */
+  private static FormatPlan compilePopupPlan(final PopupDefinition definition, final GeoElement geoElement){
+    final FeatureTable table = geoElement instanceof Feature ? ((Feature) geoElement).getFeatureTable() : null;
+    final FormatPlan.Builder builder = new FormatPlan.Builder();
+    for (final PopupField popupField : definition.getFields()){
+      if (!popupField.isVisible()){
+        continue;
+      }
+      final Field field = table != null ? table.getField(popupField.getFieldName()) : null;
+      final Field.Type fieldType = field != null ? field.getFieldType() : null;
+      if (fieldType == Field.Type.DATE || fieldType == Field.Type.TEXT){
+        builder.add(popupField.getFieldName(), popupField.getLabel());
       }
     }
-    return entries;
+    return builder.build();
   }
 
+  private synchronized FormatPlan getPlan(final Object source){
+    return mPlans.get(source);
+  }
+
+  private synchronized void putPlan(final Object source, final FormatPlan plan){
+    mPlans.put(source, plan);
+  }
 }
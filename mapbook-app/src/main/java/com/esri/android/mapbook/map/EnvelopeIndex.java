@@ -0,0 +1,317 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable grid of feature envelopes, answering which envelopes lie
+ * within a distance of a point without touching the features themselves.
+ * The envelopes are kept in flat arrays and each grid cell lists the
+ * envelopes overlapping it, so a query only looks at the few cells around
+ * the point. Envelopes spanning more than {@link #MAX_SPAN} cells in either
+ * direction, such as a polygon covering most of the map, go to a coarser
+ * grid instead of being copied into all of those cells; each grid has cells
+ * {@link #LEVEL_SCALE} times the size of the one before it.
+ * <P>
+ * Envelopes are identified by the order they were added, starting at 0.
+ * An index is safe to query from any thread once built.
+ */
+public class EnvelopeIndex {
+
+  /**
+   * Envelopes per cell the finest grid is sized for
+   */
+  static final int ENVELOPES_PER_CELL = 2;
+
+  static final int MAX_SPAN = 4;
+
+  static final int LEVEL_SCALE = 4;
+
+  private static final int[] NONE = new int[0];
+
+  private final double[] mBounds;
+  private final int mCount;
+  private final double mMinX;
+  private final double mMinY;
+  private final Level[] mLevels;
+
+  private EnvelopeIndex(final double[] bounds, final int count){
+    mBounds = bounds;
+    mCount = count;
+
+    double minX = Double.POSITIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < count; i++){
+      minX = Math.min(minX, bounds[4 * i]);
+      minY = Math.min(minY, bounds[4 * i + 1]);
+      maxX = Math.max(maxX, bounds[4 * i + 2]);
+      maxY = Math.max(maxY, bounds[4 * i + 3]);
+    }
+    if (count == 0){
+      minX = minY = maxX = maxY = 0;
+    }
+    mMinX = minX;
+    mMinY = minY;
+
+    // The finest cells are about square, with room for ENVELOPES_PER_CELL envelopes each
+    final double width = Math.max(maxX - minX, Double.MIN_NORMAL);
+    final double height = Math.max(maxY - minY, Double.MIN_NORMAL);
+    final double cells = Math.max(1, count / ENVELOPES_PER_CELL);
+    final double side = Math.sqrt(width * height / cells);
+    int columns = (int) Math.max(1, Math.min(cells, Math.ceil(width / side)));
+    int rows = (int) Math.max(1, Math.min(cells / columns + 1, Math.ceil(height / side)));
+    final List<Level> levels = new ArrayList<>();
+    while (true){
+      levels.add(new Level(columns, rows, width / columns, height / rows));
+      if (columns == 1 && rows == 1){
+        break;
+      }
+      columns = (columns + LEVEL_SCALE - 1) / LEVEL_SCALE;
+      rows = (rows + LEVEL_SCALE - 1) / LEVEL_SCALE;
+    }
+    mLevels = levels.toArray(new Level[levels.size()]);
+
+    // Count the envelopes of each cell, then fill the cells in a second pass
+    final int[] levelOf = new int[count];
+    for (int i = 0; i < count; i++){
+      int l = 0;
+      while (l < mLevels.length - 1 && !mLevels[l].fits(i)){
+        l++;
+      }
+      levelOf[i] = l;
+      mLevels[l].addTo(i, null);
+    }
+    final int[][] filled = new int[mLevels.length][];
+    for (int l = 0; l < mLevels.length; l++){
+      filled[l] = mLevels[l].allocate();
+    }
+    for (int i = 0; i < count; i++){
+      mLevels[levelOf[i]].addTo(i, filled[levelOf[i]]);
+    }
+  }
+
+  /**
+   * Find the envelopes within a distance of a point
+   * @param x - double, x coordinate of the point
+   * @param y - double, y coordinate of the point
+   * @param tolerance - double, the distance, in the units of the envelopes
+   * @param max - int, the number of envelopes returned at most
+   * @return int[] of the envelopes found, in the order they were added
+   */
+  public int[] query(final double x, final double y, final double tolerance, final int max){
+    if (mCount == 0 || max <= 0){
+      return NONE;
+    }
+    final double minX = x - tolerance;
+    final double minY = y - tolerance;
+    final double maxX = x + tolerance;
+    final double maxY = y + tolerance;
+
+    int[] found = NONE;
+    int size = 0;
+    for (final Level level : mLevels){
+      final int firstColumn = level.column(minX);
+      final int firstRow = level.row(minY);
+      final int lastColumn = level.column(maxX);
+      final int lastRow = level.row(maxY);
+      for (int row = firstRow; row <= lastRow; row++){
+        for (int column = firstColumn; column <= lastColumn; column++){
+          final int cell = row * level.mColumns + column;
+          for (int c = level.mCellStart[cell]; c < level.mCellStart[cell + 1]; c++){
+            final int i = level.mCellEnvelopes[c];
+            // An envelope spanning several of the cells is only reported from the first of them
+            if (Math.max(level.column(mBounds[4 * i]), firstColumn) != column
+                || Math.max(level.row(mBounds[4 * i + 1]), firstRow) != row
+                || !intersects(i, minX, minY, maxX, maxY)){
+              continue;
+            }
+            if (size == found.length){
+              found = Arrays.copyOf(found, Math.max(8, size * 2));
+            }
+            found[size++] = i;
+          }
+        }
+      }
+    }
+    Arrays.sort(found, 0, size);
+    return size == found.length && size <= max ? found : Arrays.copyOf(found, Math.min(size, max));
+  }
+
+  /**
+   * @return int, the number of envelopes in the index
+   */
+  public int size(){
+    return mCount;
+  }
+
+  /**
+   * @return long, approximate bytes held by the index
+   */
+  public long getMemoryBytes(){
+    long bytes = 8L * mBounds.length;
+    for (final Level level : mLevels){
+      bytes = bytes + 4L * (level.mCellStart.length + level.mCellEnvelopes.length);
+    }
+    return bytes;
+  }
+
+  /**
+   * @return int, the number of grids, from the finest to a single cell
+   */
+  int getLevelCount(){
+    return mLevels.length;
+  }
+
+  private boolean intersects(final int i, final double minX, final double minY, final double maxX,
+      final double maxY){
+    return mBounds[4 * i] <= maxX && mBounds[4 * i + 2] >= minX
+        && mBounds[4 * i + 1] <= maxY && mBounds[4 * i + 3] >= minY;
+  }
+
+  /**
+   * One of the grids, with the cells of the envelopes assigned to it
+   */
+  private final class Level {
+
+    final int mColumns;
+    final int mRows;
+    final double mCellWidth;
+    final double mCellHeight;
+    // Envelopes of cell i are mCellEnvelopes[mCellStart[i]] up to mCellEnvelopes[mCellStart[i + 1]]
+    final int[] mCellStart;
+    int[] mCellEnvelopes = NONE;
+
+    Level(final int columns, final int rows, final double cellWidth, final double cellHeight){
+      mColumns = columns;
+      mRows = rows;
+      mCellWidth = cellWidth;
+      mCellHeight = cellHeight;
+      mCellStart = new int[columns * rows + 1];
+    }
+
+    /**
+     * @param i - int, an envelope
+     * @return boolean, true if the envelope spans at most MAX_SPAN cells in each direction
+     */
+    boolean fits(final int i){
+      return column(mBounds[4 * i + 2]) - column(mBounds[4 * i]) < MAX_SPAN
+          && row(mBounds[4 * i + 3]) - row(mBounds[4 * i + 1]) < MAX_SPAN;
+    }
+
+    /**
+     * Count an envelope in the cells it overlaps, or add it to them once allocated
+     * @param i - int, an envelope
+     * @param filled - int[] of the next free position of each cell, null to count
+     */
+    void addTo(final int i, final int[] filled){
+      for (int row = row(mBounds[4 * i + 1]); row <= row(mBounds[4 * i + 3]); row++){
+        for (int column = column(mBounds[4 * i]); column <= column(mBounds[4 * i + 2]); column++){
+          if (filled == null){
+            mCellStart[row * mColumns + column + 1]++;
+          }else{
+            mCellEnvelopes[filled[row * mColumns + column]++] = i;
+          }
+        }
+      }
+    }
+
+    /**
+     * Allocate the cells for the envelopes counted
+     * @return int[] of the first position of each cell
+     */
+    int[] allocate(){
+      for (int cell = 0; cell < mColumns * mRows; cell++){
+        mCellStart[cell + 1] = mCellStart[cell + 1] + mCellStart[cell];
+      }
+      mCellEnvelopes = new int[mCellStart[mColumns * mRows]];
+      return Arrays.copyOf(mCellStart, mColumns * mRows);
+    }
+
+    int column(final double x){
+      return (int) Math.max(0, Math.min(mColumns - 1, Math.floor((x - mMinX) / mCellWidth)));
+    }
+
+    int row(final double y){
+      return (int) Math.max(0, Math.min(mRows - 1, Math.floor((y - mMinY) / mCellHeight)));
+    }
+  }
+
+  /**
+   * Collects the envelopes of an index
+   */
+  public static class Builder {
+
+    private double[] mBounds;
+    private int mCount = 0;
+
+    public Builder(){
+      this(16);
+    }
+
+    /**
+     * @param expected - int, the number of envelopes expected
+     */
+    public Builder(final int expected){
+      mBounds = new double[4 * Math.max(1, expected)];
+    }
+
+    /**
+     * Add an envelope, identified in the index by the number of envelopes added before it
+     * @param minX - double
+     * @param minY - double
+     * @param maxX - double
+     * @param maxY - double
+     * @return Builder
+     */
+    public Builder add(final double minX, final double minY, final double maxX, final double maxY){
+      if (4 * mCount == mBounds.length){
+        mBounds = Arrays.copyOf(mBounds, 2 * mBounds.length);
+      }
+      mBounds[4 * mCount] = Math.min(minX, maxX);
+      mBounds[4 * mCount + 1] = Math.min(minY, maxY);
+      mBounds[4 * mCount + 2] = Math.max(minX, maxX);
+      mBounds[4 * mCount + 3] = Math.max(minY, maxY);
+      mCount++;
+      return this;
+    }
+
+    /**
+     * @return int, the number of envelopes added
+     */
+    public int size(){
+      return mCount;
+    }
+
+    public EnvelopeIndex build(){
+      return new EnvelopeIndex(Arrays.copyOf(mBounds, 4 * mCount), mCount);
+    }
+  }
+}
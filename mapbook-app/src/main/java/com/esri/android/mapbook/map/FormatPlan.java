@@ -0,0 +1,133 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.map;
+
+import com.esri.android.mapbook.data.Entry;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How the attributes of a layer's features are turned into callout entries,
+ * compiled once from the layer's popup definition or table schema: the fields
+ * shown, in order, with their labels worked out ahead of time. Formatting a
+ * feature is then a single pass over its attributes. Plans are immutable and
+ * may be shared by threads; dates are formatted with a formatter per thread.
+ */
+public final class FormatPlan {
+
+  static final String DATE_FORMAT = "MM-dd-yyyy";
+
+  // SimpleDateFormat isn't thread safe, so each thread formatting dates has its own
+  private static final ThreadLocal<SimpleDateFormat> DATE_FORMATTER = new ThreadLocal<SimpleDateFormat>() {
+    @Override protected SimpleDateFormat initialValue() {
+      return new SimpleDateFormat(DATE_FORMAT);
+    }
+  };
+
+  private final String[] mFieldNames;
+  private final String[] mLabels;
+
+  private FormatPlan(final List<String> fieldNames, final List<String> labels){
+    mFieldNames = fieldNames.toArray(new String[fieldNames.size()]);
+    mLabels = labels.toArray(new String[labels.size()]);
+  }
+
+  /**
+   * Compile a plan for attributes without a popup, labelled by their field
+   * name with all but the first letter in lower case
+   * @param fieldNames - Collection of the field names, in the order they're shown
+   * @return FormatPlan
+   */
+  public static FormatPlan forAttributes(final Collection<String> fieldNames){
+    final Builder builder = new Builder();
+    for (final String fieldName : fieldNames){
+      builder.add(fieldName, toLabel(fieldName));
+    }
+    return builder.build();
+  }
+
+  /**
+   * @param fieldName - String
+   * @return String, the field name with all but the first letter in lower case
+   */
+  static String toLabel(final String fieldName){
+    if (fieldName.isEmpty()){
+      return fieldName;
+    }
+    return fieldName.substring(0,1) + fieldName.substring(1).toLowerCase();
+  }
+
+  /**
+   * Format the attributes of a feature. Fields without a value are left out.
+   * @param attributes - Map of attribute values by field name
+   * @return List of Entry
+   */
+  public List<Entry> format(final Map<String, Object> attributes){
+    final List<Entry> entries = new ArrayList<>(mFieldNames.length);
+    for (int i = 0; i < mFieldNames.length; i++){
+      final Object value = attributes.get(mFieldNames[i]);
+      if (value != null){
+        entries.add(new Entry(mLabels[i], formatValue(value)));
+      }
+    }
+    return entries;
+  }
+
+  private static String formatValue(final Object value){
+    if (value instanceof Calendar){
+      return DATE_FORMATTER.get().format(((Calendar) value).getTime());
+    }
+    return value.toString();
+  }
+
+  /**
+   * Builds a plan one displayed field at a time
+   */
+  public static final class Builder {
+    private final List<String> mFieldNames = new ArrayList<>();
+    private final List<String> mLabels = new ArrayList<>();
+
+    /**
+     * @param fieldName - String, the attribute the value is read from
+     * @param label - String, the label shown with the value
+     * @return Builder
+     */
+    public Builder add(final String fieldName, final String label){
+      mFieldNames.add(fieldName);
+      mLabels.add(label);
+      return this;
+    }
+
+    public FormatPlan build(){
+      return new FormatPlan(mFieldNames, mLabels);
+    }
+  }
+}
@@ -0,0 +1,339 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.map;
+
+import com.google.common.base.Ticker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the work following a tap on the map in stages, so only the parts that
+ * touch views run on the main thread: the identify itself runs in the runtime,
+ * extracting the attributes of the identified features runs on a worker
+ * executor, and the callout is bound on the main thread. A tap may identify
+ * its layers separately; each layer's results go through the stages as soon
+ * as they arrive, so they're shown without waiting for the slowest layer.
+ * <P>
+ * The results extracted for a tap are bounded: extraction claims them from the
+ * tap's budget, and once it's used up the identifies still running are
+ * cancelled. A new tap cancels the one before it, wherever it is in the
+ * pipeline, so a stale tap never shows its callout. The time spent in each
+ * stage of a completed tap is reported to the {@link LatencyListener}.
+ * <P>
+ * Taps are begun, and their identify results passed on, on the main thread.
+ */
+public class IdentifyPipeline {
+
+  /**
+   * The stages of a tap, in the order they run
+   */
+  public enum Stage {
+    IDENTIFY,
+    EXTRACT,
+    BIND
+  }
+
+  /**
+   * Extracts the content to show from the identify results, on the worker executor
+   * @param <R> - the identify results
+   * @param <C> - the content shown
+   */
+  public interface Extractor<R, C> {
+    C extract(R results) throws Exception;
+  }
+
+  /**
+   * Shows the content of a tap, on the main thread
+   * @param <C> - the content shown
+   */
+  public interface Binder<C> {
+    void bind(C content);
+    void onError(Throwable error);
+  }
+
+  /**
+   * Receives the latency of every tap that completed
+   */
+  public interface LatencyListener {
+    /**
+     * @param stageMillis - Map of the milliseconds spent in each stage by the slowest layer
+     * @param firstMillis - long, milliseconds from the tap until the first content was bound
+     * @param totalMillis - long, milliseconds from the tap until all its layers were done
+     */
+    void onTapCompleted(Map<Stage, Long> stageMillis, long firstMillis, long totalMillis);
+  }
+
+  private final ExecutorService mWorkerExecutor;
+  private final Executor mMainThreadExecutor;
+  private final Ticker mTicker;
+  private final LatencyListener mListener;
+  private final int mMaxResultsPerTap;
+  private Tap mCurrent = null;
+  private int mCancelledCount = 0;
+
+  /**
+   * @param workerExecutor - ExecutorService the attributes are extracted on
+   * @param mainThreadExecutor - Executor running its tasks on the main thread
+   * @param ticker - Ticker measuring the stages
+   * @param maxResultsPerTap - int, the number of results extracted for a tap at most
+   * @param listener - LatencyListener
+   */
+  public IdentifyPipeline(final ExecutorService workerExecutor, final Executor mainThreadExecutor,
+      final Ticker ticker, final int maxResultsPerTap, final LatencyListener listener){
+    mWorkerExecutor = workerExecutor;
+    mMainThreadExecutor = mainThreadExecutor;
+    mTicker = ticker;
+    mMaxResultsPerTap = maxResultsPerTap;
+    mListener = listener;
+  }
+
+  /**
+   * Begin a tap, cancelling the previous one if it hasn't completed
+   * @return Tap
+   */
+  public Tap begin(){
+    cancel();
+    mCurrent = new Tap();
+    return mCurrent;
+  }
+
+  /**
+   * Cancel the current tap, e.g. because the map is going away
+   */
+  public void cancel(){
+    if (mCurrent != null && mCurrent.cancel()){
+      mCancelledCount++;
+    }
+    mCurrent = null;
+  }
+
+  /**
+   * @return int, the number of taps cancelled before they completed
+   */
+  public int getCancelledCount(){
+    return mCancelledCount;
+  }
+
+  /**
+   * A tap on the map, its layers' results moving through the stages of the pipeline
+   */
+  public final class Tap {
+
+    private final long mStartNanos = mTicker.read();
+    private final Map<Stage, Long> mStageMillis = new EnumMap<>(Stage.class);
+    private volatile boolean mCancelled = false;
+    private boolean mCompleted = false;
+    private int mPendingParts = 1;
+    private long mFirstBindNanos = -1;
+    private Runnable mCompletion = null;
+    // Guarded by this
+    private final List<Future<?>> mIdentifyFutures = new ArrayList<>();
+    private final List<Future<?>> mExtractFutures = new ArrayList<>();
+    private int mBudget = mMaxResultsPerTap;
+
+    private Tap(){}
+
+    /**
+     * @param parts - int, the number of identify results the tap waits for, 1 unless set
+     */
+    public void expect(final int parts){
+      mPendingParts = parts;
+      if (parts == 0){
+        complete();
+      }
+    }
+
+    /**
+     * @param completion - Runnable run on the main thread once every part
+     *                   of the tap is done, unless it's cancelled
+     */
+    public void setCompletion(final Runnable completion){
+      mCompletion = completion;
+    }
+
+    /**
+     * @param identifyFuture - Future of an identify, cancelled with the tap
+     *                       or when the tap's budget is used up
+     */
+    public synchronized void addIdentifyFuture(final Future<?> identifyFuture){
+      mIdentifyFutures.add(identifyFuture);
+      // Layers answered without an identify may have used up the budget already
+      if (mBudget == 0){
+        identifyFuture.cancel(true);
+      }
+    }
+
+    public boolean isCancelled(){
+      return mCancelled;
+    }
+
+    /**
+     * Claim up to the given number of results from the tap's budget. Once the
+     * budget is used up, the identifies still running are cancelled.
+     * May be called on any thread.
+     * @param max - int, the results wanted
+     * @return int, the results that may be extracted, 0 once the budget is used up
+     */
+    public synchronized int claim(final int max){
+      final int granted = Math.max(0, Math.min(max, mBudget));
+      mBudget = mBudget - granted;
+      if (mBudget == 0){
+        for (final Future<?> future : mIdentifyFutures){
+          future.cancel(true);
+        }
+      }
+      return granted;
+    }
+
+    /**
+     * Return results claimed but not extracted to the budget
+     * @param unused - int
+     */
+    public synchronized void refund(final int unused){
+      mBudget = mBudget + unused;
+    }
+
+    /**
+     * An identify completed, extract its content on the worker executor
+     * and bind it on the main thread, unless the tap is cancelled meanwhile
+     * @param results - the identify results
+     * @param extractor - Extractor
+     * @param binder - Binder
+     * @param <R> - the identify results
+     * @param <C> - the content shown
+     */
+    public <R, C> void identified(final R results, final Extractor<R, C> extractor, final Binder<C> binder){
+      if (mCancelled){
+        return;
+      }
+      final long identifiedNanos = mTicker.read();
+      recordStage(Stage.IDENTIFY, mStartNanos, identifiedNanos);
+      final Future<?> extraction = mWorkerExecutor.submit(new Runnable() {
+        @Override public void run() {
+          if (mCancelled){
+            return;
+          }
+          try {
+            final C content = extractor.extract(results);
+            final long extractedNanos = mTicker.read();
+            mMainThreadExecutor.execute(new Runnable() {
+              @Override public void run() {
+                if (mCancelled){
+                  return;
+                }
+                recordStage(Stage.EXTRACT, identifiedNanos, extractedNanos);
+                binder.bind(content);
+                final long boundNanos = mTicker.read();
+                recordStage(Stage.BIND, extractedNanos, boundNanos);
+                if (mFirstBindNanos < 0){
+                  mFirstBindNanos = boundNanos;
+                }
+                partDone();
+              }
+            });
+          } catch (final Exception e){
+            mMainThreadExecutor.execute(new Runnable() {
+              @Override public void run() {
+                if (!mCancelled){
+                  binder.onError(e);
+                  partDone();
+                }
+              }
+            });
+          }
+        }
+      });
+      synchronized (this){
+        mExtractFutures.add(extraction);
+      }
+    }
+
+    /**
+     * A part of the tap produced no results, e.g. its identify failed or was cancelled
+     */
+    public void skipped(){
+      if (!mCancelled){
+        partDone();
+      }
+    }
+
+    private void partDone(){
+      mPendingParts--;
+      if (mPendingParts == 0){
+        complete();
+      }
+    }
+
+    private void complete(){
+      mCompleted = true;
+      if (mCompletion != null){
+        mCompletion.run();
+      }
+      final long totalNanos = mTicker.read() - mStartNanos;
+      final long firstNanos = mFirstBindNanos < 0 ? totalNanos : mFirstBindNanos - mStartNanos;
+      mListener.onTapCompleted(Collections.unmodifiableMap(mStageMillis),
+          TimeUnit.NANOSECONDS.toMillis(firstNanos), TimeUnit.NANOSECONDS.toMillis(totalNanos));
+    }
+
+    /**
+     * Keep the time of the slowest part in each stage
+     */
+    private void recordStage(final Stage stage, final long startNanos, final long endNanos){
+      final long millis = TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos);
+      final Long slowest = mStageMillis.get(stage);
+      if (slowest == null || millis > slowest){
+        mStageMillis.put(stage, millis);
+      }
+    }
+
+    /**
+     * @return boolean, true if the tap hadn't completed yet
+     */
+    private boolean cancel(){
+      if (mCompleted || mCancelled){
+        return false;
+      }
+      mCancelled = true;
+      synchronized (this){
+        for (final Future<?> future : mIdentifyFutures){
+          future.cancel(true);
+        }
+        for (final Future<?> future : mExtractFutures){
+          future.cancel(true);
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.map;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Legends of the layers in a map, fetched once per layer and shared by every
+ * bind of the layer's row. A request for a legend that's still being fetched
+ * waits for the same fetch; a fetch that fails isn't cached, so the legend is
+ * fetched again the next time it's needed. The cache isn't thread safe, it's
+ * used on the main thread where the fetches complete.
+ * @param <K> - the layer type
+ * @param <V> - the legend type
+ */
+public class LegendCache<K, V> {
+
+  /**
+   * Fetches the legend of a layer, calling back once it's fetched or failed
+   * @param <K> - the layer type
+   * @param <V> - the legend type
+   */
+  public interface Fetcher<K, V> {
+    void fetch(K layer, Callback<V> callback);
+  }
+
+  /**
+   * Receives a legend requested from the cache
+   * @param <V> - the legend type
+   */
+  public interface Callback<V> {
+    void onLegend(V legend);
+    void onFailed(Throwable error);
+  }
+
+  private final Fetcher<K, V> mFetcher;
+  private final Map<K, V> mLegends = new HashMap<>();
+  // Callbacks waiting for fetches in flight, by layer
+  private final Map<K, List<Callback<V>>> mPending = new HashMap<>();
+  private int mFetchCount = 0;
+
+  /**
+   * @param fetcher - Fetcher for legends that aren't cached
+   */
+  public LegendCache(final Fetcher<K, V> fetcher){
+    mFetcher = fetcher;
+  }
+
+  /**
+   * Get the legend of a layer. A cached legend is delivered before this method returns.
+   * @param layer - the layer
+   * @param callback - Callback, may be null to only fetch the legend
+   */
+  public void get(final K layer, final Callback<V> callback){
+    final V legend = mLegends.get(layer);
+    if (legend != null){
+      if (callback != null){
+        callback.onLegend(legend);
+      }
+      return;
+    }
+    List<Callback<V>> waiting = mPending.get(layer);
+    if (waiting != null){
+      if (callback != null){
+        waiting.add(callback);
+      }
+      return;
+    }
+    final List<Callback<V>> fetchWaiting = new ArrayList<>();
+    if (callback != null){
+      fetchWaiting.add(callback);
+    }
+    mPending.put(layer, fetchWaiting);
+    mFetchCount++;
+    mFetcher.fetch(layer, new Callback<V>() {
+      @Override public void onLegend(final V fetched) {
+        final List<Callback<V>> callbacks = takePending(layer, fetchWaiting);
+        if (callbacks == null){
+          // Cleared while fetching
+          return;
+        }
+        mLegends.put(layer, fetched);
+        for (final Callback<V> c : callbacks){
+          c.onLegend(fetched);
+        }
+      }
+
+      @Override public void onFailed(final Throwable error) {
+        final List<Callback<V>> callbacks = takePending(layer, fetchWaiting);
+        if (callbacks == null){
+          return;
+        }
+        for (final Callback<V> c : callbacks){
+          c.onFailed(error);
+        }
+      }
+    });
+  }
+
+  /**
+   * Take the callbacks waiting for a fetch that completed. A fetch dropped by
+   * {@link #clear()} or {@link #retainAll(Collection)} no longer owns the waiting
+   * list, which may belong to a later fetch of the same layer.
+   * @param layer - the layer
+   * @param waiting - List the fetch was started with
+   * @return List of the callbacks, or null if the fetch was dropped
+   */
+  private List<Callback<V>> takePending(final K layer, final List<Callback<V>> waiting){
+    if (mPending.get(layer) != waiting){
+      return null;
+    }
+    mPending.remove(layer);
+    return waiting;
+  }
+
+  /**
+   * Fetch the legends of the given layers ahead of them being shown
+   * @param layers - Collection of layers
+   */
+  public void prefetch(final Collection<? extends K> layers){
+    for (final K layer : layers){
+      get(layer, null);
+    }
+  }
+
+  /**
+   * @param layer - the layer
+   * @return the cached legend or null
+   */
+  public V getIfPresent(final K layer){
+    return mLegends.get(layer);
+  }
+
+  /**
+   * Drop the legends of layers no longer in the map.
+   * Callbacks waiting for those layers' fetches aren't called.
+   * @param layers - Collection of the layers in the map
+   */
+  public void retainAll(final Collection<? extends K> layers){
+    final HashSet<K> retained = new HashSet<>(layers);
+    mLegends.keySet().retainAll(retained);
+    mPending.keySet().retainAll(retained);
+  }
+
+  /**
+   * Drop every legend, e.g. because another map is shown.
+   * Callbacks waiting for fetches in flight aren't called.
+   */
+  public void clear(){
+    mLegends.clear();
+    mPending.clear();
+  }
+
+  /**
+   * @return int, the number of fetches started
+   */
+  public int getFetchCount(){
+    return mFetchCount;
+  }
+}
@@ -84,4 +84,13 @@ public class MapActivity extends AppCompatActivity {
         .getComponent()).applicationModule(new ApplicationModule(getApplicationContext())).mapModule(new MapModule(fragment)).build().inject(this);
 
   }
+
+  /**
+   * Hand the mobile map package back to the cache shared with the mapbook screen
+   */
+  @Override
+  protected void onDestroy(){
+    mDataManager.release();
+    super.onDestroy();
+  }
 }
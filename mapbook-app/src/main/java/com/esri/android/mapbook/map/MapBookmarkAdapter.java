@@ -26,18 +26,25 @@
 
 package com.esri.android.mapbook.map;
 
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 import com.esri.android.mapbook.R;
+import com.esri.android.mapbook.util.IdentityDiffCallback;
+import com.esri.android.mapbook.util.StableIds;
 import com.esri.arcgisruntime.mapping.Bookmark;
 import com.esri.arcgisruntime.mapping.BookmarkList;
 import com.esri.arcgisruntime.mapping.Viewpoint;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
- * The adapter used by the recycler view to display bookmarks in the map
+ * The adapter used by the recycler view to display bookmarks in the map.
+ * Rows have stable ids and new bookmarks only rebind the rows that changed.
  */
 public class MapBookmarkAdapter extends RecyclerView.Adapter<MapBookmarkAdapter.MapBookmarkViewHolder> {
 
@@ -49,7 +56,8 @@ public class MapBookmarkAdapter extends RecyclerView.Adapter<MapBookmarkAdapter.
     void onItemClick(Viewpoint viewpoint);
   }
 
-  private BookmarkList mBookmarkList;
+  private List<Bookmark> mBookmarkList = new ArrayList<>();
+  private final StableIds<Bookmark> mIds = new StableIds<>();
   private final OnBookmarkClickListener mListener;
 
   /**
@@ -59,14 +67,24 @@ public class MapBookmarkAdapter extends RecyclerView.Adapter<MapBookmarkAdapter.
    */
   public MapBookmarkAdapter(final OnBookmarkClickListener listener){
     mListener = listener;
+    setHasStableIds(true);
   }
 
   /**
-   * Set the data items for this adapter
+   * Set the data items for this adapter, updating only
+   * the rows of bookmarks that were added, removed or moved
    * @param bookmarks - BookmarkList
    */
   public void setBoomarks(final BookmarkList bookmarks){
-    mBookmarkList = bookmarks;
+    final List<Bookmark> snapshot = new ArrayList<>(bookmarks);
+    final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new IdentityDiffCallback<>(mBookmarkList, snapshot));
+    mBookmarkList = snapshot;
+    mIds.retainAll(snapshot);
+    diff.dispatchUpdatesTo(this);
+  }
+
+  @Override public long getItemId(final int position) {
+    return mIds.getId(mBookmarkList.get(position));
   }
 
   /**
@@ -106,7 +124,7 @@ public class MapBookmarkAdapter extends RecyclerView.Adapter<MapBookmarkAdapter.
    * @return int
    */
   @Override public int getItemCount() {
-    return mBookmarkList == null ? 0 : mBookmarkList.size();
+    return mBookmarkList.size();
   }
 
   public class MapBookmarkViewHolder extends RecyclerView.ViewHolder{
@@ -29,8 +29,10 @@ package com.esri.android.mapbook.map;
 import com.esri.android.mapbook.BasePresenter;
 import com.esri.android.mapbook.BaseView;
 import com.esri.android.mapbook.data.FeatureContent;
+import com.esri.arcgisruntime.data.Feature;
 import com.esri.arcgisruntime.geometry.Geometry;
 import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.layers.FeatureLayer;
 import com.esri.arcgisruntime.mapping.ArcGISMap;
 import com.esri.arcgisruntime.mapping.view.IdentifyLayerResult;
 import com.esri.arcgisruntime.tasks.geocode.SuggestResult;
@@ -72,12 +74,25 @@ public interface MapContract {
     void loadMap(String path, int mapIndex);
 
     /**
-     * Returns list of featured content given the results of an identify operation.
+     * Returns list of featured content given the results of an identify operation,
+     * one item per identified feature. Called on a worker thread of the identify pipeline.
 
      * @param results - List of IdentifyLayerResults
+     * @param maxFeatures - int, the number of features returned at most
      * @return List of FeatureContent
      */
-    List<FeatureContent> identifyFeatures(List<IdentifyLayerResult> results);
+    List<FeatureContent> identifyFeatures(List<IdentifyLayerResult> results, int maxFeatures);
+
+    /**
+     * Returns list of featured content for features of a layer found without
+     * an identify operation, one item per feature. Called on a worker thread
+     * of the identify pipeline.
+     * @param featureLayer - FeatureLayer the features belong to
+     * @param features - List of Features
+     * @param maxFeatures - int, the number of features returned at most
+     * @return List of FeatureContent
+     */
+    List<FeatureContent> identifyFeatures(FeatureLayer featureLayer, List<Feature> features, int maxFeatures);
 
   }
   interface View extends BaseView<Presenter>{
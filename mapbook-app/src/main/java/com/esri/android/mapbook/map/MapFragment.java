@@ -29,8 +29,6 @@ package com.esri.android.mapbook.map;
 import android.app.SearchManager;
 import android.content.Context;
 import android.database.MatrixCursor;
-import android.graphics.Color;
-import android.graphics.Typeface;
 import android.graphics.drawable.BitmapDrawable;
 import android.os.Bundle;
 import android.provider.BaseColumns;
@@ -53,14 +51,13 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.MotionEvent;
 import android.view.inputmethod.InputMethodManager;
-import android.widget.Button;
 import android.widget.LinearLayout;
-import android.widget.TextView;
 import android.widget.Toast;
+import com.esri.android.mapbook.MapBookApplication;
 import com.esri.android.mapbook.R;
-import com.esri.android.mapbook.data.Entry;
 import com.esri.android.mapbook.data.FeatureContent;
 import com.esri.android.mapbook.mapbook.MapbookFragment;
+import com.esri.android.mapbook.util.MainThreadExecutor;
 import com.esri.arcgisruntime.concurrent.ListenableFuture;
 import com.esri.arcgisruntime.data.Feature;
 import com.esri.arcgisruntime.data.FeatureQueryResult;
@@ -68,6 +65,7 @@ import com.esri.arcgisruntime.geometry.Geometry;
 import com.esri.arcgisruntime.geometry.Point;
 import com.esri.arcgisruntime.layers.FeatureLayer;
 import com.esri.arcgisruntime.layers.Layer;
+import com.esri.arcgisruntime.layers.LayerContent;
 import com.esri.arcgisruntime.mapping.ArcGISMap;
 import com.esri.arcgisruntime.mapping.BookmarkList;
 import com.esri.arcgisruntime.mapping.LayerList;
@@ -80,10 +78,15 @@ import com.esri.arcgisruntime.mapping.view.IdentifyLayerResult;
 import com.esri.arcgisruntime.mapping.view.DefaultMapViewOnTouchListener;
 import com.esri.arcgisruntime.symbology.PictureMarkerSymbol;
 import com.esri.arcgisruntime.tasks.geocode.SuggestResult;
+import com.google.common.base.Ticker;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -111,9 +114,13 @@ public class MapFragment extends Fragment implements MapContract.View {
   private int mMapIndex = -1;
   private String mPath = null;
   private Callout mCallout = null;
-  private int currentLayoutId = 0;
+  private CalloutPager mCalloutPager = null;
   private String mMapTitle = null;
   private boolean mapLoaded = false; // Don't initialize map items when app returns from background state.
+  private IdentifyPipeline mIdentifyPipeline = null;
+  private double mIdentifyTolerance = 0;
+  private int mMaxResultsPerLayer = 1;
+  private SpatialIndexer mSpatialIndexer = null;
 
   /**
    * Default constructor
@@ -163,6 +170,23 @@ public class MapFragment extends Fragment implements MapContract.View {
 
     mMapView= (MapView) mRoot.findViewById(R.id.mapView);
 
+    mIdentifyTolerance = getResources().getInteger(R.integer.identify_tolerance_dp);
+    mMaxResultsPerLayer = getResources().getInteger(R.integer.identify_max_results_per_layer);
+    mIdentifyPipeline = new IdentifyPipeline(((MapBookApplication) getActivity().getApplication()).getIdentifyExecutor(),
+        new MainThreadExecutor(), Ticker.systemTicker(), getResources().getInteger(R.integer.identify_max_results_per_tap),
+        new IdentifyPipeline.LatencyListener() {
+      @Override public void onTapCompleted(final Map<IdentifyPipeline.Stage, Long> stageMillis, final long firstMillis,
+          final long totalMillis) {
+        Log.i(TAG, "Tap to first callout " + firstMillis + " ms, all layers " + totalMillis + " ms, slowest layer "
+            + stageMillis + ", " + mIdentifyPipeline.getCancelledCount() + " stale taps cancelled");
+      }
+    });
+    final String[] indexedLayers = getResources().getStringArray(R.array.spatial_index_layers);
+    if (indexedLayers.length > 0){
+      mSpatialIndexer = new SpatialIndexer(((MapBookApplication) getActivity().getApplication()).getIndexExecutor(),
+          Ticker.systemTicker(), Arrays.asList(indexedLayers),
+          getResources().getInteger(R.integer.spatial_index_max_features));
+    }
     mMapView.setOnTouchListener(new MapTouchListener(getActivity().getApplicationContext(), mMapView));
 
     // Enable fragment to have options menu
@@ -387,6 +411,12 @@ public class MapFragment extends Fragment implements MapContract.View {
     // Set up layers and bookmarks
     final List<Layer> layerList = map.getOperationalLayers();
     mContentAdapter.setLayerList(layerList);
+    // Fetch the legends now so the layer drawer opens without waiting for them
+    mContentAdapter.prefetchLegends();
+    // Index the layers that can be, so taps on them don't wait for the runtime
+    if (mSpatialIndexer != null){
+      mSpatialIndexer.index(map);
+    }
     final BookmarkList bookmarks = map.getBookmarks();
     mBookmarkAdapter.setBoomarks(bookmarks);
   }
@@ -425,7 +455,10 @@ public class MapFragment extends Fragment implements MapContract.View {
     style.setMaxWidth(350);
     style.setLeaderPosition(Callout.Style.LeaderPosition.UPPER_MIDDLE);
     mCallout.setLocation(resultPoint);
-    mCallout.setContent(calloutContent);
+    // The callout content is reused across taps, only set it when it changes
+    if (mCallout.getContent() != calloutContent){
+      mCallout.setContent(calloutContent);
+    }
     mCallout.setShowOptions(new Callout.ShowOptions(true,false,false));
     mCallout.setStyle(style);
 
@@ -506,6 +539,30 @@ public class MapFragment extends Fragment implements MapContract.View {
     }
   }
 
+  /**
+   * Dispose of the map view, so the map, which is shared through the
+   * package cache, can be shown again by the next map view
+   */
+  @Override
+  public void onDestroy() {
+    if (mIdentifyPipeline != null){
+      mIdentifyPipeline.cancel();
+    }
+    if (mSpatialIndexer != null){
+      for (final SpatialIndexer.LayerIndex index : mSpatialIndexer.getIndexes()){
+        Log.i(TAG, index.toString());
+      }
+      mSpatialIndexer.cancel();
+    }
+    if (mMapView != null){
+      if (mMapView.getMap() != null){
+        clearSelections();
+      }
+      mMapView.dispose();
+    }
+    super.onDestroy();
+  }
+
   /**
    * Clear selected features in all layers
    */
@@ -519,188 +576,63 @@ public class MapFragment extends Fragment implements MapContract.View {
     }
   }
   /**
-   * Build the view for the callout
-   * @param featureContents - List of FeatureContent
-   * @return The constructed View
+   * Get the callout content, created for the first tap and reused for later ones
+   * @return CalloutPager
    */
-  private View buildContentView(final List<FeatureContent> featureContents){
-    currentLayoutId = 0;
-    final LayoutInflater inflater = (LayoutInflater)getActivity().getApplicationContext().getSystemService
-        (Context.LAYOUT_INFLATER_SERVICE);
-    final View calloutView =  inflater.inflate(R.layout.callout_content,null);
-    final LinearLayout mainLayout = (LinearLayout) calloutView.findViewById(R.id.calloutLinearLayout);
-
-
-    // Set popup count
-    final TextView txtPopupCount = (TextView) calloutView.findViewById(R.id.popupCount) ;
-    txtPopupCount.setText("1 of " + featureContents.size());
-    txtPopupCount.setTextColor(Color.BLACK);
-
-    int layoutCt = 0;
-    final List<LinearLayout> calloutLayouts = new ArrayList<>();
-    final TextView layerTitle = (TextView) calloutView.findViewById(R.id.layerName);
-
-    final FeatureContent featureContent = featureContents.get(0);
-
-    //Use the first feature content item to set the title
-    layerTitle.setText(featureContent.getLayerName());
-    layerTitle.setTextColor(Color.BLACK);
-    layerTitle.setTypeface(null, Typeface.BOLD);
-
-    // Select the first feature
-    featureContent.getFeatureLayer().selectFeature(featureContent.getFeature());
-
-    // Iterate through the feature content and build out
-    // a layout for each  featured content object.
-
-    for (final FeatureContent content : featureContents){
-
-      final LinearLayout linearLayout = new LinearLayout(getActivity());
-      linearLayout.setOrientation(LinearLayout.VERTICAL);
-      final LinearLayout.LayoutParams layoutParams = new LinearLayout.LayoutParams(600,
-          ViewGroup.LayoutParams.WRAP_CONTENT);
-      linearLayout.setLayoutParams(layoutParams);
-      linearLayout.setId(layoutCt);
-
-      // Populate each Linear Layout with the column name and value of the feature
-      final List<Entry> entries = content.getEntries();
-      for (final Entry entry : entries){
-        final LinearLayout entryLayout = new LinearLayout(getActivity());
-        entryLayout.setOrientation(LinearLayout.HORIZONTAL);
-        entryLayout.setBackgroundColor(Color.WHITE);
-        entryLayout.setLayoutParams(layoutParams);
-        linearLayout.addView(entryLayout);
-        final TextView label = new TextView(getActivity());
-
-        final LinearLayout.LayoutParams labelParams = new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1);
-        labelParams.setMargins(0,0,10,0);
-        label.setLayoutParams(labelParams);
-        label.setTextColor(Color.BLACK);
-        label.setTypeface(null, Typeface.BOLD);
-        label.setText(entry.getField());
-
-        final TextView value = new TextView(getActivity());
-
-        value.setTextColor(Color.BLACK);
-        value.setText(entry.getValue());
-        final LinearLayout.LayoutParams valueParams = new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT,1);
-        value.setLayoutParams(valueParams);
-        entryLayout.addView(label);
-        entryLayout.addView(value);
+  private CalloutPager getCalloutPager(){
+    if (mCalloutPager == null){
+      mCalloutPager = new CalloutPager(getActivity(), new CalloutPager.Listener() {
+        @Override public void onFeatureShown(final FeatureContent content) {
+          // Select the feature shown
+          clearSelections();
+          if (content.getFeature() != null){
+            content.getFeatureLayer().selectFeature(content.getFeature());
+          }
+        }
 
-      }
-      calloutLayouts.add(linearLayout);
-      layoutCt = layoutCt +1;
+        @Override public void onClose() {
+          if ( mCallout.isShowing()){
+            mCallout.dismiss();
+          }
+        }
+      });
     }
-    mainLayout.addView(calloutLayouts.get(0));
-    mainLayout.requestLayout();
-
-    // Set up buttons in the callout that navigate across
-    // all the feature content for the location
-    final Button btnPrev = (Button) calloutView.findViewById(R.id.btnPrev);
-    final Button btnNext = (Button) calloutView.findViewById(R.id.btnNext);
-    final Button btnClose = (Button) calloutView.findViewById(R.id.btnClose) ;
+    return mCalloutPager;
+  }
 
-    // Disable the next button if we only have one FeatureContent item
-    if (featureContents.size() == 1){
-      btnNext.setAlpha(0.3f);
-    }else{
-      btnNext.setAlpha(1.0f);
+  /**
+   * @return List of the visible feature layers, in the order they're drawn,
+   * including those nested in group layers and other sublayer content
+   */
+  private List<FeatureLayer> getIdentifiableLayers(){
+    final List<FeatureLayer> featureLayers = new ArrayList<>();
+    for (final Layer layer : mMapView.getMap().getOperationalLayers()){
+      addIdentifiableLayers(layer, featureLayers);
     }
-
-    btnPrev.setOnClickListener(new View.OnClickListener() {
-      @Override public void onClick(final View v) {
-        processButtonEvent(mainLayout, featureContents, calloutLayouts, layerTitle, txtPopupCount, btnNext, btnPrev, "prev");
-      }
-    });
-
-
-    btnNext.setOnClickListener(new View.OnClickListener() {
-      @Override public void onClick(final View v) {
-        processButtonEvent(mainLayout, featureContents, calloutLayouts, layerTitle, txtPopupCount, btnNext, btnPrev, "next");
-      }
-    });
-
-    btnClose.setOnClickListener(new View.OnClickListener() {
-      @Override public void onClick(final View v) {
-        if ( mCallout.isShowing()){
-          mCallout.dismiss();
-        }
-      }
-    });
-    return  calloutView;
+    return featureLayers;
   }
 
   /**
-   * Toggle visibility of previous and next buttons based on currently viewed feature info
-   * @param mainLayout  LinearLayout
-   * @param featureContents List of FeatureContents
-   * @param calloutLayouts List of LinearLayouts
-   * @param layerTitle TextView representing title of layer where feature is located
-   * @param txtPopupCount TextView representing count of features identified
-   * @param btnNext Button for navigating to next feature
-   * @param btnPrev Button for navigating to previous feature
-   * @param btnName String representing flag for which button to process logic for
+   * Add the content if it's a visible feature layer, otherwise look for feature
+   * layers among its visible sublayer content
+   * @param content - LayerContent
+   * @param featureLayers - List the feature layers are added to
    */
-  private void processButtonEvent(final LinearLayout mainLayout, final List<FeatureContent> featureContents,
-      final List<LinearLayout> calloutLayouts, final TextView layerTitle, final TextView txtPopupCount, final Button btnNext, final Button btnPrev, final String btnName ){
-
-    int currentIndex = getCurrentLayoutId();
-    final View currentView = mainLayout.findViewById(currentIndex);
-    if (btnName.equalsIgnoreCase("next") && currentIndex < featureContents.size() - 1){
-      incrementCurrentLayoutId();
-
-    }else if (btnName.equalsIgnoreCase("prev") && currentIndex > 0){
-      decrementCurrentLayoutId();
+  private static void addIdentifiableLayers(final LayerContent content, final List<FeatureLayer> featureLayers){
+    if (!content.isVisible()){
+      return;
     }
-
-    final View newView = calloutLayouts.get(getCurrentLayoutId());
-    replaceView(mainLayout, currentView,newView);
-
-    // Reset the layer name in the callout
-    final FeatureContent activeContent = featureContents.get(getCurrentLayoutId());
-    final String layerName = activeContent.getLayerName();
-
-    // Clear any selections
-    clearSelections();
-
-    // Select the feature
-    activeContent.getFeatureLayer().selectFeature(activeContent.getFeature());
-
-    layerTitle.setText(layerName);
-
-    // Reset popup index
-    txtPopupCount.setText(getCurrentLayoutId() + 1 + " of " + featureContents.size() );
-
-    currentIndex = getCurrentLayoutId();
-
-    // Adjust visual cues for navigating features
-    if (currentIndex < featureContents.size() - 1){
-      btnNext.setAlpha(1.0f);
-    }else{
-      btnNext.setAlpha(0.3f);
+    if (content instanceof FeatureLayer){
+      featureLayers.add((FeatureLayer) content);
+      return;
     }
-    if (currentIndex > 0){
-      btnPrev.setAlpha(1.0f);
-    }else{
-      btnPrev.setAlpha(0.3f);
+    final List<LayerContent> subLayers = content.getSubLayerContents();
+    if (subLayers != null){
+      for (final LayerContent subLayer : subLayers){
+        addIdentifiableLayers(subLayer, featureLayers);
+      }
     }
   }
-  // Methods for keeping track of the current layout index
-  private int getCurrentLayoutId(){
-    return currentLayoutId;
-  }
-  private void incrementCurrentLayoutId(){
-    currentLayoutId = currentLayoutId + 1;
-  }
-  private void decrementCurrentLayoutId(){
-    currentLayoutId = currentLayoutId - 1;
-  }
-  private void replaceView(final LinearLayout mainView, final View oldView, final View newView){
-    mainView.removeView(oldView);
-    mainView.addView(newView);
-  }
-
 
   private class MapTouchListener extends DefaultMapViewOnTouchListener {
 
@@ -710,7 +642,13 @@ public class MapFragment extends Fragment implements MapContract.View {
 
     /**
      * When a user taps on the map, an identify action is initiated and
-     * any features found are displayed in a callout view.
+     * any features found are displayed in a callout view. Each visible
+     * feature layer is identified separately and its features added to the
+     * callout as soon as they're found. Layers that have been indexed are
+     * looked up in their index while they're visible at the map's scale,
+     * and only the features found there are fetched. The
+     * attributes of the features are extracted off the main thread; a tap
+     * that's still in progress is cancelled by the next one.
      * @param e - MotionEvent
      * @return boolean
      */
@@ -728,33 +666,148 @@ public class MapFragment extends Fragment implements MapContract.View {
       // get the screen point where user tapped
       final android.graphics.Point screenPoint = new android.graphics.Point((int) e.getX(), (int) e.getY());
 
-      final ListenableFuture<List<IdentifyLayerResult>> identifyLayers = mMapView.identifyLayersAsync(screenPoint,5d,false, 1);
-
-      identifyLayers.addDoneListener(new Runnable() {
-        @Override
-        public void run() {
-          try {
-            final Point clickedLocation = mMapView.screenToLocation(screenPoint);
-
-            final List<IdentifyLayerResult> results = identifyLayers.get();
-            final List<FeatureContent> content = mPresenter.identifyFeatures(results);
-            if (content.isEmpty()){
-              showMessage(getString(R.string.no_features_found));
-              displaySearchResult(clickedLocation, null, false);
-            }else{
-              final View v = buildContentView(content);
-              displaySearchResult(clickedLocation,v, false);
+      final IdentifyPipeline.Tap tap = mIdentifyPipeline.begin();
+      final Point mapPoint = mMapView.screenToLocation(screenPoint);
+      final CalloutBinder binder = new CalloutBinder(mapPoint);
+      tap.setCompletion(new Runnable() {
+        @Override public void run() {
+          binder.onTapCompleted();
+        }
+      });
+
+      // Identify each layer on its own, so its features are shown as soon as they're found
+      final List<FeatureLayer> layers = getIdentifiableLayers();
+      tap.expect(layers.size());
+      for (final FeatureLayer layer : layers){
+        // The runtime doesn't identify layers hidden at this scale, neither does the index
+        final SpatialIndexer.LayerIndex index = mSpatialIndexer != null && mapPoint != null
+            && layer.isVisibleAtScale(mMapView.getMapScale()) ? mSpatialIndexer.get(layer) : null;
+        if (index != null){
+          final ListenableFuture<FeatureQueryResult> query = index.identify(mapPoint, mIdentifyTolerance,
+              mMapView.getUnitsPerDensityIndependentPixel(), mMaxResultsPerLayer);
+          if (query == null){
+            identifiedFeatures(tap, layer, Collections.<Feature>emptyList(), binder);
+            continue;
+          }
+          tap.addIdentifyFuture(query);
+          query.addDoneListener(new Runnable() {
+            @Override public void run() {
+              if (tap.isCancelled()){
+                return;
+              }
+              final List<Feature> features = new ArrayList<>();
+              try {
+                for (final Feature feature : query.get()){
+                  if (features.size() == mMaxResultsPerLayer){
+                    break;
+                  }
+                  features.add(feature);
+                }
+              } catch (InterruptedException | ExecutionException | CancellationException ie) {
+                tap.skipped();
+                return;
+              }
+              identifiedFeatures(tap, layer, features, binder);
             }
+          });
+          continue;
+        }
+
+        final ListenableFuture<IdentifyLayerResult> identifyLayer = mMapView.identifyLayerAsync(layer, screenPoint,
+            mIdentifyTolerance, false, mMaxResultsPerLayer);
+        tap.addIdentifyFuture(identifyLayer);
 
-          } catch (InterruptedException | ExecutionException ie) {
-            Log.e(TAG,ie.getMessage());
+        identifyLayer.addDoneListener(new Runnable() {
+          @Override
+          public void run() {
+            if (tap.isCancelled()){
+              return;
+            }
+            final IdentifyLayerResult result;
+            try {
+              result = identifyLayer.get();
+            } catch (InterruptedException | ExecutionException | CancellationException ie) {
+              // Failed, or cancelled once enough features were found
+              tap.skipped();
+              return;
+            }
+            tap.identified(Collections.singletonList(result),
+                new IdentifyPipeline.Extractor<List<IdentifyLayerResult>, List<FeatureContent>>() {
+              @Override public List<FeatureContent> extract(final List<IdentifyLayerResult> identifyResults) {
+                final int wanted = result.getPopups().isEmpty() ? result.getElements().size() : result.getPopups().size();
+                final int claimed = tap.claim(wanted);
+                final List<FeatureContent> content = mPresenter.identifyFeatures(identifyResults, claimed);
+                tap.refund(claimed - content.size());
+                return content;
+              }
+            }, binder);
           }
+        });
+      }
 
+      return super.onSingleTapConfirmed(e);
+    }
+
+    /**
+     * Hand the features of a layer found in its index to the identify pipeline
+     * @param tap - IdentifyPipeline.Tap
+     * @param layer - FeatureLayer
+     * @param features - List of features found
+     * @param binder - CalloutBinder
+     */
+    private void identifiedFeatures(final IdentifyPipeline.Tap tap, final FeatureLayer layer,
+        final List<Feature> features, final CalloutBinder binder){
+      tap.identified(features, new IdentifyPipeline.Extractor<List<Feature>, List<FeatureContent>>() {
+        @Override public List<FeatureContent> extract(final List<Feature> found) {
+          final int claimed = tap.claim(found.size());
+          final List<FeatureContent> content = mPresenter.identifyFeatures(layer, found, claimed);
+          tap.refund(claimed - content.size());
+          return content;
         }
-      });
+      }, binder);
+    }
+  }
 
+  /**
+   * Shows the features identified for a tap in the callout, starting with
+   * those of the first layer that found any and adding the others as
+   * their layers complete
+   */
+  private class CalloutBinder implements IdentifyPipeline.Binder<List<FeatureContent>> {
 
-      return super.onSingleTapConfirmed(e);
+    private final Point mClickedLocation;
+    private boolean mCalloutShown = false;
+
+    CalloutBinder(final Point clickedLocation){
+      mClickedLocation = clickedLocation;
+    }
+
+    @Override public void bind(final List<FeatureContent> content) {
+      if (content.isEmpty()){
+        return;
+      }
+      final CalloutPager pager = getCalloutPager();
+      if (mCalloutShown){
+        pager.addContents(content);
+      }else{
+        pager.setContents(content);
+        displaySearchResult(mClickedLocation, pager.getView(), false);
+        mCalloutShown = true;
+      }
+    }
+
+    @Override public void onError(final Throwable error) {
+      Log.e(TAG, "Unable to extract identified features " + error.getMessage());
+    }
+
+    /**
+     * Every layer is done, let the user know if none had features
+     */
+    void onTapCompleted(){
+      if (!mCalloutShown){
+        showMessage(getString(R.string.no_features_found));
+        displaySearchResult(mClickedLocation, null, false);
+      }
     }
   }
 }
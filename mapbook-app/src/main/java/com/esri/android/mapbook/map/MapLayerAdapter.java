@@ -27,9 +27,12 @@
 package com.esri.android.mapbook.map;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -37,36 +40,92 @@ import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.TextView;
 import com.esri.android.mapbook.R;
+import com.esri.android.mapbook.util.IdentityDiffCallback;
+import com.esri.android.mapbook.util.StableIds;
 import com.esri.arcgisruntime.concurrent.ListenableFuture;
 import com.esri.arcgisruntime.layers.FeatureLayer;
 import com.esri.arcgisruntime.layers.Layer;
 import com.esri.arcgisruntime.layers.LegendInfo;
+import com.esri.arcgisruntime.symbology.Symbol;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 /**
- * Adapter used in the TOC (Table of Contents that display layers in map)
+ * Adapter used in the TOC (Table of Contents that display layers in map).
+ * Legends are fetched once per layer of the map and kept while the map is shown.
+ * Rows have stable ids and a new layer list only rebinds the rows that changed.
+ * The nested legend lists share one pool of legend views.
  */
 
 public class MapLayerAdapter extends RecyclerView.Adapter<MapLayerAdapter.MapLayerViewHolder> {
 
-  private List<Layer> mLayers ;
+  // Legend views kept for reuse by the legend lists of all rows
+  private static final int LEGEND_POOL_SIZE = 48;
+
+  private List<Layer> mLayers = new ArrayList<>();
+  private final StableIds<Layer> mIds = new StableIds<>();
   private final Context mContext;
+  private final RecyclerView.RecycledViewPool mLegendViewPool = new RecyclerView.RecycledViewPool();
   private final String TAG = MapLayerAdapter.class.getSimpleName();
 
+  // Legend swatches of every layer, bounded by the memory their bitmaps use
+  private final LruCache<Symbol, Bitmap> mSwatches = new LruCache<Symbol, Bitmap>(1024 * 1024) {
+    @Override protected int sizeOf(final Symbol symbol, final Bitmap bitmap) {
+      return bitmap.getAllocationByteCount();
+    }
+  };
+
+  private final LegendCache<Layer, List<LegendInfo>> mLegendCache =
+      new LegendCache<>(new LegendCache.Fetcher<Layer, List<LegendInfo>>() {
+        @Override public void fetch(final Layer layer, final LegendCache.Callback<List<LegendInfo>> callback) {
+          final ListenableFuture<List<LegendInfo>> legendInfoFuture = layer.fetchLegendInfosAsync();
+          legendInfoFuture.addDoneListener(new Runnable() {
+            @Override public void run() {
+              try {
+                callback.onLegend(legendInfoFuture.get());
+              } catch (InterruptedException | ExecutionException e) {
+                callback.onFailed(e);
+              }
+            }
+          });
+        }
+      });
+
   public MapLayerAdapter(final Context context){
     mContext = context;
+    mLegendViewPool.setMaxRecycledViews(0, LEGEND_POOL_SIZE);
+    setHasStableIds(true);
   }
 
   /**
-   * Set the data for this adapter
+   * Set the data for this adapter, updating only the rows of layers that were
+   * added, removed or moved. Legends of layers no longer in the list are dropped.
    * @param layers - List
    */
-  public void setLayerList(final List layers){
-
-    mLayers = layers;
+  public void setLayerList(final List<Layer> layers){
+    final List<Layer> snapshot = new ArrayList<>(layers);
+    final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new IdentityDiffCallback<>(mLayers, snapshot));
+    mLayers = snapshot;
+    mIds.retainAll(snapshot);
+    mLegendCache.retainAll(snapshot);
+    diff.dispatchUpdatesTo(this);
+  }
 
+  /**
+   * Start fetching the legends of the feature layers, so
+   * they're ready by the time the layers are shown
+   */
+  public void prefetchLegends(){
+    final List<Layer> featureLayers = new ArrayList<>();
+    for (final Layer layer : mLayers){
+      if (layer instanceof FeatureLayer){
+        featureLayers.add(layer);
+      }
+    }
+    mLegendCache.prefetch(featureLayers);
   }
   /**
    *This method calls onCreateViewHolder(ViewGroup, int) to create a new RecyclerView.ViewHolder
@@ -80,7 +139,18 @@ public class MapLayerAdapter extends RecyclerView.Adapter<MapLayerAdapter.MapLay
         from(viewGroup.getContext()).
         inflate(R.layout.map_layer_view, viewGroup, false);
 
-    return new MapLayerViewHolder(itemView);
+    final MapLayerViewHolder holder = new MapLayerViewHolder(itemView);
+    final LinearLayoutManager layoutManager = new LinearLayoutManager(mContext);
+    // Hand the legend views back to the shared pool when the row is recycled
+    layoutManager.setRecycleChildrenOnDetach(true);
+    holder.legendItems.setLayoutManager(layoutManager);
+    holder.legendItems.setRecycledViewPool(mLegendViewPool);
+    holder.legendItems.setAdapter(holder.legendAdapter);
+    return holder;
+  }
+
+  @Override public long getItemId(final int position) {
+    return mIds.getId(mLayers.get(position));
   }
 
   /**
@@ -92,35 +162,32 @@ public class MapLayerAdapter extends RecyclerView.Adapter<MapLayerAdapter.MapLay
     final Layer layer = mLayers.get(position);
     holder.layerName.setText(layer.getName());
 
-    final boolean layerVisible = (layer.isVisible());
-    holder.checkBox.setChecked(layerVisible);
+    // Remove the listener of the layer previously bound, setting the state mustn't toggle it
+    holder.checkBox.setOnCheckedChangeListener(null);
+    holder.checkBox.setChecked(layer.isVisible());
     holder.checkBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
       @Override public void onCheckedChanged(final CompoundButton buttonView, final boolean isChecked) {
-        if (layer.isVisible()){
-          layer.setVisible(false);
-        }else{
-          layer.setVisible(true);
-        }
+        layer.setVisible(isChecked);
       }
     });
-    final MapLegendAdapter legendAdapter = new MapLegendAdapter(mContext);
-    holder.legendItems.setLayoutManager(new LinearLayoutManager (mContext));
-    holder.legendItems.setAdapter(legendAdapter);
-    // Retrieve any legend info
-    if (layer instanceof FeatureLayer) {
-      final ListenableFuture<List<LegendInfo>> legendInfoFuture = layer.fetchLegendInfosAsync();
-      legendInfoFuture.addDoneListener(new Runnable() {
-        @Override public void run() {
-          try {
-            final List<LegendInfo> legendList = legendInfoFuture.get();
+    holder.layer = layer;
+    final MapLegendAdapter legendAdapter = holder.legendAdapter;
+    final List<LegendInfo> cached = mLegendCache.getIfPresent(layer);
+    legendAdapter.setLegendInfo(cached != null ? cached : Collections.<LegendInfo>emptyList());
+    // Retrieve any legend info, fetched only the first time the layer is shown
+    if (cached == null && layer instanceof FeatureLayer) {
+      mLegendCache.get(layer, new LegendCache.Callback<List<LegendInfo>>() {
+        @Override public void onLegend(final List<LegendInfo> legendList) {
+          // The holder may have been rebound to another layer meanwhile
+          if (holder.layer == layer){
             legendAdapter.setLegendInfo(legendList);
-            legendAdapter.notifyDataSetChanged();
-          } catch (InterruptedException | ExecutionException e) {
-            Log.e(TAG, e.getMessage());
           }
         }
-      });
 
+        @Override public void onFailed(final Throwable error) {
+          Log.e(TAG, error.getMessage());
+        }
+      });
     }
   }
   /**
@@ -128,7 +195,7 @@ public class MapLayerAdapter extends RecyclerView.Adapter<MapLayerAdapter.MapLay
    * @return int
    */
   @Override public int getItemCount() {
-    return mLayers == null ? 0 : mLayers.size();
+    return mLayers.size();
   }
 
   public class MapLayerViewHolder extends RecyclerView.ViewHolder{
@@ -136,12 +203,15 @@ public class MapLayerAdapter extends RecyclerView.Adapter<MapLayerAdapter.MapLay
     public final TextView layerName;
     public final CheckBox checkBox;
     public final RecyclerView legendItems;
+    final MapLegendAdapter legendAdapter;
+    Layer layer = null;
 
     public MapLayerViewHolder(final View view){
       super(view);
       checkBox = (CheckBox) view.findViewById(R.id.cbLayer) ;
       layerName = (TextView) view.findViewById(R.id.txtLayerName);
       legendItems = (RecyclerView) view.findViewById(R.id.legendRecylerView);
+      legendAdapter = new MapLegendAdapter(mContext, mSwatches);
     }
   }
 }
@@ -29,8 +29,10 @@ package com.esri.android.mapbook.map;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Color;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -38,6 +40,8 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 import com.esri.android.mapbook.R;
+import com.esri.android.mapbook.util.IdentityDiffCallback;
+import com.esri.android.mapbook.util.StableIds;
 import com.esri.arcgisruntime.concurrent.ListenableFuture;
 import com.esri.arcgisruntime.layers.LegendInfo;
 import com.esri.arcgisruntime.symbology.Symbol;
@@ -46,23 +50,53 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 
+/**
+ * Adapter showing the legend of a layer. Swatches are rendered once per symbol
+ * and kept in a cache shared by the legends of every layer, so rebinding a
+ * legend doesn't render and allocate its swatches again. Rows have stable ids
+ * and a new legend only rebinds the rows that changed.
+ */
 public class MapLegendAdapter extends RecyclerView.Adapter<MapLegendAdapter.MapLegendViewHodler> {
 
   private List<LegendInfo> mLegendInfoList = new ArrayList<>();
+  private final StableIds<LegendInfo> mIds = new StableIds<>();
   private final Context mContext;
+  private final LruCache<Symbol, Bitmap> mSwatches;
+  private final int mBackgroundColor;
   private final String TAG = MapLegendAdapter.class.getSimpleName();
 
-  public MapLegendAdapter(final Context context){
+  /**
+   * @param context - Context
+   * @param swatches - LruCache of rendered swatches by symbol
+   */
+  public MapLegendAdapter(final Context context, final LruCache<Symbol, Bitmap> swatches){
     mContext = context;
+    mSwatches = swatches;
 
+    // Match the background color of the bitmap to the background of the theme.
+    final TypedValue a = new TypedValue();
+    mContext.getTheme().resolveAttribute(android.R.attr.colorBackground, a, true);
+    mBackgroundColor =
+        a.type >= TypedValue.TYPE_FIRST_COLOR_INT && a.type <= TypedValue.TYPE_LAST_COLOR_INT ? a.data : Color.WHITE;
+    setHasStableIds(true);
   }
 
   /**
-   * Set the data for this adapter
+   * Set the data for this adapter, updating only the rows that changed
    * @param legendInfo List<LegendInfo></LegendInfo>
    */
   public void setLegendInfo(final List<LegendInfo> legendInfo){
+    if (legendInfo == mLegendInfoList){
+      return;
+    }
+    final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new IdentityDiffCallback<>(mLegendInfoList, legendInfo));
     mLegendInfoList = legendInfo;
+    mIds.retainAll(legendInfo);
+    diff.dispatchUpdatesTo(this);
+  }
+
+  @Override public long getItemId(final int position) {
+    return mIds.getId(mLegendInfoList.get(position));
   }
 
   /**
@@ -89,22 +123,24 @@ public class MapLegendAdapter extends RecyclerView.Adapter<MapLegendAdapter.MapL
     final LegendInfo legendInfo = mLegendInfoList.get(position);
     holder.legendName.setText(legendInfo.getName());
     final Symbol symbol = legendInfo.getSymbol();
+    holder.symbol = symbol;
 
-    final TypedValue a = new TypedValue();
-    final int color;
-
-    // Match the background color of the bitmap to the background of the theme.
-    mContext.getTheme().resolveAttribute(android.R.attr.colorBackground, a, true);
-    color =
-        a.type >= TypedValue.TYPE_FIRST_COLOR_INT && a.type <= TypedValue.TYPE_LAST_COLOR_INT ? a.data : Color.WHITE;
-
-    final ListenableFuture<Bitmap> future = symbol.createSwatchAsync(mContext, color);
+    final Bitmap swatch = mSwatches.get(symbol);
+    if (swatch != null){
+      holder.legendSymbol.setImageBitmap(swatch);
+      return;
+    }
+    holder.legendSymbol.setImageDrawable(null);
+    final ListenableFuture<Bitmap> future = symbol.createSwatchAsync(mContext, mBackgroundColor);
     future.addDoneListener(new Runnable() {
       @Override public void run() {
         try {
           final Bitmap bitmap = future.get();
-
-          holder.legendSymbol.setImageBitmap(bitmap);
+          mSwatches.put(symbol, bitmap);
+          // The holder may have been rebound to another legend meanwhile
+          if (holder.symbol == symbol){
+            holder.legendSymbol.setImageBitmap(bitmap);
+          }
         } catch (ExecutionException | InterruptedException e) {
           Log.e(TAG, e.getMessage());
         }
@@ -124,6 +160,7 @@ public class MapLegendAdapter extends RecyclerView.Adapter<MapLegendAdapter.MapL
 
     final ImageView legendSymbol;
     final TextView legendName;
+    Symbol symbol = null;
 
     public MapLegendViewHodler(final View itemView) {
       super(itemView);
@@ -26,9 +26,10 @@
 
 package com.esri.android.mapbook.map;
 
-import android.content.Context;
 import com.esri.android.mapbook.data.DataManager;
+import com.esri.android.mapbook.data.PackageCache;
 import com.esri.android.mapbook.util.MapbookApplicationScope;
+import com.esri.arcgisruntime.mapping.MobileMapPackage;
 import dagger.Module;
 import dagger.Provides;
 
@@ -49,13 +50,15 @@ public class MapModule {
 
   @Provides
   @MapbookApplicationScope
-  public DataManager provideDataManager(){ return new DataManager();}
+  public DataManager provideDataManager(final PackageCache<MobileMapPackage> packageCache){
+    return new DataManager(packageCache);
+  }
 
   @Provides
   @MapbookApplicationScope
   public MapContract.View providesMapContractView(){ return mView; }
 
   @Provides
-  public ContentExtractorContract providesPopupInteractor(final Context context){ return new ContentExtractor(context); }
+  public ContentExtractorContract providesPopupInteractor(){ return new ContentExtractor(); }
 
 }
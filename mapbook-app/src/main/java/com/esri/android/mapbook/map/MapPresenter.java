@@ -39,6 +39,7 @@ import com.esri.arcgisruntime.mapping.ArcGISMap;
 import com.esri.arcgisruntime.mapping.GeoElement;
 import com.esri.arcgisruntime.mapping.MobileMapPackage;
 import com.esri.arcgisruntime.mapping.popup.Popup;
+import com.esri.arcgisruntime.mapping.popup.PopupDefinition;
 import com.esri.arcgisruntime.mapping.view.IdentifyLayerResult;
 import com.esri.arcgisruntime.tasks.geocode.GeocodeResult;
 import com.esri.arcgisruntime.tasks.geocode.SuggestResult;
@@ -169,58 +170,87 @@ public class MapPresenter implements MapContract.Presenter {
   }
 
   /**
-   * Returns list of featured content given the results of an identify operation.
+   * Returns list of featured content given the results of an identify operation,
+   * one item per identified feature.
 
    * @param results - List of IdentifyLayerResults
+   * @param maxFeatures - int, the number of features returned at most
    * @return List of FeatureContent
    */
-  @Override public List<FeatureContent> identifyFeatures( final List<IdentifyLayerResult> results) {
+  @Override public List<FeatureContent> identifyFeatures( final List<IdentifyLayerResult> results, final int maxFeatures) {
     final List<FeatureContent> content = new ArrayList<>();
 
     for (final IdentifyLayerResult result : results){
 
+      // We only care about FeatureLayer results
+      if (!(result.getLayerContent() instanceof FeatureLayer)) {
+        continue;
+      }
       // a reference to the feature layer can be used, for example, to select identified features
-      FeatureLayer featureLayer = null;
+      final FeatureLayer featureLayer = (FeatureLayer) result.getLayerContent();
+      featureLayer.setSelectionWidth(3.0d);
 
-      // We only care about FeatureLayer results
-      if (result.getLayerContent() instanceof FeatureLayer) {
-        featureLayer = (FeatureLayer) result.getLayerContent();
-        final FeatureContent featureContent = new FeatureContent(featureLayer);
-        featureLayer.setSelectionWidth(3.0d);
-
-        final List<Popup> popups = result.getPopups();
-
-        if (popups.size() > 0) {
-          for (final Popup popup : popups){
-
-            final List<Entry> entries = popupInteractor.getPopupFields(popup);
-            featureContent.setEntries(entries);
-            // Select feature
-            final GeoElement element = popup.getGeoElement();
-            if (element instanceof Feature){
-              final Feature ft = (Feature) element;
-              if (featureLayer != null){
-                featureContent.setFeature(ft); // Assuming 1 popup per IdentifyLayerResult!!!
-              }
-            }
+      final List<Popup> popups = result.getPopups();
+
+      if (popups.size() > 0) {
+        for (final Popup popup : popups){
+          if (content.size() == maxFeatures){
+            return content;
           }
-        }else{ // No popups available, so get content from first GeoElement
-          if (result.getElements().size() > 0){
-            GeoElement geoElement = result.getElements().get(0);
-            if (geoElement instanceof Feature){
-              final Feature feature = (Feature) geoElement;
-              featureContent.setFeature(feature);
-              List<Entry> entries = popupInteractor.getEntriesFromGeoElement(geoElement);
-              featureContent.setEntries(entries);
-            }
+          final FeatureContent featureContent = new FeatureContent(featureLayer);
+          featureContent.setEntries(popupInteractor.getPopupFields(popup));
+          // Select feature
+          final GeoElement element = popup.getGeoElement();
+          if (element instanceof Feature){
+            featureContent.setFeature((Feature) element);
+          }
+          content.add(featureContent);
+        }
+      }else{ // No popups available, so get content from the GeoElements
+        for (final GeoElement geoElement : result.getElements()){
+          if (content.size() == maxFeatures){
+            return content;
+          }
+          if (geoElement instanceof Feature){
+            final FeatureContent featureContent = new FeatureContent(featureLayer);
+            featureContent.setFeature((Feature) geoElement);
+            featureContent.setEntries(popupInteractor.getEntriesFromGeoElement(geoElement));
+            content.add(featureContent);
           }
         }
-
-        content.add(featureContent);
       }
     }
     return content;
   }
 
+  /**
+   * Returns list of featured content for features of a layer found without
+   * an identify operation, one item per feature. The popup definition of the
+   * layer is used when popups are enabled, as an identify would have.
+   * @param featureLayer - FeatureLayer the features belong to
+   * @param features - List of Features
+   * @param maxFeatures - int, the number of features returned at most
+   * @return List of FeatureContent
+   */
+  @Override public List<FeatureContent> identifyFeatures(final FeatureLayer featureLayer, final List<Feature> features,
+      final int maxFeatures) {
+    final List<FeatureContent> content = new ArrayList<>();
+    featureLayer.setSelectionWidth(3.0d);
+    final PopupDefinition popupDefinition = featureLayer.isPopupEnabled() ? featureLayer.getPopupDefinition() : null;
 
+    for (final Feature feature : features){
+      if (content.size() == maxFeatures){
+        break;
+      }
+      final FeatureContent featureContent = new FeatureContent(featureLayer);
+      featureContent.setFeature(feature);
+      if (popupDefinition != null){
+        featureContent.setEntries(popupInteractor.getPopupFields(new Popup(feature, popupDefinition)));
+      }else{
+        featureContent.setEntries(popupInteractor.getEntriesFromGeoElement(feature));
+      }
+      content.add(featureContent);
+    }
+    return content;
+  }
 }
@@ -0,0 +1,431 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.map;
+
+import android.util.Log;
+import com.esri.arcgisruntime.concurrent.ListenableFuture;
+import com.esri.arcgisruntime.data.Feature;
+import com.esri.arcgisruntime.data.FeatureQueryResult;
+import com.esri.arcgisruntime.data.FeatureTable;
+import com.esri.arcgisruntime.data.Field;
+import com.esri.arcgisruntime.data.QueryParameters;
+import com.esri.arcgisruntime.geometry.Envelope;
+import com.esri.arcgisruntime.geometry.Geometry;
+import com.esri.arcgisruntime.geometry.GeometryEngine;
+import com.esri.arcgisruntime.geometry.GeometryType;
+import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.geometry.SpatialReference;
+import com.esri.arcgisruntime.layers.FeatureLayer;
+import com.esri.arcgisruntime.layers.Layer;
+import com.esri.arcgisruntime.loadable.LoadStatus;
+import com.esri.arcgisruntime.loadable.Loadable;
+import com.esri.arcgisruntime.mapping.ArcGISMap;
+import com.esri.arcgisruntime.symbology.ClassBreaksRenderer;
+import com.esri.arcgisruntime.symbology.MarkerSymbol;
+import com.esri.arcgisruntime.symbology.PictureMarkerSymbol;
+import com.esri.arcgisruntime.symbology.Renderer;
+import com.esri.arcgisruntime.symbology.SimpleMarkerSymbol;
+import com.esri.arcgisruntime.symbology.SimpleRenderer;
+import com.esri.arcgisruntime.symbology.Symbol;
+import com.esri.arcgisruntime.symbology.UniqueValueRenderer;
+import com.google.common.base.Ticker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexes the envelopes of the features of selected point and polygon layers
+ * in the background, so a tap on those layers is looked up in memory instead
+ * of with a runtime identify. Only the layers named in the configuration and
+ * with at most the configured number of features are indexed. An index holds
+ * the object ID and envelope of each feature; the features a tap lands on are
+ * fetched from the layer's table by their IDs. A layer that isn't indexed, or
+ * whose index isn't built yet, is left to the runtime identify.
+ * <P>
+ * Like the runtime identify, the index only holds the features matching the
+ * layer's definition expression, and points are found within the size of
+ * their symbol around the tap. An index built before the definition
+ * expression changed isn't used. Polygons and multipoints found by their
+ * envelope are checked against the tap by the query that fetches them, so a
+ * tap in the envelope but outside the polygon doesn't find it. Indexes are
+ * looked up on the main thread.
+ */
+public class SpatialIndexer {
+
+  private static final String TAG = SpatialIndexer.class.getSimpleName();
+
+  private final ExecutorService mExecutor;
+  private final Ticker mTicker;
+  private final Set<String> mLayerNames;
+  private final int mMaxFeatures;
+  private final Map<FeatureLayer, LayerIndex> mIndexes = new ConcurrentHashMap<>();
+  private final List<Future<?>> mBuilds = new ArrayList<>();
+
+  /**
+   * @param executor - ExecutorService the indexes are built on
+   * @param ticker - Ticker measuring the build and query times
+   * @param layerNames - Collection of the names of the layers to index
+   * @param maxFeatures - int, layers with more features than this aren't indexed
+   */
+  public SpatialIndexer(final ExecutorService executor, final Ticker ticker, final Collection<String> layerNames,
+      final int maxFeatures){
+    mExecutor = executor;
+    mTicker = ticker;
+    mLayerNames = new HashSet<>(layerNames);
+    mMaxFeatures = maxFeatures;
+  }
+
+  /**
+   * Start indexing the selected feature layers of a map, replacing the indexes of any map indexed before
+   * @param map - ArcGISMap
+   */
+  public void index(final ArcGISMap map){
+    cancel();
+    for (final Layer layer : map.getOperationalLayers()){
+      if (layer instanceof FeatureLayer && mLayerNames.contains(layer.getName())){
+        final FeatureLayer featureLayer = (FeatureLayer) layer;
+        mBuilds.add(mExecutor.submit(new Runnable() {
+          @Override public void run() {
+            build(map, featureLayer);
+          }
+        }));
+      }
+    }
+  }
+
+  /**
+   * Stop building indexes and discard those already built
+   */
+  public void cancel(){
+    for (final Future<?> build : mBuilds){
+      build.cancel(true);
+    }
+    mBuilds.clear();
+    synchronized (mIndexes){
+      mIndexes.clear();
+    }
+  }
+
+  /**
+   * @param layer - FeatureLayer
+   * @return LayerIndex of the layer, or null if it isn't indexed yet or its
+   * definition expression changed since it was indexed
+   */
+  public LayerIndex get(final FeatureLayer layer){
+    final LayerIndex index = mIndexes.get(layer);
+    return index != null && index.mWhereClause.equals(whereClauseOf(layer)) ? index : null;
+  }
+
+  /**
+   * @return List of the layer indexes built so far
+   */
+  public List<LayerIndex> getIndexes(){
+    return new ArrayList<>(mIndexes.values());
+  }
+
+  private void build(final ArcGISMap map, final FeatureLayer layer){
+    final long start = mTicker.read();
+    final FeatureTable table = layer.getFeatureTable();
+    try {
+      if (!awaitLoaded(map) || table == null || !awaitLoaded(table)){
+        return;
+      }
+      final GeometryType type = table.getGeometryType();
+      // The envelope of a point is the point itself, other geometries are checked once found
+      final boolean points = type == GeometryType.POINT;
+      if (!points && type != GeometryType.MULTIPOINT && type != GeometryType.POLYGON){
+        return;
+      }
+      final String objectIdField = objectIdFieldOf(table);
+      final float symbolRadius = type == GeometryType.POLYGON ? 0 : markerRadiusOf(layer.getRenderer());
+      if (objectIdField == null || symbolRadius < 0){
+        Log.i(TAG, "Not indexing " + layer.getName() + ", no object IDs or symbol size");
+        return;
+      }
+      final long count = table.getTotalFeatureCount();
+      if (count < 0 || count > mMaxFeatures){
+        Log.i(TAG, "Not indexing " + layer.getName() + ", " + count + " features");
+        return;
+      }
+
+      final String whereClause = whereClauseOf(layer);
+      final QueryParameters shown = new QueryParameters();
+      shown.setWhereClause(whereClause);
+      final FeatureQueryResult result = table.queryFeaturesAsync(shown).get();
+      final SpatialReference spatialReference = map.getSpatialReference();
+      final EnvelopeIndex.Builder builder = new EnvelopeIndex.Builder((int) count);
+      long[] objectIds = new long[(int) count];
+      int size = 0;
+      for (final Feature feature : result){
+        if (Thread.currentThread().isInterrupted()){
+          return;
+        }
+        Geometry geometry = feature.getGeometry();
+        final Object objectId = feature.getAttributes().get(objectIdField);
+        if (geometry == null || geometry.isEmpty() || !(objectId instanceof Number)){
+          continue;
+        }
+        if (spatialReference != null && !spatialReference.equals(geometry.getSpatialReference())){
+          geometry = GeometryEngine.project(geometry, spatialReference);
+        }
+        final Envelope extent = geometry.getExtent();
+        builder.add(extent.getXMin(), extent.getYMin(), extent.getXMax(), extent.getYMax());
+        if (size == objectIds.length){
+          objectIds = Arrays.copyOf(objectIds, Math.max(16, size * 2));
+        }
+        objectIds[size++] = ((Number) objectId).longValue();
+      }
+      final LayerIndex index = new LayerIndex(layer.getName(), table, builder.build(),
+          Arrays.copyOf(objectIds, size), whereClause, !points, symbolRadius, spatialReference,
+          TimeUnit.NANOSECONDS.toMillis(mTicker.read() - start));
+      synchronized (mIndexes){
+        // Not if the map was cancelled meanwhile
+        if (Thread.currentThread().isInterrupted()){
+          return;
+        }
+        mIndexes.put(layer, index);
+      }
+      Log.i(TAG, index.toString());
+    } catch (final InterruptedException e){
+      // Cancelled, the map is no longer shown
+    } catch (final Exception e){
+      // The layer is still identified by the runtime
+      Log.e(TAG, "Unable to index " + layer.getName() + " " + e.getMessage());
+    }
+  }
+
+  /**
+   * @param layer - FeatureLayer
+   * @return String, the where clause selecting the features the layer shows
+   */
+  private static String whereClauseOf(final FeatureLayer layer){
+    final String expression = layer.getDefinitionExpression();
+    return expression == null || expression.trim().isEmpty() ? "1=1" : expression;
+  }
+
+  /**
+   * @param table - FeatureTable
+   * @return String, the name of the object ID field, or null if the table has none
+   */
+  private static String objectIdFieldOf(final FeatureTable table){
+    for (final Field field : table.getFields()){
+      if (field.getFieldType() == Field.Type.OID){
+        return field.getName();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The distance from a point to the farthest edge of the largest marker
+   * the renderer draws, as the runtime identify finds a point wherever its
+   * symbol is tapped
+   * @param renderer - Renderer
+   * @return float, the distance in dp, or -1 if a symbol's size isn't known
+   */
+  private static float markerRadiusOf(final Renderer renderer){
+    final List<Symbol> symbols = new ArrayList<>();
+    if (renderer instanceof SimpleRenderer){
+      symbols.add(((SimpleRenderer) renderer).getSymbol());
+    } else if (renderer instanceof UniqueValueRenderer){
+      final UniqueValueRenderer uniqueValueRenderer = (UniqueValueRenderer) renderer;
+      symbols.add(uniqueValueRenderer.getDefaultSymbol());
+      for (final UniqueValueRenderer.UniqueValue value : uniqueValueRenderer.getUniqueValues()){
+        symbols.add(value.getSymbol());
+      }
+    } else if (renderer instanceof ClassBreaksRenderer){
+      final ClassBreaksRenderer classBreaksRenderer = (ClassBreaksRenderer) renderer;
+      symbols.add(classBreaksRenderer.getDefaultSymbol());
+      for (final ClassBreaksRenderer.ClassBreak classBreak : classBreaksRenderer.getClassBreaks()){
+        symbols.add(classBreak.getSymbol());
+      }
+    } else {
+      return -1;
+    }
+    float radius = 0;
+    for (final Symbol symbol : symbols){
+      final float size;
+      if (symbol == null){
+        // Features without a symbol aren't drawn
+        continue;
+      } else if (symbol instanceof SimpleMarkerSymbol){
+        size = ((SimpleMarkerSymbol) symbol).getSize();
+      } else if (symbol instanceof PictureMarkerSymbol){
+        final PictureMarkerSymbol picture = (PictureMarkerSymbol) symbol;
+        size = Math.max(picture.getWidth(), picture.getHeight());
+      } else {
+        return -1;
+      }
+      final MarkerSymbol marker = (MarkerSymbol) symbol;
+      final float offset = Math.max(Math.abs(marker.getOffsetX()), Math.abs(marker.getOffsetY()));
+      radius = Math.max(radius, size / 2 + offset);
+    }
+    return radius;
+  }
+
+  /**
+   * Load a map or table, waiting for it on the indexing thread
+   * @param loadable - Loadable
+   * @return boolean, true if it loaded
+   * @throws InterruptedException if cancelled while waiting
+   */
+  private static boolean awaitLoaded(final Loadable loadable) throws InterruptedException {
+    final CountDownLatch loaded = new CountDownLatch(1);
+    loadable.addDoneLoadingListener(new Runnable() {
+      @Override public void run() {
+        loaded.countDown();
+      }
+    });
+    loadable.loadAsync();
+    loaded.await();
+    return loadable.getLoadStatus() == LoadStatus.LOADED;
+  }
+
+  /**
+   * The index of one layer, with the statistics of building and querying it
+   */
+  public final class LayerIndex {
+
+    private final String mLayerName;
+    private final FeatureTable mTable;
+    private final EnvelopeIndex mIndex;
+    private final long[] mObjectIds;
+    private final String mWhereClause;
+    private final boolean mRefined;
+    private final float mSymbolRadius;
+    private final SpatialReference mSpatialReference;
+    private final long mBuildMillis;
+    private long mQueryCount = 0;
+    private long mQueryNanos = 0;
+
+    LayerIndex(final String layerName, final FeatureTable table, final EnvelopeIndex index, final long[] objectIds,
+        final String whereClause, final boolean refined, final float symbolRadius,
+        final SpatialReference spatialReference, final long buildMillis){
+      mLayerName = layerName;
+      mTable = table;
+      mIndex = index;
+      mObjectIds = objectIds;
+      mWhereClause = whereClause;
+      mRefined = refined;
+      mSymbolRadius = symbolRadius;
+      mSpatialReference = spatialReference;
+      mBuildMillis = buildMillis;
+    }
+
+    /**
+     * Find the features within a distance of a point in the index and
+     * start fetching them from the layer's table
+     * @param mapPoint - Point, in the spatial reference of the map
+     * @param tolerance - double, the distance in dp
+     * @param unitsPerDp - double, map units per dp at the current scale
+     * @param max - int, the number of points found at most; polygons and multipoints
+     *              are only checked against the tap when fetched, so the caller caps them
+     * @return ListenableFuture fetching the features found, or null if none was found
+     */
+    public ListenableFuture<FeatureQueryResult> identify(final Point mapPoint, final double tolerance,
+        final double unitsPerDp, final int max){
+      final long start = mTicker.read();
+      final double distance = (tolerance + mSymbolRadius) * unitsPerDp;
+      final int[] candidates = mIndex.query(mapPoint.getX(), mapPoint.getY(), distance,
+          mRefined ? Integer.MAX_VALUE : max);
+      mQueryNanos = mQueryNanos + mTicker.read() - start;
+      mQueryCount++;
+      if (candidates.length == 0){
+        return null;
+      }
+
+      final QueryParameters found = new QueryParameters();
+      found.setWhereClause(mWhereClause);
+      for (final int candidate : candidates){
+        found.getObjectIds().add(mObjectIds[candidate]);
+      }
+      if (mRefined){
+        found.setGeometry(new Envelope(mapPoint.getX() - distance, mapPoint.getY() - distance,
+            mapPoint.getX() + distance, mapPoint.getY() + distance, mSpatialReference));
+        found.setSpatialRelationship(QueryParameters.SpatialRelationship.INTERSECTS);
+      }
+      return mTable.queryFeaturesAsync(found);
+    }
+
+    /**
+     * @return String, the name of the layer indexed
+     */
+    public String getLayerName(){
+      return mLayerName;
+    }
+
+    /**
+     * @return int, the number of features indexed
+     */
+    public int getFeatureCount(){
+      return mIndex.size();
+    }
+
+    /**
+     * @return long, milliseconds from starting the build until the index was ready
+     */
+    public long getBuildMillis(){
+      return mBuildMillis;
+    }
+
+    /**
+     * @return long, approximate bytes held by the index and the object IDs of its features
+     */
+    public long getMemoryBytes(){
+      return mIndex.getMemoryBytes() + 8L * mObjectIds.length;
+    }
+
+    /**
+     * @return long, the number of taps looked up in the index
+     */
+    public long getQueryCount(){
+      return mQueryCount;
+    }
+
+    /**
+     * @return long, average microseconds to find the features of a tap in the index,
+     * or 0 before the first one
+     */
+    public long getAverageQueryMicros(){
+      return mQueryCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(mQueryNanos / mQueryCount);
+    }
+
+    @Override public String toString(){
+      return "Index of " + mLayerName + ": " + getFeatureCount() + " features built in " + mBuildMillis + " ms, "
+          + getMemoryBytes() / 1024 + " KB, " + mQueryCount + " taps at " + getAverageQueryMicros() + " us";
+    }
+  }
+}
@@ -27,7 +27,6 @@
 package com.esri.android.mapbook.mapbook;
 
 import android.Manifest;
-import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
@@ -43,13 +42,17 @@ import com.esri.android.mapbook.ApplicationModule;
 import com.esri.android.mapbook.MapBookApplication;
 import com.esri.android.mapbook.R;
 import com.esri.android.mapbook.data.FileManager;
-import com.esri.android.mapbook.download.PortalItemUpdateService;
+import com.esri.android.mapbook.download.UpdateCheckScheduler;
+import com.esri.android.mapbook.download.UpdateChecker;
 import com.esri.android.mapbook.util.ActivityUtils;
+import com.esri.android.mapbook.util.StartupTracer;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 
 /**
- * The MapbookActivity checks for READ EXTERNAL storage permissions, starts the background service
+ * The MapbookActivity checks for READ EXTERNAL storage permissions, schedules the background job
  * used to check if new versions of the mapbook exist, injects dependencies, and
  * adds the MapbookFragment.
  */
@@ -58,17 +61,20 @@ public class MapbookActivity extends AppCompatActivity implements ActivityCompat
   private static final int PERMISSION_TO_READ_EXTERNAL_STORAGE = 5;
   private View mLayout = null;
   private final String TAG = MapbookActivity.class.getSimpleName();
-  private boolean permissionsChecked = false;
   private boolean permissionsGranted = false;
   private boolean initialized = false;
 
   @Inject  FileManager mFilemanager;
   @Inject MapbookPresenter mMapbookPresenter;
+  @Inject UpdateChecker mUpdateChecker;
+  @Inject UpdateCheckScheduler mUpdateCheckScheduler;
+  @Inject @Named("storageExecutor") ListeningExecutorService mStorageExecutor;
 
   /**
    * On creation of the activity, set up the action bar title
    * and check that the user has granted permissions for reading
-   * external storage.
+   * external storage. If they have, the mapbook is shown right away
+   * instead of waiting for the activity to resume.
    * @param savedInstanceState - Bundle
    */
   @Override
@@ -90,16 +96,21 @@ public class MapbookActivity extends AppCompatActivity implements ActivityCompat
       toolbar.setNavigationIcon(null);
     }
 
+    // Can we read external storage? Only ask on a fresh start, a recreated
+    // activity either has its answer already or is still showing the request.
+    checkForReadStoragePermissions(savedInstanceState == null);
+    if (permissionsGranted){
+      initialize();
+    }
   }
 
+  /**
+   * Initialize once the user has granted the permission we asked for
+   */
   @Override
   final public void onPostResume(){
     super.onPostResume();
     Log.i(TAG,"onPostResume");
-    if (!permissionsChecked){
-      // Can we read external storage?
-      checkForReadStoragePermissions();
-    }
     if (permissionsGranted && !initialized){
       initialize();
     }
@@ -117,6 +128,7 @@ public class MapbookActivity extends AppCompatActivity implements ActivityCompat
     // Load presenter
     DaggerMapbookComponent.builder().applicationComponent(((MapBookApplication) getApplication())
         .getComponent()).applicationModule(new ApplicationModule(getApplicationContext())).mapbookModule(new MapbookModule(mapbookFragment)).build().inject(this);
+    getStartupTracer().mark(StartupTracer.Phase.GRAPH_BUILT);
 
     checkForUpdatedPortalItem();
     initialized = true;
@@ -152,29 +164,43 @@ public class MapbookActivity extends AppCompatActivity implements ActivityCompat
 
   /**
    * Determine if we're able to read external storage
+   * @param requestIfMissing - boolean, true to prompt the user when the permission hasn't been granted
    */
-  private void checkForReadStoragePermissions(){
+  private void checkForReadStoragePermissions(final boolean requestIfMissing){
     // Explicitly check for file system privs
     final int permissionCheck = ContextCompat.checkSelfPermission(this, Manifest.permission.READ_EXTERNAL_STORAGE);
     if (permissionCheck == PackageManager.PERMISSION_GRANTED) {
       Log.i(TAG, "This application has proper permissions for reading external storage...");
       permissionsGranted = true;
+      getStartupTracer().mark(StartupTracer.Phase.PERMISSION_CHECKED);
 
-    } else {
+    } else if (requestIfMissing) {
       Log.i(TAG, "This application DOES NOT have appropriate permissions for reading external storage");
+      // Time spent on the permission dialog isn't startup time
+      getStartupTracer().cancel();
       ActivityCompat.requestPermissions(this,
           new String[]{Manifest.permission.READ_EXTERNAL_STORAGE},
           PERMISSION_TO_READ_EXTERNAL_STORAGE);
     }
-    // We've checked permissions and shouldn't re-check in the future
-    permissionsChecked = true;
+  }
+
+  private StartupTracer getStartupTracer(){
+    return ((MapBookApplication) getApplication()).getStartupTracer();
   }
   /**
-   * Start an IntentService to check for any
-   * updated versions of the mobile map package
+   * Make sure the periodic check for updated versions of the mobile map
+   * package is scheduled. The portal is only contacted right away when
+   * the cached result has expired and no backoff is pending. The cached
+   * result is read from the preferences in the background.
    */
   private void checkForUpdatedPortalItem() {
-    final Intent portalItemUpdateServiceIntent = new Intent(this, PortalItemUpdateService.class);
-    this.startService(portalItemUpdateServiceIntent);
+    mStorageExecutor.execute(new Runnable() {
+      @Override public void run() {
+        mUpdateCheckScheduler.schedulePeriodic();
+        if (mUpdateChecker.isCheckDue()){
+          mUpdateCheckScheduler.scheduleOneOff();
+        }
+      }
+    });
   }
 }
@@ -27,25 +27,38 @@
 package com.esri.android.mapbook.mapbook;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 import com.esri.android.mapbook.R;
+import com.esri.android.mapbook.data.ThumbnailCache;
 import com.esri.android.mapbook.util.ActivityUtils;
-import com.esri.arcgisruntime.concurrent.ListenableFuture;
+import com.esri.android.mapbook.util.PrefetchWindow;
+import com.esri.android.mapbook.util.StartupTracer;
+import com.esri.arcgisruntime.loadable.LoadStatus;
 import com.esri.arcgisruntime.mapping.ArcGISMap;
 import com.esri.arcgisruntime.mapping.Item;
 
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
- * The adapter used by the recycler view to display maps in the mapbook
+ * The adapter used by the recycler view to display maps in the mapbook.
+ * Maps and their thumbnails are only loaded for the visible rows plus a
+ * number of rows ahead of the scroll. Loads for rows scrolling out of that
+ * window are cancelled, and results are only shown in the view holder still
+ * bound to the row they were loaded for. Thumbnails come from the
+ * {@link ThumbnailCache}, so rows scrolled back into view aren't decoded again.
  */
 
  class MapbookAdapter extends RecyclerView.Adapter<MapbookAdapter.RecycleViewHolder>{
@@ -60,15 +73,68 @@ import java.util.List;
   }
 
   private  List<ArcGISMap> maps = Collections.emptyList();
+  private long mPackageVersion = 0;
   private final OnItemClickListener mListener;
+  private final StartupTracer mStartupTracer;
+  private final ThumbnailCache mThumbnailCache;
+  private final PrefetchWindow mWindow;
+  // Loads in progress or completed for the rows in the window
+  private final SparseArray<MapRequest> mRequests = new SparseArray<>();
+  // Rows whose thumbnail load was dropped from the full queue, asked for again as other loads complete
+  private final Deque<Integer> mDropped = new ArrayDeque<>();
+  private RecyclerView mRecyclerView = null;
+
+  private final RecyclerView.OnScrollListener mScrollListener = new RecyclerView.OnScrollListener() {
+    // Also called with no scroll when a layout changes the visible rows
+    @Override public void onScrolled(final RecyclerView recyclerView, final int dx, final int dy) {
+      updateWindow();
+    }
+  };
 
   /**
    * Constructor relies on a implementation of the OnItemClickListener
    * for handling logic when map thumbnails are tapped.
    * @param listener - OnItemClickListener
+   * @param startupTracer - StartupTracer told when the first thumbnail is shown
+   * @param thumbnailCache - ThumbnailCache holding decoded thumbnails
+   * @param lookahead - int, rows beyond each end of the visible ones to load ahead of scrolling
    */
-  public MapbookAdapter( final OnItemClickListener listener){
+  public MapbookAdapter( final OnItemClickListener listener, final StartupTracer startupTracer,
+      final ThumbnailCache thumbnailCache, final int lookahead){
     mListener = listener;
+    mStartupTracer = startupTracer;
+    mThumbnailCache = thumbnailCache;
+    mWindow = new PrefetchWindow(lookahead, new PrefetchWindow.Listener() {
+      @Override public void onEnter(final int position) {
+        startLoading(position);
+      }
+
+      @Override public void onExit(final int position) {
+        cancelLoading(position);
+      }
+    });
+  }
+
+  @Override public void onAttachedToRecyclerView(final RecyclerView recyclerView) {
+    super.onAttachedToRecyclerView(recyclerView);
+    mRecyclerView = recyclerView;
+    recyclerView.addOnScrollListener(mScrollListener);
+  }
+
+  /**
+   * The holder's thumbnail is no longer shown
+   * @param holder - RecycleViewHolder
+   */
+  @Override public void onViewRecycled(final RecycleViewHolder holder) {
+    holder.clear(RecyclerView.NO_POSITION);
+    super.onViewRecycled(holder);
+  }
+
+  @Override public void onDetachedFromRecyclerView(final RecyclerView recyclerView) {
+    recyclerView.removeOnScrollListener(mScrollListener);
+    mRecyclerView = null;
+    mWindow.clear();
+    super.onDetachedFromRecyclerView(recyclerView);
   }
 
   /**
@@ -87,23 +153,17 @@ import java.util.List;
 
   /**
    * Called by RecyclerView to display the data at the specified position.
+   * Whatever has been loaded for the row is shown, the rest is shown
+   * once it's loaded.
    * @param holder RecycleViewHolder
    * @param position - int
    */
   @Override final public void onBindViewHolder(final RecycleViewHolder holder, final int position) {
-    holder.mapName.setText("Map "+ (position+1));
-    final ArcGISMap map = maps.get(position);
-    // Wait for the map to load before getting the Item
-    map.addDoneLoadingListener(new Runnable() {
-      @Override public void run() {
-        final Item i = map.getItem();
-        if (i != null){
-          holder.bind(i, mListener);
-        }
-
-      }
-    });
-    map.loadAsync();
+    holder.clear(position);
+    final MapRequest request = mRequests.get(position);
+    if (request != null){
+      holder.bind(request);
+    }
   }
 
   /**
@@ -114,15 +174,206 @@ import java.util.List;
     return maps.size();
   }
 
-  final void setMaps(final List<ArcGISMap> mapList){
+  final void setMaps(final List<ArcGISMap> mapList, final long packageVersion){
+    if (packageVersion == mPackageVersion && mapList.equals(maps)){
+      // The presenter restarted with the same, shared maps
+      return;
+    }
+    // Positions now refer to different maps
+    mWindow.clear();
     maps = mapList;
+    mPackageVersion = packageVersion;
+    if (mRecyclerView != null){
+      mRecyclerView.post(new Runnable() {
+        @Override public void run() {
+          updateWindow();
+        }
+      });
+    }
   }
+
+  /**
+   * Cancel every load and release the thumbnails held, once the screen is destroyed.
+   * The adapter isn't detached from its view when the fragment is destroyed.
+   */
+  final void cancelAll(){
+    mWindow.clear();
+  }
+
+  /**
+   * Move the load window to the rows currently visible
+   */
+  private void updateWindow(){
+    if (mRecyclerView == null || !(mRecyclerView.getLayoutManager() instanceof LinearLayoutManager)){
+      return;
+    }
+    final LinearLayoutManager layoutManager = (LinearLayoutManager) mRecyclerView.getLayoutManager();
+    mWindow.update(layoutManager.findFirstVisibleItemPosition(), layoutManager.findLastVisibleItemPosition(),
+        getItemCount());
+  }
+
+  /**
+   * Load the map at the given position, then get its thumbnail
+   * @param position - int
+   */
+  private void startLoading(final int position){
+    final MapRequest request = new MapRequest(maps.get(position));
+    mRequests.put(position, request);
+    final int[] size = getThumbnailSize();
+    request.mBitmap = mThumbnailCache.getFromMemory(new ThumbnailCache.Key(mPackageVersion, position), size[0], size[1]);
+
+    request.mLoadListener = new Runnable() {
+      @Override public void run() {
+        if (request.mCancelled){
+          return;
+        }
+        request.mItem = request.mMap.getItem();
+        if (request.mItem == null){
+          return;
+        }
+        showRequest(position, request);
+        if (request.mBitmap == null){
+          loadThumbnail(position, request);
+        }
+      }
+    };
+    request.mMap.addDoneLoadingListener(request.mLoadListener);
+    if (request.mMap.getLoadStatus() == LoadStatus.FAILED_TO_LOAD){
+      // Possibly cancelled when it last scrolled out of the window
+      request.mMap.retryLoadAsync();
+    }else{
+      request.mMap.loadAsync();
+    }
+  }
+
+  /**
+   * Get the thumbnail of a loaded map from the cache
+   * @param position - int
+   * @param request - MapRequest with the map's item
+   */
+  private void loadThumbnail(final int position, final MapRequest request){
+    final int[] size = getThumbnailSize();
+    final Item item = request.mItem;
+    request.mThumbnailTask = mThumbnailCache.load(new ThumbnailCache.Key(mPackageVersion, position), size[0], size[1],
+        new ThumbnailCache.Source() {
+          @Override public byte[] fetch() throws Exception {
+            return item.fetchThumbnailAsync().get();
+          }
+        }, new ThumbnailCache.Callback() {
+          @Override public void onThumbnail(final Bitmap bitmap) {
+            retryDropped();
+            if (request.mCancelled){
+              mThumbnailCache.release(bitmap);
+              return;
+            }
+            request.mBitmap = bitmap;
+            showRequest(position, request);
+          }
+
+          @Override public void onError(final Exception e) {
+            if (e instanceof RejectedExecutionException){
+              request.mThumbnailTask = null;
+              mDropped.add(position);
+              return;
+            }
+            retryDropped();
+            Log.e(TAG, e.getClass().getSimpleName() + " " + e.getMessage());
+          }
+        });
+  }
+
+  /**
+   * Ask again for the thumbnail of a row dropped from the full queue, now that a load has finished
+   */
+  private void retryDropped(){
+    while (!mDropped.isEmpty()){
+      final int position = mDropped.poll();
+      final MapRequest request = mRequests.get(position);
+      // Rows that left the window since have nothing to retry
+      if (request != null && request.mItem != null && request.mBitmap == null && request.mThumbnailTask == null){
+        loadThumbnail(position, request);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Cancel whatever is still loading for the given position
+   * @param position - int
+   */
+  private void cancelLoading(final int position){
+    final MapRequest request = mRequests.get(position);
+    if (request == null){
+      return;
+    }
+    mRequests.remove(position);
+    request.mCancelled = true;
+    request.mMap.removeDoneLoadingListener(request.mLoadListener);
+    if (request.mThumbnailTask != null){
+      mThumbnailCache.cancel(request.mThumbnailTask);
+    }
+    if (request.mBitmap != null){
+      mThumbnailCache.release(request.mBitmap);
+      request.mBitmap = null;
+    }
+    if (request.mMap.getLoadStatus() == LoadStatus.LOADING){
+      request.mMap.cancelLoad();
+    }
+  }
+
+  /**
+   * @return int[] with the width and height thumbnails are shown at, 0 if no row has been laid out
+   */
+  private int[] getThumbnailSize(){
+    final int[] size = new int[2];
+    if (mRecyclerView != null && mRecyclerView.getChildCount() > 0){
+      final RecycleViewHolder holder = (RecycleViewHolder) mRecyclerView.getChildViewHolder(mRecyclerView.getChildAt(0));
+      size[0] = holder.mapThumbnail.getWidth();
+      size[1] = holder.mapThumbnail.getHeight();
+    }
+    return size;
+  }
+
+  /**
+   * Show the loaded content in the view holder bound to the position, if there is one
+   * @param position - int
+   * @param request - MapRequest
+   */
+  private void showRequest(final int position, final MapRequest request){
+    if (mRecyclerView == null){
+      return;
+    }
+    final RecycleViewHolder holder = (RecycleViewHolder) mRecyclerView.findViewHolderForAdapterPosition(position);
+    if (holder != null && holder.mPosition == position){
+      holder.bind(request);
+    }
+  }
+
+  /**
+   * What has been loaded for a row
+   */
+  private static final class MapRequest {
+    private final ArcGISMap mMap;
+    private Item mItem = null;
+    private Future<?> mThumbnailTask = null;
+    private Bitmap mBitmap = null;
+    private boolean mCancelled = false;
+    // Removed on cancel, as the map outlives the screen in the package cache
+    private Runnable mLoadListener = null;
+
+    MapRequest(final ArcGISMap map){
+      mMap = map;
+    }
+  }
+
   final class RecycleViewHolder extends RecyclerView.ViewHolder{
 
     public final ImageView mapThumbnail;
     public final TextView mapName;
     public final TextView snippet;
     public final TextView mapCreateDate;
+    private int mPosition = RecyclerView.NO_POSITION;
+    private Bitmap mShownBitmap = null;
 
     public RecycleViewHolder(final View view){
       super(view);
@@ -133,11 +384,31 @@ import java.util.List;
     }
 
     /**
-     *
-     * @param item - Item - Contains thumbnail data
-     * @param listener - OnItemClickListener called when the thumbnail image is tapped
+     * Reset the views of a recycled holder to the placeholder for a new row
+     * @param position - int, the row the holder is now bound to
      */
-    public void bind (final Item item, final OnItemClickListener listener){
+    void clear(final int position){
+      mPosition = position;
+      mapName.setText("Map "+ (position+1));
+      snippet.setText(null);
+      mapCreateDate.setText(null);
+      mapThumbnail.setImageDrawable(null);
+      mapThumbnail.setOnClickListener(null);
+      if (mShownBitmap != null){
+        mThumbnailCache.release(mShownBitmap);
+        mShownBitmap = null;
+      }
+    }
+
+    /**
+     * Show what has been loaded for the row
+     * @param request - MapRequest - Contains the item and thumbnail
+     */
+    void bind (final MapRequest request){
+      final Item item = request.mItem;
+      if (item == null){
+        return;
+      }
       final String title = item.getTitle();
       mapName.setText(title);
       snippet.setText(item.getSnippet());
@@ -145,30 +416,26 @@ import java.util.List;
       final String dateCreated = ActivityUtils.getDateString(item.getCreated());
       mapCreateDate.setText(dateCreated);
 
-      // Load thumbnails asynchronously
-      final ListenableFuture<byte[]> future = item.fetchThumbnailAsync();
-      future.addDoneListener(new Runnable() {
-        @Override public void run() {
-          try {
-            final byte[] t = future.get();
-
-            final Bitmap bitmap = BitmapFactory.decodeByteArray(t, 0, t.length);
-            mapThumbnail.setImageBitmap(bitmap);
-
-            // Set the on click listener using the OnItemClickListener passed
-            // into adapter's constructor.
-            mapThumbnail.setOnClickListener(new View.OnClickListener() {
-              @Override public void onClick(final View v) {
-                mListener.onItemClick(mapThumbnail, title, getAdapterPosition());
-              }
-            });
-
-          } catch (final Exception e) {
-            Log.e(TAG, e.getMessage());
-          }
+      final Bitmap bitmap = request.mBitmap;
+      if (bitmap == null || bitmap == mShownBitmap){
+        return;
+      }
+      // Keep the bitmap from being reused while this holder shows it
+      mThumbnailCache.retain(bitmap);
+      if (mShownBitmap != null){
+        mThumbnailCache.release(mShownBitmap);
+      }
+      mShownBitmap = bitmap;
+      mapThumbnail.setImageBitmap(bitmap);
+      mStartupTracer.mark(StartupTracer.Phase.FIRST_THUMBNAIL);
+
+      // Set the on click listener using the OnItemClickListener passed
+      // into adapter's constructor.
+      mapThumbnail.setOnClickListener(new View.OnClickListener() {
+        @Override public void onClick(final View v) {
+          mListener.onItemClick(mapThumbnail, title, getAdapterPosition());
         }
       });
-
     }
 
   }
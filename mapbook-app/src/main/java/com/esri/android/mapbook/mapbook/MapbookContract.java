@@ -29,6 +29,7 @@ package com.esri.android.mapbook.mapbook;
 import com.esri.android.mapbook.BasePresenter;
 import com.esri.android.mapbook.BaseView;
 import com.esri.android.mapbook.data.DataManagerCallbacks;
+import com.esri.android.mapbook.data.ThumbnailCache;
 import com.esri.arcgisruntime.mapping.ArcGISMap;
 import com.esri.arcgisruntime.mapping.Item;
 
@@ -50,10 +51,11 @@ public interface MapbookContract {
     void populateMapbookLayout(Item item);
 
     /**
-     * Set the map thumbnail given an array of bytes
-     * @param bytes [] of bytes
+     * Show the mapbook thumbnail, fetching it from the source if it isn't cached
+     * @param key - ThumbnailCache.Key identifying the thumbnail
+     * @param source - ThumbnailCache.Source of the thumbnail bytes
      */
-    void setThumbnailBitmap(byte[] bytes);
+    void showThumbnail(ThumbnailCache.Key key, ThumbnailCache.Source source);
 
     /**
      * Show a Toast message given the message string
@@ -78,8 +80,9 @@ public interface MapbookContract {
     /**
      * Assign a list of ArcGIS Maps to the view
      * @param maps - List of ArcGIS map items
+     * @param packageVersion - long identifying the version of the mobile map package the maps are in
      */
-    void setMaps(List<ArcGISMap> maps);
+    void setMaps(List<ArcGISMap> maps, long packageVersion);
 
     /**
      * Logic for initiating an activity dedicated
@@ -87,8 +90,10 @@ public interface MapbookContract {
      * given path on the device.
      * @param path - String representing where on the device the
      *             download should be stored.
+     * @param manifestPath - String representing where on the device the
+     *             block hash manifest of the download should be stored.
      */
-    void downloadMapbook(String path);
+    void downloadMapbook(String path, String manifestPath);
 
     /**
      * Toggle the visibility of
@@ -134,7 +139,13 @@ public interface MapbookContract {
     String getMapbookPath();
 
     /**
-     * Process PortalItemUpdateService Broadcast
+     * Return a string representing path to the block hash manifest of the mobile map package
+     * @return String representing path to the manifest on device
+     */
+    String getManifestPath();
+
+    /**
+     * Process UpdateCheckJobService Broadcast
      * @param modifiedMillis long - The milliseconds representing modified date of PortalItem
      */
     void processBroadcast(long modifiedMillis);
@@ -153,5 +164,10 @@ public interface MapbookContract {
      * Update the mobile map package
      */
     void updateMapbook();
+
+    /**
+     * Hand back the mobile map package once the view is destroyed
+     */
+    void release();
   }
 }
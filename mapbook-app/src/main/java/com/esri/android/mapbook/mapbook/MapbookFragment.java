@@ -31,7 +31,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.support.constraint.ConstraintLayout;
 import android.support.v4.app.Fragment;
@@ -48,7 +47,9 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
+import com.esri.android.mapbook.MapBookApplication;
 import com.esri.android.mapbook.R;
+import com.esri.android.mapbook.data.ThumbnailCache;
 import com.esri.android.mapbook.download.DownloadActivity;
 import com.esri.android.mapbook.map.MapActivity;
 import com.esri.android.mapbook.util.ActivityUtils;
@@ -70,8 +71,11 @@ public class MapbookFragment extends Fragment implements MapbookContract.View {
   private MapbookAdapter mapAdapter = null;
   private static final int REQUEST_DOWNLOAD = 1;
   public static final String FILE_PATH = "mmpk file path";
+  public static final String MANIFEST_PATH = "mmpk manifest path";
   private final String TAG = MapbookFragment.class.getSimpleName();
   private PortalItemBroadcastReceiver portalItemBroadcastReceiver;
+  private ThumbnailCache mThumbnailCache = null;
+  private Bitmap mThumbnail = null;
 
   /**
    * Default constructor
@@ -150,6 +154,8 @@ public class MapbookFragment extends Fragment implements MapbookContract.View {
     final RecyclerView mRecyclerView = (RecyclerView) mRoot.findViewById(R.id.recyclerView);
     final LinearLayoutManager layoutManager = new LinearLayoutManager(getActivity());
     mRecyclerView.setLayoutManager( layoutManager);
+    final MapBookApplication application = (MapBookApplication) getActivity().getApplication();
+    mThumbnailCache = application.getThumbnailCache();
     mapAdapter = new MapbookAdapter(new MapbookAdapter.OnItemClickListener() {
       @Override public void onItemClick(final ImageView image, final String title, final int position) {
         final Intent intent = new Intent(getContext(), MapActivity.class);
@@ -158,7 +164,8 @@ public class MapbookFragment extends Fragment implements MapbookContract.View {
         intent.putExtra(MapbookFragment.FILE_PATH, mPresenter.getMapbookPath());
         startActivity(intent);
       }
-    });
+    }, application.getStartupTracer(), mThumbnailCache,
+        getResources().getInteger(R.integer.map_prefetch_lookahead));
     mRecyclerView.setAdapter(mapAdapter);
     layoutManager.setOrientation(LinearLayoutManager.HORIZONTAL);
 
@@ -167,7 +174,7 @@ public class MapbookFragment extends Fragment implements MapbookContract.View {
     downloadBtn.setOnClickListener(new View.OnClickListener() {
       @Override public void onClick(final View v) {
         Log.i(TAG, "Download button clicked");
-        downloadMapbook(mPresenter.getMapbookPath());
+        downloadMapbook(mPresenter.getMapbookPath(), mPresenter.getManifestPath());
       }
     });
 
@@ -215,13 +222,29 @@ public class MapbookFragment extends Fragment implements MapbookContract.View {
   }
 
   /**
-   * Set the map thumbnail given an array of bytes
-   * @param bytes [] of bytes
+   * Show the mapbook thumbnail, decoded at the size of the image view
+   * @param key - ThumbnailCache.Key identifying the thumbnail
+   * @param source - ThumbnailCache.Source of the thumbnail bytes
    */
-  @Override final public void setThumbnailBitmap(final byte[] bytes) {
-    final Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+  @Override final public void showThumbnail(final ThumbnailCache.Key key, final ThumbnailCache.Source source) {
     final ImageView image = (ImageView) mRoot.findViewById(R.id.mapBookThumbnail);
-    image.setImageBitmap(bitmap);
+    mThumbnailCache.load(key, image.getWidth(), image.getHeight(), source, new ThumbnailCache.Callback() {
+      @Override public void onThumbnail(final Bitmap bitmap) {
+        image.setImageBitmap(bitmap);
+        // The bitmap is retained for us, hand back the one it replaces
+        if (mThumbnail != null){
+          mThumbnailCache.release(mThumbnail);
+        }
+        mThumbnail = bitmap;
+      }
+
+      @Override public void onError(final Exception e) {
+        Log.e(TAG, e.getClass().getSimpleName() + " " + e.getMessage());
+        if (getActivity() != null){
+          showMessage("There were problems obtaining thumbnail images for maps in mapbook.");
+        }
+      }
+    });
   }
 
   /**
@@ -273,9 +296,10 @@ public class MapbookFragment extends Fragment implements MapbookContract.View {
   /**
    * Assign a list of ArcGIS Maps to the view
    * @param maps - List of ArcGIS map items
+   * @param packageVersion - long identifying the version of the mobile map package the maps are in
    */
-  @Override final public void setMaps(final List<ArcGISMap> maps) {
-    mapAdapter.setMaps(maps);
+  @Override final public void setMaps(final List<ArcGISMap> maps, final long packageVersion) {
+    mapAdapter.setMaps(maps, packageVersion);
     mapAdapter.notifyDataSetChanged();
   }
 
@@ -285,11 +309,14 @@ public class MapbookFragment extends Fragment implements MapbookContract.View {
    * given path on the device.
    * @param mmpkFilePath - String representing where on the device the
    *             download should be stored.
+   * @param manifestPath - String representing where on the device the
+   *             block hash manifest of the download should be stored.
    */
-  @Override final public void downloadMapbook(final String mmpkFilePath) {
+  @Override final public void downloadMapbook(final String mmpkFilePath, final String manifestPath) {
     // Kick off the DownloadActivity
     final Intent intent = new Intent(getActivity(), DownloadActivity.class);
     intent.putExtra(FILE_PATH, mmpkFilePath);
+    intent.putExtra(MANIFEST_PATH, manifestPath);
     startActivityForResult(intent, REQUEST_DOWNLOAD);
   }
 
@@ -314,6 +341,10 @@ public class MapbookFragment extends Fragment implements MapbookContract.View {
    * @param userName - String
    */
   @Override public void setUserName(final String userName) {
+    // The name can arrive after the fragment was detached
+    if (getActivity() == null){
+      return;
+    }
     final TextView txtUserName = (TextView) getActivity().findViewById(R.id.txtUserName);
     txtUserName.setText(userName);
   }
@@ -360,11 +391,22 @@ public class MapbookFragment extends Fragment implements MapbookContract.View {
 
   @Override
   public void onDestroy(){
+    // Only set once the activity has been allowed to initialize
+    if (mPresenter != null){
+      mPresenter.release();
+    }
+    if (mThumbnail != null){
+      mThumbnailCache.release(mThumbnail);
+      mThumbnail = null;
+    }
+    if (mapAdapter != null){
+      mapAdapter.cancelAll();
+    }
     LocalBroadcastManager.getInstance(getActivity()).unregisterReceiver(portalItemBroadcastReceiver);
     super.onDestroy();
   }
   /**
-   * This class listens for broadcasts from the PortalItemUpdateService.
+   * This class listens for broadcasts from the UpdateCheckJobService.
    * If there's a newer version of the mobile map package available,
    * show a download button in the UI.
    */
@@ -383,7 +425,7 @@ public class MapbookFragment extends Fragment implements MapbookContract.View {
         mPresenter.processBroadcast(timeUpdated);
         Log.i(TAG, "Portal item's modified date in milliseconds " + timeUpdated);
       }else{
-        // No extras means the Intent Service was unable to
+        // No extras means the update check was unable to
         // check for an update status (probably related
         // problems rehydrating credential cache from encrypted credentials
         Log.i(TAG, "Unable to check for an updated version of the mapbook");
@@ -31,7 +31,9 @@ import android.os.Environment;
 import android.support.v4.content.ContextCompat;
 import com.esri.android.mapbook.R;
 import com.esri.android.mapbook.data.FileManager;
+import com.esri.android.mapbook.data.PackageCache;
 import com.esri.android.mapbook.util.MapbookApplicationScope;
+import com.esri.arcgisruntime.mapping.MobileMapPackage;
 import dagger.Module;
 import dagger.Provides;
 
@@ -62,8 +64,8 @@ public class MapbookModule {
   @MapbookApplicationScope
   public FileManager providesFileManager(@Named("storageDirectory") final File storageDirectory,
       @Named("mmpkName") final String fileName,
-      @Named("mmpkExtension") final String extension) {
-    return new FileManager(storageDirectory, fileName, extension);
+      @Named("mmpkExtension") final String extension, final PackageCache<MobileMapPackage> packageCache) {
+    return new FileManager(storageDirectory, fileName, extension, packageCache);
   }
 
 
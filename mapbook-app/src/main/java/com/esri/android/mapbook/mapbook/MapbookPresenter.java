@@ -30,16 +30,29 @@ import android.util.Log;
 import com.esri.android.mapbook.Constants;
 import com.esri.android.mapbook.data.DataManagerCallbacks;
 import com.esri.android.mapbook.data.FileManager;
+import com.esri.android.mapbook.data.PackageCache;
+import com.esri.android.mapbook.data.ThumbnailCache;
 import com.esri.android.mapbook.download.CredentialCryptographer;
-import com.esri.arcgisruntime.concurrent.ListenableFuture;
-import com.esri.arcgisruntime.loadable.LoadStatus;
+import com.esri.android.mapbook.download.CredentialService;
+import com.esri.android.mapbook.download.PortalMetadataCache;
+import com.esri.android.mapbook.download.UpdateCheckScheduler;
+import com.esri.android.mapbook.download.UpdateChecker;
+import com.esri.android.mapbook.util.MainThreadExecutor;
+import com.esri.android.mapbook.util.StartupTracer;
 import com.esri.arcgisruntime.mapping.ArcGISMap;
 import com.esri.arcgisruntime.mapping.Item;
 import com.esri.arcgisruntime.mapping.MobileMapPackage;
 import com.esri.arcgisruntime.security.AuthenticationManager;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.File;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 /**
  * This is the concrete implementation of the Presenter defined in the MapbookContract.
@@ -54,10 +67,32 @@ public class MapbookPresenter implements MapbookContract.Presenter {
 
   private String mPath = null;
 
+  private MobileMapPackage mMobileMapPackage = null;
+
+  private String mMobileMapPackagePath = null;
+
+  private boolean mReleased = false;
+
   private final String TAG = MapbookPresenter.class.getSimpleName();
 
   @Inject CredentialCryptographer mCredentialCryptopgrapher;
 
+  @Inject CredentialService mCredentialService;
+
+  @Inject UpdateChecker mUpdateChecker;
+
+  @Inject UpdateCheckScheduler mUpdateCheckScheduler;
+
+  @Inject StartupTracer mStartupTracer;
+
+  @Inject PackageCache<MobileMapPackage> mPackageCache;
+
+  @Inject PortalMetadataCache mMetadataCache;
+
+  @Inject @Named("storageExecutor") ListeningExecutorService mStorageExecutor;
+
+  private final Executor mMainThreadExecutor = new MainThreadExecutor();
+
   @Inject
   MapbookPresenter (final FileManager manager, final MapbookContract.View view) {
     mFileManager = manager;
@@ -81,11 +116,34 @@ public class MapbookPresenter implements MapbookContract.Presenter {
   /**
    * If mapbook exists on the device, populate the UI
    * otherwise try to download it from the portal.
+   * The file is looked for in the background.
    */
   @Override final public void checkForMapbook() {
+    Futures.addCallback(mStorageExecutor.submit(new Callable<InstalledMapbook>() {
+      @Override public InstalledMapbook call() {
+        final String path = mFileManager.fileExists();
+        return path != null ? new InstalledMapbook(path, mFileManager.getSize(), mFileManager.getModifiedDate()) : null;
+      }
+    }), new FutureCallback<InstalledMapbook>() {
+      @Override public void onSuccess(final InstalledMapbook mapbook) {
+        showMapbook(mapbook);
+      }
 
-    mPath = mFileManager.fileExists();
-    if (mPath != null){
+      @Override public void onFailure(final Throwable t) {
+        Log.e(TAG, "Problem looking for map book " + t.getMessage());
+        mView.showMapbookNotFound();
+      }
+    }, mMainThreadExecutor);
+  }
+
+  /**
+   * Populate the UI with the mapbook found on the device,
+   * or download it if there's none
+   * @param mapbook - InstalledMapbook, null if the file doesn't exist
+   */
+  private void showMapbook(final InstalledMapbook mapbook){
+    mPath = mapbook != null ? mapbook.mPath : null;
+    if (mapbook != null){
 
       loadMapbook(new DataManagerCallbacks.MapbookCallback() {
         /**
@@ -93,34 +151,29 @@ public class MapbookPresenter implements MapbookContract.Presenter {
          * @param mobileMapPackage - MobileMapPackage
          */
         @Override final public void onMapbookLoaded(final MobileMapPackage mobileMapPackage) {
+          mStartupTracer.mark(StartupTracer.Phase.MMPK_OPENED);
+          // The date read with the file size identifies the version of the package
+          final long mapbookSize = mapbook.mSize;
+          final long mapbookModified = mapbook.mModifiedMillis;
+
           final List<ArcGISMap> maps = mobileMapPackage.getMaps();
-          mView.setMaps(maps);
+          mView.setMaps(maps, mapbookModified);
           final Item item = mobileMapPackage.getItem();
           mView.populateMapbookLayout(item);
 
-          // Get the file size and date
-          final long mapbookSize = mFileManager.getSize();
-          final long mapbookModified = mFileManager.getModifiedDate();
-
           mView.setMapbookMetatdata(mapbookSize, mapbookModified, maps.size());
 
-          final byte[] thumbnailData = item.getThumbnailData();
-          if (thumbnailData != null && thumbnailData.length > 0) {
-            mView.setThumbnailBitmap(thumbnailData);
-          }else{
-            final ListenableFuture<byte[]> futureThumbnail = item.fetchThumbnailAsync();
-            futureThumbnail.addDoneListener(new Runnable() {
-              @Override public void run() {
-                try {
-                  final byte[] itemThumbnailData = futureThumbnail.get();
-                  mView.setThumbnailBitmap(itemThumbnailData);
-                } catch (final Exception e) {
-                  Log.e(TAG,e.getMessage());
-                  mView.showMessage("There were problems obtaining thumbnail images for maps in mapbook.");
+          // Only fetched if the thumbnail cache doesn't have it
+          mView.showThumbnail(new ThumbnailCache.Key(mapbookModified, ThumbnailCache.MAPBOOK_INDEX),
+              new ThumbnailCache.Source() {
+                @Override public byte[] fetch() throws Exception {
+                  final byte[] thumbnailData = item.getThumbnailData();
+                  if (thumbnailData != null && thumbnailData.length > 0) {
+                    return thumbnailData;
+                  }
+                  return item.fetchThumbnailAsync().get();
                 }
-              }
-            });
-          }
+              });
         }
 
         /**
@@ -133,59 +186,98 @@ public class MapbookPresenter implements MapbookContract.Presenter {
           mView.showMessage("There was a problem loading the mapbook");
         }
       });
-
+      showCachedUpdateStatus();
 
     }else{
       // Mapbook file isn't found, try downloading it...
-      mView.downloadMapbook(mFileManager.createMobileMapPackageFilePath());
+      mView.downloadMapbook(mFileManager.createMobileMapPackageFilePath(), mFileManager.createManifestFilePath());
     }
   }
 
   /**
-   * Load the mobile map package
+   * Load the mobile map package. The package is shared with the map
+   * screen through the cache, so it's only opened once while unchanged.
    * @param callback- MapbookCallback to handle async response.
    */
   @Override final public void loadMapbook(final DataManagerCallbacks.MapbookCallback callback) {
     final String mmpkPath = mFileManager.createMobileMapPackageFilePath();
 
-    final MobileMapPackage mmp = new MobileMapPackage(mmpkPath);
-
-    mmp.addDoneLoadingListener(new Runnable() {
-
-      @Override final public void run() {
-        Log.i(TAG, "MMPK load status " + mmp.getLoadStatus().name());
-        if (mmp.getLoadStatus() == LoadStatus.LOADED) {
-          callback.onMapbookLoaded(mmp);
-
-        }else{
-          callback.onMapbookNotLoaded(mmp.getLoadError());
+    mPackageCache.acquire(mmpkPath, new PackageCache.Callback<MobileMapPackage>() {
+      @Override public void onLoaded(final MobileMapPackage mmp) {
+        if (mReleased){
+          // The view was destroyed while the package loaded
+          mPackageCache.release(mmpkPath, mmp);
+          return;
         }
+        releaseMapbook();
+        mMobileMapPackage = mmp;
+        mMobileMapPackagePath = mmpkPath;
+        callback.onMapbookLoaded(mmp);
+      }
+
+      @Override public void onFailed(final Throwable error) {
+        callback.onMapbookNotLoaded(error);
       }
     });
-    mmp.loadAsync();
+  }
+
+  /**
+   * Hand the mobile map package back to the cache, along with
+   * any package still loading
+   */
+  @Override public void release() {
+    mReleased = true;
+    releaseMapbook();
+  }
+
+  /**
+   * Hand the mobile map package back to the cache
+   */
+  private void releaseMapbook(){
+    if (mMobileMapPackage != null){
+      mPackageCache.release(mMobileMapPackagePath, mMobileMapPackage);
+      mMobileMapPackage = null;
+      mMobileMapPackagePath = null;
+    }
   }
 
   @Override public String getMapbookPath() {
     return mPath;
   }
 
+  @Override public String getManifestPath() {
+    return mFileManager.createManifestFilePath();
+  }
+
   /**
-   * Process PortalItemUpdateService Broadcast.  If
+   * Process UpdateCheckJobService Broadcast.  If
    * there's a newer version of the mobile map package
    * on the server, then enable the download button.
    * @param modifiedMillis long - The milliseconds representing modified date of PortalItem
    */
   @Override public void processBroadcast(final long modifiedMillis) {
-    final long mapbookModMillis = mFileManager.getModifiedDate();
-    Log.i(TAG, "Mapbook modified milliseconds "+ mapbookModMillis);
+    Futures.addCallback(mStorageExecutor.submit(new Callable<Long>() {
+      @Override public Long call() {
+        // A package the portal confirmed current counts as current since the check
+        return mMetadataCache.getInstalledVersionMillis(new File(mFileManager.createMobileMapPackageFilePath()));
+      }
+    }), new FutureCallback<Long>() {
+      @Override public void onSuccess(final Long mapbookModMillis) {
+        Log.i(TAG, "Mapbook modified milliseconds "+ mapbookModMillis);
 
-    if (modifiedMillis > mapbookModMillis){
-      mView.toggleDownloadVisibility(true);
-      mView.setDownloadText(Constants.UPDATE_AVAILABLE);
-    }else{
-      mView.toggleDownloadVisibility(false);
-      mView.setDownloadText(Constants.NO_UPDATE_AVAILABLE);
-    }
+        if (modifiedMillis > mapbookModMillis){
+          mView.toggleDownloadVisibility(true);
+          mView.setDownloadText(Constants.UPDATE_AVAILABLE);
+        }else{
+          mView.toggleDownloadVisibility(false);
+          mView.setDownloadText(Constants.NO_UPDATE_AVAILABLE);
+        }
+      }
+
+      @Override public void onFailure(final Throwable t) {
+        Log.e(TAG, "Problem reading the mapbook version " + t.getMessage());
+      }
+    }, mMainThreadExecutor);
   }
 
   /**
@@ -195,9 +287,29 @@ public class MapbookPresenter implements MapbookContract.Presenter {
     // Clear credential cache
     AuthenticationManager.CredentialCache.clear();
 
-    // Delete cred file
-    final boolean deletedCred =  mCredentialCryptopgrapher.deleteCredentialFile();
-    Log.i(TAG, "Credentials deleted "+ deletedCred);
+    // Stop checking for updates of the deleted mapbook
+    mUpdateCheckScheduler.cancel();
+    mUpdateChecker.clear();
+
+    // Delete cred file in the background, then finish logging out
+    mCredentialService.addCallback(mCredentialService.deleteCredentialFile(), new FutureCallback<Boolean>() {
+      @Override public void onSuccess(final Boolean deletedCred) {
+        Log.i(TAG, "Credentials deleted "+ deletedCred);
+        finishLogout();
+      }
+
+      @Override public void onFailure(final Throwable t) {
+        Log.e(TAG, "Problem deleting credentials " + t.getMessage());
+        finishLogout();
+      }
+    });
+  }
+
+  /**
+   * Delete the mobile map package and exit once the credentials are gone
+   */
+  private void finishLogout(){
+    releaseMapbook();
     // Delete mmpk
     final boolean deletedMmpk = mFileManager.deleteMmpk();
     Log.i(TAG, "MMPK deleted "+ deletedMmpk);
@@ -217,29 +329,72 @@ public class MapbookPresenter implements MapbookContract.Presenter {
   }
 
   /**
-   * Update the mobile map package
+   * Update the mobile map package. The existing package is kept
+   * until the new one has been completely downloaded.
    */
   @Override public void updateMapbook() {
-    // Delete existing one
-    mFileManager.deleteMmpk();
-    // Download new one
-    mView.downloadMapbook(mFileManager.createMobileMapPackageFilePath());
+    mView.downloadMapbook(mFileManager.createMobileMapPackageFilePath(), mFileManager.createManifestFilePath());
+  }
+
+  /**
+   * Show whether an update is available using the last modified date
+   * fetched from the portal, without waiting for a round trip. The
+   * scheduled update checks broadcast newer results as they arrive.
+   * The date is read from the preferences in the background.
+   */
+  private void showCachedUpdateStatus(){
+    Futures.addCallback(mStorageExecutor.submit(new Callable<Long>() {
+      @Override public Long call() {
+        return mUpdateChecker.getCachedModifiedMillis();
+      }
+    }), new FutureCallback<Long>() {
+      @Override public void onSuccess(final Long modifiedMillis) {
+        if (modifiedMillis != UpdateChecker.UNKNOWN){
+          processBroadcast(modifiedMillis);
+        }
+      }
+
+      @Override public void onFailure(final Throwable t) {
+        Log.e(TAG, "Problem reading the update status " + t.getMessage());
+      }
+    }, mMainThreadExecutor);
   }
 
   /**
-   * Get the user name if known
+   * Get the user name if known. The credentials are decrypted
+   * in the background and the name shown when it's ready.
    */
   private void checkForUserName(){
     if (getUserName()== null){
-      try {
-        mCredentialCryptopgrapher.setUserNameFromCredentials(null);
-        mView.setUserName(getUserName());
-      } catch (Exception e) {
-        Log.e(TAG, e.getClass().getSimpleName() + " " + e.getMessage());
-        if (e.getCause() != null){
-          Log.e(TAG, e.getCause().getMessage());
+      mCredentialService.addCallback(mCredentialService.getUserName(), new FutureCallback<String>() {
+        @Override public void onSuccess(final String userName) {
+          if (userName != null){
+            mView.setUserName(userName);
+          }
         }
-      }
+
+        @Override public void onFailure(final Throwable t) {
+          Log.e(TAG, t.getClass().getSimpleName() + " " + t.getMessage());
+          if (t.getCause() != null){
+            Log.e(TAG, t.getCause().getMessage());
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * The mobile map package found on the device, with the size and date read alongside
+   */
+  private static final class InstalledMapbook {
+    private final String mPath;
+    private final long mSize;
+    private final long mModifiedMillis;
+
+    InstalledMapbook(final String path, final long size, final long modifiedMillis){
+      mPath = path;
+      mSize = size;
+      mModifiedMillis = modifiedMillis;
     }
   }
 }
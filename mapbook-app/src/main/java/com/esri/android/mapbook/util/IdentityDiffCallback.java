@@ -0,0 +1,68 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.util;
+
+import android.support.v7.util.DiffUtil;
+
+import java.util.List;
+
+/**
+ * Compares two snapshots of a list whose items are told apart by identity,
+ * so replacing the data of an adapter only rebinds the rows that moved,
+ * were added or were removed. Items are shown from their current state,
+ * so an item in both lists is considered unchanged.
+ * @param <T> - the item type
+ */
+public class IdentityDiffCallback<T> extends DiffUtil.Callback {
+
+  private final List<T> mOldItems;
+  private final List<T> mNewItems;
+
+  /**
+   * @param oldItems - List shown before
+   * @param newItems - List shown from now on
+   */
+  public IdentityDiffCallback(final List<T> oldItems, final List<T> newItems){
+    mOldItems = oldItems;
+    mNewItems = newItems;
+  }
+
+  @Override public int getOldListSize() {
+    return mOldItems.size();
+  }
+
+  @Override public int getNewListSize() {
+    return mNewItems.size();
+  }
+
+  @Override public boolean areItemsTheSame(final int oldItemPosition, final int newItemPosition) {
+    return mOldItems.get(oldItemPosition) == mNewItems.get(newItemPosition);
+  }
+
+  @Override public boolean areContentsTheSame(final int oldItemPosition, final int newItemPosition) {
+    return true;
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * Decodes images at the size they're shown at. Pixels that wouldn't be seen are
+ * skipped with inSampleSize, and the pixel memory of bitmaps no longer shown is
+ * reused through inBitmap, so decoding while scrolling allocates little.
+ * Bitmaps handed to {@link #recycle(Bitmap)} must no longer be drawn anywhere.
+ */
+public class ImageDecoder {
+
+  private static final String TAG = ImageDecoder.class.getSimpleName();
+
+  private final ReusePool<Bitmap> mPool;
+
+  /**
+   * @param maxPoolBytes - int, the size of the bitmaps kept for reuse
+   */
+  public ImageDecoder(final int maxPoolBytes){
+    mPool = new ReusePool<>(maxPoolBytes, new ReusePool.Sizer<Bitmap>() {
+      @Override public int sizeOf(final Bitmap bitmap) {
+        return bitmap.getAllocationByteCount();
+      }
+    });
+  }
+
+  /**
+   * Decode the bytes of an image
+   * @param bytes - byte[] of the encoded image
+   * @param width - int, the width it's shown at, 0 if unknown
+   * @param height - int, the height it's shown at, 0 if unknown
+   * @return Bitmap or null if the bytes aren't an image
+   */
+  public Bitmap decode(final byte[] bytes, final int width, final int height){
+    final BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    if (options.outWidth <= 0 || options.outHeight <= 0){
+      return null;
+    }
+    options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+    options.inJustDecodeBounds = false;
+    options.inMutable = true;
+    options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+    final int sampledWidth = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+    final int sampledHeight = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+    final Bitmap reusable = mPool.take(sampledWidth * sampledHeight * 4);
+    options.inBitmap = reusable;
+    try {
+      return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    } catch (final IllegalArgumentException e){
+      if (reusable == null){
+        throw e;
+      }
+      // The image can't be decoded into the pooled bitmap
+      Log.w(TAG, "Unable to reuse bitmap " + e.getMessage());
+      mPool.put(reusable);
+      options.inBitmap = null;
+      return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    }
+  }
+
+  /**
+   * Make the memory of a bitmap that's no longer shown available to later decodes
+   * @param bitmap - Bitmap
+   */
+  public void recycle(final Bitmap bitmap){
+    if (bitmap.isMutable() && !bitmap.isRecycled()){
+      mPool.put(bitmap);
+    }
+  }
+
+  /**
+   * Drop the bitmaps kept for reuse
+   */
+  public void clear(){
+    mPool.clear();
+  }
+
+  /**
+   * @return int, the number of decodes that reused a pooled bitmap
+   */
+  public int getReuseCount(){
+    return mPool.getReuseCount();
+  }
+
+  /**
+   * @return int, the largest power of two the image can be scaled down by while
+   * still covering the requested size
+   */
+  static int calculateInSampleSize(final int imageWidth, final int imageHeight, final int width,
+      final int height){
+    int sampleSize = 1;
+    if (width <= 0 || height <= 0){
+      return sampleSize;
+    }
+    while (imageWidth / (sampleSize * 2) >= width && imageHeight / (sampleSize * 2) >= height){
+      sampleSize = sampleSize * 2;
+    }
+    return sampleSize;
+  }
+}
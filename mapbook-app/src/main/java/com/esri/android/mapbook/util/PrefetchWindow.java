@@ -0,0 +1,118 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.util;
+
+import java.util.BitSet;
+
+/**
+ * Tracks the positions of a list that should have their content loaded: the
+ * visible positions plus a number of positions beyond each end. As the list
+ * scrolls the listener is told which positions entered the window, visible
+ * ones before those ahead of the scroll, and which ones left it.
+ */
+public class PrefetchWindow {
+
+  /**
+   * Receives the positions entering and leaving the window
+   */
+  public interface Listener {
+    void onEnter(int position);
+    void onExit(int position);
+  }
+
+  private final int mLookahead;
+  private final Listener mListener;
+  private final BitSet mPositions = new BitSet();
+
+  /**
+   * @param lookahead - int, positions beyond each end of the visible ones in the window
+   * @param listener - Listener
+   */
+  public PrefetchWindow(final int lookahead, final Listener listener){
+    mLookahead = Math.max(0, lookahead);
+    mListener = listener;
+  }
+
+  /**
+   * Move the window to the visible positions
+   * @param firstVisible - int, the first visible position or a negative value if there's none
+   * @param lastVisible - int, the last visible position
+   * @param itemCount - int, the number of positions in the list
+   */
+  public void update(final int firstVisible, final int lastVisible, final int itemCount){
+    final BitSet window = new BitSet();
+    if (firstVisible >= 0 && lastVisible >= firstVisible && itemCount > 0){
+      window.set(Math.max(0, firstVisible - mLookahead), Math.min(itemCount, lastVisible + mLookahead + 1));
+    }
+
+    final BitSet exited = (BitSet) mPositions.clone();
+    exited.andNot(window);
+    for (int i = exited.nextSetBit(0); i >= 0; i = exited.nextSetBit(i + 1)){
+      mPositions.clear(i);
+      mListener.onExit(i);
+    }
+    if (window.isEmpty()){
+      return;
+    }
+
+    // Visible positions first, then outwards in the direction of either end
+    final int last = Math.min(lastVisible, itemCount - 1);
+    for (int i = firstVisible; i <= last; i++){
+      enter(i);
+    }
+    for (int distance = 1; distance <= mLookahead; distance++){
+      if (last + distance < itemCount){
+        enter(last + distance);
+      }
+      if (firstVisible - distance >= 0){
+        enter(firstVisible - distance);
+      }
+    }
+  }
+
+  /**
+   * Empty the window, e.g. because the list content was replaced
+   */
+  public void clear(){
+    update(-1, -1, 0);
+  }
+
+  /**
+   * @param position - int
+   * @return boolean, true if the position is in the window
+   */
+  public boolean contains(final int position){
+    return position >= 0 && mPositions.get(position);
+  }
+
+  private void enter(final int position){
+    if (!mPositions.get(position)){
+      mPositions.set(position);
+      mListener.onEnter(position);
+    }
+  }
+}
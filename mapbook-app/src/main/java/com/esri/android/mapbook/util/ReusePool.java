@@ -0,0 +1,140 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.util;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A size-bounded pool of objects, such as bitmaps, whose memory can be reused
+ * for something of the same size or smaller. {@link #take(int)} hands out the
+ * smallest pooled object that's big enough; the least recently pooled objects
+ * are dropped once the pool holds more than its maximum size.
+ * @param <T> - the pooled type
+ */
+public class ReusePool<T> {
+
+  /**
+   * Measures pooled objects
+   * @param <T> - the pooled type
+   */
+  public interface Sizer<T> {
+    /**
+     * @param item - a pooled object
+     * @return int, the bytes the object can hold
+     */
+    int sizeOf(T item);
+  }
+
+  private final int mMaxBytes;
+  private final Sizer<T> mSizer;
+  // Oldest first
+  private final LinkedList<T> mItems = new LinkedList<>();
+  private int mBytes = 0;
+  private int mReuseCount = 0;
+  private int mMissCount = 0;
+
+  /**
+   * @param maxBytes - int, the total size of the pooled objects
+   * @param sizer - Sizer
+   */
+  public ReusePool(final int maxBytes, final Sizer<T> sizer){
+    mMaxBytes = maxBytes;
+    mSizer = sizer;
+  }
+
+  /**
+   * Take the smallest pooled object that holds at least the given number of bytes
+   * @param minBytes - int
+   * @return an object removed from the pool, or null if none is big enough
+   */
+  public synchronized T take(final int minBytes){
+    T best = null;
+    int bestSize = Integer.MAX_VALUE;
+    for (final T item : mItems){
+      final int size = mSizer.sizeOf(item);
+      if (size >= minBytes && size < bestSize){
+        best = item;
+        bestSize = size;
+      }
+    }
+    if (best == null){
+      mMissCount++;
+      return null;
+    }
+    mItems.remove(best);
+    mBytes = mBytes - bestSize;
+    mReuseCount++;
+    return best;
+  }
+
+  /**
+   * Pool an object that's no longer used
+   * @param item - the object
+   * @return boolean, false if the object is larger than the whole pool and wasn't kept
+   */
+  public synchronized boolean put(final T item){
+    final int size = mSizer.sizeOf(item);
+    if (size > mMaxBytes){
+      return false;
+    }
+    mItems.add(item);
+    mBytes = mBytes + size;
+    final Iterator<T> oldest = mItems.iterator();
+    while (mBytes > mMaxBytes){
+      mBytes = mBytes - mSizer.sizeOf(oldest.next());
+      oldest.remove();
+    }
+    return true;
+  }
+
+  /**
+   * Drop every pooled object
+   */
+  public synchronized void clear(){
+    mItems.clear();
+    mBytes = 0;
+  }
+
+  public synchronized int getSizeBytes(){
+    return mBytes;
+  }
+
+  /**
+   * @return int, the number of takes served from the pool
+   */
+  public synchronized int getReuseCount(){
+    return mReuseCount;
+  }
+
+  /**
+   * @return int, the number of takes that found nothing to reuse
+   */
+  public synchronized int getMissCount(){
+    return mMissCount;
+  }
+}
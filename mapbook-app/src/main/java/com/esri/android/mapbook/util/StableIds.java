@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.util;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Assigns list items that have no identifier of their own, such as layers and
+ * bookmarks, an id that stays the same for as long as the item is in the list.
+ * Items are told apart by identity.
+ * @param <T> - the item type
+ */
+public class StableIds<T> {
+
+  private Map<T, Long> mIds = new IdentityHashMap<>();
+  private long mNextId = 0;
+
+  /**
+   * @param item - a list item
+   * @return long, the id of the item, assigned the first time it's seen
+   */
+  public long getId(final T item){
+    final Long id = mIds.get(item);
+    if (id != null){
+      return id;
+    }
+    final long assigned = mNextId++;
+    mIds.put(item, assigned);
+    return assigned;
+  }
+
+  /**
+   * Forget the ids of items no longer in the list. Ids aren't reused,
+   * so an item added again gets a new id.
+   * @param items - Collection of the items in the list
+   */
+  public void retainAll(final Collection<? extends T> items){
+    final Map<T, Long> retained = new IdentityHashMap<>();
+    for (final T item : items){
+      final Long id = mIds.get(item);
+      if (id != null){
+        retained.put(item, id);
+      }
+    }
+    mIds = retained;
+  }
+
+  public int size(){
+    return mIds.size();
+  }
+}
@@ -0,0 +1,293 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Ticker;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records when each phase of a cold start completes, measured from the moment
+ * the tracer was created. Only the first occurrence of a phase is kept, so
+ * screens that are recreated later don't skew the numbers. Once the first map
+ * thumbnail is shown the run is appended to a trace file that keeps the most
+ * recent {@link #MAX_RUNS} runs, one line per run:
+ * <pre>
+ * 1496275200000 APPLICATION_CREATED=182 PERMISSION_CHECKED=411 GRAPH_BUILT=436 MMPK_OPENED=1290 FIRST_THUMBNAIL=1874
+ * </pre>
+ * The first value is the wall clock time of the run, the others are milliseconds
+ * since the tracer was created. Each phase has a budget for the time it may take
+ * after the phase recorded before it.
+ */
+public class StartupTracer {
+
+  /**
+   * The startup phases, in the order they complete
+   */
+  public enum Phase {
+    APPLICATION_CREATED(500),
+    PERMISSION_CHECKED(400),
+    GRAPH_BUILT(150),
+    MMPK_OPENED(1500),
+    FIRST_THUMBNAIL(1000);
+
+    private final long mBudgetMillis;
+
+    Phase(final long budgetMillis){
+      mBudgetMillis = budgetMillis;
+    }
+
+    /**
+     * @return long, milliseconds the phase may take after the phase recorded before it
+     */
+    public long getBudgetMillis(){
+      return mBudgetMillis;
+    }
+  }
+
+  public static final String TRACE_FILE = "startup_trace.txt";
+  public static final long UNKNOWN = -1;
+  static final int MAX_RUNS = 20;
+
+  private static final Phase LAST_PHASE = Phase.FIRST_THUMBNAIL;
+
+  private final Ticker mTicker;
+  private final Clock mClock;
+  private final long mOriginNanos;
+  private final long mStartedMillis;
+  private final Map<Phase, Long> mElapsedMillis = new EnumMap<>(Phase.class);
+  private File mTraceFile = null;
+  private Executor mExecutor = null;
+  private boolean mFinished = false;
+
+  /**
+   * @param ticker - Ticker measuring the elapsed time
+   * @param clock - Clock stamping the run in the trace file
+   */
+  public StartupTracer(final Ticker ticker, final Clock clock){
+    mTicker = ticker;
+    mClock = clock;
+    mOriginNanos = ticker.read();
+    mStartedMillis = clock.currentTimeMillis();
+  }
+
+  /**
+   * Set where completed runs are written
+   * @param traceFile - File the runs are appended to
+   * @param executor - Executor the file is written on, away from the main thread
+   */
+  public synchronized void setTraceFile(final File traceFile, final Executor executor){
+    mTraceFile = traceFile;
+    mExecutor = executor;
+  }
+
+  /**
+   * Record that a phase has completed. Phases already recorded, and
+   * any phase after the run finished, are ignored.
+   * @param phase - Phase
+   */
+  public synchronized void mark(final Phase phase){
+    if (mFinished || mElapsedMillis.containsKey(phase)){
+      return;
+    }
+    mElapsedMillis.put(phase, TimeUnit.NANOSECONDS.toMillis(mTicker.read() - mOriginNanos));
+    if (phase == LAST_PHASE){
+      finish();
+    }
+  }
+
+  /**
+   * Stop tracing without writing the run, e.g. because the user was
+   * prompted for a permission and the timings no longer reflect the app
+   */
+  public synchronized void cancel(){
+    mFinished = true;
+  }
+
+  /**
+   * @return boolean, true once the run was written or cancelled
+   */
+  public synchronized boolean isFinished(){
+    return mFinished;
+  }
+
+  /**
+   * @param phase - Phase
+   * @return long, milliseconds from the start until the phase completed, or UNKNOWN
+   */
+  public synchronized long getElapsedMillis(final Phase phase){
+    final Long elapsed = mElapsedMillis.get(phase);
+    return elapsed != null ? elapsed : UNKNOWN;
+  }
+
+  /**
+   * @return List of the recorded phases that took longer than their budget
+   */
+  public synchronized List<Phase> getOverBudget(){
+    return getOverBudget(mElapsedMillis);
+  }
+
+  /**
+   * @param elapsedMillis - Map of phases to milliseconds since the start, as read from a trace file
+   * @return List of the phases that took longer than their budget
+   */
+  public static List<Phase> getOverBudget(final Map<Phase, Long> elapsedMillis){
+    final List<Phase> over = new ArrayList<>();
+    long previous = 0;
+    for (final Phase phase : Phase.values()){
+      final Long elapsed = elapsedMillis.get(phase);
+      if (elapsed == null){
+        continue;
+      }
+      if (elapsed - previous > phase.getBudgetMillis()){
+        over.add(phase);
+      }
+      previous = elapsed;
+    }
+    return over;
+  }
+
+  /**
+   * @param line - String, a run as written to the trace file
+   * @return Map of phases to milliseconds since the start
+   */
+  public static Map<Phase, Long> parseRun(final String line){
+    final Map<Phase, Long> elapsedMillis = new EnumMap<>(Phase.class);
+    final String[] fields = line.trim().split(" ");
+    // The first field is the time of the run
+    for (int i = 1; i < fields.length; i++){
+      final int separator = fields[i].indexOf('=');
+      if (separator > 0){
+        try {
+          elapsedMillis.put(Phase.valueOf(fields[i].substring(0, separator)),
+              Long.parseLong(fields[i].substring(separator + 1)));
+        } catch (final IllegalArgumentException e){
+          // Written by a version with different phases
+        }
+      }
+    }
+    return elapsedMillis;
+  }
+
+  /**
+   * @param traceFile - File written by a tracer
+   * @return List of the runs in the file, oldest first
+   * @throws IOException if the file can't be read
+   */
+  public static List<String> readRuns(final File traceFile) throws IOException {
+    final List<String> runs = new ArrayList<>();
+    final BufferedReader reader;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(traceFile), Charsets.UTF_8));
+    } catch (final FileNotFoundException e){
+      return runs;
+    }
+    try {
+      String line;
+      while ((line = reader.readLine()) != null){
+        if (line.length() > 0){
+          runs.add(line);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return runs;
+  }
+
+  /**
+   * @return String, the run as written to the trace file
+   */
+  synchronized String formatRun(){
+    final StringBuilder builder = new StringBuilder().append(mStartedMillis);
+    for (final Map.Entry<Phase, Long> entry : mElapsedMillis.entrySet()){
+      builder.append(' ').append(entry.getKey().name()).append('=').append(entry.getValue());
+    }
+    return builder.toString();
+  }
+
+  private void finish(){
+    mFinished = true;
+    if (mTraceFile == null){
+      return;
+    }
+    final File traceFile = mTraceFile;
+    final String run = formatRun();
+    mExecutor.execute(new Runnable() {
+      @Override public void run() {
+        try {
+          appendRun(traceFile, run);
+        } catch (final IOException e){
+          // Only this run is lost, startup itself isn't affected
+        }
+      }
+    });
+  }
+
+  /**
+   * Append a run to the trace file, dropping the oldest runs beyond MAX_RUNS
+   * @param traceFile - File
+   * @param run - String
+   * @throws IOException if the file can't be written
+   */
+  static void appendRun(final File traceFile, final String run) throws IOException {
+    final LinkedList<String> runs = new LinkedList<>(readRuns(traceFile));
+    runs.add(run);
+    while (runs.size() > MAX_RUNS){
+      runs.removeFirst();
+    }
+    final File tmp = new File(traceFile.getPath() + ".tmp");
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), Charsets.UTF_8);
+    try {
+      for (final String line : runs){
+        writer.write(line);
+        writer.write('\n');
+      }
+    } finally {
+      writer.close();
+    }
+    if (!tmp.renameTo(traceFile)){
+      throw new IOException("Unable to replace " + traceFile.getName());
+    }
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.data;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Tests for the {@link PackageCache} sharing, reference counting and invalidation.
+ */
+public class PackageCacheTest {
+
+  private FakeLoader mLoader;
+  private PackageCache<Object> mCache;
+  private File mFile;
+  private String mPath;
+
+  @Before
+  public void setUp() throws Exception {
+    mLoader = new FakeLoader();
+    mCache = new PackageCache<>(mLoader, 1, MoreExecutors.directExecutor(), MoreExecutors.directExecutor());
+    mFile = File.createTempFile("mapbook", ".mmpk");
+    mPath = mFile.getPath();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mFile.delete();
+  }
+
+  @Test
+  public void sharesOneLoadBetweenScreens() throws Exception {
+    final Recorder mapbook = new Recorder();
+    final Recorder map = new Recorder();
+    mCache.acquire(mPath, mapbook);
+    mCache.acquire(mPath, map);
+    Assert.assertEquals(1, mLoader.mPending.size());
+    final Object pkg = mLoader.complete(0);
+    Assert.assertSame(pkg, mapbook.mLoaded);
+    Assert.assertSame(pkg, map.mLoaded);
+
+    // A later request is served before acquire returns
+    final Recorder again = new Recorder();
+    mCache.acquire(mPath, again);
+    Assert.assertSame(pkg, again.mLoaded);
+    Assert.assertEquals(1, mCache.getLoadCount());
+    Assert.assertEquals(1, mCache.getHitCount());
+  }
+
+  @Test
+  public void reloadsPackageReplacedOnDisk() throws Exception {
+    final Recorder first = new Recorder();
+    mCache.acquire(mPath, first);
+    mLoader.complete(0);
+    Assert.assertTrue(mFile.setLastModified(mFile.lastModified() - 60000));
+
+    final Recorder second = new Recorder();
+    mCache.acquire(mPath, second);
+    Assert.assertNull(second.mLoaded);
+    final Object replaced = mLoader.complete(1);
+    Assert.assertSame(replaced, second.mLoaded);
+    Assert.assertNotSame(first.mLoaded, second.mLoaded);
+
+    // Releasing the old package doesn't touch the new entry
+    mCache.release(mPath, first.mLoaded);
+    mCache.trim();
+    final Recorder third = new Recorder();
+    mCache.acquire(mPath, third);
+    Assert.assertSame(replaced, third.mLoaded);
+  }
+
+  @Test
+  public void invalidateAffectsLaterRequestsOnly() throws Exception {
+    final Recorder holder = new Recorder();
+    mCache.acquire(mPath, holder);
+    final Object pkg = mLoader.complete(0);
+    mCache.invalidate(mPath);
+    Assert.assertSame(pkg, holder.mLoaded);
+
+    mCache.acquire(mPath, new Recorder());
+    Assert.assertEquals(2, mCache.getLoadCount());
+    mCache.release(mPath, pkg);
+  }
+
+  @Test
+  public void trimDropsOnlyUnreferencedPackages() throws Exception {
+    final Recorder holder = new Recorder();
+    mCache.acquire(mPath, holder);
+    mLoader.complete(0);
+    mCache.trim();
+    mCache.acquire(mPath, new Recorder());
+    Assert.assertEquals(1, mCache.getLoadCount());
+
+    mCache.release(mPath, holder.mLoaded);
+    mCache.release(mPath, holder.mLoaded);
+    mCache.trim();
+    mCache.acquire(mPath, new Recorder());
+    Assert.assertEquals(2, mCache.getLoadCount());
+  }
+
+  @Test
+  public void failedLoadIsRetried() throws Exception {
+    final Recorder first = new Recorder();
+    final Recorder second = new Recorder();
+    mCache.acquire(mPath, first);
+    mCache.acquire(mPath, second);
+    final Exception error = new Exception("corrupt package");
+    mLoader.fail(0, error);
+    Assert.assertSame(error, first.mError);
+    Assert.assertSame(error, second.mError);
+
+    final Recorder retry = new Recorder();
+    mCache.acquire(mPath, retry);
+    Assert.assertEquals(2, mLoader.mPending.size());
+    Assert.assertSame(mLoader.complete(1), retry.mLoaded);
+  }
+
+  @Test
+  public void checksFileBeforeServingOnCallbackExecutor() throws Exception {
+    final QueueExecutor fileExecutor = new QueueExecutor();
+    final QueueExecutor callbackExecutor = new QueueExecutor();
+    mCache = new PackageCache<>(mLoader, 1, fileExecutor, callbackExecutor);
+    final Recorder recorder = new Recorder();
+    mCache.acquire(mPath, recorder);
+    Assert.assertTrue(callbackExecutor.mQueue.isEmpty());
+    Assert.assertTrue(mLoader.mPending.isEmpty());
+
+    fileExecutor.runAll();
+    Assert.assertTrue(mLoader.mPending.isEmpty());
+    callbackExecutor.runAll();
+    Assert.assertEquals(1, mLoader.mPending.size());
+    Assert.assertSame(mLoader.complete(0), recorder.mLoaded);
+  }
+
+  private static final class QueueExecutor implements Executor {
+    private final List<Runnable> mQueue = new ArrayList<>();
+
+    @Override public void execute(final Runnable command) {
+      mQueue.add(command);
+    }
+
+    void runAll(){
+      while (!mQueue.isEmpty()){
+        mQueue.remove(0).run();
+      }
+    }
+  }
+
+  private static final class FakeLoader implements PackageCache.Loader<Object> {
+    private final List<PackageCache.Callback<Object>> mPending = new ArrayList<>();
+
+    @Override public void load(final String path, final PackageCache.Callback<Object> callback) {
+      mPending.add(callback);
+    }
+
+    Object complete(final int index){
+      final Object pkg = new Object();
+      mPending.get(index).onLoaded(pkg);
+      return pkg;
+    }
+
+    void fail(final int index, final Throwable error){
+      mPending.get(index).onFailed(error);
+    }
+  }
+
+  private static final class Recorder implements PackageCache.Callback<Object> {
+    private Object mLoaded;
+    private Throwable mError;
+
+    @Override public void onLoaded(final Object pkg) {
+      mLoaded = pkg;
+    }
+
+    @Override public void onFailed(final Throwable error) {
+      mError = error;
+    }
+  }
+}
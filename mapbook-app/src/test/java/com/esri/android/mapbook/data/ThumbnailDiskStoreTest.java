@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.data;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * Tests for the {@link ThumbnailDiskStore} disk tier of the thumbnail cache.
+ */
+public class ThumbnailDiskStoreTest {
+
+  private File mDirectory;
+  private ThumbnailDiskStore mStore;
+
+  @Before
+  public void setUp() throws Exception {
+    mDirectory = File.createTempFile("thumbnails", "");
+    Assert.assertTrue(mDirectory.delete());
+    mStore = new ThumbnailDiskStore(mDirectory);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    final File[] files = mDirectory.listFiles();
+    if (files != null){
+      for (final File f : files){
+        f.delete();
+      }
+    }
+    mDirectory.delete();
+  }
+
+  @Test
+  public void storesThumbnailsByVersionAndIndex() throws Exception {
+    Assert.assertNull(mStore.get(100, 0));
+    mStore.put(100, 0, new byte[]{1, 2, 3});
+    mStore.put(100, ThumbnailCache.MAPBOOK_INDEX, new byte[]{4});
+    Assert.assertArrayEquals(new byte[]{1, 2, 3}, mStore.get(100, 0));
+    Assert.assertArrayEquals(new byte[]{4}, mStore.get(100, ThumbnailCache.MAPBOOK_INDEX));
+    Assert.assertNull(mStore.get(100, 1));
+    Assert.assertNull(mStore.get(200, 0));
+  }
+
+  @Test
+  public void newVersionReplacesOlderThumbnails() throws Exception {
+    mStore.put(100, 0, new byte[]{1});
+    mStore.put(100, 1, new byte[]{2});
+    mStore.put(200, 0, new byte[]{3});
+    Assert.assertNull(mStore.get(100, 0));
+    Assert.assertNull(mStore.get(100, 1));
+    Assert.assertArrayEquals(new byte[]{3}, mStore.get(200, 0));
+    Assert.assertEquals(1, mDirectory.listFiles().length);
+  }
+
+  @Test
+  public void restartedStoreKeepsCurrentVersion() throws Exception {
+    mStore.put(100, 0, new byte[]{1});
+    final ThumbnailDiskStore restarted = new ThumbnailDiskStore(mDirectory);
+    Assert.assertArrayEquals(new byte[]{1}, restarted.get(100, 0));
+    restarted.put(100, 1, new byte[]{2});
+    Assert.assertArrayEquals(new byte[]{1}, restarted.get(100, 0));
+  }
+}
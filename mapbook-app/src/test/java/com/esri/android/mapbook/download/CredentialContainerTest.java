@@ -0,0 +1,140 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+/**
+ * Tests for the {@link CredentialContainer} file format, using a software AES key
+ * in place of the AndroidKeyStore key.
+ */
+public class CredentialContainerTest {
+
+  private static final int CREDENTIAL_SIZE = 3 * 1024;
+
+  private File mDirectory;
+  private SecretKey mKey;
+  private byte[] mPlaintext;
+
+  @Before
+  public void setUp() throws Exception {
+    mDirectory = File.createTempFile("credentials", "");
+    Assert.assertTrue(mDirectory.delete() && mDirectory.mkdirs());
+    final KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+    keyGenerator.init(256);
+    mKey = keyGenerator.generateKey();
+    mPlaintext = new byte[CREDENTIAL_SIZE];
+    new Random(11).nextBytes(mPlaintext);
+  }
+
+  @After
+  public void tearDown() {
+    final File[] files = mDirectory.listFiles();
+    if (files != null){
+      for (final File f : files){
+        f.delete();
+      }
+    }
+    mDirectory.delete();
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    final File file = new File(mDirectory, "cred_file");
+    CredentialContainer.encrypt(mKey, mPlaintext, file);
+    Assert.assertTrue(CredentialContainer.isContainer(file));
+    Assert.assertArrayEquals(mPlaintext, CredentialContainer.decrypt(mKey, file));
+    Assert.assertFalse(new File(mDirectory, "cred_file.tmp").exists());
+  }
+
+  @Test
+  public void legacyFileIsNotAContainer() throws Exception {
+    final File file = new File(mDirectory, "cred_file");
+    legacyEncrypt(mPlaintext, file, new File(mDirectory, "iv_file"));
+    Assert.assertFalse(CredentialContainer.isContainer(file));
+  }
+
+  @Test(expected = GeneralSecurityException.class)
+  public void tamperedCiphertextIsRejected() throws Exception {
+    final File file = new File(mDirectory, "cred_file");
+    CredentialContainer.encrypt(mKey, mPlaintext, file);
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(raf.length() - 1);
+      final int last = raf.read();
+      raf.seek(raf.length() - 1);
+      raf.write(last ^ 1);
+    } finally {
+      raf.close();
+    }
+    CredentialContainer.decrypt(mKey, file);
+  }
+
+  @Test(expected = IOException.class)
+  public void unknownVersionIsRejected() throws Exception {
+    final File file = new File(mDirectory, "cred_file");
+    CredentialContainer.encrypt(mKey, mPlaintext, file);
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(4);
+      raf.write(CredentialContainer.VERSION + 1);
+    } finally {
+      raf.close();
+    }
+    CredentialContainer.decrypt(mKey, file);
+  }
+
+  /**
+   * The original encryptData(): the IV and the ciphertext in separate files
+   */
+  private void legacyEncrypt(final byte[] input, final File file, final File ivFile) throws Exception {
+    final Cipher c = Cipher.getInstance(CredentialContainer.CIPHER_TYPE);
+    c.init(Cipher.ENCRYPT_MODE, mKey);
+    final GCMParameterSpec spec = c.getParameters().getParameterSpec(GCMParameterSpec.class);
+    final FileOutputStream fos = new FileOutputStream(ivFile);
+    fos.write(spec.getIV());
+    fos.close();
+    final CipherOutputStream cipherOutputStream = new CipherOutputStream(new FileOutputStream(file), c);
+    cipherOutputStream.write(input);
+    cipherOutputStream.close();
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for the key handle reuse and invalidation handling of the
+ * {@link CredentialKeyProvider}, with a software key source.
+ */
+public class CredentialKeyProviderTest {
+
+  private FakeKeySource mKeySource;
+  private RecordingMetrics mMetrics;
+  private CredentialKeyProvider mProvider;
+  private File mFile;
+
+  @Before
+  public void setUp() throws Exception {
+    mKeySource = new FakeKeySource();
+    mMetrics = new RecordingMetrics();
+    mProvider = new CredentialKeyProvider(mKeySource, mMetrics);
+    mFile = File.createTempFile("cred_file", "");
+  }
+
+  @After
+  public void tearDown() {
+    mFile.delete();
+  }
+
+  @Test
+  public void resolvesKeyOnce() throws Exception {
+    encrypt("credentials");
+    Assert.assertEquals("credentials", decrypt());
+    Assert.assertEquals("credentials", decrypt());
+    Assert.assertEquals(1, mKeySource.mLoads);
+    Assert.assertEquals(1, mKeySource.mCreates);
+    Assert.assertEquals(3, mMetrics.mWarm.size());
+    Assert.assertFalse(mMetrics.mWarm.get(0));
+    Assert.assertTrue(mMetrics.mWarm.get(1));
+    Assert.assertTrue(mMetrics.mWarm.get(2));
+  }
+
+  @Test
+  public void decryptWithoutKeyDoesNotCreateOne() throws Exception {
+    try {
+      decrypt();
+      Assert.fail("Expected decryption without a key to fail");
+    } catch (final InvalidKeyException e){
+      // expected
+    }
+    Assert.assertEquals(0, mKeySource.mCreates);
+  }
+
+  @Test
+  public void encryptRetriesWithRegeneratedKey() throws Exception {
+    encrypt("credentials");
+    mKeySource.invalidate();
+    encrypt("new credentials");
+    Assert.assertEquals(1, mMetrics.mRegenerations);
+    Assert.assertEquals(2, mKeySource.mCreates);
+    Assert.assertEquals("new credentials", decrypt());
+  }
+
+  @Test
+  public void decryptWithInvalidatedKeyFailsAndRegenerates() throws Exception {
+    encrypt("credentials");
+    mKeySource.invalidate();
+    try {
+      decrypt();
+      Assert.fail("Expected decryption with an invalidated key to fail");
+    } catch (final InvalidKeyException e){
+      // expected
+    }
+    Assert.assertEquals(1, mMetrics.mRegenerations);
+    // The replacement key works for the credentials saved after signing in again
+    encrypt("credentials");
+    Assert.assertEquals("credentials", decrypt());
+  }
+
+  /**
+   * Only the operation that loads the key is reported cold, the rest reuse the handle.
+   */
+  @Test
+  public void reportsColdAndWarmOperations() throws Exception {
+    encrypt("credentials");
+    for (int i = 0; i < 10; i++){
+      decrypt();
+    }
+    Assert.assertEquals(1, mKeySource.mLoads);
+    Assert.assertEquals(11, mMetrics.mNanos.size());
+    Assert.assertFalse(mMetrics.mWarm.get(0));
+    Assert.assertEquals(1, Collections.frequency(mMetrics.mWarm, false));
+  }
+
+  private void encrypt(final String plaintext) throws GeneralSecurityException, IOException {
+    mProvider.run("encrypt", true, new CredentialKeyProvider.KeyOperation<Void>() {
+      @Override public Void run(final SecretKey key) throws GeneralSecurityException, IOException {
+        mKeySource.check(key);
+        CredentialContainer.encrypt(key, plaintext.getBytes("UTF-8"), mFile);
+        return null;
+      }
+    });
+  }
+
+  private String decrypt() throws GeneralSecurityException, IOException {
+    return mProvider.run("decrypt", false, new CredentialKeyProvider.KeyOperation<String>() {
+      @Override public String run(final SecretKey key) throws GeneralSecurityException, IOException {
+        mKeySource.check(key);
+        return new String(CredentialContainer.decrypt(key, mFile), "UTF-8");
+      }
+    });
+  }
+
+  /**
+   * Stands in for the AndroidKeyStore. An invalidated key throws from
+   * cipher operations, like KeyPermanentlyInvalidatedException.
+   */
+  private static final class FakeKeySource implements CredentialKeyProvider.KeySource {
+    private SecretKey mKey = null;
+    private SecretKey mInvalidated = null;
+    private int mLoads = 0;
+    private int mCreates = 0;
+
+    @Override public SecretKey load() {
+      mLoads++;
+      return mKey;
+    }
+
+    @Override public SecretKey create() throws GeneralSecurityException {
+      mCreates++;
+      final KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+      keyGenerator.init(128);
+      mKey = keyGenerator.generateKey();
+      return mKey;
+    }
+
+    @Override public void delete() {
+      mKey = null;
+    }
+
+    void invalidate(){
+      mInvalidated = mKey;
+    }
+
+    void check(final SecretKey key) throws InvalidKeyException {
+      if (key == mInvalidated){
+        throw new InvalidKeyException("Key permanently invalidated");
+      }
+    }
+  }
+
+  private static final class RecordingMetrics implements CredentialKeyProvider.Metrics {
+    private final List<Boolean> mWarm = new ArrayList<>();
+    private final List<Long> mNanos = new ArrayList<>();
+    private int mRegenerations = 0;
+
+    @Override public void onOperation(final String operation, final boolean warm, final long nanos) {
+      mWarm.add(warm);
+      mNanos.add(nanos);
+    }
+
+    @Override public void onKeyRegenerated() {
+      mRegenerations++;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import com.esri.android.mapbook.util.FakeClock;
+import com.google.common.base.Charsets;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+
+/**
+ * Tests for the expiry and zeroing of the {@link CredentialMemoryCache}.
+ */
+public class CredentialMemoryCacheTest {
+
+  private static final long TTL = 5 * 60 * 1000;
+  private static final String CREDENTIALS = "[{\"credential\":\"token\"}]";
+
+  private FakeClock mClock;
+  private CredentialMemoryCache mCache;
+
+  @Before
+  public void setUp() {
+    mClock = new FakeClock(0);
+    mCache = new CredentialMemoryCache(mClock, TTL);
+  }
+
+  @Test
+  public void countsHitsAndMisses() {
+    Assert.assertNull(mCache.get());
+    mCache.put(CREDENTIALS.getBytes(Charsets.UTF_8));
+    Assert.assertEquals(CREDENTIALS, mCache.get());
+    Assert.assertEquals(CREDENTIALS, mCache.get());
+    Assert.assertEquals(2, mCache.getHitCount());
+    Assert.assertEquals(1, mCache.getMissCount());
+  }
+
+  @Test
+  public void keepsCopyOfCallersBuffer() {
+    final byte[] plaintext = CREDENTIALS.getBytes(Charsets.UTF_8);
+    mCache.put(plaintext);
+    plaintext[0] = 0;
+    Assert.assertEquals(CREDENTIALS, mCache.get());
+  }
+
+  @Test
+  public void zeroesBufferOnExpiry() throws Exception {
+    mCache.put(CREDENTIALS.getBytes(Charsets.UTF_8));
+    final byte[] buffer = getBuffer();
+    mClock.advance(TTL - 1);
+    Assert.assertEquals(CREDENTIALS, mCache.get());
+    mClock.advance(1);
+    mCache.purgeExpired();
+    assertZeroed(buffer);
+    Assert.assertNull(mCache.get());
+  }
+
+  @Test
+  public void zeroesBufferOnInvalidate() throws Exception {
+    mCache.put(CREDENTIALS.getBytes(Charsets.UTF_8));
+    final byte[] buffer = getBuffer();
+    mCache.invalidate();
+    assertZeroed(buffer);
+    Assert.assertNull(mCache.get());
+  }
+
+  @Test
+  public void replacingZeroesPreviousBuffer() throws Exception {
+    mCache.put(CREDENTIALS.getBytes(Charsets.UTF_8));
+    final byte[] buffer = getBuffer();
+    mClock.advance(TTL - 1);
+    mCache.put("[]".getBytes(Charsets.UTF_8));
+    assertZeroed(buffer);
+    // The new credentials get a full lifetime
+    mClock.advance(TTL - 1);
+    Assert.assertEquals("[]", mCache.get());
+  }
+
+  private byte[] getBuffer() throws Exception {
+    final Field field = CredentialMemoryCache.class.getDeclaredField("mPlaintext");
+    field.setAccessible(true);
+    return (byte[]) field.get(mCache);
+  }
+
+  private static void assertZeroed(final byte[] buffer){
+    for (final byte b : buffer){
+      Assert.assertEquals(0, b);
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for the block level {@link DeltaUpdater}, measuring the bytes
+ * transferred by each update against a local stand-in for the portal.
+ */
+public class DeltaUpdaterTest {
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final int PACKAGE_SIZE = 40 * CHUNK_SIZE + 123;
+
+  private LocalPackageServer mServer;
+  private byte[] mInstalledBytes;
+  private File mDirectory;
+  private File mInstalled;
+  private File mManifest;
+
+  @Before
+  public void setUp() throws Exception {
+    mInstalledBytes = new byte[PACKAGE_SIZE];
+    new Random(5).nextBytes(mInstalledBytes);
+    mServer = new LocalPackageServer(mInstalledBytes);
+    mDirectory = File.createTempFile("mapbook", "");
+    Assert.assertTrue(mDirectory.delete() && mDirectory.mkdirs());
+    mInstalled = new File(mDirectory, "OfflineMapbook.mmpk");
+    mManifest = new File(mDirectory, "OfflineMapbook.mmpk.manifest");
+    writeFile(mInstalled, mInstalledBytes);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mServer.shutdown();
+    final File[] files = mDirectory.listFiles();
+    if (files != null){
+      for (final File f : files){
+        f.delete();
+      }
+    }
+    mDirectory.delete();
+  }
+
+  @Test
+  public void fetchesOnlyChangedBlocks() throws Exception {
+    final byte[] updated = mInstalledBytes.clone();
+    // Change two separate blocks
+    updated[3 * CHUNK_SIZE + 10] ^= 1;
+    updated[20 * CHUNK_SIZE] ^= 1;
+    publish(updated);
+
+    final DeltaUpdater updater = newUpdater();
+    final File result = updater.update(null);
+
+    Assert.assertArrayEquals(updated, readFile(result));
+    Assert.assertEquals(2 * CHUNK_SIZE, updater.getBytesFetched());
+    Assert.assertEquals(2, updater.getRangeRequests());
+    Assert.assertEquals(PACKAGE_SIZE - 2 * CHUNK_SIZE, updater.getBytesReused());
+    // Only the manifest and the two changed blocks went over the wire
+    final long manifestBytes = new File(mDirectory, "published.manifest").length();
+    Assert.assertEquals(manifestBytes + 2 * CHUNK_SIZE, mServer.getBytesSent());
+    Assert.assertEquals(3, mServer.getRequestCount());
+    Assert.assertEquals(PackageManifest.build(result, CHUNK_SIZE), PackageManifest.readQuietly(mManifest));
+  }
+
+  @Test
+  public void coalescesAdjacentChangesAndGrowsPackage() throws Exception {
+    final byte[] updated = Arrays.copyOf(mInstalledBytes, PACKAGE_SIZE + 5 * CHUNK_SIZE);
+    final byte[] appended = new byte[5 * CHUNK_SIZE - 123];
+    new Random(9).nextBytes(appended);
+    System.arraycopy(appended, 0, updated, PACKAGE_SIZE, appended.length);
+    // Rewrite the tail of the old last block too
+    for (int i = 40 * CHUNK_SIZE; i < PACKAGE_SIZE + 123; i++){
+      updated[i] = (byte) i;
+    }
+    publish(updated);
+
+    final DeltaUpdater updater = newUpdater();
+    Assert.assertArrayEquals(updated, readFile(updater.update(null)));
+    Assert.assertEquals(1, updater.getRangeRequests());
+    Assert.assertEquals(updated.length - 40 * CHUNK_SIZE, updater.getBytesFetched());
+  }
+
+  @Test
+  public void reusesMovedBlocks() throws Exception {
+    final byte[] updated = new byte[PACKAGE_SIZE - 123];
+    // Swap the first and second halves of the whole blocks
+    System.arraycopy(mInstalledBytes, 20 * CHUNK_SIZE, updated, 0, 20 * CHUNK_SIZE);
+    System.arraycopy(mInstalledBytes, 0, updated, 20 * CHUNK_SIZE, 20 * CHUNK_SIZE);
+    publish(updated);
+
+    final DeltaUpdater updater = newUpdater();
+    Assert.assertArrayEquals(updated, readFile(updater.update(null)));
+    Assert.assertEquals(0, updater.getBytesFetched());
+    Assert.assertEquals(0, updater.getRangeRequests());
+  }
+
+  @Test
+  public void missingManifestLeavesPackageUntouched() throws Exception {
+    mServer.setNotFound("/manifest");
+    try {
+      newUpdater().update(null);
+      Assert.fail("Expected the missing manifest to be reported");
+    } catch (final DeltaUpdater.ManifestUnavailableException e){
+      Assert.assertArrayEquals(mInstalledBytes, readFile(mInstalled));
+      Assert.assertEquals(0, mServer.getBytesSent());
+    }
+  }
+
+  @Test
+  public void corruptServerDataIsRejected() throws Exception {
+    final byte[] updated = mInstalledBytes.clone();
+    updated[5] ^= 1;
+    publish(updated);
+    // The server hands out bytes that don't match the manifest it published
+    final byte[] corrupt = updated.clone();
+    corrupt[6] ^= 1;
+    mServer.setPayload(corrupt);
+
+    try {
+      newUpdater().update(null);
+      Assert.fail("Expected verification to fail");
+    } catch (final IOException e){
+      Assert.assertArrayEquals(mInstalledBytes, readFile(mInstalled));
+      Assert.assertFalse(new File(mInstalled.getPath() + DeltaUpdater.DELTA_EXTENSION).exists());
+    }
+  }
+
+  private DeltaUpdater newUpdater() throws IOException {
+    return new DeltaUpdater(mInstalled, mManifest, mServer.url("/data"), mServer.url("/manifest"));
+  }
+
+  /**
+   * Serve the new version and its manifest, then reset the transfer counters
+   */
+  private void publish(final byte[] updated) throws IOException {
+    final File source = new File(mDirectory, "published.mmpk");
+    writeFile(source, updated);
+    final File manifest = new File(mDirectory, "published.manifest");
+    PackageManifest.build(source, CHUNK_SIZE).write(manifest);
+    mServer.setPayload(updated);
+    mServer.putResource("/manifest", readFile(manifest));
+    mServer.resetCounters();
+  }
+
+  private static void writeFile(final File file, final byte[] bytes) throws IOException {
+    final OutputStream os = new FileOutputStream(file);
+    try {
+      os.write(bytes);
+    } finally {
+      os.close();
+    }
+  }
+
+  private static byte[] readFile(final File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final byte[] bytes = new byte[(int) raf.length()];
+      raf.readFully(bytes);
+      return bytes;
+    } finally {
+      raf.close();
+    }
+  }
+}
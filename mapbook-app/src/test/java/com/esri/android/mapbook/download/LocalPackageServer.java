@@ -0,0 +1,317 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A minimal HTTP/1.1 stand-in for the portal used by download tests.
+ * It serves a single payload, honors "Range: bytes=N-" requests and can be told to
+ * drop every connection after a fixed number of body bytes to simulate a flaky network.
+ * Additional resources can be registered by path, and paths can be marked as missing.
+ * When given validators, it answers matching conditional requests with 304 and HEAD
+ * requests with headers only. The ranges requested and the most connections served at
+ * once are recorded.
+ */
+class LocalPackageServer {
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+
+  private final ServerSocket mServerSocket;
+  private final Thread mThread;
+  private volatile byte[] mPayload;
+  private volatile long mDropAfterBytes = -1;
+  private volatile long mBytesPerSecondPerConnection = -1;
+  private volatile String mETag = null;
+  private volatile String mLastModified = null;
+  private final Map<String, byte[]> mResources = new ConcurrentHashMap<>();
+  private final Set<String> mMissing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final AtomicInteger mRequestCount = new AtomicInteger();
+  private final AtomicLong mBytesSent = new AtomicLong();
+  private final List<Long> mRangeStarts = Collections.synchronizedList(new ArrayList<Long>());
+  private final AtomicInteger mActiveConnections = new AtomicInteger();
+  private final AtomicInteger mPeakConnections = new AtomicInteger();
+
+  LocalPackageServer(final byte[] payload) throws IOException {
+    mPayload = payload;
+    mServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    mThread = new Thread(new Runnable() {
+      @Override public void run() {
+        while (!mServerSocket.isClosed()){
+          try {
+            final Socket socket = mServerSocket.accept();
+            final Thread handler = new Thread(new Runnable() {
+              @Override public void run() {
+                handle(socket);
+              }
+            });
+            handler.setDaemon(true);
+            handler.start();
+          } catch (final IOException e){
+            // Server socket closed
+          }
+        }
+      }
+    });
+    mThread.setDaemon(true);
+    mThread.start();
+  }
+
+  URL url(final String path) throws IOException {
+    return new URL("http", "127.0.0.1", mServerSocket.getLocalPort(), path);
+  }
+
+  void setPayload(final byte[] payload){
+    mPayload = payload;
+  }
+
+  /**
+   * Serve the given body for requests to the path instead of the payload
+   * @param path - String
+   * @param body - byte[]
+   */
+  void putResource(final String path, final byte[] body){
+    mResources.put(path, body);
+  }
+
+  /**
+   * Answer requests to the path with 404
+   * @param path - String
+   */
+  void setNotFound(final String path){
+    mMissing.add(path);
+  }
+
+  /**
+   * @param bytes - long, number of body bytes sent before the socket is closed, -1 to never drop
+   */
+  void setDropAfterBytes(final long bytes){
+    mDropAfterBytes = bytes;
+  }
+
+  /**
+   * Limit each connection to the given rate, simulating a link where a single
+   * stream can't fill the available bandwidth.
+   * @param bytesPerSecond - long, -1 for no limit
+   */
+  void setBytesPerSecondPerConnection(final long bytesPerSecond){
+    mBytesPerSecondPerConnection = bytesPerSecond;
+  }
+
+  /**
+   * Send the validators with every response and honor them in conditional requests
+   * @param eTag - String, ETag header value or null
+   * @param lastModified - String, Last-Modified header value or null
+   */
+  void setValidators(final String eTag, final String lastModified){
+    mETag = eTag;
+    mLastModified = lastModified;
+  }
+
+  int getRequestCount(){
+    return mRequestCount.get();
+  }
+
+  long getBytesSent(){
+    return mBytesSent.get();
+  }
+
+  /**
+   * @return List of the first byte of each ranged request, in the order received
+   */
+  List<Long> getRangeStarts(){
+    synchronized (mRangeStarts){
+      return new ArrayList<>(mRangeStarts);
+    }
+  }
+
+  /**
+   * @return int, the most connections sending a body at the same time
+   */
+  int getPeakConnections(){
+    return mPeakConnections.get();
+  }
+
+  void resetCounters(){
+    mRequestCount.set(0);
+    mBytesSent.set(0);
+    mRangeStarts.clear();
+    mPeakConnections.set(0);
+  }
+
+  void shutdown() throws IOException {
+    mServerSocket.close();
+  }
+
+  private void handle(final Socket socket){
+    try {
+      final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), ASCII));
+      final String requestLine = reader.readLine();
+      if (requestLine == null){
+        return;
+      }
+      mRequestCount.incrementAndGet();
+      long start = 0;
+      long end = -1;
+      String ifNoneMatch = null;
+      String ifModifiedSince = null;
+      String line;
+      while ((line = reader.readLine()) != null && line.length() > 0){
+        final String lower = line.toLowerCase();
+        if (lower.startsWith("if-none-match:")){
+          ifNoneMatch = line.substring("if-none-match:".length()).trim();
+        }
+        if (lower.startsWith("if-modified-since:")){
+          ifModifiedSince = line.substring("if-modified-since:".length()).trim();
+        }
+        if (lower.startsWith("range: bytes=")){
+          final String range = line.substring("range: bytes=".length()).trim();
+          final int dash = range.indexOf('-');
+          start = Long.parseLong(range.substring(0, dash));
+          if (dash < range.length() - 1){
+            end = Long.parseLong(range.substring(dash + 1));
+          }
+        }
+      }
+      String path = requestLine.split(" ")[1];
+      if (path.indexOf('?') >= 0){
+        path = path.substring(0, path.indexOf('?'));
+      }
+      final OutputStream os = socket.getOutputStream();
+      if (mMissing.contains(path)){
+        os.write(("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(ASCII));
+        os.flush();
+        return;
+      }
+      final String eTag = mETag;
+      final String lastModified = mLastModified;
+      final StringBuilder validators = new StringBuilder();
+      if (eTag != null){
+        validators.append("ETag: ").append(eTag).append("\r\n");
+      }
+      if (lastModified != null){
+        validators.append("Last-Modified: ").append(lastModified).append("\r\n");
+      }
+      // If-None-Match takes precedence over If-Modified-Since
+      final boolean notModified = ifNoneMatch != null ? ifNoneMatch.equals(eTag)
+          : ifModifiedSince != null && ifModifiedSince.equals(lastModified);
+      if (notModified){
+        os.write(("HTTP/1.1 304 Not Modified\r\n" + validators + "Connection: close\r\n\r\n").getBytes(ASCII));
+        os.flush();
+        return;
+      }
+      final byte[] payload = mResources.containsKey(path) ? mResources.get(path) : mPayload;
+      final boolean ranged = start > 0 || end >= 0;
+      if (ranged){
+        mRangeStarts.add(start);
+      }
+      if (end < 0 || end >= payload.length){
+        end = payload.length - 1;
+      }
+      if (start >= payload.length){
+        os.write(("HTTP/1.1 416 Range Not Satisfiable\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(ASCII));
+        os.flush();
+        return;
+      }
+      final long length = end - start + 1;
+      final StringBuilder headers = new StringBuilder();
+      if (ranged){
+        headers.append("HTTP/1.1 206 Partial Content\r\n");
+        headers.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(payload.length).append("\r\n");
+      }else{
+        headers.append("HTTP/1.1 200 OK\r\n");
+      }
+      headers.append("Content-Length: ").append(length).append("\r\n");
+      headers.append(validators);
+      headers.append("Connection: close\r\n\r\n");
+      os.write(headers.toString().getBytes(ASCII));
+      if (requestLine.startsWith("HEAD ")){
+        os.flush();
+        return;
+      }
+
+      final int active = mActiveConnections.incrementAndGet();
+      int peak;
+      while (active > (peak = mPeakConnections.get()) && !mPeakConnections.compareAndSet(peak, active)){
+        // Another connection raised the peak meanwhile
+      }
+      try {
+        send(os, payload, start, length);
+      } finally {
+        mActiveConnections.decrementAndGet();
+      }
+    } catch (final IOException | InterruptedException e){
+      // Client went away
+    } finally {
+      try {
+        socket.close();
+      } catch (final IOException ignored){
+        // Nothing to do
+      }
+    }
+  }
+
+  private void send(final OutputStream os, final byte[] payload, final long start, final long length)
+      throws IOException, InterruptedException {
+    final long dropAfter = mDropAfterBytes;
+    final long toSend = dropAfter >= 0 ? Math.min(length, dropAfter) : length;
+    final long rate = mBytesPerSecondPerConnection;
+    final int slice = 16 * 1024;
+    final long startNanos = System.nanoTime();
+    long sent = 0;
+    while (sent < toSend){
+      final int n = (int) Math.min(slice, toSend - sent);
+      os.write(payload, (int) (start + sent), n);
+      os.flush();
+      sent = sent + n;
+      mBytesSent.addAndGet(n);
+      if (rate > 0){
+        final long dueNanos = startNanos + sent * 1000000000L / rate;
+        final long waitMillis = (dueNanos - System.nanoTime()) / 1000000L;
+        if (waitMillis > 0){
+          Thread.sleep(waitMillis);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the resumable {@link MapbookDownloader} against a local server that
+ * drops connections partway through the transfer.
+ */
+public class MapbookDownloaderTest {
+
+  private static final int PAYLOAD_SIZE = 3 * 1024 * 1024 + 17;
+
+  private LocalPackageServer mServer;
+  private byte[] mPayload;
+  private File mDirectory;
+  private File mDestination;
+
+  @Before
+  public void setUp() throws Exception {
+    mPayload = new byte[PAYLOAD_SIZE];
+    new Random(42).nextBytes(mPayload);
+    mServer = new LocalPackageServer(mPayload);
+    mDirectory = File.createTempFile("mapbook", "");
+    Assert.assertTrue(mDirectory.delete() && mDirectory.mkdirs());
+    mDestination = new File(mDirectory, "OfflineMapbook.mmpk");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mServer.shutdown();
+    final File[] files = mDirectory.listFiles();
+    if (files != null){
+      for (final File f : files){
+        f.delete();
+      }
+    }
+    mDirectory.delete();
+  }
+
+  @Test
+  public void completesDespiteDroppedConnections() throws Exception {
+    mServer.setDropAfterBytes(700 * 1024);
+
+    final MapbookDownloader downloader = newDownloader();
+    final File result = downloader.download(null);
+
+    Assert.assertEquals(mDestination, result);
+    Assert.assertArrayEquals(mPayload, readFile(result));
+    Assert.assertTrue(mServer.getRequestCount() > 1);
+    Assert.assertEquals(PAYLOAD_SIZE, mServer.getBytesSent());
+    Assert.assertFalse(new File(mDestination.getPath() + MapbookDownloader.PART_EXTENSION).exists());
+    Assert.assertFalse(new File(mDestination.getPath() + MapbookDownloader.CHECKPOINT_EXTENSION).exists());
+  }
+
+  @Test
+  public void resumesFromPersistedOffset() throws Exception {
+    final long dropAfter = 1024 * 1024;
+    mServer.setDropAfterBytes(dropAfter);
+
+    final MapbookDownloader first = newDownloader();
+    first.setMaxAttempts(1);
+    try {
+      first.download(null);
+      Assert.fail("Expected the first attempt to fail");
+    } catch (final IOException expected){
+      // The connection was dropped
+    }
+    Assert.assertFalse(mDestination.exists());
+
+    // A new downloader, as after a process restart, picks up where the first one stopped
+    mServer.setDropAfterBytes(-1);
+    mServer.resetCounters();
+    final File result = newDownloader().download(null);
+
+    Assert.assertArrayEquals(mPayload, readFile(result));
+    Assert.assertEquals(PAYLOAD_SIZE - dropAfter, mServer.getBytesSent());
+  }
+
+  @Test
+  public void failedDownloadDoesNotReplaceExistingPackage() throws Exception {
+    final byte[] existing = "existing package".getBytes("UTF-8");
+    final FileOutputStream fos = new FileOutputStream(mDestination);
+    fos.write(existing);
+    fos.close();
+
+    mServer.setDropAfterBytes(0);
+    final MapbookDownloader downloader = newDownloader();
+    downloader.setMaxAttempts(2);
+    try {
+      downloader.download(null);
+      Assert.fail("Expected the download to fail");
+    } catch (final IOException expected){
+      // Connection kept dropping without making progress
+    }
+    Assert.assertArrayEquals(existing, readFile(mDestination));
+  }
+
+  @Test
+  public void cancelDisconnectsBlockedRead() throws Exception {
+    // Far from filling the first block before the read timeout
+    mServer.setBytesPerSecondPerConnection(4 * 1024);
+    final MapbookDownloader downloader = newDownloader();
+    final Thread canceller = new Thread(new Runnable() {
+      @Override public void run() {
+        try {
+          Thread.sleep(300);
+        } catch (final InterruptedException e){
+          return;
+        }
+        downloader.cancel();
+      }
+    });
+    canceller.start();
+    final long start = System.nanoTime();
+    try {
+      downloader.download(null);
+      Assert.fail("Expected the download to be cancelled");
+    } catch (final InterruptedIOException expected){
+      Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    } finally {
+      canceller.join();
+    }
+    Assert.assertFalse(mDestination.exists());
+  }
+
+  @Test
+  public void hashesInlineAcrossResume() throws Exception {
+    final File published = new File(mDirectory, "published.mmpk");
+    final FileOutputStream fos = new FileOutputStream(published);
+    fos.write(mPayload);
+    fos.close();
+    final PackageManifest expected = PackageManifest.build(published, 256 * 1024);
+    final File manifestFile = new File(mDirectory, "OfflineMapbook.mmpk.manifest");
+
+    mServer.setDropAfterBytes(1024 * 1024 + 100);
+    final MapbookDownloader first = newDownloader();
+    first.setManifest(expected);
+    first.setMaxAttempts(1);
+    try {
+      first.download(null);
+      Assert.fail("Expected the first attempt to fail");
+    } catch (final IOException expectedFailure){
+      // The connection was dropped
+    }
+
+    mServer.setDropAfterBytes(-1);
+    final MapbookDownloader second = newDownloader();
+    second.setManifest(expected);
+    second.setManifestFile(manifestFile);
+    final File result = second.download(null);
+
+    Assert.assertArrayEquals(mPayload, readFile(result));
+    Assert.assertEquals(expected, PackageManifest.readQuietly(manifestFile));
+  }
+
+  @Test
+  public void rejectsPackageThatDoesNotMatchManifest() throws Exception {
+    final byte[] existing = "existing package".getBytes("UTF-8");
+    final FileOutputStream fos = new FileOutputStream(mDestination);
+    fos.write(existing);
+    fos.close();
+    final File published = new File(mDirectory, "published.mmpk");
+    final FileOutputStream publishedStream = new FileOutputStream(published);
+    publishedStream.write(mPayload);
+    publishedStream.close();
+    final PackageManifest expected = PackageManifest.build(published, PackageManifest.DEFAULT_CHUNK_SIZE);
+
+    // Same size, one flipped bit
+    final byte[] corrupt = mPayload.clone();
+    corrupt[PAYLOAD_SIZE / 2] ^= 1;
+    mServer.setPayload(corrupt);
+
+    final MapbookDownloader downloader = newDownloader();
+    downloader.setManifest(expected);
+    try {
+      downloader.download(null);
+      Assert.fail("Expected the corrupt package to be rejected");
+    } catch (final MapbookDownloader.IntegrityException expectedFailure){
+      // Hash mismatch
+    }
+    Assert.assertArrayEquals(existing, readFile(mDestination));
+    Assert.assertFalse(new File(mDestination.getPath() + MapbookDownloader.PART_EXTENSION).exists());
+    Assert.assertFalse(new File(mDestination.getPath() + MapbookDownloader.CHECKPOINT_EXTENSION).exists());
+  }
+
+  private MapbookDownloader newDownloader() throws IOException {
+    final MapbookDownloader downloader = new MapbookDownloader(mServer.url("/data?token=abc"), mDestination, PAYLOAD_SIZE);
+    downloader.setRetryDelayMillis(1);
+    return downloader;
+  }
+
+  private static byte[] readFile(final File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final byte[] bytes = new byte[(int) raf.length()];
+      raf.readFully(bytes);
+      return bytes;
+    } finally {
+      raf.close();
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for the {@link PackageWriter} write stage.
+ */
+public class PackageWriterTest {
+
+  private File mDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+    mDirectory = File.createTempFile("mapbook", "");
+    Assert.assertTrue(mDirectory.delete() && mDirectory.mkdirs());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    final File[] files = mDirectory.listFiles();
+    if (files != null){
+      for (final File f : files){
+        f.delete();
+      }
+    }
+    mDirectory.delete();
+  }
+
+  @Test
+  public void writesStreamAtPositionWithinLimit() throws Exception {
+    final byte[] payload = randomBytes(100 * 1024);
+    final File target = new File(mDirectory, "target.part");
+    final RandomAccessFile file = new RandomAccessFile(target, "rw");
+    try {
+      final long end = new PackageWriter(8 * 1024).write(
+          PackageWriter.channelFor(new ByteArrayInputStream(payload)), file.getChannel(), 10, 50000, null);
+      Assert.assertEquals(50010, end);
+      Assert.assertEquals(50010, file.length());
+    } finally {
+      file.close();
+    }
+    final byte[] written = readFile(target);
+    Assert.assertArrayEquals(Arrays.copyOf(payload, 50000), Arrays.copyOfRange(written, 10, 50010));
+  }
+
+  @Test
+  public void keepsBytesReadBeforeSourceFailure() throws Exception {
+    final byte[] payload = randomBytes(10000);
+    // Serves the first 6000 bytes, then fails like a reset connection
+    final InputStream source = new FilterInputStream(new ByteArrayInputStream(payload, 0, 6000)) {
+      @Override public int read(final byte[] b, final int off, final int len) throws IOException {
+        final int count = super.read(b, off, len);
+        if (count == -1){
+          throw new IOException("Connection reset");
+        }
+        return count;
+      }
+    };
+    final File target = new File(mDirectory, "target.part");
+    final RandomAccessFile file = new RandomAccessFile(target, "rw");
+    final long[] reported = new long[1];
+    try {
+      new PackageWriter(64 * 1024).write(PackageWriter.channelFor(source), file.getChannel(), 0, -1,
+          new PackageWriter.BlockListener() {
+            @Override public boolean onBlockWritten(final long position, final int count) {
+              reported[0] = position;
+              return true;
+            }
+          });
+      Assert.fail("Expected the source failure to propagate");
+    } catch (final IOException e){
+      Assert.assertEquals(6000, reported[0]);
+    } finally {
+      file.close();
+    }
+    Assert.assertArrayEquals(Arrays.copyOf(payload, 6000), readFile(target));
+  }
+
+  @Test
+  public void copiesFileToFileWithTransferFrom() throws Exception {
+    final byte[] payload = randomBytes(300 * 1024 + 17);
+    final File source = new File(mDirectory, "source.mmpk");
+    final OutputStream os = new FileOutputStream(source);
+    try {
+      os.write(payload);
+    } finally {
+      os.close();
+    }
+    final File target = new File(mDirectory, "target.part");
+    final FileInputStream inputStream = new FileInputStream(source);
+    final RandomAccessFile file = new RandomAccessFile(target, "rw");
+    final int[] blocks = new int[1];
+    try {
+      final long end = new PackageWriter(64 * 1024).write(PackageWriter.channelFor(inputStream),
+          file.getChannel(), 0, -1, new PackageWriter.BlockListener() {
+            @Override public boolean onBlockWritten(final long position, final int count) {
+              blocks[0]++;
+              return true;
+            }
+          });
+      Assert.assertEquals(payload.length, end);
+    } finally {
+      file.close();
+      inputStream.close();
+    }
+    Assert.assertEquals(5, blocks[0]);
+    Assert.assertArrayEquals(payload, readFile(target));
+  }
+
+  private static byte[] randomBytes(final int size){
+    final byte[] bytes = new byte[size];
+    new Random(11).nextBytes(bytes);
+    return bytes;
+  }
+
+  private static byte[] readFile(final File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final byte[] bytes = new byte[(int) raf.length()];
+      raf.readFully(bytes);
+      return bytes;
+    } finally {
+      raf.close();
+    }
+  }
+}
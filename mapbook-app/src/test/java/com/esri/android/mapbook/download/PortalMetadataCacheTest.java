@@ -0,0 +1,211 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import com.esri.android.mapbook.util.FakeClock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for the conditional requests of the {@link PortalMetadataCache},
+ * counting the requests that reach a local stand-in for the portal.
+ */
+public class PortalMetadataCacheTest {
+
+  private static final int PACKAGE_SIZE = 256 * 1024;
+  private static final String LAST_MODIFIED = "Tue, 01 Aug 2017 10:00:00 GMT";
+  private static final long INSTALLED_MILLIS = 1500000000000L;
+  private static final long CHECKED_MILLIS = 1600000000000L;
+
+  private LocalPackageServer mServer;
+  private MemoryStore mStore;
+  private PortalMetadataCache mCache;
+  private File mInstalled;
+  private URL mDataUrl;
+
+  @Before
+  public void setUp() throws Exception {
+    final byte[] payload = new byte[PACKAGE_SIZE];
+    new Random(9).nextBytes(payload);
+    mServer = new LocalPackageServer(payload);
+    mServer.setValidators("\"v1\"", LAST_MODIFIED);
+    mStore = new MemoryStore();
+    mCache = new PortalMetadataCache(mStore, new FakeClock(CHECKED_MILLIS));
+    mInstalled = File.createTempFile("OfflineMapbook", ".mmpk");
+    final OutputStream os = new FileOutputStream(mInstalled);
+    try {
+      os.write(payload);
+    } finally {
+      os.close();
+    }
+    Assert.assertTrue(mInstalled.setLastModified(INSTALLED_MILLIS));
+    mDataUrl = mServer.url("/sharing/rest/content/items/abc/data?token=first");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mServer.shutdown();
+    mInstalled.delete();
+  }
+
+  @Test
+  public void skipsDownloadOfCurrentPackage() throws IOException {
+    // Nothing to compare against before the first download
+    Assert.assertFalse(mCache.isPackageCurrent(mDataUrl, mInstalled));
+    Assert.assertEquals(0, mCache.getConditionalRequestCount());
+    mCache.recordDownload(mDataUrl, mInstalled);
+
+    // A new session has a new token, but it's the same package
+    final URL dataUrl = mServer.url("/sharing/rest/content/items/abc/data?token=second");
+    mServer.resetCounters();
+    Assert.assertTrue(mCache.isPackageCurrent(dataUrl, mInstalled));
+    Assert.assertEquals(1, mServer.getRequestCount());
+    Assert.assertEquals(0, mServer.getBytesSent());
+    Assert.assertEquals(1, mCache.getConditionalRequestCount());
+    Assert.assertEquals(1, mCache.getNotModifiedCount());
+    Assert.assertEquals(1, mCache.getSkippedDownloadCount());
+    Assert.assertEquals(PACKAGE_SIZE, mCache.getBytesAvoided());
+  }
+
+  @Test
+  public void currentPackageKeepsItsModifiedDate() throws IOException {
+    mCache.isPackageCurrent(mDataUrl, mInstalled);
+    mCache.recordDownload(mDataUrl, mInstalled);
+    Assert.assertEquals(INSTALLED_MILLIS, mCache.getInstalledVersionMillis(mInstalled));
+
+    Assert.assertTrue(mCache.isPackageCurrent(mDataUrl, mInstalled));
+    // The date versions the cached maps and thumbnails, the check is remembered instead
+    Assert.assertEquals(INSTALLED_MILLIS, mInstalled.lastModified());
+    Assert.assertEquals(CHECKED_MILLIS, mCache.getInstalledVersionMillis(mInstalled));
+  }
+
+  @Test
+  public void changedPackageIsDownloaded() throws IOException {
+    mCache.isPackageCurrent(mDataUrl, mInstalled);
+    mCache.recordDownload(mDataUrl, mInstalled);
+
+    mServer.setValidators("\"v2\"", null);
+    Assert.assertFalse(mCache.isPackageCurrent(mDataUrl, mInstalled));
+    Assert.assertEquals("\"v1\"", mCache.getValidators(mDataUrl).getETag());
+    Assert.assertEquals(0, mCache.getSkippedDownloadCount());
+
+    // The validators of the new package are only kept once it's downloaded
+    mCache.recordDownload(mDataUrl, mInstalled);
+    Assert.assertEquals("\"v2\"", mCache.getValidators(mDataUrl).getETag());
+    Assert.assertTrue(mCache.isPackageCurrent(mDataUrl, mInstalled));
+  }
+
+  @Test
+  public void modifiedInstalledPackageIsNotTrusted() throws IOException {
+    mCache.isPackageCurrent(mDataUrl, mInstalled);
+    mCache.recordDownload(mDataUrl, mInstalled);
+
+    final RandomAccessFile file = new RandomAccessFile(mInstalled, "rw");
+    try {
+      file.setLength(PACKAGE_SIZE / 2);
+    } finally {
+      file.close();
+    }
+    Assert.assertFalse(mCache.isPackageCurrent(mDataUrl, mInstalled));
+    Assert.assertEquals(0, mCache.getConditionalRequestCount());
+    Assert.assertEquals(0, mCache.getNotModifiedCount());
+  }
+
+  @Test
+  public void conditionalGetReturnsSavedDate() throws IOException {
+    final URL itemUrl = mServer.url("/sharing/rest/content/items/abc?f=json&token=first");
+    HttpURLConnection connection = mCache.open(itemUrl, "GET");
+    Assert.assertFalse(mCache.isNotModified(connection));
+    mCache.save(itemUrl, connection, 1500000000000L);
+    connection.disconnect();
+
+    connection = mCache.open(mServer.url("/sharing/rest/content/items/abc?f=json&token=second"), "GET");
+    Assert.assertTrue(mCache.isNotModified(connection));
+    connection.disconnect();
+    Assert.assertEquals(1500000000000L, mCache.getValidators(itemUrl).getModifiedMillis());
+    Assert.assertEquals(1, mCache.getNotModifiedCount());
+  }
+
+  @Test
+  public void serverWithoutValidatorsIsAlwaysAsked() throws IOException {
+    mServer.setValidators(null, null);
+    mCache.isPackageCurrent(mDataUrl, mInstalled);
+    mCache.recordDownload(mDataUrl, mInstalled);
+    Assert.assertNull(mCache.getValidators(mDataUrl));
+    Assert.assertFalse(mCache.isPackageCurrent(mDataUrl, mInstalled));
+    Assert.assertEquals(0, mCache.getConditionalRequestCount());
+  }
+
+  private static final class MemoryStore implements PortalMetadataCache.Store {
+    private final Map<String, PortalMetadataCache.Validators> mValidators = new HashMap<>();
+    private final Map<String, Long> mCounters = new HashMap<>();
+    private final Map<String, Long> mChecked = new HashMap<>();
+
+    @Override public PortalMetadataCache.Validators get(final String key) {
+      return mValidators.get(key);
+    }
+
+    @Override public void put(final String key, final PortalMetadataCache.Validators validators) {
+      mValidators.put(key, validators);
+    }
+
+    @Override public void remove(final String key) {
+      mValidators.remove(key);
+    }
+
+    @Override public long getCounter(final String name) {
+      final Long value = mCounters.get(name);
+      return value != null ? value : 0;
+    }
+
+    @Override public void addToCounter(final String name, final long delta) {
+      mCounters.put(name, getCounter(name) + delta);
+    }
+
+    @Override public long getCheckedMillis(final String key) {
+      final Long value = mChecked.get(key);
+      return value != null ? value : -1;
+    }
+
+    @Override public void putCheckedMillis(final String key, final long checkedMillis) {
+      mChecked.put(key, checkedMillis);
+    }
+  }
+}
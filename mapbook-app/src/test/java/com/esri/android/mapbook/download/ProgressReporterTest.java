@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import com.google.common.base.Ticker;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the coalescing {@link ProgressReporter}.
+ */
+public class ProgressReporterTest {
+
+  private static final long TOTAL = 1000 * 1024;
+
+  private final List<DownloadProgress> mUpdates = new ArrayList<>();
+  private FakeTicker mTicker;
+  private ProgressReporter mReporter;
+
+  @Before
+  public void setUp() {
+    mTicker = new FakeTicker();
+    mReporter = new ProgressReporter(new ProgressReporter.Listener() {
+      @Override public void onProgressChanged(final DownloadProgress progress) {
+        mUpdates.add(progress);
+      }
+    }, 250, mTicker);
+  }
+
+  @Test
+  public void coalescesBlockCallbacks() {
+    // 1 KB blocks every millisecond, as the old loop would have published them
+    for (long bytes = 1024; bytes <= TOTAL; bytes = bytes + 1024){
+      mTicker.advance(1);
+      mReporter.onProgress(bytes, TOTAL);
+    }
+    // 1000 callbacks over one second: the first, one per following 250 ms window, and the final 100%
+    Assert.assertEquals(5, mUpdates.size());
+    Assert.assertEquals(100, mUpdates.get(mUpdates.size() - 1).getPercent());
+  }
+
+  @Test
+  public void waitsForPercentageToChange() {
+    mReporter.onProgress(10 * 1024, TOTAL);
+    mTicker.advance(1000);
+    // Still 1%, so nothing new to show even though the window passed
+    mReporter.onProgress(10 * 1024 + 1, TOTAL);
+    Assert.assertEquals(1, mUpdates.size());
+  }
+
+  @Test
+  public void reportsRateAndEta() {
+    mReporter.onProgress(0, TOTAL);
+    mTicker.advance(1000);
+    mReporter.onProgress(100 * 1024, TOTAL);
+
+    final DownloadProgress last = mUpdates.get(mUpdates.size() - 1);
+    Assert.assertEquals(100 * 1024, last.getBytesPerSecond());
+    Assert.assertEquals(9000, last.getEtaMillis());
+  }
+
+  @Test
+  public void resumedBytesDontInflateRate() {
+    mReporter.onProgress(900 * 1024, TOTAL);
+    Assert.assertEquals(DownloadProgress.UNKNOWN, mUpdates.get(0).getBytesPerSecond());
+    mTicker.advance(1000);
+    mReporter.onProgress(950 * 1024, TOTAL);
+    Assert.assertEquals(50 * 1024, mUpdates.get(1).getBytesPerSecond());
+  }
+
+  @Test
+  public void resetShowsLowerPercentOfNewTransfer() {
+    mReporter.onProgress(600 * 1024, TOTAL);
+    mTicker.advance(1000);
+    // The update failed, the whole package is downloaded from the start
+    mReporter.reset();
+    mReporter.onProgress(10 * 1024, TOTAL);
+    Assert.assertEquals(2, mUpdates.size());
+    Assert.assertEquals(1, mUpdates.get(1).getPercent());
+    mTicker.advance(1000);
+    mReporter.onProgress(100 * 1024, TOTAL);
+    Assert.assertEquals(3, mUpdates.size());
+    Assert.assertEquals(90 * 1024, mUpdates.get(2).getBytesPerSecond());
+  }
+
+  @Test
+  public void unknownTotalUpdatesOnInterval() {
+    for (long bytes = 1024; bytes <= TOTAL; bytes = bytes + 1024){
+      mTicker.advance(1);
+      mReporter.onProgress(bytes, DownloadProgress.UNKNOWN);
+    }
+    Assert.assertEquals(4, mUpdates.size());
+    final DownloadProgress last = mUpdates.get(mUpdates.size() - 1);
+    Assert.assertEquals(0, last.getPercent());
+    Assert.assertEquals(751 * 1024, last.getBytesDownloaded());
+    Assert.assertTrue(last.getBytesPerSecond() > 0);
+  }
+
+  private static final class FakeTicker extends Ticker {
+    private long mNanos = 0;
+
+    void advance(final long millis){
+      mNanos = mNanos + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override public long read() {
+      return mNanos;
+    }
+  }
+}
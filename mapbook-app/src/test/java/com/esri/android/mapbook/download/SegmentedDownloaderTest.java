@@ -0,0 +1,188 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for the parallel {@link SegmentedDownloader}.
+ */
+public class SegmentedDownloaderTest {
+
+  private static final int PAYLOAD_SIZE = 5 * 1024 * 1024 + 3;
+  private static final int CHUNK_SIZE = 256 * 1024;
+
+  private LocalPackageServer mServer;
+  private byte[] mPayload;
+  private File mDirectory;
+  private File mDestination;
+
+  @Before
+  public void setUp() throws Exception {
+    mPayload = new byte[PAYLOAD_SIZE];
+    new Random(7).nextBytes(mPayload);
+    mServer = new LocalPackageServer(mPayload);
+    mDirectory = File.createTempFile("mapbook", "");
+    Assert.assertTrue(mDirectory.delete() && mDirectory.mkdirs());
+    mDestination = new File(mDirectory, "OfflineMapbook.mmpk");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mServer.shutdown();
+    final File[] files = mDirectory.listFiles();
+    if (files != null){
+      for (final File f : files){
+        f.delete();
+      }
+    }
+    mDirectory.delete();
+  }
+
+  @Test
+  public void downloadsAllSegmentsDespiteDroppedConnections() throws Exception {
+    mServer.setDropAfterBytes(100 * 1024);
+
+    final SegmentedDownloader downloader = newDownloader();
+    final File result = downloader.download(null);
+
+    Assert.assertArrayEquals(mPayload, readFile(result));
+    Assert.assertEquals(PAYLOAD_SIZE, mServer.getBytesSent());
+    Assert.assertTrue(downloader.getPeakSegments() >= 2);
+    Assert.assertFalse(new File(mDestination.getPath() + MapbookDownloader.PART_EXTENSION).exists());
+  }
+
+  @Test
+  public void resumesOnlyMissingChunks() throws Exception {
+    // Half way through, the server starts dropping every new connection
+    final SegmentedDownloader first = newDownloader();
+    first.setMaxAttempts(1);
+    try {
+      first.download(new MapbookDownloader.ProgressListener() {
+        @Override public void onProgress(final long bytesDownloaded, final long totalBytes) {
+          if (bytesDownloaded >= PAYLOAD_SIZE / 2){
+            mServer.setDropAfterBytes(0);
+          }
+        }
+      });
+      Assert.fail("Expected the first attempt to fail");
+    } catch (final IOException expected){
+      // Connections were dropped
+    }
+
+    mServer.setDropAfterBytes(-1);
+    mServer.resetCounters();
+    final File result = newDownloader().download(null);
+
+    Assert.assertArrayEquals(mPayload, readFile(result));
+    // Only chunks that weren't completed (at most one in flight per segment) are fetched again
+    Assert.assertTrue(mServer.getBytesSent() <= PAYLOAD_SIZE - PAYLOAD_SIZE / 2 + 4 * CHUNK_SIZE);
+  }
+
+  @Test
+  public void verifiesSegmentsAgainstManifest() throws Exception {
+    final File published = new File(mDirectory, "published.mmpk");
+    final FileOutputStream fos = new FileOutputStream(published);
+    fos.write(mPayload);
+    fos.close();
+    final PackageManifest expected = PackageManifest.build(published, CHUNK_SIZE);
+    final File manifestFile = new File(mDirectory, "OfflineMapbook.mmpk.manifest");
+
+    final byte[] corrupt = mPayload.clone();
+    corrupt[3 * CHUNK_SIZE + 1] ^= 1;
+    mServer.setPayload(corrupt);
+    final SegmentedDownloader rejected = newDownloader();
+    rejected.setManifest(expected);
+    try {
+      rejected.download(null);
+      Assert.fail("Expected the corrupt package to be rejected");
+    } catch (final MapbookDownloader.IntegrityException expectedFailure){
+      // Hash mismatch
+    }
+    Assert.assertFalse(mDestination.exists());
+
+    mServer.setPayload(mPayload);
+    final SegmentedDownloader downloader = newDownloader();
+    downloader.setManifest(expected);
+    downloader.setManifestFile(manifestFile);
+    Assert.assertArrayEquals(mPayload, readFile(downloader.download(null)));
+    Assert.assertEquals(expected, PackageManifest.readQuietly(manifestFile));
+  }
+
+  @Test
+  public void fetchesEachChunkOnceOverConcurrentConnections() throws Exception {
+    // Slow connections so the segments overlap
+    mServer.setBytesPerSecondPerConnection(8 * 1024 * 1024);
+
+    final SegmentedDownloader downloader = newDownloader();
+    final File result = downloader.download(null);
+
+    Assert.assertArrayEquals(mPayload, readFile(result));
+    final List<Long> expected = new ArrayList<>();
+    for (long chunk = CHUNK_SIZE; chunk < PAYLOAD_SIZE; chunk = chunk + CHUNK_SIZE){
+      expected.add(chunk);
+    }
+    final List<Long> starts = mServer.getRangeStarts();
+    Collections.sort(starts);
+    // The first chunk may be fetched without a range
+    starts.remove(Long.valueOf(0));
+    Assert.assertEquals(expected, starts);
+    Assert.assertTrue(mServer.getPeakConnections() >= 2);
+    Assert.assertTrue(downloader.getPeakSegments() <= 4);
+  }
+
+  private SegmentedDownloader newDownloader() throws IOException {
+    final SegmentedDownloader downloader = new SegmentedDownloader(mServer.url("/data"), mDestination, PAYLOAD_SIZE);
+    downloader.setChunkSize(CHUNK_SIZE);
+    downloader.setMaxSegments(4);
+    downloader.setRetryDelayMillis(1);
+    return downloader;
+  }
+
+  private static byte[] readFile(final File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final byte[] bytes = new byte[(int) raf.length()];
+      raf.readFully(bytes);
+      return bytes;
+    } finally {
+      raf.close();
+    }
+  }
+}
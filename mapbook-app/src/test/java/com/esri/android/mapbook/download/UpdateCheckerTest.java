@@ -0,0 +1,172 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.download;
+
+import com.esri.android.mapbook.util.FakeClock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+/**
+ * Tests for the caching and backoff of the {@link UpdateChecker}.
+ */
+public class UpdateCheckerTest {
+
+  private static final long TTL = 60 * 60 * 1000;
+  private static final long BACKOFF = 30 * 1000;
+  private static final long MAX_BACKOFF = 4 * BACKOFF;
+  private static final long MODIFIED = 1500000000000L;
+
+  private FakeClock mClock;
+  private FakePortal mPortal;
+  private MemoryStore mStore;
+  private UpdateChecker mChecker;
+
+  @Before
+  public void setUp() {
+    mClock = new FakeClock(MODIFIED + 1000);
+    mPortal = new FakePortal();
+    mStore = new MemoryStore();
+    mChecker = new UpdateChecker(mStore, mClock, TTL, BACKOFF, MAX_BACKOFF);
+  }
+
+  @Test
+  public void servesCachedDateWithinTtl() throws IOException {
+    Assert.assertEquals(UpdateChecker.UNKNOWN, mChecker.getCachedModifiedMillis());
+    Assert.assertTrue(mChecker.isCheckDue());
+    Assert.assertEquals(MODIFIED, mChecker.check(mPortal, false));
+
+    mPortal.mModified = MODIFIED + 1;
+    mClock.advance(TTL - 1);
+    Assert.assertFalse(mChecker.isCheckDue());
+    Assert.assertEquals(MODIFIED, mChecker.check(mPortal, false));
+    Assert.assertEquals(1, mPortal.mCalls);
+
+    mClock.advance(1);
+    Assert.assertTrue(mChecker.isCheckDue());
+    Assert.assertEquals(MODIFIED + 1, mChecker.check(mPortal, false));
+    Assert.assertEquals(2, mPortal.mCalls);
+  }
+
+  @Test
+  public void forcedCheckIgnoresTtl() throws IOException {
+    mChecker.check(mPortal, false);
+    mChecker.check(mPortal, true);
+    Assert.assertEquals(2, mPortal.mCalls);
+  }
+
+  @Test
+  public void failuresBackOffExponentially() {
+    mPortal.mFail = true;
+    final long[] delays = {BACKOFF, 2 * BACKOFF, 4 * BACKOFF, MAX_BACKOFF};
+    for (final long delay : delays){
+      checkAndExpectFailure();
+      mClock.advance(delay - 1);
+      Assert.assertFalse(mChecker.isCheckDue());
+      mClock.advance(1);
+      Assert.assertTrue(mChecker.isCheckDue());
+    }
+    Assert.assertEquals(delays.length, mPortal.mCalls);
+  }
+
+  @Test
+  public void failureKeepsCachedDateAndSuccessResetsBackoff() throws IOException {
+    mChecker.check(mPortal, false);
+    mClock.advance(TTL);
+    mPortal.mFail = true;
+    checkAndExpectFailure();
+    Assert.assertEquals(MODIFIED, mChecker.getCachedModifiedMillis());
+    // Within the backoff the cached date is returned without contacting the portal
+    Assert.assertEquals(MODIFIED, checkQuietly());
+    Assert.assertEquals(2, mPortal.mCalls);
+
+    mPortal.mFail = false;
+    mClock.advance(BACKOFF);
+    Assert.assertEquals(MODIFIED, mChecker.check(mPortal, false));
+    Assert.assertEquals(0, mStore.load().getFailures());
+  }
+
+  @Test
+  public void clockMovingBackwardsExpiresCache() throws IOException {
+    mChecker.check(mPortal, false);
+    mClock.advance(-1);
+    Assert.assertFalse(mChecker.isFresh());
+  }
+
+  @Test
+  public void clearForgetsCachedDate() throws IOException {
+    mChecker.check(mPortal, false);
+    mChecker.clear();
+    Assert.assertEquals(UpdateChecker.UNKNOWN, mChecker.getCachedModifiedMillis());
+    Assert.assertTrue(mChecker.isCheckDue());
+  }
+
+  private void checkAndExpectFailure(){
+    try {
+      mChecker.check(mPortal, false);
+      Assert.fail("Expected the check to fail");
+    } catch (final IOException e){
+      // expected
+    }
+  }
+
+  private long checkQuietly(){
+    try {
+      return mChecker.check(mPortal, false);
+    } catch (final IOException e){
+      throw new AssertionError(e);
+    }
+  }
+
+  private static final class FakePortal implements UpdateChecker.Source {
+    private long mModified = MODIFIED;
+    private boolean mFail = false;
+    private int mCalls = 0;
+
+    @Override public long fetchModifiedMillis() throws IOException {
+      mCalls++;
+      if (mFail){
+        throw new IOException("Portal unavailable");
+      }
+      return mModified;
+    }
+  }
+
+  private static final class MemoryStore implements UpdateChecker.Store {
+    private UpdateChecker.State mState = UpdateChecker.State.EMPTY;
+
+    @Override public UpdateChecker.State load() {
+      return mState;
+    }
+
+    @Override public void save(final UpdateChecker.State state) {
+      mState = state;
+    }
+  }
+}
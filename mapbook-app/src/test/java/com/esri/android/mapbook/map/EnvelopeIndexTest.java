@@ -0,0 +1,136 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for the {@link EnvelopeIndex}, checked against a linear scan of the
+ * same envelopes.
+ */
+public class EnvelopeIndexTest {
+
+  private static final double EXTENT = 100000;
+
+  @Test
+  public void emptyIndexFindsNothing() throws Exception {
+    final EnvelopeIndex index = new EnvelopeIndex.Builder().build();
+    Assert.assertEquals(0, index.size());
+    Assert.assertEquals(0, index.query(0, 0, 10, 10).length);
+  }
+
+  @Test
+  public void findsPointsWithinTolerance() throws Exception {
+    final EnvelopeIndex index = new EnvelopeIndex.Builder()
+        .add(10, 10, 10, 10)
+        .add(12, 10, 12, 10)
+        .add(50, 50, 50, 50)
+        .build();
+    Assert.assertTrue(Arrays.equals(new int[]{0, 1}, index.query(11, 10, 1, 10)));
+    Assert.assertTrue(Arrays.equals(new int[]{0}, index.query(9, 9, 1, 10)));
+    Assert.assertEquals(0, index.query(30, 30, 5, 10).length);
+    // Only the first envelopes added are returned beyond the maximum
+    Assert.assertTrue(Arrays.equals(new int[]{0}, index.query(11, 10, 1, 1)));
+  }
+
+  @Test
+  public void reportsLargeEnvelopesOnce() throws Exception {
+    final EnvelopeIndex.Builder builder = new EnvelopeIndex.Builder();
+    for (int i = 0; i < 1000; i++){
+      builder.add(i, i, i + 1, i + 1);
+    }
+    // Spans every cell of the grid
+    builder.add(0, 0, 1001, 1001);
+    final EnvelopeIndex index = builder.build();
+    final int[] found = index.query(500.5, 500.5, 0.1, 10);
+    Assert.assertTrue(Arrays.equals(new int[]{500, 1000}, found));
+  }
+
+  @Test
+  public void matchesLinearScan() throws Exception {
+    final Random random = new Random(17);
+    final double[] bounds = randomLayer(random, 20000, 0.1);
+    final EnvelopeIndex index = build(bounds);
+    Assert.assertEquals(20000, index.size());
+    for (int q = 0; q < 2000; q++){
+      final double x = random.nextDouble() * EXTENT;
+      final double y = random.nextDouble() * EXTENT;
+      final double tolerance = random.nextDouble() * 500;
+      Assert.assertTrue(Arrays.equals(linearScan(bounds, x, y, tolerance), index.query(x, y, tolerance, Integer.MAX_VALUE)));
+    }
+  }
+
+  /**
+   * @param random - Random
+   * @param size - int, the number of features
+   * @param largestSide - double, the largest side of a polygon envelope as a fraction of
+   *                    the extent, or 0 for points
+   * @return double[] of the feature envelopes, as minX, minY, maxX, maxY
+   */
+  private static double[] randomLayer(final Random random, final int size, final double largestSide){
+    final double[] bounds = new double[4 * size];
+    for (int i = 0; i < size; i++){
+      final double x = random.nextDouble() * EXTENT;
+      final double y = random.nextDouble() * EXTENT;
+      // Mostly small polygons, like parcels, with a few large ones
+      final double side = largestSide * EXTENT * Math.pow(random.nextDouble(), 8);
+      bounds[4 * i] = x;
+      bounds[4 * i + 1] = y;
+      bounds[4 * i + 2] = x + side;
+      bounds[4 * i + 3] = y + side * random.nextDouble();
+    }
+    return bounds;
+  }
+
+  private static EnvelopeIndex build(final double[] bounds){
+    final EnvelopeIndex.Builder builder = new EnvelopeIndex.Builder(bounds.length / 4);
+    for (int i = 0; i < bounds.length; i = i + 4){
+      builder.add(bounds[i], bounds[i + 1], bounds[i + 2], bounds[i + 3]);
+    }
+    return builder.build();
+  }
+
+  private static int[] linearScan(final double[] bounds, final double x, final double y, final double tolerance){
+    final List<Integer> found = new ArrayList<>();
+    for (int i = 0; i < bounds.length / 4; i++){
+      if (bounds[4 * i] <= x + tolerance && bounds[4 * i + 2] >= x - tolerance
+          && bounds[4 * i + 1] <= y + tolerance && bounds[4 * i + 3] >= y - tolerance){
+        found.add(i);
+      }
+    }
+    final int[] ids = new int[found.size()];
+    for (int i = 0; i < ids.length; i++){
+      ids[i] = found.get(i);
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.map;
+
+import com.esri.android.mapbook.data.Entry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for the {@link FormatPlan} entries.
+ */
+public class FormatPlanTest {
+
+  @Test
+  public void formatsFieldsInPlanOrder() throws Exception {
+    final FormatPlan plan = new FormatPlan.Builder()
+        .add("OWNER", "Owner")
+        .add("SALE_DATE", "Sale date")
+        .build();
+    final Map<String, Object> attributes = new LinkedHashMap<>();
+    attributes.put("SALE_DATE", new GregorianCalendar(2017, 4, 9));
+    attributes.put("PARCEL_ID", 1042);
+    attributes.put("OWNER", "Esri");
+
+    final List<Entry> entries = plan.format(attributes);
+    Assert.assertEquals(2, entries.size());
+    Assert.assertEquals("Owner", entries.get(0).getField());
+    Assert.assertEquals("Esri", entries.get(0).getValue());
+    Assert.assertEquals("Sale date", entries.get(1).getField());
+    Assert.assertEquals("05-09-2017", entries.get(1).getValue());
+  }
+
+  @Test
+  public void matchesLegacyAttributeEntries() throws Exception {
+    final Map<String, Object> attributes = parcel(7);
+    attributes.put("NOTES", null);
+
+    final List<Entry> expected = legacyEntries(attributes);
+    final List<Entry> entries = FormatPlan.forAttributes(attributes.keySet()).format(attributes);
+    Assert.assertEquals(expected.size(), entries.size());
+    for (int i = 0; i < expected.size(); i++){
+      Assert.assertEquals(expected.get(i).getField(), entries.get(i).getField());
+      Assert.assertEquals(expected.get(i).getValue(), entries.get(i).getValue());
+    }
+  }
+
+  @Test
+  public void sharedPlanFormatsDatesOnManyThreads() throws Exception {
+    final FormatPlan plan = FormatPlan.forAttributes(parcel(0).keySet());
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 4; t++){
+        final int thread = t;
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override public Boolean call() {
+            for (int i = 0; i < 2000; i++){
+              final int day = 1 + (i + thread) % 28;
+              final Map<String, Object> attributes = parcel(day);
+              final String expected = String.format("03-%02d-2016", day);
+              if (!expected.equals(plan.format(attributes).get(2).getValue())){
+                return false;
+              }
+            }
+            return true;
+          }
+        }));
+      }
+      for (final Future<Boolean> result : results){
+        Assert.assertTrue(result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * The attribute extraction ContentExtractor used before the plans, without its logging
+   */
+  private static List<Entry> legacyEntries(final Map<String, Object> attrMap){
+    final SimpleDateFormat formatter = new SimpleDateFormat(FormatPlan.DATE_FORMAT);
+    final List<Entry> entries = new ArrayList<>(attrMap.size());
+    final Set<String> keys = attrMap.keySet();
+    for (final String key : keys){
+      final Object o = attrMap.get(key);
+      if (o != null){
+        final String camelCase = key.substring(0,1) + key.substring(1).toLowerCase();
+        if (o instanceof GregorianCalendar){
+          final GregorianCalendar date = (GregorianCalendar) o;
+          entries.add(new Entry(camelCase, formatter.format(date.getTime())));
+        }else{
+          entries.add(new Entry(camelCase, o.toString()));
+        }
+      }
+    }
+    return entries;
+  }
+
+  private static Map<String, Object> parcel(final int day){
+    final Map<String, Object> attributes = new LinkedHashMap<>();
+    attributes.put("PARCEL_ID", 1000 + day);
+    attributes.put("OWNER", "Owner " + day);
+    attributes.put("SALE_DATE", new GregorianCalendar(2016, 2, day));
+    attributes.put("ACRES", 0.25 * day);
+    attributes.put("ZONING", Arrays.asList("R1", "R2").get(day % 2));
+    return attributes;
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.map;
+
+import com.google.common.base.Ticker;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the {@link IdentifyPipeline} stages, streaming of layer results,
+ * the result budget, cancellation of stale taps and the latency reported per stage.
+ */
+public class IdentifyPipelineTest {
+
+  private final QueueExecutor mWorker = new QueueExecutor();
+  private final QueueExecutor mMainThread = new QueueExecutor();
+  private final List<Map<IdentifyPipeline.Stage, Long>> mLatencies = new ArrayList<>();
+  private final List<long[]> mTotals = new ArrayList<>();
+  private final List<String> mBound = new ArrayList<>();
+  private long mNanos = 0;
+  private IdentifyPipeline mPipeline;
+
+  @Before
+  public void setUp() throws Exception {
+    mPipeline = new IdentifyPipeline(mWorker, mMainThread, new Ticker() {
+      @Override public long read() {
+        return mNanos;
+      }
+    }, 5, new IdentifyPipeline.LatencyListener() {
+      @Override public void onTapCompleted(final Map<IdentifyPipeline.Stage, Long> stageMillis, final long firstMillis,
+          final long totalMillis) {
+        mLatencies.add(stageMillis);
+        mTotals.add(new long[]{firstMillis, totalMillis});
+      }
+    });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mWorker.shutdown();
+  }
+
+  @Test
+  public void runsStagesInOrderAndReportsLatency() throws Exception {
+    final IdentifyPipeline.Tap tap = mPipeline.begin();
+    mNanos = millis(10);
+    tap.identified("parcels", new UpperCase(), new Recorder());
+    Assert.assertTrue("Extraction runs on the worker", mBound.isEmpty() && mMainThread.isEmpty());
+
+    mWorker.runAll();
+    Assert.assertTrue("Binding runs on the main thread", mBound.isEmpty());
+    mNanos = millis(60);
+    mMainThread.runAll();
+
+    Assert.assertEquals("PARCELS", mBound.get(0));
+    Assert.assertEquals(1, mLatencies.size());
+    final Map<IdentifyPipeline.Stage, Long> latency = mLatencies.get(0);
+    Assert.assertEquals(10L, (long) latency.get(IdentifyPipeline.Stage.IDENTIFY));
+    Assert.assertEquals(15L, (long) latency.get(IdentifyPipeline.Stage.EXTRACT));
+    Assert.assertEquals(35L, (long) latency.get(IdentifyPipeline.Stage.BIND));
+    Assert.assertEquals(60, mTotals.get(0)[1]);
+  }
+
+  @Test
+  public void bindsEachLayerAsItCompletes() throws Exception {
+    final IdentifyPipeline.Tap tap = mPipeline.begin();
+    final boolean[] completed = new boolean[1];
+    tap.setCompletion(new Runnable() {
+      @Override public void run() {
+        completed[0] = true;
+      }
+    });
+    tap.expect(3);
+
+    mNanos = millis(10);
+    tap.identified("roads", new UpperCase(), new Recorder());
+    mWorker.runAll();
+    mNanos = millis(30);
+    mMainThread.runAll();
+    // The fast layer is shown without waiting for the others
+    Assert.assertEquals("ROADS", mBound.get(0));
+    Assert.assertFalse(completed[0]);
+
+    mNanos = millis(200);
+    tap.skipped();
+    tap.identified("parcels", new UpperCase(), new Recorder());
+    mWorker.runAll();
+    mMainThread.runAll();
+
+    Assert.assertEquals(2, mBound.size());
+    Assert.assertTrue(completed[0]);
+    Assert.assertEquals(200L, (long) mLatencies.get(0).get(IdentifyPipeline.Stage.IDENTIFY));
+    Assert.assertEquals(30, mTotals.get(0)[0]);
+    Assert.assertEquals(215, mTotals.get(0)[1]);
+  }
+
+  @Test
+  public void usedUpBudgetCancelsRunningIdentifies() throws Exception {
+    final IdentifyPipeline.Tap tap = mPipeline.begin();
+    final FutureTask<String> slowLayer = new FutureTask<>(new Runnable() {
+      @Override public void run() {}
+    }, null);
+    tap.addIdentifyFuture(slowLayer);
+
+    Assert.assertEquals(3, tap.claim(3));
+    Assert.assertFalse(slowLayer.isCancelled());
+    tap.refund(1);
+    Assert.assertEquals(3, tap.claim(4));
+    Assert.assertTrue(slowLayer.isCancelled());
+    Assert.assertEquals(0, tap.claim(1));
+  }
+
+  @Test
+  public void identifyAddedAfterBudgetIsUsedUpIsCancelled() throws Exception {
+    final IdentifyPipeline.Tap tap = mPipeline.begin();
+    // Layers answered from an index claim the whole budget before the others are identified
+    Assert.assertEquals(5, tap.claim(5));
+    final FutureTask<String> lateLayer = new FutureTask<>(new Runnable() {
+      @Override public void run() {}
+    }, null);
+    tap.addIdentifyFuture(lateLayer);
+    Assert.assertTrue(lateLayer.isCancelled());
+  }
+
+  @Test
+  public void newTapCancelsStaleTap() throws Exception {
+    final IdentifyPipeline.Tap stale = mPipeline.begin();
+    final FutureTask<String> identify = new FutureTask<>(new Runnable() {
+      @Override public void run() {}
+    }, null);
+    stale.addIdentifyFuture(identify);
+    stale.identified("roads", new UpperCase(), new Recorder());
+
+    final IdentifyPipeline.Tap current = mPipeline.begin();
+    Assert.assertTrue(stale.isCancelled());
+    Assert.assertTrue(identify.isCancelled());
+    Assert.assertFalse(current.isCancelled());
+    current.identified("parcels", new UpperCase(), new Recorder());
+    mWorker.runAll();
+    mNanos = millis(60);
+    mMainThread.runAll();
+
+    Assert.assertEquals(1, mBound.size());
+    Assert.assertEquals("PARCELS", mBound.get(0));
+    Assert.assertEquals(1, mPipeline.getCancelledCount());
+
+    // Late results of the stale tap are ignored
+    stale.identified("roads", new UpperCase(), new Recorder());
+    Assert.assertTrue(mWorker.isEmpty());
+  }
+
+  @Test
+  public void tapCancelledDuringExtractionIsNotBound() throws Exception {
+    final IdentifyPipeline.Tap tap = mPipeline.begin();
+    tap.identified("roads", new UpperCase(), new Recorder());
+    mWorker.runAll();
+    mPipeline.cancel();
+    mMainThread.runAll();
+
+    Assert.assertTrue(mBound.isEmpty());
+    Assert.assertTrue(mLatencies.isEmpty());
+  }
+
+  @Test
+  public void extractionErrorIsDeliveredOnMainThread() throws Exception {
+    final Recorder recorder = new Recorder();
+    mPipeline.begin().identified("roads", new IdentifyPipeline.Extractor<String, String>() {
+      @Override public String extract(final String results) throws Exception {
+        throw new IllegalStateException("No popup definition");
+      }
+    }, recorder);
+    mWorker.runAll();
+    Assert.assertNull(recorder.mError);
+    mMainThread.runAll();
+
+    Assert.assertNotNull(recorder.mError);
+    // The failed layer is done, nothing was bound
+    Assert.assertEquals(1, mLatencies.size());
+    Assert.assertNull(mLatencies.get(0).get(IdentifyPipeline.Stage.BIND));
+    // A tap that failed isn't counted as cancelled by the next one
+    mPipeline.begin();
+    Assert.assertEquals(0, mPipeline.getCancelledCount());
+  }
+
+  private long millis(final long millis){
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  private final class UpperCase implements IdentifyPipeline.Extractor<String, String> {
+    @Override public String extract(final String results) {
+      mNanos = mNanos + millis(15);
+      return results.toUpperCase();
+    }
+  }
+
+  private final class Recorder implements IdentifyPipeline.Binder<String> {
+    private Throwable mError;
+
+    @Override public void bind(final String content) {
+      mBound.add(content);
+    }
+
+    @Override public void onError(final Throwable error) {
+      mError = error;
+    }
+  }
+
+  /**
+   * Runs its tasks when told to, on the calling thread
+   */
+  private static final class QueueExecutor extends AbstractExecutorService {
+    private final LinkedList<Runnable> mTasks = new LinkedList<>();
+    private boolean mShutdown = false;
+
+    @Override public void execute(final Runnable command) {
+      mTasks.add(command);
+    }
+
+    void runAll(){
+      while (!mTasks.isEmpty()){
+        mTasks.removeFirst().run();
+      }
+    }
+
+    boolean isEmpty(){
+      return mTasks.isEmpty();
+    }
+
+    @Override public void shutdown() {
+      mShutdown = true;
+    }
+
+    @Override public List<Runnable> shutdownNow() {
+      mShutdown = true;
+      return new ArrayList<>(mTasks);
+    }
+
+    @Override public boolean isShutdown() {
+      return mShutdown;
+    }
+
+    @Override public boolean isTerminated() {
+      return mShutdown;
+    }
+
+    @Override public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the {@link LegendCache} sharing of fetches between binds and prefetching.
+ */
+public class LegendCacheTest {
+
+  private final List<String> mRequested = new ArrayList<>();
+  private final List<LegendCache.Callback<String>> mPending = new ArrayList<>();
+  private LegendCache<String, String> mCache;
+
+  @Before
+  public void setUp() throws Exception {
+    mCache = new LegendCache<>(new LegendCache.Fetcher<String, String>() {
+      @Override public void fetch(final String layer, final LegendCache.Callback<String> callback) {
+        mRequested.add(layer);
+        mPending.add(callback);
+      }
+    });
+  }
+
+  @Test
+  public void fetchesEachLayerOnce() throws Exception {
+    final Recorder first = new Recorder();
+    final Recorder second = new Recorder();
+    mCache.get("roads", first);
+    mCache.get("roads", second);
+    Assert.assertEquals(1, mPending.size());
+    mPending.get(0).onLegend("roads legend");
+    Assert.assertEquals("roads legend", first.mLegend);
+    Assert.assertEquals("roads legend", second.mLegend);
+
+    // Rebinding the row is served before get returns
+    final Recorder rebound = new Recorder();
+    mCache.get("roads", rebound);
+    Assert.assertEquals("roads legend", rebound.mLegend);
+    Assert.assertEquals(1, mCache.getFetchCount());
+  }
+
+  @Test
+  public void prefetchedLegendIsReadyWhenShown() throws Exception {
+    mCache.prefetch(Arrays.asList("roads", "parcels"));
+    Assert.assertEquals(Arrays.asList("roads", "parcels"), mRequested);
+    mPending.get(1).onLegend("parcels legend");
+
+    final Recorder shown = new Recorder();
+    mCache.get("parcels", shown);
+    Assert.assertEquals("parcels legend", shown.mLegend);
+    Assert.assertEquals(2, mCache.getFetchCount());
+  }
+
+  @Test
+  public void failedFetchIsRetried() throws Exception {
+    final Recorder failed = new Recorder();
+    mCache.get("roads", failed);
+    mPending.get(0).onFailed(new Exception("offline"));
+    Assert.assertNotNull(failed.mError);
+    Assert.assertNull(mCache.getIfPresent("roads"));
+
+    mCache.get("roads", new Recorder());
+    Assert.assertEquals(2, mCache.getFetchCount());
+  }
+
+  @Test
+  public void clearDropsLegendsOfPreviousMap() throws Exception {
+    final Recorder waiting = new Recorder();
+    mCache.get("roads", waiting);
+    mCache.clear();
+    mPending.get(0).onLegend("roads legend");
+    Assert.assertNull(waiting.mLegend);
+    Assert.assertNull(mCache.getIfPresent("roads"));
+  }
+
+  @Test
+  public void droppedFetchDoesNotCompleteLaterFetch() throws Exception {
+    mCache.get("roads", new Recorder());
+    mCache.retainAll(Arrays.asList("parcels"));
+    final Recorder current = new Recorder();
+    mCache.get("roads", current);
+    Assert.assertEquals(2, mPending.size());
+
+    // The dropped fetch may have been for an older version of the layer
+    mPending.get(0).onLegend("stale legend");
+    Assert.assertNull(current.mLegend);
+    Assert.assertNull(mCache.getIfPresent("roads"));
+
+    mPending.get(1).onLegend("roads legend");
+    Assert.assertEquals("roads legend", current.mLegend);
+    Assert.assertEquals("roads legend", mCache.getIfPresent("roads"));
+  }
+
+  private static final class Recorder implements LegendCache.Callback<String> {
+    private String mLegend;
+    private Throwable mError;
+
+    @Override public void onLegend(final String legend) {
+      mLegend = legend;
+    }
+
+    @Override public void onFailed(final Throwable error) {
+      mError = error;
+    }
+  }
+}
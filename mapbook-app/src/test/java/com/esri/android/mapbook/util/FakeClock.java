@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.util;
+
+/**
+ * A {@link Clock} that only moves when a test advances it.
+ */
+public final class FakeClock implements Clock {
+
+  private long mMillis;
+
+  /**
+   * @param millis - long, the time the clock starts at
+   */
+  public FakeClock(final long millis){
+    mMillis = millis;
+  }
+
+  /**
+   * Move the clock, backwards too when negative
+   * @param millis - long
+   */
+  public void advance(final long millis){
+    mMillis = mMillis + millis;
+  }
+
+  @Override public long currentTimeMillis() {
+    return mMillis;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.util;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the {@link PrefetchWindow} positions and the order they're reported in.
+ */
+public class PrefetchWindowTest {
+
+  private final List<Integer> mEntered = new ArrayList<>();
+  private final List<Integer> mExited = new ArrayList<>();
+  private PrefetchWindow mWindow;
+
+  @Before
+  public void setUp() throws Exception {
+    mWindow = new PrefetchWindow(2, new PrefetchWindow.Listener() {
+      @Override public void onEnter(final int position) {
+        mEntered.add(position);
+      }
+
+      @Override public void onExit(final int position) {
+        mExited.add(position);
+      }
+    });
+  }
+
+  @Test
+  public void entersVisiblePositionsBeforeLookahead() throws Exception {
+    mWindow.update(3, 4, 20);
+    Assert.assertEquals(Arrays.asList(3, 4, 5, 2, 6, 1), mEntered);
+    Assert.assertTrue(mWindow.contains(6));
+    Assert.assertFalse(mWindow.contains(7));
+  }
+
+  @Test
+  public void clampsToListBounds() throws Exception {
+    mWindow.update(0, 1, 3);
+    Assert.assertEquals(Arrays.asList(0, 1, 2), mEntered);
+  }
+
+  @Test
+  public void scrollingReportsOnlyChangedPositions() throws Exception {
+    mWindow.update(3, 4, 20);
+    mEntered.clear();
+    mWindow.update(5, 6, 20);
+    Assert.assertEquals(Arrays.asList(1, 2), mExited);
+    Assert.assertEquals(Arrays.asList(7, 8), mEntered);
+
+    // Scrolling back
+    mEntered.clear();
+    mExited.clear();
+    mWindow.update(3, 4, 20);
+    Assert.assertEquals(Arrays.asList(7, 8), mExited);
+    Assert.assertEquals(Arrays.asList(2, 1), mEntered);
+  }
+
+  @Test
+  public void clearExitsEveryPosition() throws Exception {
+    mWindow.update(0, 0, 20);
+    mWindow.clear();
+    Assert.assertEquals(Arrays.asList(0, 1, 2), mExited);
+    Assert.assertFalse(mWindow.contains(0));
+
+    // Nothing visible yet, e.g. before the first layout
+    mEntered.clear();
+    mWindow.update(-1, -1, 20);
+    Assert.assertTrue(mEntered.isEmpty());
+  }
+}
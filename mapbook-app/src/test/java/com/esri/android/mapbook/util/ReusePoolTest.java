@@ -0,0 +1,90 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.util;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ReusePool} choice of object to reuse and its size bound.
+ */
+public class ReusePoolTest {
+
+  private ReusePool<byte[]> mPool;
+
+  @Before
+  public void setUp() throws Exception {
+    mPool = new ReusePool<>(100, new ReusePool.Sizer<byte[]>() {
+      @Override public int sizeOf(final byte[] item) {
+        return item.length;
+      }
+    });
+  }
+
+  @Test
+  public void takesSmallestItemThatFits() throws Exception {
+    final byte[] large = new byte[60];
+    final byte[] medium = new byte[30];
+    final byte[] small = new byte[10];
+    mPool.put(large);
+    mPool.put(medium);
+    mPool.put(small);
+
+    Assert.assertSame(medium, mPool.take(20));
+    Assert.assertSame(large, mPool.take(20));
+    Assert.assertNull(mPool.take(20));
+    Assert.assertEquals(10, mPool.getSizeBytes());
+    Assert.assertEquals(2, mPool.getReuseCount());
+    Assert.assertEquals(1, mPool.getMissCount());
+  }
+
+  @Test
+  public void dropsOldestItemsBeyondMaxSize() throws Exception {
+    final byte[] first = new byte[50];
+    final byte[] second = new byte[40];
+    final byte[] third = new byte[30];
+    mPool.put(first);
+    mPool.put(second);
+    mPool.put(third);
+
+    Assert.assertEquals(70, mPool.getSizeBytes());
+    Assert.assertNull(mPool.take(45));
+    Assert.assertSame(second, mPool.take(35));
+  }
+
+  @Test
+  public void rejectsItemLargerThanPool() throws Exception {
+    final byte[] kept = new byte[20];
+    mPool.put(kept);
+
+    Assert.assertFalse(mPool.put(new byte[101]));
+    Assert.assertEquals(20, mPool.getSizeBytes());
+    mPool.clear();
+    Assert.assertEquals(0, mPool.getSizeBytes());
+    Assert.assertNull(mPool.take(1));
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+package com.esri.android.mapbook.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests for the {@link StableIds} assigned to list items.
+ */
+public class StableIdsTest {
+
+  @Test
+  public void idStaysWithItem() throws Exception {
+    final StableIds<String> ids = new StableIds<>();
+    final String roads = new String("layer");
+    final String parcels = new String("layer");
+    final long roadsId = ids.getId(roads);
+    final long parcelsId = ids.getId(parcels);
+
+    // Equal items are still different rows
+    Assert.assertNotEquals(roadsId, parcelsId);
+    Assert.assertEquals(roadsId, ids.getId(roads));
+    Assert.assertEquals(parcelsId, ids.getId(parcels));
+  }
+
+  @Test
+  public void retainAllForgetsRemovedItems() throws Exception {
+    final StableIds<Object> ids = new StableIds<>();
+    final Object kept = new Object();
+    final Object removed = new Object();
+    final long keptId = ids.getId(kept);
+    final long removedId = ids.getId(removed);
+
+    ids.retainAll(Collections.singletonList(kept));
+    Assert.assertEquals(1, ids.size());
+    Assert.assertEquals(keptId, ids.getId(kept));
+    // An item added back is a new row
+    Assert.assertNotEquals(removedId, ids.getId(removed));
+  }
+
+  @Test
+  public void idsAreNotReused() throws Exception {
+    final StableIds<Object> ids = new StableIds<>();
+    final Object first = new Object();
+    final long firstId = ids.getId(first);
+    ids.retainAll(Collections.emptyList());
+
+    final Object second = new Object();
+    Assert.assertNotEquals(firstId, ids.getId(second));
+    ids.retainAll(Arrays.asList(second, first));
+    Assert.assertEquals(1, ids.size());
+  }
+}
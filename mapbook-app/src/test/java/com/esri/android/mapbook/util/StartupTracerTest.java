@@ -0,0 +1,141 @@
+/*
+ *  Copyright 2017 Esri
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *  *
+ *  * For additional information, contact:
+ *  * Environmental Systems Research Institute, Inc.
+ *  * Attn: Contracts Dept
+ *  * 380 New York Street
+ *  * Redlands, California, USA 92373
+ *  *
+ *  * email: contracts@esri.com
+ *  *
+ *
+ */
+
+package com.esri.android.mapbook.util;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the {@link StartupTracer} phase recording, budgets and trace file.
+ */
+public class StartupTracerTest {
+
+  private FakeTicker mTicker;
+  private StartupTracer mTracer;
+  private File mTraceFile;
+
+  @Before
+  public void setUp() throws Exception {
+    mTicker = new FakeTicker();
+    mTracer = new StartupTracer(mTicker, new Clock() {
+      @Override public long currentTimeMillis() {
+        return 1496275200000L;
+      }
+    });
+    mTraceFile = File.createTempFile("startup", ".txt");
+    Assert.assertTrue(mTraceFile.delete());
+    mTracer.setTraceFile(mTraceFile, MoreExecutors.directExecutor());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    mTraceFile.delete();
+  }
+
+  @Test
+  public void keepsFirstOccurrenceOfPhase() throws Exception {
+    mTicker.advance(120);
+    mTracer.mark(StartupTracer.Phase.APPLICATION_CREATED);
+    mTicker.advance(500);
+    mTracer.mark(StartupTracer.Phase.APPLICATION_CREATED);
+    Assert.assertEquals(120, mTracer.getElapsedMillis(StartupTracer.Phase.APPLICATION_CREATED));
+    Assert.assertEquals(StartupTracer.UNKNOWN, mTracer.getElapsedMillis(StartupTracer.Phase.MMPK_OPENED));
+    Assert.assertFalse(mTracer.isFinished());
+  }
+
+  @Test
+  public void measuresBudgetFromPreviousRecordedPhase() throws Exception {
+    mTicker.advance(100);
+    mTracer.mark(StartupTracer.Phase.APPLICATION_CREATED);
+    // No permission check recorded, the graph is measured from the application
+    mTicker.advance(StartupTracer.Phase.GRAPH_BUILT.getBudgetMillis() + 1);
+    mTracer.mark(StartupTracer.Phase.GRAPH_BUILT);
+    mTicker.advance(StartupTracer.Phase.MMPK_OPENED.getBudgetMillis());
+    mTracer.mark(StartupTracer.Phase.MMPK_OPENED);
+    Assert.assertEquals(Collections.singletonList(StartupTracer.Phase.GRAPH_BUILT), mTracer.getOverBudget());
+  }
+
+  @Test
+  public void writesRunOnFirstThumbnail() throws Exception {
+    for (final StartupTracer.Phase phase : StartupTracer.Phase.values()){
+      mTicker.advance(50);
+      mTracer.mark(phase);
+    }
+    Assert.assertTrue(mTracer.isFinished());
+    final List<String> runs = StartupTracer.readRuns(mTraceFile);
+    Assert.assertEquals(Collections.singletonList("1496275200000 APPLICATION_CREATED=50 PERMISSION_CHECKED=100 "
+        + "GRAPH_BUILT=150 MMPK_OPENED=200 FIRST_THUMBNAIL=250"), runs);
+
+    final Map<StartupTracer.Phase, Long> parsed = StartupTracer.parseRun(runs.get(0));
+    Assert.assertEquals(Long.valueOf(250), parsed.get(StartupTracer.Phase.FIRST_THUMBNAIL));
+    Assert.assertTrue(StartupTracer.getOverBudget(parsed).isEmpty());
+  }
+
+  @Test
+  public void cancelledRunIsNotWritten() throws Exception {
+    mTracer.mark(StartupTracer.Phase.APPLICATION_CREATED);
+    mTracer.cancel();
+    mTracer.mark(StartupTracer.Phase.FIRST_THUMBNAIL);
+    Assert.assertEquals(StartupTracer.UNKNOWN, mTracer.getElapsedMillis(StartupTracer.Phase.FIRST_THUMBNAIL));
+    Assert.assertFalse(mTraceFile.exists());
+  }
+
+  @Test
+  public void keepsMostRecentRuns() throws Exception {
+    for (int i = 0; i < StartupTracer.MAX_RUNS + 5; i++){
+      StartupTracer.appendRun(mTraceFile, i + " FIRST_THUMBNAIL=" + i);
+    }
+    final List<String> runs = StartupTracer.readRuns(mTraceFile);
+    Assert.assertEquals(StartupTracer.MAX_RUNS, runs.size());
+    Assert.assertEquals("5 FIRST_THUMBNAIL=5", runs.get(0));
+    Assert.assertEquals(Arrays.asList(StartupTracer.Phase.FIRST_THUMBNAIL),
+        StartupTracer.getOverBudget(StartupTracer.parseRun("0 FIRST_THUMBNAIL=5000 UNKNOWN_PHASE=1")));
+  }
+
+  private static final class FakeTicker extends Ticker {
+    private long mNanos = 0;
+
+    @Override public long read() {
+      return mNanos;
+    }
+
+    void advance(final long millis){
+      mNanos = mNanos + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+}